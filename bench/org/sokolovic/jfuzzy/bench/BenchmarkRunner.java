@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.regex.Pattern;
+
+/**
+ * Class implements a small benchmark harness. Each benchmark repeatedly runs an {@code Operation}, first
+ * for a warm-up period and then for a number of measurement iterations, and reports the throughput in
+ * operations per second, the latency percentiles and the number of bytes allocated per operation.
+ * <p>
+ * The operations are timed in batches long enough for the timer resolution not to matter, so the latency
+ * of a sample is the mean latency of the operations of its batch. Results can be written to a CSV file
+ * and compared against the results of an earlier run.
+ *
+ * @author sokolovic
+ */
+public class BenchmarkRunner {
+
+    /**
+     * An operation measured by a benchmark.
+     */
+    public interface Operation {
+
+        /**
+         * Runs the operation once.
+         * @return Any result of the operation, consumed so the operation is not optimized away.
+         */
+        double run();
+
+    }
+
+    /**
+     * A factory of operations, used to give each thread of a multi-threaded benchmark its own operation.
+     */
+    public interface OperationFactory {
+
+        /**
+         * Creates a new operation.
+         * @return New operation.
+         */
+        Operation create();
+
+    }
+
+    /**
+     * Number of nanoseconds a timed batch of operations should take at least.
+     */
+    protected static final long BATCH_NANOS = 20000;
+
+    /**
+     * Maximum number of latency samples kept per benchmark.
+     */
+    protected static final int MAX_SAMPLES = 1 << 16;
+
+    /**
+     * Duration of the warm-up period in milliseconds.
+     */
+    protected long warmupMillis;
+
+    /**
+     * Duration of a measurement iteration in milliseconds.
+     */
+    protected long iterationMillis;
+
+    /**
+     * Number of measurement iterations.
+     */
+    protected int iterations;
+
+    /**
+     * Only the benchmarks with a name matching the filter are run.
+     */
+    protected Pattern filter;
+
+    /**
+     * Throughputs of an earlier run keyed by the benchmark names.
+     */
+    protected Map<String, Double> baseline;
+
+    /**
+     * Writer of the CSV results, or {@code null}.
+     */
+    protected PrintWriter output;
+
+    /**
+     * Sink of the operation results.
+     */
+    protected volatile double sink;
+
+    /**
+     * Constructor to initialize the runner with the given settings.
+     * @param warmupMillis Duration of the warm-up period in milliseconds.
+     * @param iterationMillis Duration of a measurement iteration in milliseconds.
+     * @param iterations Number of measurement iterations.
+     * @param filter Regular expression the names of the benchmarks to run must contain.
+     */
+    public BenchmarkRunner(long warmupMillis, long iterationMillis, int iterations, String filter) {
+        this.warmupMillis = warmupMillis;
+        this.iterationMillis = iterationMillis;
+        this.iterations = iterations;
+        this.filter = Pattern.compile(filter);
+        this.baseline = new HashMap<String, Double>();
+    }
+
+    /**
+     * Method loads the results of an earlier run to compare the throughputs against.
+     * @param file CSV file written by an earlier run.
+     * @throws IOException If the file cannot be read.
+     */
+    public void loadBaseline(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                baseline.put(fields[0], Double.parseDouble(fields[1]));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Method starts writing the results to the given CSV file.
+     * @param file File to write the results to.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeResults(File file) throws IOException {
+        output = new PrintWriter(new FileWriter(file));
+        output.println("benchmark,ops/s,p50 ns,p90 ns,p99 ns,p99.9 ns,B/op");
+    }
+
+    /**
+     * Method prints the header of the result table.
+     */
+    public void printHeader() {
+        System.out.printf("%-44s %14s %10s %10s %10s %10s %10s %9s%n",
+                "Benchmark", "ops/s", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "B/op", "baseline");
+    }
+
+    /**
+     * Method finishes the run, closing the CSV file if any.
+     */
+    public void close() {
+        if (output != null) {
+            output.close();
+        }
+    }
+
+    /**
+     * Method checks whether the benchmark with the given name is selected by the filter.
+     * @param name Name of the benchmark.
+     * @return {@code true} if the benchmark should be run.
+     */
+    public boolean accepts(String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Method runs a single-threaded benchmark.
+     * @param name Name of the benchmark.
+     * @param operation Operation to measure.
+     */
+    public void run(String name, Operation operation) {
+        if (!accepts(name)) {
+            return;
+        }
+
+        Measurement measurement = new Measurement(operation);
+        measurement.warmup();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            measurement.measure(iterationMillis);
+        }
+        report(name, measurement.operations, System.nanoTime() - start, measurement.allocatedBytes,
+                measurement.samples, measurement.sampleCount);
+    }
+
+    /**
+     * Method runs a multi-threaded benchmark. Each thread measures its own operation, created by the
+     * given factory, and all the threads are measured over the same period.
+     * @param name Name of the benchmark.
+     * @param threads Number of threads.
+     * @param factory Factory of the operations.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    public void run(String name, int threads, final OperationFactory factory) throws InterruptedException {
+        if (!accepts(name)) {
+            return;
+        }
+
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final Measurement[] measurements = new Measurement[threads];
+        final long[] elapsed = new long[threads];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Measurement measurement = new Measurement(factory.create());
+                        measurement.warmup();
+                        barrier.await();
+                        long start = System.nanoTime();
+                        measurement.measure(iterations * iterationMillis);
+                        elapsed[index] = System.nanoTime() - start;
+                        measurements[index] = measurement;
+                    }
+                    catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        long operations = 0;
+        long allocatedBytes = 0;
+        long nanos = 0;
+        double[] samples = new double[0];
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            Measurement measurement = measurements[t];
+            operations += measurement.operations;
+            allocatedBytes += measurement.allocatedBytes;
+            nanos = Math.max(nanos, elapsed[t]);
+            int offset = samples.length;
+            samples = Arrays.copyOf(samples, offset + measurement.sampleCount);
+            System.arraycopy(measurement.samples, 0, samples, offset, measurement.sampleCount);
+        }
+        report(name, operations, nanos, allocatedBytes, samples, samples.length);
+    }
+
+    /**
+     * Method prints and records the result of a benchmark.
+     * @param name Name of the benchmark.
+     * @param operations Number of measured operations.
+     * @param nanos Duration of the measurement in nanoseconds.
+     * @param allocatedBytes Number of bytes allocated during the measurement.
+     * @param samples Latency samples in nanoseconds.
+     * @param sampleCount Number of the samples.
+     */
+    protected void report(String name, long operations, long nanos, long allocatedBytes,
+                          double[] samples, int sampleCount) {
+        double throughput = operations * 1e9 / nanos;
+        double[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        double p50 = percentile(sorted, 0.50);
+        double p90 = percentile(sorted, 0.90);
+        double p99 = percentile(sorted, 0.99);
+        double p999 = percentile(sorted, 0.999);
+        double bytesPerOperation = allocatedBytes < 0 ? Double.NaN : (double) allocatedBytes / operations;
+
+        String comparison = "";
+        Double previous = baseline.get(name);
+        if (previous != null) {
+            comparison = String.format("%+8.1f%%", (throughput / previous - 1.0) * 100.0);
+        }
+
+        System.out.printf("%-44s %14.1f %10.0f %10.0f %10.0f %10.0f %10.1f %9s%n",
+                name, throughput, p50, p90, p99, p999, bytesPerOperation, comparison);
+        if (output != null) {
+            output.printf(Locale.ROOT, "%s,%.3f,%.1f,%.1f,%.1f,%.1f,%.2f%n",
+                    name, throughput, p50, p90, p99, p999, bytesPerOperation);
+            output.flush();
+        }
+    }
+
+    /**
+     * Method returns the given percentile of the sorted samples.
+     * @param sorted Sorted samples.
+     * @param fraction Percentile as a fraction.
+     * @return Value of the percentile.
+     */
+    protected static double percentile(double[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    /**
+     * Method returns the number of bytes allocated so far by the current thread.
+     * @return Number of allocated bytes, or -1 if the JVM does not support the measurement.
+     */
+    protected static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Class holds the measurement of a single operation on a single thread.
+     */
+    protected class Measurement {
+
+        /**
+         * The measured operation.
+         */
+        protected final Operation operation;
+
+        /**
+         * Number of operations timed together.
+         */
+        protected int batch;
+
+        /**
+         * Number of measured operations.
+         */
+        protected long operations;
+
+        /**
+         * Number of bytes allocated by the measured operations, or -1 if unsupported.
+         */
+        protected long allocatedBytes;
+
+        /**
+         * Latency samples in nanoseconds.
+         */
+        protected final double[] samples;
+
+        /**
+         * Number of the samples.
+         */
+        protected int sampleCount;
+
+        /**
+         * Number of batches seen, used to sample the latencies uniformly.
+         */
+        protected long batches;
+
+        /**
+         * Random number generator of the latency sampling.
+         */
+        protected final Random random;
+
+        /**
+         * Constructor to initialize the measurement of the given operation.
+         * @param operation Operation to measure.
+         */
+        protected Measurement(Operation operation) {
+            this.operation = operation;
+            this.batch = 1;
+            this.samples = new double[MAX_SAMPLES];
+            this.random = new Random(0);
+        }
+
+        /**
+         * Method runs the operation for the warm-up period, growing the batch until it takes long
+         * enough to be timed reliably.
+         */
+        protected void warmup() {
+            long deadline = System.nanoTime() + warmupMillis * 1000000L;
+
+            do {
+                long nanos = runBatch();
+                if (nanos < BATCH_NANOS && batch < (1 << 20)) {
+                    batch *= 2;
+                }
+            } while (System.nanoTime() < deadline);
+        }
+
+        /**
+         * Method measures the operation for the given period.
+         * @param millis Duration of the measurement in milliseconds.
+         */
+        protected void measure(long millis) {
+            long bytes = allocatedBytes();
+            long deadline = System.nanoTime() + millis * 1000000L;
+
+            do {
+                double latency = (double) runBatch() / batch;
+                operations += batch;
+                batches++;
+                // Reservoir sampling keeps a uniform sample of the batch latencies
+                if (sampleCount < samples.length) {
+                    samples[sampleCount++] = latency;
+                }
+                else {
+                    long index = (long) (random.nextDouble() * batches);
+                    if (index < samples.length) {
+                        samples[(int) index] = latency;
+                    }
+                }
+            } while (System.nanoTime() < deadline);
+
+            long after = allocatedBytes();
+            // Reading the counter allocates as well, which is not charged to the operation
+            long overhead = allocatedBytes() - after;
+            allocatedBytes = bytes < 0 || allocatedBytes < 0 ? -1 : allocatedBytes + after - bytes - overhead;
+        }
+
+        /**
+         * Method runs a batch of operations.
+         * @return Duration of the batch in nanoseconds.
+         */
+        protected long runBatch() {
+            double result = 0.0;
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                result += operation.run();
+            }
+            long nanos = System.nanoTime() - start;
+            sink = result;
+
+            return nanos;
+        }
+    }
+
+}
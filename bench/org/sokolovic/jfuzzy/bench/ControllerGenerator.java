@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.bench;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.set.eFuzzySet;
+import org.sokolovic.jfuzzy.sugeno.SugenoController;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class generates synthetic fuzzy controllers for the benchmarks. Every variable is a uniform partition
+ * of the range [0, 100] into a left shoulder, a number of triangles and a right shoulder. The rules are
+ * generated from a fixed seed so every run measures the same rule base: most antecedents are conjunctions
+ * of two or three input sets, some of them hedged or negated, with the occasional disjunction.
+ *
+ * @author sokolovic
+ */
+public class ControllerGenerator {
+
+    /**
+     * Upper bound of the range of the generated variables.
+     */
+    public static final double RANGE = 100.0;
+
+    /**
+     * Random number generator of the rule base.
+     */
+    protected Random random;
+
+    /**
+     * Proxies of the input variables' sets.
+     */
+    protected List<List<ProxyFuzzySet>> inputSets;
+
+    /**
+     * Proxies of the output variables' sets.
+     */
+    protected List<List<ProxyFuzzySet>> outputSets;
+
+    /**
+     * The controller being generated.
+     */
+    protected FuzzyController controller;
+
+    /**
+     * Method generates a controller with the given shape.
+     * @param inputs Number of input variables, named {@code in0}, {@code in1}, ...
+     * @param outputs Number of output variables, named {@code out0}, {@code out1}, ...
+     * @param sets Number of sets of each variable, at least two.
+     * @param rules Number of rules.
+     * @param seed Seed of the rule base.
+     * @return Generated controller.
+     */
+    public static FuzzyController generate(int inputs, int outputs, int sets, int rules, long seed) {
+        return new ControllerGenerator(seed).build(inputs, outputs, sets, rules);
+    }
+
+    /**
+     * Method generates a Takagi-Sugeno-Kang controller with the same antecedents as the controller
+     * {@code generate()} generates with the same arguments. The consequent of each rule is the peak of
+     * the output set the other controller's rule has as its consequent, plus small coefficients of the
+     * inputs if the consequents are linear.
+     * @param inputs Number of input variables, named {@code in0}, {@code in1}, ...
+     * @param outputs Number of outputs, named {@code out0}, {@code out1}, ...
+     * @param sets Number of sets of each variable, at least two.
+     * @param rules Number of rules.
+     * @param seed Seed of the rule base.
+     * @param linear Whether the consequents are linear functions of the inputs instead of constants.
+     * @return Generated controller.
+     */
+    public static SugenoController generateSugeno(int inputs, int outputs, int sets, int rules, long seed,
+                                                  boolean linear) {
+        return new ControllerGenerator(seed).buildSugeno(inputs, outputs, sets, rules,
+                linear ? new Random(~seed) : null);
+    }
+
+    /**
+     * Method generates a variable with the given number of sets, partitioning the range uniformly.
+     * @param variable Variable to add the sets to.
+     * @param sets Number of sets, at least two.
+     * @return Proxies of the added sets.
+     */
+    public static List<ProxyFuzzySet> partition(FuzzyVariable variable, int sets) {
+        List<ProxyFuzzySet> proxies = new ArrayList<ProxyFuzzySet>();
+        double step = RANGE / (sets - 1);
+
+        for (int i = 0; i < sets; i++) {
+            double peak = i * step;
+            eFuzzySet type = i == 0 ? eFuzzySet.LEFT_SHOULDER
+                    : i == sets - 1 ? eFuzzySet.RIGHT_SHOULDER : eFuzzySet.TRIANGULAR;
+
+            proxies.add(variable.addFuzzySet("set" + i, type, peak - step, peak, peak + step));
+        }
+        return proxies;
+    }
+
+    /**
+     * Method generates the given number of input values spread over the range of the variables.
+     * @param count Number of values.
+     * @param seed Seed of the values.
+     * @return Generated values.
+     */
+    public static double[] values(int count, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextDouble() * RANGE;
+        }
+        return values;
+    }
+
+    /**
+     * Constructor to initialize the generator with the given seed.
+     * @param seed Seed of the rule base.
+     */
+    protected ControllerGenerator(long seed) {
+        this.random = new Random(seed);
+        this.inputSets = new ArrayList<List<ProxyFuzzySet>>();
+        this.outputSets = new ArrayList<List<ProxyFuzzySet>>();
+        this.controller = new FuzzyController();
+    }
+
+    /**
+     * Method builds the controller.
+     * @param inputs Number of input variables.
+     * @param outputs Number of output variables.
+     * @param sets Number of sets of each variable.
+     * @param rules Number of rules.
+     * @return Generated controller.
+     */
+    protected FuzzyController build(int inputs, int outputs, int sets, int rules) {
+        for (int i = 0; i < inputs; i++) {
+            inputSets.add(partition(controller.createFLV("in" + i), sets));
+        }
+        for (int i = 0; i < outputs; i++) {
+            outputSets.add(partition(controller.createFLV("out" + i), sets));
+        }
+        for (int i = 0; i < rules; i++) {
+            List<ProxyFuzzySet> output = outputSets.get(random.nextInt(outputs));
+
+            controller.addRule(antecedent(), output.get(random.nextInt(output.size())));
+        }
+        return controller;
+    }
+
+    /**
+     * Method builds the Takagi-Sugeno-Kang controller, drawing the same random numbers as
+     * {@code build()} for the antecedents.
+     * @param inputs Number of input variables.
+     * @param outputs Number of outputs.
+     * @param sets Number of sets of each variable.
+     * @param rules Number of rules.
+     * @param coefficients Random number generator of the coefficients of linear consequents, or
+     *                     {@code null} for constant consequents.
+     * @return Generated controller.
+     */
+    protected SugenoController buildSugeno(int inputs, int outputs, int sets, int rules, Random coefficients) {
+        SugenoController sugeno = new SugenoController();
+
+        for (int i = 0; i < inputs; i++) {
+            inputSets.add(partition(sugeno.createFLV("in" + i), sets));
+        }
+        for (int i = 0; i < outputs; i++) {
+            sugeno.createOutput("out" + i);
+        }
+        for (int i = 0; i < rules; i++) {
+            String output = "out" + random.nextInt(outputs);
+            FuzzyTerm antecedent = antecedent();
+            double peak = random.nextInt(sets) * RANGE / (sets - 1);
+
+            double[] linear = new double[coefficients == null ? 0 : inputs];
+            for (int j = 0; j < linear.length; j++) {
+                linear[j] = coefficients.nextDouble() * 0.2 - 0.1;
+            }
+            sugeno.addRule(antecedent, output, peak, linear);
+        }
+        return sugeno;
+    }
+
+    /**
+     * Method generates the antecedent of a rule.
+     * @return Generated antecedent.
+     */
+    protected FuzzyTerm antecedent() {
+        int kind = random.nextInt(10);
+
+        // A disjunction of two conjunctions
+        if (kind == 0) {
+            FuzzyOr or = new FuzzyOr();
+            or.addTerm(conjunction(2));
+            or.addTerm(conjunction(2));
+            return or;
+        }
+        // A single, possibly hedged, set
+        if (kind == 1) {
+            return hedged(inputSet());
+        }
+        return conjunction(2 + random.nextInt(2));
+    }
+
+    /**
+     * Method generates a conjunction of the given number of hedged input sets.
+     * @param terms Number of terms.
+     * @return Generated conjunction.
+     */
+    protected FuzzyTerm conjunction(int terms) {
+        FuzzyAnd and = new FuzzyAnd();
+
+        for (int i = 0; i < terms; i++) {
+            and.addTerm(hedged(inputSet()));
+        }
+        return and;
+    }
+
+    /**
+     * Method applies a hedge or a negation to the given term with a small probability.
+     * @param term Term to hedge.
+     * @return Hedged term, or the term itself.
+     */
+    protected FuzzyTerm hedged(FuzzyTerm term) {
+        switch (random.nextInt(10)) {
+            case 0:
+                return new FuzzyVery(term);
+            case 1:
+                return new FuzzyFairly(term);
+            case 2:
+                return new FuzzyNot(term);
+            default:
+                return term;
+        }
+    }
+
+    /**
+     * Method picks a random set of a random input variable.
+     * @return Proxy of the picked set.
+     */
+    protected ProxyFuzzySet inputSet() {
+        List<ProxyFuzzySet> input = inputSets.get(random.nextInt(inputSets.size()));
+
+        return input.get(random.nextInt(input.size()));
+    }
+
+}
@@ -0,0 +1,1262 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.bench;
+
+import org.sokolovic.jfuzzy.FuzzyContext;
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.cache.FuzzyCache;
+import org.sokolovic.jfuzzy.compiler.FuzzyOptimizer;
+import org.sokolovic.jfuzzy.defuzzifier.*;
+import org.sokolovic.jfuzzy.graph.FuzzyGraph;
+import org.sokolovic.jfuzzy.graph.FuzzyGraphContext;
+import org.sokolovic.jfuzzy.metrics.FuzzyMetrics;
+import org.sokolovic.jfuzzy.operator.FuzzyAnd;
+import org.sokolovic.jfuzzy.registry.FuzzyRegistry;
+import org.sokolovic.jfuzzy.registry.MemoryEstimator;
+import org.sokolovic.jfuzzy.server.FuzzyClient;
+import org.sokolovic.jfuzzy.server.FuzzyServer;
+import org.sokolovic.jfuzzy.snapshot.FuzzySnapshot;
+import org.sokolovic.jfuzzy.store.FuzzyRuleStore;
+import org.sokolovic.jfuzzy.store.RuleStoreContext;
+import org.sokolovic.jfuzzy.store.RuleStoreWriter;
+import org.sokolovic.jfuzzy.stream.FuzzyProcessor;
+import org.sokolovic.jfuzzy.sugeno.SugenoController;
+import org.sokolovic.jfuzzy.surface.FuzzySurface;
+import org.sokolovic.jfuzzy.surface.FuzzySurfaceSampler;
+import org.sokolovic.jfuzzy.training.ColumnTrainingSet;
+import org.sokolovic.jfuzzy.trace.FuzzyTrace;
+import org.sokolovic.jfuzzy.training.FuzzyTrainer;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The benchmark suite of the library. The suite covers the fuzzification of variables with 3 to 500
+ * sets, the rule evaluation and defuzzification of rule bases with 10 to 100 000 rules in each of the
+ * evaluation modes, rule bases of up to 500 000 rules split across a pool, the recording of the inference
+ * metrics, the tracing of the inferences, optimized rule bases, Takagi-Sugeno-Kang controllers and their
+ * training, controller graphs, multi-tenant registries, off-heap rule stores, the defuzzifiers, the
+ * loading of snapshots, multi-output controllers, control surfaces, the multi-threaded throughput of the
+ * model, streams of records run through a processor, the inference server on the loopback interface and
+ * the cache of the results of quantized inputs. The results of the benchmarked inferences are checked
+ * apart from the timing runs, by the {@link JFuzzyVerification}.
+ * <p>
+ * The suite is configured by the following system properties:
+ * <ul>
+ *     <li>{@code bench.filter} - regular expression the names of the benchmarks to run must contain,</li>
+ *     <li>{@code bench.warmup} - duration of the warm-up period in milliseconds,</li>
+ *     <li>{@code bench.time} - duration of a measurement iteration in milliseconds,</li>
+ *     <li>{@code bench.iterations} - number of measurement iterations,</li>
+ *     <li>{@code bench.threads} - maximum number of threads of the multi-threaded benchmarks,</li>
+ *     <li>{@code bench.output} - CSV file to write the results to,</li>
+ *     <li>{@code bench.baseline} - CSV file of an earlier run to compare the throughputs against.</li>
+ * </ul>
+ *
+ * @author sokolovic
+ */
+public class JFuzzyBenchmarks {
+
+    /**
+     * Seed of the generated controllers.
+     */
+    protected static final long SEED = 42;
+
+    /**
+     * Number of distinct input values the operations cycle through.
+     */
+    protected static final int VALUES = 1024;
+
+    /**
+     * Input values the operations cycle through.
+     */
+    protected static final double[] values = ControllerGenerator.values(VALUES, SEED);
+
+    /**
+     * Runs the benchmark suite.
+     * @param args Not used, the suite is configured by system properties.
+     * @throws Exception If the suite fails.
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Long.getLong("bench.warmup", 1000),
+                Long.getLong("bench.time", 1000),
+                Integer.getInteger("bench.iterations", 3),
+                System.getProperty("bench.filter", ""));
+        int maxThreads = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+
+        String baseline = System.getProperty("bench.baseline", "");
+        if (!baseline.isEmpty()) {
+            runner.loadBaseline(new File(baseline));
+        }
+        String output = System.getProperty("bench.output", "");
+        if (!output.isEmpty()) {
+            runner.writeResults(new File(output));
+        }
+
+        runner.printHeader();
+        try {
+            fuzzification(runner);
+            inference(runner);
+            parallel(runner, maxThreads);
+            metrics(runner);
+            tracing(runner);
+            optimizer(runner);
+            sugeno(runner);
+            training(runner, maxThreads);
+            graph(runner, maxThreads);
+            registry(runner);
+            store(runner);
+            defuzzifiers(runner);
+            snapshot(runner);
+            multiOutput(runner);
+            surface(runner);
+            multiThreaded(runner, maxThreads);
+            stream(runner, maxThreads);
+            server(runner, maxThreads);
+            cache(runner, maxThreads);
+        }
+        finally {
+            runner.close();
+        }
+    }
+
+    /**
+     * Benchmarks the fuzzification of a single variable.
+     * @param runner Benchmark runner.
+     */
+    protected static void fuzzification(BenchmarkRunner runner) {
+        for (int sets : new int[] { 3, 10, 50, 500 }) {
+            if (!runner.accepts("fuzzify/" + sets)) {
+                continue;
+            }
+
+            final FuzzyController controller = new FuzzyController();
+            final FuzzyVariable variable = controller.createFLV("in0");
+            ControllerGenerator.partition(variable, sets);
+            final FuzzyContext context = controller.createModel().newContext();
+
+            runner.run("fuzzify/" + sets + "/variable", new BenchmarkRunner.Operation() {
+                int next = 0;
+
+                @Override
+                public double run() {
+                    variable.fuzzify(values[next++ & (VALUES - 1)]);
+                    return 0.0;
+                }
+            });
+            runner.run("fuzzify/" + sets + "/context", new BenchmarkRunner.Operation() {
+                int next = 0;
+
+                @Override
+                public double run() {
+                    context.fuzzify(0, values[next++ & (VALUES - 1)]);
+                    return 0.0;
+                }
+            });
+        }
+    }
+
+    /**
+     * Benchmarks a full inference, fuzzification of three inputs followed by the defuzzification of a
+     * single output, over rule bases of growing size.
+     * @param runner Benchmark runner.
+     */
+    protected static void inference(BenchmarkRunner runner) {
+        for (int rules : new int[] { 10, 100, 1000, 10000, 100000 }) {
+            if (!runner.accepts("defuzzify/" + rules)) {
+                continue;
+            }
+
+            FuzzyController tree = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyController compiled = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            compiled.setCompiled(true);
+            FuzzyContext context = compiled.createModel().newContext();
+            FuzzyContext generated = compiled.createModel(true).newContext();
+
+            runner.run("defuzzify/" + rules + "/tree", controllerInference(tree, 3, 1));
+            runner.run("defuzzify/" + rules + "/compiled", controllerInference(compiled, 3, 1));
+            runner.run("defuzzify/" + rules + "/context", contextInference(context, 3, 1));
+            runner.run("defuzzify/" + rules + "/generated", contextInference(generated, 3, 1));
+        }
+    }
+
+    /**
+     * Benchmarks a full inference over large rule bases with the rules evaluated on the calling thread
+     * and split across a pool.
+     * @param runner Benchmark runner.
+     * @param threads Number of workers of the pool.
+     */
+    protected static void parallel(BenchmarkRunner runner, int threads) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        for (int rules : new int[] { 10000, 100000, 500000 }) {
+            if (!runner.accepts("parallel/" + rules)) {
+                continue;
+            }
+
+            FuzzyModel model = ControllerGenerator.generate(3, 1, 7, rules, SEED).createModel();
+            FuzzyContext sequential = model.newContext();
+            FuzzyContext parallel = model.newContext();
+            parallel.setPool(pool);
+
+            runner.run("parallel/" + rules + "/sequential", contextInference(sequential, 3, 1));
+            runner.run("parallel/" + rules + "/pool", contextInference(parallel, 3, 1));
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Benchmarks a full inference with and without recording the metrics of the inferences.
+     * @param runner Benchmark runner.
+     */
+    protected static void metrics(BenchmarkRunner runner) {
+        for (int rules : new int[] { 100, 10000 }) {
+            if (!runner.accepts("metrics/" + rules)) {
+                continue;
+            }
+
+            FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyModel model = controller.createModel();
+            FuzzyContext off = model.newContext();
+            FuzzyContext on = model.newContext();
+            on.setMetrics(new FuzzyMetrics("bench", model));
+
+            runner.run("metrics/" + rules + "/off", contextInference(off, 3, 1));
+            runner.run("metrics/" + rules + "/on", contextInference(on, 3, 1));
+        }
+    }
+
+    /**
+     * Benchmarks a full inference without tracing, tracing one in 1000 inferences and tracing every
+     * inference, printing the explanation of an inference of a small controller first.
+     * @param runner Benchmark runner.
+     */
+    protected static void tracing(BenchmarkRunner runner) {
+        if (runner.accepts("trace/")) {
+            explainTrace();
+        }
+        for (int rules : new int[] { 100, 10000 }) {
+            if (!runner.accepts("trace/" + rules)) {
+                continue;
+            }
+
+            FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyModel model = controller.createModel();
+            FuzzyContext off = model.newContext();
+            FuzzyContext sampled = model.newContext();
+            FuzzyContext every = model.newContext();
+            sampled.setTrace(new FuzzyTrace(model), 1000);
+            every.setTrace(new FuzzyTrace(model));
+
+            runner.run("trace/" + rules + "/off", contextInference(off, 3, 1));
+            runner.run("trace/" + rules + "/sampled-1000", contextInference(sampled, 3, 1));
+            runner.run("trace/" + rules + "/every", contextInference(every, 3, 1));
+        }
+    }
+
+    /**
+     * Method prints the explanation of an inference of a small controller.
+     */
+    protected static void explainTrace() {
+        FuzzyModel small = ControllerGenerator.generate(2, 1, 3, 6, SEED).createModel();
+        FuzzyContext explained = small.newContext();
+        explained.setTrace(new FuzzyTrace(small));
+        explained.fuzzify(0, values[0]);
+        explained.fuzzify(1, values[1]);
+        explained.defuzzify(small.getVariableIndex("out0"));
+        System.out.print(explained.getTrace().explain());
+    }
+
+    /**
+     * Benchmarks a full inference over rule bases before and after the optimization.
+     * @param runner Benchmark runner.
+     */
+    protected static void optimizer(BenchmarkRunner runner) {
+        for (int rules : new int[] { 1000, 10000, 100000 }) {
+            if (!runner.accepts("optimize/" + rules)) {
+                continue;
+            }
+
+            FuzzyController original = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyController optimized = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyOptimizer.optimize(optimized, Collections.singleton("out0"));
+
+            runner.run("optimize/" + rules + "/original",
+                       contextInference(original.createModel().newContext(), 3, 1));
+            runner.run("optimize/" + rules + "/optimized",
+                       contextInference(optimized.createModel().newContext(), 3, 1));
+        }
+    }
+
+    /**
+     * Benchmarks a full inference of a Takagi-Sugeno-Kang controller, with constant and with linear
+     * consequents, against the inference of the controller with the same antecedents and output sets
+     * in place of the consequents.
+     * @param runner Benchmark runner.
+     */
+    protected static void sugeno(BenchmarkRunner runner) {
+        for (int rules : new int[] { 100, 1000, 10000 }) {
+            if (!runner.accepts("sugeno/" + rules)) {
+                continue;
+            }
+
+            FuzzyController mamdani = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyContext context = mamdani.createModel().newContext();
+            SugenoController constant = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, false);
+            SugenoController linear = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, true);
+            SugenoController compiledConstant = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, false);
+            SugenoController compiledLinear = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, true);
+            compiledConstant.setCompiled(true);
+            compiledLinear.setCompiled(true);
+
+            runner.run("sugeno/" + rules + "/mamdani-tree", controllerInference(mamdani, 3, 1));
+            runner.run("sugeno/" + rules + "/mamdani-context", contextInference(context, 3, 1));
+            runner.run("sugeno/" + rules + "/constant", sugenoInference(constant, 3));
+            runner.run("sugeno/" + rules + "/linear", sugenoInference(linear, 3));
+            runner.run("sugeno/" + rules + "/compiled-constant", sugenoInference(compiledConstant, 3));
+            runner.run("sugeno/" + rules + "/compiled-linear", sugenoInference(compiledLinear, 3));
+        }
+    }
+
+    /**
+     * Benchmarks inferences running the rules held outside the heap, in direct buffers and in a mapped
+     * file, against the tree and the model of the controller.
+     * @param runner Benchmark runner.
+     * @throws IOException If the store file cannot be written.
+     */
+    protected static void store(BenchmarkRunner runner) throws IOException {
+        for (int rules : new int[] { 10000, 100000 }) {
+            if (!runner.accepts("store/" + rules)) {
+                continue;
+            }
+            final FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            File file = File.createTempFile("jfuzzy-rules", ".store");
+            try {
+                writeStore(controller, file);
+                FuzzyRuleStore memory = FuzzyRuleStore.of(controller);
+                FuzzyRuleStore mapped = FuzzyRuleStore.open(file, controller.getVariables());
+
+                runner.run("store/" + rules + "/tree", new BenchmarkRunner.Operation() {
+                    int i = 0;
+
+                    @Override
+                    public double run() {
+                        i = (i + 1) & (VALUES - 1);
+                        controller.fuzzify("in0", values[i]);
+                        controller.fuzzify("in1", values[(i + 7) & (VALUES - 1)]);
+                        controller.fuzzify("in2", values[(i + 14) & (VALUES - 1)]);
+                        return controller.defuzzify("out0");
+                    }
+                });
+                runner.run("store/" + rules + "/model", storeOperation(controller.createModel().newContext(), null));
+                runner.run("store/" + rules + "/memory", storeOperation(null, memory.newContext()));
+                runner.run("store/" + rules + "/mapped", storeOperation(null, mapped.newContext()));
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Method writes the rules of a controller to a store file, in pages of 4 KB.
+     * @param controller Controller whose rules to write.
+     * @param file Store file.
+     * @throws IOException If the file cannot be written.
+     */
+    protected static void writeStore(FuzzyController controller, File file) throws IOException {
+        RuleStoreWriter writer = new RuleStoreWriter(controller.getVariables(), file, 4096);
+        for (FuzzyRule rule : controller.getRules()) {
+            writer.addRule(rule);
+        }
+        writer.finishFile();
+        writer.close();
+    }
+
+    /**
+     * Method creates an operation running an inference per call through a model or a rule store.
+     * @param model Context of the model, or {@code null}.
+     * @param store Context of the rule store, or {@code null}.
+     * @return Benchmark operation.
+     */
+    protected static BenchmarkRunner.Operation storeOperation(final FuzzyContext model, final RuleStoreContext store) {
+        return new BenchmarkRunner.Operation() {
+            int i = 0;
+
+            @Override
+            public double run() {
+                i = (i + 1) & (VALUES - 1);
+                for (int v = 0; v < 3; v++) {
+                    double value = values[(i + 7 * v) & (VALUES - 1)];
+                    if (model != null) {
+                        model.fuzzify(v, value);
+                    }
+                    else {
+                        store.fuzzify(v, value);
+                    }
+                }
+                return model != null ? model.defuzzify(3) : store.defuzzify(3);
+            }
+        };
+    }
+
+    /**
+     * Benchmarks registering the controllers of many tenants, built from a few templates, and running
+     * inferences on the models the registry shares between them.
+     * @param runner Benchmark runner.
+     */
+    protected static void registry(BenchmarkRunner runner) {
+        int tenants = 2000;
+        int templates = 50;
+        if (!runner.accepts("registry/" + tenants)) {
+            return;
+        }
+
+        final FuzzyRegistry registry = new FuzzyRegistry();
+        MemoryEstimator estimator = new MemoryEstimator();
+        long controllersSize = 0;
+        for (int t = 0; t < tenants; t++) {
+            FuzzyController controller = tenantController(t, templates);
+            controllersSize += estimator.sizeOf(controller, new IdentityHashMap<Object, Boolean>());
+            registry.register("tenant" + t, controller);
+        }
+
+        final FuzzyController controller = tenantController(0, templates);
+        runner.run("registry/" + tenants + "/register", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                return registry.register("tenant0", controller).getVariableCount();
+            }
+        });
+        final FuzzyContext[] contexts = new FuzzyContext[tenants];
+        for (int t = 0; t < tenants; t++) {
+            contexts[t] = registry.getModel("tenant" + t).newContext();
+        }
+        runner.run("registry/" + tenants + "/inference", new BenchmarkRunner.Operation() {
+            int i = 0;
+
+            @Override
+            public double run() {
+                i = (i + 1) & (VALUES - 1);
+                FuzzyContext context = contexts[i % contexts.length];
+                context.fuzzify(0, values[i]);
+                context.fuzzify(1, values[(i + 7) & (VALUES - 1)]);
+                context.fuzzify(2, values[(i + 13) & (VALUES - 1)]);
+                return context.defuzzify(3);
+            }
+        });
+    }
+
+    /**
+     * Method builds the controller of a tenant: the controller of its template, with the output of the
+     * tenants of every tenth round over the templates defuzzified by the mean of maxima instead.
+     * @param tenant Index of the tenant.
+     * @param templates Number of templates.
+     * @return Controller of the tenant.
+     */
+    protected static FuzzyController tenantController(int tenant, int templates) {
+        FuzzyController controller = ControllerGenerator.generate(3, 1, 7, 200, SEED + tenant % templates);
+
+        if (tenant / templates % 10 == 9) {
+            controller.getVariables().get("out0").setDefuzzifier(new MeanOfMaximaDefuzzifier());
+        }
+        return controller;
+    }
+
+    /**
+     * Benchmarks a graph of a combining controller fed by eight independent branch controllers, run by
+     * chaining the controllers by the names of their variables and through a graph context on the
+     * calling thread and across a pool.
+     * @param runner Benchmark runner.
+     * @param threads Number of workers of the pool.
+     */
+    protected static void graph(BenchmarkRunner runner, int threads) {
+        int branches = 8;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        for (int rules : new int[] { 100, 1000, 10000 }) {
+            if (!runner.accepts("graph/" + rules)) {
+                continue;
+            }
+            final FuzzyController[] controllers = branchControllers(branches, rules);
+            final FuzzyController combiner = ControllerGenerator.generate(branches, 1, 7, rules, SEED + branches);
+            combiner.setCompiled(true);
+            FuzzyGraph graph = branchGraph(controllers, combiner);
+
+            final FuzzyGraphContext sequential = graph.newContext();
+            final FuzzyGraphContext parallel = graph.newContext();
+            parallel.setPool(pool);
+
+            runner.run("graph/" + rules + "/chained", new BenchmarkRunner.Operation() {
+                int i = 0;
+
+                @Override
+                public double run() {
+                    i = (i + 1) & (VALUES - 1);
+                    return chain(controllers, combiner, values[i], values[(i + 7) & (VALUES - 1)]);
+                }
+            });
+            runner.run("graph/" + rules + "/context", graphOperation(sequential));
+            runner.run("graph/" + rules + "/pool", graphOperation(parallel));
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Method generates the compiled branch controllers of a graph, each with two inputs.
+     * @param branches Number of branches.
+     * @param rules Number of rules of each branch.
+     * @return Branch controllers.
+     */
+    protected static FuzzyController[] branchControllers(int branches, int rules) {
+        FuzzyController[] controllers = new FuzzyController[branches];
+
+        for (int b = 0; b < branches; b++) {
+            controllers[b] = ControllerGenerator.generate(2, 1, 7, rules, SEED + b);
+            controllers[b].setCompiled(true);
+        }
+        return controllers;
+    }
+
+    /**
+     * Method builds a graph feeding the inputs {@code x} and {@code y} to every branch controller and the
+     * outputs of the branches to the combiner. The outputs of the graph are the output of the combiner and
+     * the output of the first branch.
+     * @param controllers Branch controllers.
+     * @param combiner Combining controller, with an input per branch.
+     * @return The graph.
+     */
+    protected static FuzzyGraph branchGraph(FuzzyController[] controllers, FuzzyController combiner) {
+        FuzzyGraph graph = new FuzzyGraph();
+        graph.addInput("x");
+        graph.addInput("y");
+        for (int b = 0; b < controllers.length; b++) {
+            graph.addNode("branch" + b, controllers[b]);
+            graph.bind("x", "branch" + b, "in0");
+            graph.bind("y", "branch" + b, "in1");
+        }
+        graph.addNode("combiner", combiner);
+        for (int b = 0; b < controllers.length; b++) {
+            graph.connect("branch" + b, "out0", "combiner", "in" + b);
+        }
+        graph.addOutput("result", "combiner", "out0");
+        graph.addOutput("branch0", "branch0", "out0");
+        return graph;
+    }
+
+    /**
+     * Method creates an operation running an inference of a graph per call.
+     * @param context Context of the graph.
+     * @return Benchmark operation.
+     */
+    protected static BenchmarkRunner.Operation graphOperation(final FuzzyGraphContext context) {
+        return new BenchmarkRunner.Operation() {
+            int i = 0;
+
+            @Override
+            public double run() {
+                i = (i + 1) & (VALUES - 1);
+                context.setInput(0, values[i]);
+                context.setInput(1, values[(i + 7) & (VALUES - 1)]);
+                context.run();
+                return context.getOutput(0);
+            }
+        };
+    }
+
+    /**
+     * Method runs the inference of the graph of controllers by hand, passing the output of each branch
+     * to the combiner by the names of the variables.
+     * @param controllers Branch controllers.
+     * @param combiner Combining controller.
+     * @param x Value of the first input.
+     * @param y Value of the second input.
+     * @return Crisp output of the combiner.
+     */
+    protected static double chain(FuzzyController[] controllers, FuzzyController combiner, double x, double y) {
+        for (int b = 0; b < controllers.length; b++) {
+            controllers[b].fuzzify("in0", x);
+            controllers[b].fuzzify("in1", y);
+            combiner.fuzzify("in" + b, controllers[b].defuzzify("out0"));
+        }
+        return combiner.defuzzify("out0");
+    }
+
+    /**
+     * Benchmarks an epoch of hybrid training of a Takagi-Sugeno-Kang controller on the calling thread
+     * and across a pool.
+     * @param runner Benchmark runner.
+     * @param threads Number of workers of the pool.
+     */
+    protected static void training(BenchmarkRunner runner, int threads) {
+        int records = 16384;
+        if (!runner.accepts("train/" + records)) {
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        final ColumnTrainingSet data = trainingSet(records);
+        final FuzzyTrainer sequential = new FuzzyTrainer(trainingController());
+        final FuzzyTrainer parallel = new FuzzyTrainer(trainingController());
+        sequential.setHybrid(true);
+        parallel.setHybrid(true);
+        parallel.setPool(pool);
+
+        runner.run("train/" + records + "/sequential", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                try {
+                    return sequential.train(data);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        runner.run("train/" + records + "/pool", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                try {
+                    return parallel.train(data);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        pool.shutdown();
+    }
+
+    /**
+     * Method creates the controller the training starts from: a grid of rules over two inputs of five
+     * sets, each with a linear consequent of zeros.
+     * @return Controller to train.
+     */
+    protected static SugenoController trainingController() {
+        SugenoController controller = new SugenoController();
+        List<ProxyFuzzySet> x = ControllerGenerator.partition(controller.createFLV("in0"), 5);
+        List<ProxyFuzzySet> y = ControllerGenerator.partition(controller.createFLV("in1"), 5);
+        controller.createOutput("out0");
+
+        for (ProxyFuzzySet first : x) {
+            for (ProxyFuzzySet second : y) {
+                FuzzyAnd and = new FuzzyAnd();
+                and.addTerm(first);
+                and.addTerm(second);
+                controller.addRule(and, "out0", 0.0, 0.0, 0.0);
+            }
+        }
+        return controller;
+    }
+
+    /**
+     * Method creates a data set of a smooth function of two inputs.
+     * @param records Number of records.
+     * @return Data set.
+     */
+    protected static ColumnTrainingSet trainingSet(int records) {
+        double[] x = ControllerGenerator.values(records, SEED);
+        double[] y = ControllerGenerator.values(records, SEED + 1);
+        double[] target = new double[records];
+
+        for (int i = 0; i < records; i++) {
+            target[i] = 50.0 + 30.0 * Math.sin(x[i] / 15.0) * Math.cos(y[i] / 25.0) + 0.2 * y[i];
+        }
+        return new ColumnTrainingSet(new double[][] { x, y }, new double[][] { target });
+    }
+
+    /**
+     * Benchmarks the loading of a controller with 100 000 rules from a snapshot against building it
+     * through the API.
+     * @param runner Benchmark runner.
+     * @throws IOException If the snapshot cannot be written or read.
+     */
+    protected static void snapshot(BenchmarkRunner runner) throws IOException {
+        if (!runner.accepts("snapshot/")) {
+            return;
+        }
+
+        FuzzyController controller = ControllerGenerator.generate(3, 1, 7, 100000, SEED);
+        final File file = File.createTempFile("jfuzzy", ".snapshot");
+        file.deleteOnExit();
+        FuzzySnapshot.write(controller, file);
+
+        runner.run("snapshot/100000/build", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                return ControllerGenerator.generate(3, 1, 7, 100000, SEED).createModel().getVariableCount();
+            }
+        });
+        runner.run("snapshot/100000/model", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                try {
+                    return FuzzySnapshot.readModel(file).getVariableCount();
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        runner.run("snapshot/100000/controller", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                try {
+                    return FuzzySnapshot.readController(file).getRules().size();
+                }
+                catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Benchmarks the defuzzification of a single variable with 7 sets by each of the defuzzifiers.
+     * @param runner Benchmark runner.
+     */
+    protected static void defuzzifiers(BenchmarkRunner runner) {
+        Defuzzifier[] defuzzifiers = {
+            new WeightedAverageDefuzzifier(), new CentroidDefuzzifier(), new BisectorDefuzzifier(),
+            new MeanOfMaximaDefuzzifier(), new SmallestOfMaximaDefuzzifier(), new LargestOfMaximaDefuzzifier()
+        };
+
+        for (Defuzzifier defuzzifier : defuzzifiers) {
+            String name = "defuzzifier/7/" + defuzzifier.getClass().getSimpleName().replace("Defuzzifier", "");
+            if (!runner.accepts(name)) {
+                continue;
+            }
+
+            final FuzzyVariable variable = new FuzzyVariable();
+            ControllerGenerator.partition(variable, 7);
+            variable.setDefuzzifier(defuzzifier);
+
+            runner.run(name, new BenchmarkRunner.Operation() {
+                int next = 0;
+
+                @Override
+                public double run() {
+                    for (int i = 0; i < variable.getSetCount(); i++) {
+                        variable.getSet(i).setDom(values[next++ & (VALUES - 1)] / ControllerGenerator.RANGE);
+                    }
+                    return variable.defuzzify();
+                }
+            });
+        }
+    }
+
+    /**
+     * Benchmarks the inference of a controller with four outputs, defuzzified one by one and in a
+     * single pass.
+     * @param runner Benchmark runner.
+     */
+    protected static void multiOutput(BenchmarkRunner runner) {
+        if (!runner.accepts("multi-output/")) {
+            return;
+        }
+
+        final FuzzyController controller = ControllerGenerator.generate(3, 4, 7, 1000, SEED);
+        FuzzyContext context = controller.createModel().newContext();
+
+        runner.run("multi-output/1000/separate", new BenchmarkRunner.Operation() {
+            int next = 0;
+
+            @Override
+            public double run() {
+                double result = 0.0;
+                for (int i = 0; i < 3; i++) {
+                    controller.fuzzify(i, values[next++ & (VALUES - 1)]);
+                }
+                for (int i = 3; i < 7; i++) {
+                    result += controller.defuzzify(i);
+                }
+                return result;
+            }
+        });
+        runner.run("multi-output/1000/single-pass", controllerInference(controller, 3, 4));
+        runner.run("multi-output/1000/context", contextInference(context, 3, 4));
+    }
+
+    /**
+     * Benchmarks the control surface of a controller with two inputs against its exact inference.
+     * @param runner Benchmark runner.
+     */
+    protected static void surface(BenchmarkRunner runner) {
+        if (!runner.accepts("surface/")) {
+            return;
+        }
+
+        FuzzyController controller = ControllerGenerator.generate(2, 1, 7, 1000, SEED);
+        final FuzzySurface surface = FuzzySurfaceSampler.sample(controller,
+                new String[] { "in0", "in1" }, new String[] { "out0" }, 65);
+
+        runner.run("surface/1000/context", contextInference(controller.createModel().newContext(), 2, 1));
+        runner.run("surface/1000/lookup", new BenchmarkRunner.Operation() {
+            final double[] inputs = new double[2];
+            int next = 0;
+
+            @Override
+            public double run() {
+                inputs[0] = values[next++ & (VALUES - 1)];
+                inputs[1] = values[next++ & (VALUES - 1)];
+                return surface.evaluate(inputs, 0);
+            }
+        });
+    }
+
+    /**
+     * Benchmarks the throughput of a shared model run by a growing number of threads, each with its
+     * own context, and of the parallel batch inference.
+     * @param runner Benchmark runner.
+     * @param maxThreads Maximum number of threads.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    protected static void multiThreaded(BenchmarkRunner runner, int maxThreads) throws InterruptedException {
+        if (!runner.accepts("threads/") && !runner.accepts("batch/")) {
+            return;
+        }
+
+        final FuzzyModel model = ControllerGenerator.generate(3, 1, 7, 1000, SEED).createModel();
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            runner.run("threads/1000/" + threads, threads, new BenchmarkRunner.OperationFactory() {
+                @Override
+                public BenchmarkRunner.Operation create() {
+                    return contextInference(model.newContext(), 3, 1);
+                }
+            });
+        }
+
+        final int records = 65536;
+        final String[] inputs = { "in0", "in1", "in2" };
+        final String[] outputs = { "out0" };
+        final double[][] inputColumns = new double[3][];
+        final double[][] outputColumns = new double[1][records];
+        for (int i = 0; i < inputColumns.length; i++) {
+            inputColumns[i] = ControllerGenerator.values(records, SEED + i);
+        }
+
+        runner.run("batch/1000/" + records + "/sequential", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                model.defuzzify(inputs, inputColumns, outputs, outputColumns);
+                return outputColumns[0][0];
+            }
+        });
+        runner.run("batch/1000/" + records + "/fork-join", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                model.defuzzify(inputs, inputColumns, outputs, outputColumns, ForkJoinPool.commonPool());
+                return outputColumns[0][0];
+            }
+        });
+    }
+
+    /**
+     * Benchmarks a stream of records run through a processor, with single-record and full batches,
+     * against a loop running the records through a context.
+     * @param runner Benchmark runner.
+     * @param threads Number of workers of the processor.
+     */
+    protected static void stream(BenchmarkRunner runner, final int threads) {
+        if (!runner.accepts("stream/")) {
+            return;
+        }
+
+        final FuzzyModel model = ControllerGenerator.generate(3, 1, 7, 1000, SEED).createModel();
+        final int records = 8192;
+        final double[][] inputs = new double[records][3];
+        final double[] expected = new double[records];
+        final FuzzyContext context = model.newContext();
+        for (int r = 0; r < records; r++) {
+            for (int i = 0; i < 3; i++) {
+                inputs[r][i] = values[(3 * r + i) & (VALUES - 1)];
+                context.fuzzify(i, inputs[r][i]);
+            }
+            expected[r] = context.defuzzify(3);
+        }
+
+        runner.run("stream/1000/" + records + "/context", new BenchmarkRunner.Operation() {
+            @Override
+            public double run() {
+                double result = 0.0;
+                for (int r = 0; r < records; r++) {
+                    for (int i = 0; i < 3; i++) {
+                        context.fuzzify(i, inputs[r][i]);
+                    }
+                    result = context.defuzzify(3);
+                }
+                return result;
+            }
+        });
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        for (final int batchSize : new int[] { 1, FuzzyProcessor.DEFAULT_BATCH_SIZE }) {
+            runner.run("stream/1000/" + records + "/processor-" + batchSize, new BenchmarkRunner.Operation() {
+                @Override
+                public double run() {
+                    FuzzyProcessor processor = new FuzzyProcessor(model, new String[] { "in0", "in1", "in2" },
+                            new String[] { "out0" }, pool, FuzzyProcessor.DEFAULT_BUFFER_SIZE, batchSize, threads);
+                    return streamRecords(processor, inputs, expected);
+                }
+            });
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Benchmarks single-record requests to an inference server on the loopback interface, made by a
+     * growing number of clients, against a context run in process.
+     * @param runner Benchmark runner.
+     * @param maxThreads Maximum number of threads of the machine.
+     * @throws IOException If the server cannot be started or a request fails.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    protected static void server(BenchmarkRunner runner, int maxThreads) throws IOException, InterruptedException {
+        if (!runner.accepts("server/")) {
+            return;
+        }
+
+        final String[] inputNames = { "in0", "in1", "in2" };
+        final String[] outputNames = { "out0" };
+        FuzzyController controller = ControllerGenerator.generate(3, 1, 7, 1000, SEED);
+        final FuzzyServer server = new FuzzyServer();
+        final List<FuzzyClient> clients = Collections.synchronizedList(new ArrayList<FuzzyClient>());
+        server.load("bench", controller, inputNames, outputNames);
+        server.start();
+
+        try {
+            runner.run("server/1000/context", contextInference(controller.createModel().newContext(), 3, 1));
+            // Requests wait on the network, so there are more clients than processors
+            for (int threads = 1; threads <= 8 * maxThreads; threads *= 4) {
+                runner.run("server/1000/clients-" + threads, threads, new BenchmarkRunner.OperationFactory() {
+                    @Override
+                    public BenchmarkRunner.Operation create() {
+                        final FuzzyClient client;
+                        try {
+                            client = new FuzzyClient(server.getAddress());
+                        }
+                        catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        clients.add(client);
+
+                        return new BenchmarkRunner.Operation() {
+                            final double[] inputs = new double[3];
+                            final double[] outputs = new double[1];
+                            int next = 0;
+
+                            @Override
+                            public double run() {
+                                for (int i = 0; i < inputs.length; i++) {
+                                    inputs[i] = values[next++ & (VALUES - 1)];
+                                }
+                                try {
+                                    client.infer("bench", inputs, outputs, 1);
+                                }
+                                catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                                return outputs[0];
+                            }
+                        };
+                    }
+                });
+            }
+        }
+        finally {
+            for (FuzzyClient client : clients) {
+                client.close();
+            }
+            server.close();
+        }
+    }
+
+    /**
+     * Benchmarks inferences of discretized sensor readings through a cache holding all of them, through
+     * a cache too small to hold them and shared by a growing number of threads, against a context.
+     * @param runner Benchmark runner.
+     * @param maxThreads Maximum number of threads.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    protected static void cache(BenchmarkRunner runner, int maxThreads) throws InterruptedException {
+        if (!runner.accepts("cache/")) {
+            return;
+        }
+
+        final FuzzyModel model = ControllerGenerator.generate(3, 1, 7, 1000, SEED).createModel();
+        final String[] inputNames = { "in0", "in1", "in2" };
+        final String[] outputNames = { "out0" };
+        final double step = ControllerGenerator.RANGE / 16;
+        final double[] resolutions = { step, step, step };
+        final double[] readings = readings(step);
+        final FuzzyCache cache = new FuzzyCache(model, inputNames, resolutions, outputNames, 1 << 20);
+        final FuzzyCache small = new FuzzyCache(model, inputNames, resolutions, outputNames, 1 << 14);
+
+        final FuzzyContext context = model.newContext();
+        runner.run("cache/1000/context", new BenchmarkRunner.Operation() {
+            final int[] handles = { 3 };
+            final double[] outputs = new double[1];
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < 3; i++) {
+                    context.fuzzify(i, readings[next++ & (VALUES - 1)]);
+                }
+                context.defuzzify(handles, outputs);
+                return outputs[0];
+            }
+        });
+        runner.run("cache/1000/hit", cacheOperation(cache, context, readings));
+        runner.run("cache/1000/evicting", cacheOperation(small, context, readings));
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            runner.run("cache/1000/shared-" + threads, threads, new BenchmarkRunner.OperationFactory() {
+                @Override
+                public BenchmarkRunner.Operation create() {
+                    return cacheOperation(cache, model.newContext(), readings);
+                }
+            });
+        }
+        System.out.printf("cache: %d entries in %d KB, %.1f%% hits; %d entries in %d KB, %.1f%% hits%n",
+                cache.getCapacity(), cache.getMemorySize() >> 10, hitRatio(cache),
+                small.getCapacity(), small.getMemorySize() >> 10, hitRatio(small));
+    }
+
+    /**
+     * Method discretizes the input values to sensor readings.
+     * @param step Resolution of the readings.
+     * @return The readings.
+     */
+    protected static double[] readings(double step) {
+        double[] readings = new double[VALUES];
+
+        for (int i = 0; i < VALUES; i++) {
+            readings[i] = Math.floor(values[i] / step) * step;
+        }
+        return readings;
+    }
+
+    /**
+     * Method returns an operation running the inferences of the readings through a cache.
+     * @param cache Cache to run the inferences through.
+     * @param context Context of the model of the cache.
+     * @param readings Readings the operation cycles through.
+     * @return The operation.
+     */
+    protected static BenchmarkRunner.Operation cacheOperation(final FuzzyCache cache, final FuzzyContext context,
+                                                              final double[] readings) {
+        return new BenchmarkRunner.Operation() {
+            final double[] inputs = new double[3];
+            final double[] outputs = new double[1];
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < 3; i++) {
+                    inputs[i] = readings[next++ & (VALUES - 1)];
+                }
+                cache.defuzzify(context, inputs, outputs);
+                return outputs[0];
+            }
+        };
+    }
+
+    /**
+     * Method returns the percentage of the lookups of a cache that hit.
+     * @param cache The cache.
+     * @return Percentage of hits.
+     */
+    protected static double hitRatio(FuzzyCache cache) {
+        return 100.0 * cache.getHitCount() / Math.max(1, cache.getHitCount() + cache.getMissCount());
+    }
+
+    /**
+     * Method publishes the given records through a processor to a subscriber requesting the output
+     * records in small amounts, and checks that they arrive in order with the expected values.
+     * @param processor Processor to run the records through.
+     * @param inputs Input records.
+     * @param expected Expected value of the output of each record.
+     * @return Value of the last output record.
+     * @throws IllegalStateException If the output records differ from the expected ones.
+     */
+    protected static double streamRecords(FuzzyProcessor processor, double[][] inputs, final double[] expected) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final double[] last = new double[1];
+        SubmissionPublisher<double[]> publisher = new SubmissionPublisher<double[]>();
+
+        publisher.subscribe(processor);
+        processor.subscribe(new Flow.Subscriber<double[]>() {
+            Flow.Subscription subscription;
+            int next = 0;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(256);
+            }
+
+            @Override
+            public void onNext(double[] record) {
+                if (Double.doubleToRawLongBits(record[0]) != Double.doubleToRawLongBits(expected[next])) {
+                    failure.compareAndSet(null, new IllegalStateException("The processor gives " + record[0] +
+                            " instead of " + expected[next] + " for the record " + next));
+                }
+                last[0] = record[0];
+                if (++next % 256 == 0) {
+                    subscription.request(256);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                failure.compareAndSet(null, throwable);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                if (next != expected.length) {
+                    failure.compareAndSet(null, new IllegalStateException("The processor gives " + next +
+                            " records instead of " + expected.length));
+                }
+                done.countDown();
+            }
+        });
+
+        for (double[] record : inputs) {
+            publisher.submit(record);
+        }
+        publisher.close();
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+        return last[0];
+    }
+
+    /**
+     * Method creates an operation running an inference on a controller. The inputs and outputs are
+     * addressed by their handles: the generator creates the inputs first.
+     * @param controller Controller to run the inference on.
+     * @param inputs Number of input variables.
+     * @param outputs Number of output variables.
+     * @return The inference operation.
+     */
+    protected static BenchmarkRunner.Operation controllerInference(final FuzzyController controller,
+                                                                   final int inputs, int outputs) {
+        final int[] handles = handles(inputs, outputs);
+        final double[] results = new double[outputs];
+
+        return new BenchmarkRunner.Operation() {
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < inputs; i++) {
+                    controller.fuzzify(i, values[next++ & (VALUES - 1)]);
+                }
+                controller.defuzzify(handles, results);
+                return results[0];
+            }
+        };
+    }
+
+    /**
+     * Method creates an operation running an inference on a Takagi-Sugeno-Kang controller with a
+     * single output.
+     * @param controller Controller to run the inference on.
+     * @param inputs Number of input variables.
+     * @return The inference operation.
+     */
+    protected static BenchmarkRunner.Operation sugenoInference(final SugenoController controller,
+                                                               final int inputs) {
+        return new BenchmarkRunner.Operation() {
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < inputs; i++) {
+                    controller.fuzzify(i, values[next++ & (VALUES - 1)]);
+                }
+                return controller.defuzzify(0);
+            }
+        };
+    }
+
+    /**
+     * Method creates an operation running an inference on a context.
+     * @param context Context to run the inference on.
+     * @param inputs Number of input variables.
+     * @param outputs Number of output variables.
+     * @return The inference operation.
+     */
+    protected static BenchmarkRunner.Operation contextInference(final FuzzyContext context,
+                                                                final int inputs, int outputs) {
+        final int[] handles = handles(inputs, outputs);
+        final double[] results = new double[outputs];
+
+        return new BenchmarkRunner.Operation() {
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < inputs; i++) {
+                    context.fuzzify(i, values[next++ & (VALUES - 1)]);
+                }
+                context.defuzzify(handles, results);
+                return results[0];
+            }
+        };
+    }
+
+    /**
+     * Method returns the handles of the output variables of a generated controller.
+     * @param inputs Number of input variables.
+     * @param outputs Number of output variables.
+     * @return Handles of the output variables.
+     */
+    protected static int[] handles(int inputs, int outputs) {
+        int[] handles = new int[outputs];
+
+        for (int i = 0; i < outputs; i++) {
+            handles[i] = inputs + i;
+        }
+        return handles;
+    }
+
+}
@@ -0,0 +1,1504 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.bench;
+
+import org.sokolovic.jfuzzy.FuzzyContext;
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.cache.FuzzyCache;
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyOptimizer;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.graph.FuzzyGraph;
+import org.sokolovic.jfuzzy.graph.FuzzyGraphContext;
+import org.sokolovic.jfuzzy.metrics.FuzzyMetrics;
+import org.sokolovic.jfuzzy.operator.FuzzyAnd;
+import org.sokolovic.jfuzzy.operator.FuzzyFairly;
+import org.sokolovic.jfuzzy.operator.FuzzyNot;
+import org.sokolovic.jfuzzy.operator.FuzzyOr;
+import org.sokolovic.jfuzzy.operator.FuzzyVery;
+import org.sokolovic.jfuzzy.registry.FuzzyRegistry;
+import org.sokolovic.jfuzzy.registry.MemoryEstimator;
+import org.sokolovic.jfuzzy.server.FuzzyClient;
+import org.sokolovic.jfuzzy.server.FuzzyEndpoint;
+import org.sokolovic.jfuzzy.server.FuzzyServer;
+import org.sokolovic.jfuzzy.snapshot.FuzzySnapshot;
+import org.sokolovic.jfuzzy.store.FuzzyRuleStore;
+import org.sokolovic.jfuzzy.store.RuleStoreContext;
+import org.sokolovic.jfuzzy.sugeno.SugenoController;
+import org.sokolovic.jfuzzy.training.ColumnTrainingSet;
+import org.sokolovic.jfuzzy.training.CsvTrainingSet;
+import org.sokolovic.jfuzzy.trace.FuzzyTrace;
+import org.sokolovic.jfuzzy.training.FuzzyTrainer;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.set.eFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+import org.sokolovic.jfuzzy.variable.MembershipTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The checks of the benchmark suite. Each check runs the controllers, models and contexts the benchmarks
+ * time, or ones built the same way, and compares their results, to the last bit, with the rule tree or
+ * another reference. The checks are run by the {@code test} target, apart from the timing runs of the
+ * {@link JFuzzyBenchmarks}, and a failing check ends the run with an {@link IllegalStateException}.
+ *
+ * @author sokolovic
+ */
+public class JFuzzyVerification extends JFuzzyBenchmarks {
+
+    /**
+     * Number of operations run before measuring their allocations, for the compiler to optimize them.
+     */
+    protected static final int WARMUP_OPERATIONS = 20000;
+
+    /**
+     * Number of operations whose allocations are measured in a round.
+     */
+    protected static final int MEASURED_OPERATIONS = 10000;
+
+    /**
+     * Maximum number of rounds measuring the allocations of an operation.
+     */
+    protected static final int MEASURED_ROUNDS = 3;
+
+    /**
+     * Runs the checks.
+     * @param args Not used.
+     * @throws Exception If a check fails.
+     */
+    public static void main(String[] args) throws Exception {
+        // The rules and the nodes are split on machines of a single processor as well
+        int threads = Math.max(Runtime.getRuntime().availableProcessors(), 4);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            checkFuzzification();
+            checkInference();
+            checkAllocation();
+            checkParallel(pool);
+            checkMetrics();
+            checkTracing();
+            checkOptimizer();
+            checkSugeno();
+            checkTraining(pool);
+            checkGraph(pool);
+            checkRegistry();
+            checkStore();
+            checkSnapshot();
+            checkServer();
+            checkCache(threads);
+        }
+        finally {
+            pool.shutdown();
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * Method checks the fuzzification of the variables the fuzzification benchmarks time.
+     */
+    protected static void checkFuzzification() {
+        verifyRefuzzify();
+        for (int sets : new int[] { 3, 10, 50, 500 }) {
+            FuzzyVariable variable = new FuzzyVariable();
+            ControllerGenerator.partition(variable, sets);
+            verifyMembership(variable);
+        }
+    }
+
+    /**
+     * Method checks that the generated models of the rule bases the inference benchmarks time give the
+     * same results as the interpreter, and that rules reading the consequents of other rules give the same
+     * results in every evaluation mode.
+     * @throws IOException If a snapshot cannot be written or read.
+     */
+    protected static void checkInference() throws IOException {
+        verifyChainedRules();
+        for (int rules : new int[] { 10, 100, 1000, 10000, 100000 }) {
+            FuzzyController compiled = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            compiled.setCompiled(true);
+            verifyGenerated(compiled.createModel(true).newContext(), compiled.createModel().newContext(), 3);
+        }
+    }
+
+    /**
+     * Method checks that the inferences addressing the variables by their handles do not allocate once
+     * warmed up, on the controller and on the contexts of the interpreted and generated models, both
+     * when defuzzifying a single handle and an array of them. The inferences of a controller recording
+     * its metrics are checked as well, also when addressing the variables by their names.
+     */
+    protected static void checkAllocation() {
+        for (int rules : new int[] { 10, 100, 1000 }) {
+            FuzzyController tree = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyController compiled = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            compiled.setCompiled(true);
+            FuzzyContext context = compiled.createModel().newContext();
+            FuzzyContext generated = compiled.createModel(true).newContext();
+
+            verifyNoAllocation("defuzzify/" + rules + "/tree", controllerInference(tree, 3, 1));
+            verifyNoAllocation("defuzzify/" + rules + "/tree-handle", inferenceOperation(inference(tree), 3));
+            verifyNoAllocation("defuzzify/" + rules + "/compiled", controllerInference(compiled, 3, 1));
+            verifyNoAllocation("defuzzify/" + rules + "/compiled-handle", inferenceOperation(inference(compiled), 3));
+            verifyNoAllocation("defuzzify/" + rules + "/context", contextInference(context, 3, 1));
+            verifyNoAllocation("defuzzify/" + rules + "/context-handle", inferenceOperation(inference(context), 3));
+            verifyNoAllocation("defuzzify/" + rules + "/generated", contextInference(generated, 3, 1));
+            verifyNoAllocation("defuzzify/" + rules + "/generated-handle",
+                    inferenceOperation(inference(generated), 3));
+
+            // Committing a slow inference to the Flight Recorder allocates its event, so none is slow here
+            final FuzzyController recorded = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyMetrics metrics = new FuzzyMetrics("verify", recorded);
+            metrics.setSlowInferenceThreshold(Long.MAX_VALUE);
+            recorded.setMetrics(metrics);
+            verifyNoAllocation("metrics/" + rules + "/controller", controllerInference(recorded, 3, 1));
+            verifyNoAllocation("metrics/" + rules + "/controller-handle", inferenceOperation(inference(recorded), 3));
+            verifyNoAllocation("metrics/" + rules + "/controller-names", new BenchmarkRunner.Operation() {
+                final String[] names = { "out0" };
+                final double[] results = new double[1];
+                int next = 0;
+
+                @Override
+                public double run() {
+                    recorded.fuzzify("in0", values[next++ & (VALUES - 1)]);
+                    recorded.fuzzify("in1", values[next++ & (VALUES - 1)]);
+                    recorded.fuzzify("in2", values[next++ & (VALUES - 1)]);
+                    recorded.defuzzify(names, results);
+                    return results[0];
+                }
+            });
+        }
+    }
+
+    /**
+     * Method checks that an operation allocates nothing once warmed up. An operation allocating on every
+     * call allocates in every round, while the compiler recompiling the operation, which materializes
+     * the objects it had optimized away, allocates in a single one, so the operation passes after a
+     * round without allocations. The check is skipped if the JVM does not measure the allocations of a
+     * thread.
+     * @param name Name of the operation.
+     * @param operation Operation to check.
+     * @throws IllegalStateException If the operation allocates in every round.
+     */
+    protected static void verifyNoAllocation(String name, BenchmarkRunner.Operation operation) {
+        double result = 0.0;
+        for (int i = 0; i < WARMUP_OPERATIONS; i++) {
+            result += operation.run();
+        }
+
+        long bytes = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = BenchmarkRunner.allocatedBytes();
+            for (int i = 0; i < MEASURED_OPERATIONS; i++) {
+                result += operation.run();
+            }
+            long end = BenchmarkRunner.allocatedBytes();
+            // Reading the counter allocates as well, which is not charged to the operation
+            bytes = end - start - (BenchmarkRunner.allocatedBytes() - end);
+            if (start < 0 || bytes <= 0) {
+                return;
+            }
+        }
+        throw new IllegalStateException(name + " allocates " + bytes + " bytes in " + MEASURED_OPERATIONS +
+                " operations after the warm-up, ending with " + result);
+    }
+
+    /**
+     * Method creates an operation running an inference per call, defuzzifying a single handle.
+     * @param inference Inference to run.
+     * @param inputs Number of input variables.
+     * @return The inference operation.
+     */
+    protected static BenchmarkRunner.Operation inferenceOperation(final Inference inference, final int inputs) {
+        return new BenchmarkRunner.Operation() {
+            int next = 0;
+
+            @Override
+            public double run() {
+                for (int i = 0; i < inputs; i++) {
+                    inference.fuzzify(i, values[next++ & (VALUES - 1)]);
+                }
+                return inference.defuzzify();
+            }
+        };
+    }
+
+    /**
+     * Method checks that the rules split across a pool give the same results as the rules evaluated on
+     * the calling thread.
+     * @param pool Pool to split the rules across.
+     */
+    protected static void checkParallel(ForkJoinPool pool) {
+        for (int rules : new int[] { 10000, 100000, 500000 }) {
+            FuzzyModel model = ControllerGenerator.generate(3, 1, 7, rules, SEED).createModel();
+            FuzzyContext parallel = model.newContext();
+            parallel.setPool(pool);
+            verifySame(inference(parallel), inference(model.newContext()), 3);
+        }
+    }
+
+    /**
+     * Method checks that recording the metrics does not change the results and that the context and the
+     * controller record the same rule firings.
+     */
+    protected static void checkMetrics() {
+        for (int rules : new int[] { 100, 10000 }) {
+            FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyModel model = controller.createModel();
+            FuzzyContext on = model.newContext();
+            on.setMetrics(new FuzzyMetrics("verify", model));
+            verifySame(inference(on), inference(model.newContext()), 3);
+            verifyMetrics(controller, model);
+        }
+    }
+
+    /**
+     * Method checks that tracing does not change the results and that the traces match the rule tree of
+     * the controller.
+     */
+    protected static void checkTracing() {
+        for (int rules : new int[] { 100, 10000 }) {
+            FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyModel model = controller.createModel();
+            FuzzyContext every = model.newContext();
+            every.setTrace(new FuzzyTrace(model));
+            verifySame(inference(every), inference(model.newContext()), 3);
+            verifyTrace(controller, model);
+        }
+    }
+
+    /**
+     * Method checks that the optimized rule bases give the same results as the original ones in each of
+     * the evaluation modes.
+     */
+    protected static void checkOptimizer() {
+        for (int rules : new int[] { 1000, 10000, 100000 }) {
+            FuzzyController original = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyController optimized = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            FuzzyOptimizer.optimize(optimized, Collections.singleton("out0"));
+            verifySame(inference(optimized), inference(original), 3);
+            original.setCompiled(true);
+            optimized.setCompiled(true);
+            verifySame(inference(optimized), inference(original), 3);
+            FuzzyModel model = optimized.createModel();
+            verifySame(inference(model.newContext()), inference(original.createModel().newContext()), 3);
+            verifyGenerated(optimized.createModel(true).newContext(), model.newContext(), 3);
+        }
+    }
+
+    /**
+     * Method checks that a zero-order Takagi-Sugeno-Kang controller gives the same results as the weighted
+     * average of the output sets, and that the compiled controllers give the same results as the
+     * interpreted ones.
+     */
+    protected static void checkSugeno() {
+        verifySugeno();
+        for (int rules : new int[] { 100, 1000, 10000 }) {
+            for (boolean linear : new boolean[] { false, true }) {
+                SugenoController interpreted = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, linear);
+                SugenoController compiled = ControllerGenerator.generateSugeno(3, 1, 7, rules, SEED, linear);
+                compiled.setCompiled(true);
+                verifySame(inference(compiled), inference(interpreted), 3);
+            }
+        }
+    }
+
+    /**
+     * Method checks that the training reduces the error and that the pool, streaming the data set from a
+     * file and applying the parameters to the controller do not change the results.
+     * @param pool Pool to train across.
+     * @throws IOException If the data set cannot be written to a temporary file.
+     */
+    protected static void checkTraining(ForkJoinPool pool) throws IOException {
+        FuzzyTrainer sequential = new FuzzyTrainer(trainingController());
+        FuzzyTrainer parallel = new FuzzyTrainer(trainingController());
+        sequential.setHybrid(true);
+        parallel.setHybrid(true);
+        parallel.setPool(pool);
+        verifyTraining(sequential, parallel, trainingSet(16384));
+    }
+
+    /**
+     * Method checks that a graph rejects cycles and that the graph contexts, with and without a pool, give
+     * the same results as chaining the controllers by hand.
+     * @param pool Pool to run the independent nodes in.
+     */
+    protected static void checkGraph(ForkJoinPool pool) {
+        verifyGraphCycles();
+        for (int rules : new int[] { 100, 1000, 10000 }) {
+            FuzzyController[] controllers = branchControllers(8, rules);
+            FuzzyController combiner = ControllerGenerator.generate(8, 1, 7, rules, SEED + 8);
+            combiner.setCompiled(true);
+            FuzzyGraph graph = branchGraph(controllers, combiner);
+            FuzzyGraphContext parallel = graph.newContext();
+            parallel.setPool(pool);
+            verifyGraph(controllers, combiner, graph.newContext(), parallel);
+        }
+    }
+
+    /**
+     * Method checks the models the registry shares between the tenants and the memory it retains.
+     */
+    protected static void checkRegistry() {
+        int tenants = 2000;
+        int templates = 50;
+        FuzzyRegistry registry = new FuzzyRegistry();
+        MemoryEstimator estimator = new MemoryEstimator();
+        long controllersSize = 0;
+
+        for (int t = 0; t < tenants; t++) {
+            FuzzyController controller = tenantController(t, templates);
+            controllersSize += estimator.sizeOf(controller, new IdentityHashMap<Object, Boolean>());
+            registry.register("tenant" + t, controller);
+        }
+        verifyRegistry(registry, tenants, templates, controllersSize);
+    }
+
+    /**
+     * Method checks that the rules held in direct buffers and in mapped files give the same results as
+     * the rule tree.
+     * @throws IOException If the store file cannot be written.
+     */
+    protected static void checkStore() throws IOException {
+        for (int rules : new int[] { 10000, 100000 }) {
+            FuzzyController controller = ControllerGenerator.generate(3, 1, 7, rules, SEED);
+            File file = File.createTempFile("jfuzzy-rules", ".store");
+            try {
+                writeStore(controller, file);
+                verifyStore(controller, FuzzyRuleStore.of(controller));
+                verifyStore(controller, FuzzyRuleStore.open(file, controller.getVariables()));
+                verifyStore(controller, FuzzyRuleStore.write(controller, file));
+            }
+            finally {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Method checks that the model and the controller loaded from a snapshot give the same results as the
+     * model of the controller, and that corrupt snapshots fail to load.
+     * @throws IOException If the snapshot cannot be written or read.
+     */
+    protected static void checkSnapshot() throws IOException {
+        FuzzyController controller = ControllerGenerator.generate(3, 1, 7, 100000, SEED);
+        File file = File.createTempFile("jfuzzy", ".snapshot");
+        try {
+            FuzzySnapshot.write(controller, file);
+            FuzzyContext expected = controller.createModel().newContext();
+            verifySame(inference(FuzzySnapshot.readModel(file).newContext()), inference(expected), 3);
+            verifySame(inference(FuzzySnapshot.readController(file).createModel().newContext()),
+                    inference(expected), 3);
+        }
+        finally {
+            file.delete();
+        }
+        verifyCorruptSnapshot();
+    }
+
+    /**
+     * Method checks the inference server on the loopback interface and an endpoint bounding its batches.
+     * @throws IOException If the server cannot be started or a request fails.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     */
+    protected static void checkServer() throws IOException, InterruptedException {
+        FuzzyController controller = ControllerGenerator.generate(3, 1, 7, 1000, SEED);
+        FuzzyServer server = new FuzzyServer();
+        server.load("bench", controller, new String[] { "in0", "in1", "in2" }, new String[] { "out0" });
+        server.start();
+
+        try {
+            verifyServer(server, controller);
+            verifyBoundedEndpoint(controller);
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Method checks the results and the counters of the caches of discretized sensor readings.
+     * @param threads Number of threads sharing a cache.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    protected static void checkCache(int threads) throws InterruptedException {
+        FuzzyModel model = ControllerGenerator.generate(3, 1, 7, 1000, SEED).createModel();
+        String[] inputNames = { "in0", "in1", "in2" };
+        String[] outputNames = { "out0" };
+        double step = ControllerGenerator.RANGE / 16;
+        double[] resolutions = { step, step, step };
+
+        verifyCache(new FuzzyCache(model, inputNames, resolutions, outputNames, 1 << 20),
+                new FuzzyCache(model, inputNames, resolutions, outputNames, 1 << 14), readings(step), step, threads);
+    }
+
+    /**
+     * Method checks that a rule base whose rules read the confidences of the consequents of other rules,
+     * one of them raised to {@code Double.MAX_VALUE} by an empty AND, gives the same results in every
+     * evaluation mode as the rule tree, to the last bit, over randomly placed sets.
+     * @throws IOException If the snapshot cannot be written or read.
+     * @throws IllegalStateException If the results differ.
+     */
+    protected static void verifyChainedRules() throws IOException {
+        Random random = new Random(SEED);
+        double[] mins = new double[5];
+        double[] widths = new double[5];
+        double[] inputs = new double[2];
+        double[] cached = new double[1];
+
+        for (int layout = 0; layout < 64; layout++) {
+            for (int v = 0; v < 5; v++) {
+                mins[v] = random.nextDouble() * 20.0 - 20.0;
+                widths[v] = random.nextDouble() * 40.0 + 1.0;
+            }
+            FuzzyController tree = chainedController(mins, widths);
+            FuzzyController compiled = chainedController(mins, widths);
+            compiled.setCompiled(true);
+            FuzzyModel model = compiled.createModel();
+            FuzzyContext context = model.newContext();
+            FuzzyContext generated = compiled.createModel(true).newContext();
+            File file = File.createTempFile("jfuzzy-chained", ".snapshot");
+            FuzzyContext snapshot;
+            try {
+                FuzzySnapshot.write(compiled, file);
+                snapshot = FuzzySnapshot.readModel(file).newContext();
+            }
+            finally {
+                file.delete();
+            }
+            FuzzyCache cache = new FuzzyCache(model, new String[] { "in0", "in1" }, new double[2],
+                                              new String[] { "out1" }, 1 << 10);
+
+            int output = tree.getHandle("out1");
+            for (int i = 0; i < 64; i++) {
+                for (int j = 0; j < 2; j++) {
+                    inputs[j] = mins[j] + random.nextDouble() * widths[j];
+                }
+                for (int j = 0; j < 2; j++) {
+                    tree.fuzzify(j, inputs[j]);
+                    compiled.fuzzify(j, inputs[j]);
+                    context.fuzzify(j, inputs[j]);
+                    generated.fuzzify(j, inputs[j]);
+                    snapshot.fuzzify(j, inputs[j]);
+                }
+                cache.defuzzify(model.newContext(), inputs, cached);
+
+                double expected = tree.defuzzify(output);
+                double[] actual = { compiled.defuzzify(output), context.defuzzify(output),
+                                    generated.defuzzify(output), snapshot.defuzzify(output), cached[0] };
+                for (double result : actual) {
+                    if (Double.doubleToRawLongBits(result) != Double.doubleToRawLongBits(expected)) {
+                        throw new IllegalStateException("The chained rules give " + Arrays.toString(actual) +
+                                " instead of " + expected + " for the inputs " + Arrays.toString(inputs));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method creates a controller whose rules read the confidences of the consequents of other rules.
+     * The variables {@code in0}, {@code in1}, {@code out0}, {@code out1} and {@code out2} each have five
+     * sets partitioning their range uniformly.
+     * @param mins Lower bounds of the ranges of the variables.
+     * @param widths Widths of the ranges of the variables.
+     * @return The controller.
+     */
+    protected static FuzzyController chainedController(double[] mins, double[] widths) {
+        FuzzyController controller = new FuzzyController();
+        ProxyFuzzySet[][] sets = new ProxyFuzzySet[5][5];
+        for (int v = 0; v < 5; v++) {
+            FuzzyVariable variable = controller.createFLV(v < 2 ? "in" + v : "out" + (v - 2));
+            double step = widths[v] / 4;
+            for (int i = 0; i < 5; i++) {
+                eFuzzySet type = i == 0 ? eFuzzySet.LEFT_SHOULDER
+                        : i == 4 ? eFuzzySet.RIGHT_SHOULDER : eFuzzySet.TRIANGULAR;
+                double peak = mins[v] + i * step;
+                sets[v][i] = variable.addFuzzySet("s" + i, type, peak - step, peak, peak + step);
+            }
+        }
+        ProxyFuzzySet[] in0 = sets[0];
+        ProxyFuzzySet[] in1 = sets[1];
+        ProxyFuzzySet[] out0 = sets[2];
+        ProxyFuzzySet[] out1 = sets[3];
+        ProxyFuzzySet[] out2 = sets[4];
+
+        controller.addRule(new FuzzyAnd(), out2[1]);
+        controller.addRule(out2[1], out0[1]);
+        FuzzyOr inner = or(new FuzzyNot(new FuzzyVery(in1[1])), in0[0], out0[1]);
+        FuzzyOr outer = or(inner, and(in1[2], in0[0]), and(out2[1], in0[1]));
+        controller.addRule(new FuzzyFairly(and(out0[1], outer)), out1[4]);
+        controller.addRule(new FuzzyNot(in0[0]), out1[0]);
+        return controller;
+    }
+
+    /**
+     * Method creates an AND of the given terms.
+     * @param terms Terms of the AND.
+     * @return The AND.
+     */
+    protected static FuzzyAnd and(FuzzyTerm... terms) {
+        FuzzyAnd and = new FuzzyAnd();
+        for (FuzzyTerm term : terms) {
+            and.addTerm(term);
+        }
+        return and;
+    }
+
+    /**
+     * Method creates an OR of the given terms.
+     * @param terms Terms of the OR.
+     * @return The OR.
+     */
+    protected static FuzzyOr or(FuzzyTerm... terms) {
+        FuzzyOr or = new FuzzyOr();
+        for (FuzzyTerm term : terms) {
+            or.addTerm(term);
+        }
+        return or;
+    }
+
+    /**
+     * Method checks that a context and a controller running the same inferences record the same number
+     * of inferences and the same rule firings, although the context skips the rules that cannot fire.
+     * @param controller Controller to check, evaluating all the rules.
+     * @param model Model of the controller.
+     * @throws IllegalStateException If the recorded metrics differ.
+     */
+    protected static void verifyMetrics(FuzzyController controller, FuzzyModel model) {
+        FuzzyMetrics expected = new FuzzyMetrics("controller", controller);
+        FuzzyMetrics actual = new FuzzyMetrics("context", model);
+        FuzzyContext context = model.newContext();
+        controller.setMetrics(expected);
+        context.setMetrics(actual);
+
+        int output = model.getVariableIndex("out0");
+        for (int i = 0; i < VALUES; i++) {
+            for (int j = 0; j < 3; j++) {
+                controller.fuzzify(j, values[(i + j * 7) % VALUES]);
+                context.fuzzify(j, values[(i + j * 7) % VALUES]);
+            }
+            controller.defuzzify(output);
+            context.defuzzify(output);
+        }
+        controller.setMetrics(null);
+
+        if (actual.getInferenceCount() != VALUES || expected.getInferenceCount() != VALUES ||
+            !Arrays.equals(actual.getFiringCounts(), expected.getFiringCounts()) ||
+            !Arrays.equals(actual.snapshot().getStrengthHistogram(0), expected.snapshot().getStrengthHistogram(0))) {
+            throw new IllegalStateException("The context and the controller record different metrics");
+        }
+    }
+
+    /**
+     * Method checks that the traces of a context match the rule tree of the controller: the strength of
+     * every evaluated rule is the degree of membership of its antecedent, the confidence of every set
+     * raised by a rule is the degree of membership of the set, set by the winning rule, and the outputs
+     * are the crisp values of the controller. It also checks that sampled traces cover one in a given
+     * number of inferences.
+     * @param controller Controller to check, evaluating all the rules.
+     * @param model Model of the controller.
+     * @throws IllegalStateException If a trace differs.
+     */
+    protected static void verifyTrace(FuzzyController controller, FuzzyModel model) {
+        FuzzyTrace trace = new FuzzyTrace(model);
+        FuzzyContext context = model.newContext();
+        context.setTrace(trace);
+        List<FuzzyRule> rules = controller.getRules();
+        int output = model.getVariableIndex("out0");
+
+        for (int i = 0; i < VALUES; i++) {
+            for (int j = 0; j < 3; j++) {
+                controller.fuzzify(j, values[(i + j * 7) % VALUES]);
+                context.fuzzify(j, values[(i + j * 7) % VALUES]);
+            }
+            double expected = controller.defuzzify(output);
+            double actual = context.defuzzify(output);
+
+            boolean same = trace.isOutput(output) && trace.getOutputValue(output) == actual && expected == actual;
+            for (int rule = 0; rule < rules.size() && same; rule++) {
+                same = !trace.isEvaluated(rule) || Double.doubleToRawLongBits(trace.getStrength(rule)) ==
+                        Double.doubleToRawLongBits(rules.get(rule).getAntecedent().getDom());
+            }
+            for (int slot = 0; slot < model.getProgram().getSetCount() && same; slot++) {
+                int winner = trace.getWinningRule(slot);
+                same = winner < 0 || trace.getConfidence(slot) == trace.getStrength(winner) &&
+                        trace.getConfidence(slot) == model.getProgram().getSet(slot).getDom();
+            }
+            if (!same || trace.getInferenceCount() != i + 1) {
+                throw new IllegalStateException("The trace of inference " + i + " differs from the controller");
+            }
+        }
+
+        context.setTrace(trace, 10);
+        for (int i = 0; i < 100; i++) {
+            context.fuzzify(0, values[i]);
+            context.defuzzify(output);
+        }
+        if (trace.getInferenceCount() != VALUES + 10) {
+            throw new IllegalStateException("The trace sampled " + (trace.getInferenceCount() - VALUES) +
+                    " of 100 inferences instead of 10");
+        }
+    }
+
+    /**
+     * Method checks that a rule store gives the same results as the tree of the controller its rules
+     * come from, to the last bit.
+     * @param controller Controller in its tree mode.
+     * @param store Store of the rules of the controller.
+     * @throws IllegalStateException If the results differ.
+     */
+    protected static void verifyStore(FuzzyController controller, FuzzyRuleStore store) {
+        RuleStoreContext context = store.newContext();
+
+        if (store.getRuleCount() != controller.getRules().size()) {
+            throw new IllegalStateException("The store holds " + store.getRuleCount() + " rules instead of " +
+                    controller.getRules().size());
+        }
+        for (int i = 0; i < VALUES; i += 3) {
+            for (int v = 0; v < 3; v++) {
+                double value = values[(i + 7 * v) & (VALUES - 1)];
+                controller.fuzzify("in" + v, value);
+                context.fuzzify("in" + v, value);
+            }
+            double expected = controller.defuzzify("out0");
+            double actual = context.defuzzify("out0");
+            if (Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual)) {
+                throw new IllegalStateException("The rule store gives " + actual + " instead of " + expected +
+                        " for the inputs " + i);
+            }
+        }
+    }
+
+    /**
+     * Method checks that the registry shares a model between the tenants of the same template and
+     * variant, that the models of the variants share their compiled rules, that the models give the same
+     * results as the models of the controllers themselves, and that the registry retains the shares of
+     * the tenants and at most a tenth of the memory the controllers retain.
+     * @param registry Registry of the tenants.
+     * @param tenants Number of tenants.
+     * @param templates Number of templates.
+     * @param controllersSize Estimated memory retained by the controllers of all the tenants.
+     * @throws IllegalStateException If any of the checks fails.
+     */
+    protected static void verifyRegistry(FuzzyRegistry registry, int tenants, int templates, long controllersSize) {
+        if (registry.getModelCount() != 2 * templates) {
+            throw new IllegalStateException("The registry holds " + registry.getModelCount() + " models instead of " +
+                    2 * templates);
+        }
+        MemoryEstimator estimator = new MemoryEstimator();
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        long template = estimator.sizeOf(registry.getModel("tenant0"), visited);
+        long variant = estimator.sizeOf(registry.getModel("tenant" + 9 * templates), visited);
+        if (variant * 4 > template) {
+            throw new IllegalStateException("The variant of a template adds " + variant + " bytes to its " +
+                    template);
+        }
+
+        for (int t = 9 * templates - 10; t < 9 * templates + 10; t++) {
+            FuzzyContext expected = tenantController(t, templates).createModel().newContext();
+            FuzzyContext actual = registry.getModel("tenant" + t).newContext();
+            for (int i = 0; i < VALUES; i += 7) {
+                for (int v = 0; v < 3; v++) {
+                    expected.fuzzify(v, values[(i + 7 * v) & (VALUES - 1)]);
+                    actual.fuzzify(v, values[(i + 7 * v) & (VALUES - 1)]);
+                }
+                double a = expected.defuzzify(3);
+                double b = actual.defuzzify(3);
+                if (Double.doubleToRawLongBits(a) != Double.doubleToRawLongBits(b)) {
+                    throw new IllegalStateException("The registry model of tenant " + t + " gives " + b +
+                            " instead of " + a);
+                }
+            }
+        }
+
+        long total = registry.getRetainedSize();
+        long shares = 0;
+        for (int t = 0; t < tenants; t++) {
+            shares += registry.getRetainedSize("tenant" + t);
+        }
+        if (Math.abs(shares - total) > tenants) {
+            throw new IllegalStateException("The shares of the tenants add up to " + shares + " bytes instead of " +
+                    total);
+        }
+        if (total * 10 > controllersSize) {
+            throw new IllegalStateException("The registry retains " + total + " bytes for controllers retaining " +
+                    controllersSize);
+        }
+    }
+
+    /**
+     * Method checks that the graph contexts, with and without a pool, give the same outputs as chaining
+     * the controllers by hand, to the last bit.
+     * @param controllers Branch controllers.
+     * @param combiner Combining controller.
+     * @param sequential Context running the nodes on the calling thread.
+     * @param parallel Context running the independent nodes in a pool.
+     * @throws IllegalStateException If the outputs differ.
+     */
+    protected static void verifyGraph(FuzzyController[] controllers, FuzzyController combiner,
+                                      FuzzyGraphContext sequential, FuzzyGraphContext parallel) {
+        double[] inputs = new double[2];
+        double[] expected = new double[2];
+        double[] actual = new double[2];
+
+        for (int i = 0; i < VALUES; i++) {
+            inputs[0] = values[i];
+            inputs[1] = values[(i + 7) & (VALUES - 1)];
+            sequential.run(inputs, expected);
+            parallel.run(inputs, actual);
+            double chained = chain(controllers, combiner, inputs[0], inputs[1]);
+            controllers[0].fuzzify("in0", inputs[0]);
+            controllers[0].fuzzify("in1", inputs[1]);
+            double branch = controllers[0].defuzzify("out0");
+
+            if (Double.doubleToRawLongBits(chained) != Double.doubleToRawLongBits(expected[0]) ||
+                    Double.doubleToRawLongBits(chained) != Double.doubleToRawLongBits(actual[0]) ||
+                    Double.doubleToRawLongBits(branch) != Double.doubleToRawLongBits(expected[1]) ||
+                    Double.doubleToRawLongBits(branch) != Double.doubleToRawLongBits(actual[1])) {
+                throw new IllegalStateException("The graph gives " + expected[0] + " and " + actual[0] +
+                        " instead of " + chained + " for the inputs " + i);
+            }
+        }
+    }
+
+    /**
+     * Method checks that a graph rejects a connection closing a cycle.
+     * @throws IllegalStateException If the connection is accepted.
+     */
+    protected static void verifyGraphCycles() {
+        FuzzyGraph graph = new FuzzyGraph();
+        for (int n = 0; n < 3; n++) {
+            graph.addNode("node" + n, ControllerGenerator.generate(2, 1, 3, 10, SEED + n));
+        }
+        graph.connect("node0", "out0", "node1", "in0");
+        graph.connect("node1", "out0", "node2", "in0");
+        try {
+            graph.connect("node2", "out0", "node0", "in0");
+        }
+        catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new IllegalStateException("The graph accepted a cycle");
+    }
+
+    /**
+     * Method checks that training reduces the error, that a trainer using a pool fits the same
+     * parameters as one that does not, that streaming the data set from a file gives the same error and
+     * that the controller gives the same outputs as the trainer once the parameters are applied.
+     * @param sequential Trainer running on the calling thread.
+     * @param parallel Trainer running in a pool.
+     * @param data Data set.
+     * @throws IOException If the data set cannot be written to a temporary file.
+     * @throws IllegalStateException If any of the checks fails.
+     */
+    protected static void verifyTraining(FuzzyTrainer sequential, FuzzyTrainer parallel, ColumnTrainingSet data)
+            throws IOException {
+        double initial = sequential.evaluate(data);
+        double trained = sequential.train(data, 10);
+        parallel.train(data, 10);
+        if (!(sequential.evaluate(data) < initial / 4)) {
+            throw new IllegalStateException("Training reduced the error from " + initial + " to " + trained + " only");
+        }
+
+        File file = File.createTempFile("jfuzzy-training", ".csv");
+        try {
+            double[][] inputs = new double[2][1];
+            double[][] targets = new double[1][1];
+            StringBuilder text = new StringBuilder("# in0,in1,out0\n");
+            data.rewind();
+            while (data.read(inputs, targets, 1) > 0) {
+                text.append(inputs[0][0]).append(',').append(inputs[1][0]).append(',')
+                    .append(targets[0][0]).append('\n');
+            }
+            Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+
+            CsvTrainingSet csv = new CsvTrainingSet(file, 2, 1);
+            double expected = sequential.evaluate(data);
+            double actual = sequential.evaluate(csv);
+            csv.close();
+            if (Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual)) {
+                throw new IllegalStateException("The streamed data set gives the error " + actual + " instead of " +
+                        expected);
+            }
+        }
+        finally {
+            file.delete();
+        }
+
+        SugenoController controller = sequential.getController();
+        sequential.apply();
+        double[] record = new double[2];
+        double[] expected = new double[1];
+        double[] actual = new double[1];
+        for (int i = 0; i < VALUES; i++) {
+            record[0] = values[i];
+            record[1] = values[(i + 7) % VALUES];
+            sequential.predict(record, expected);
+            parallel.predict(record, actual);
+            controller.fuzzify(0, record[0]);
+            controller.fuzzify(1, record[1]);
+            double applied = controller.defuzzify(0);
+            if (Double.doubleToRawLongBits(expected[0]) != Double.doubleToRawLongBits(actual[0]) ||
+                    Double.doubleToRawLongBits(expected[0]) != Double.doubleToRawLongBits(applied)) {
+                throw new IllegalStateException("The trained controllers give " + expected[0] + ", " + actual[0] +
+                        " and " + applied + " for the inputs " + i);
+            }
+        }
+    }
+
+    /**
+     * Method checks that a zero-order Takagi-Sugeno-Kang controller whose rules map each input set to
+     * the representative value of an output set gives the same results, to the last bit, as the
+     * controller mapping each input set to the output set itself.
+     * @throws IllegalStateException If the results differ.
+     */
+    protected static void verifySugeno() {
+        FuzzyController mamdani = new FuzzyController();
+        List<ProxyFuzzySet> inputs = ControllerGenerator.partition(mamdani.createFLV("in0"), 7);
+        List<ProxyFuzzySet> outputs = ControllerGenerator.partition(mamdani.createFLV("out0"), 7);
+        SugenoController sugeno = new SugenoController();
+        List<ProxyFuzzySet> sugenoInputs = ControllerGenerator.partition(sugeno.createFLV("in0"), 7);
+        sugeno.createOutput("out0");
+
+        for (int i = 0; i < inputs.size(); i++) {
+            mamdani.addRule(inputs.get(i), outputs.get(i));
+            sugeno.addRule(sugenoInputs.get(i), "out0", outputs.get(i).getSet().getRepresentativeValue());
+        }
+        for (int i = 0; i < VALUES; i++) {
+            mamdani.fuzzify(0, values[i]);
+            sugeno.fuzzify(0, values[i]);
+            double expected = mamdani.defuzzify("out0");
+            double actual = sugeno.defuzzify("out0");
+            if (Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual)) {
+                throw new IllegalStateException("The Sugeno controller gives " + actual + " instead of " +
+                        expected + " for " + values[i]);
+            }
+        }
+    }
+
+    /**
+     * Method checks that the membership table of a variable gives the same degrees of membership, to the
+     * last bit, as the sets themselves, for all the input values and at the edges of the sets. The sets
+     * with zero offsets are checked on a variable of their own.
+     * @param variable Variable to check.
+     * @throws IllegalStateException If the degrees of membership differ.
+     */
+    protected static void verifyMembership(FuzzyVariable variable) {
+        FuzzyVariable pinned = new FuzzyVariable();
+        pinned.addFuzzySet("left", eFuzzySet.LEFT_SHOULDER, 10.0, 10.0, 20.0);
+        pinned.addFuzzySet("triangle", eFuzzySet.TRIANGULAR, 30.0, 40.0, 40.0);
+        pinned.addFuzzySet("right", eFuzzySet.RIGHT_SHOULDER, 50.0, 60.0, 60.0);
+        pinned.addFuzzySet("point", eFuzzySet.TRIANGULAR, 70.0, 70.0, 70.0);
+
+        for (FuzzyVariable checked : new FuzzyVariable[] { variable, pinned }) {
+            MembershipTable table = checked.getMembershipTable();
+            FuzzySet[] sets = checked.getMembers().values().toArray(new FuzzySet[0]);
+            double[] edges = new double[VALUES + 9 * sets.length];
+            double[] doms = new double[sets.length];
+            double[] column = new double[edges.length];
+            int count = 0;
+
+            for (int i = 0; i < VALUES; i++) {
+                edges[count++] = values[i];
+            }
+            for (FuzzySet set : sets) {
+                for (double edge : new double[] { set.getSupportMin(), set.getRepresentativeValue(),
+                        set.getSupportMax() }) {
+                    edges[count++] = edge;
+                    edges[count++] = Math.nextUp(edge);
+                    edges[count++] = Math.nextDown(edge);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                table.calculate(edges[i], doms, 0);
+                for (int s = 0; s < sets.length; s++) {
+                    long expected = Double.doubleToRawLongBits(sets[s].calculateDom(edges[i]));
+                    if (expected != Double.doubleToRawLongBits(doms[s]) ||
+                            expected != Double.doubleToRawLongBits(table.calculate(s, edges[i]))) {
+                        throw new IllegalStateException("The membership table gives " + doms[s] +
+                                " instead of " + sets[s].calculateDom(edges[i]) + " for " + edges[i]);
+                    }
+                }
+            }
+            for (int s = 0; s < sets.length; s++) {
+                table.calculate(s, edges, 0, count, column);
+                for (int i = 0; i < count; i++) {
+                    if (Double.doubleToRawLongBits(sets[s].calculateDom(edges[i])) !=
+                            Double.doubleToRawLongBits(column[i])) {
+                        throw new IllegalStateException("The membership table gives " + column[i] +
+                                " instead of " + sets[s].calculateDom(edges[i]) + " for " + edges[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method checks that fuzzifying a value again clears the degrees of membership written to the sets
+     * since the last fuzzification, even the ones of the sets whose support does not contain the value, on
+     * a variable of its own sets and on one sharing a set with another variable.
+     * @throws IllegalStateException If a degree of membership survives the fuzzification.
+     */
+    protected static void verifyRefuzzify() {
+        for (boolean shared : new boolean[] { false, true }) {
+            FuzzyVariable variable = new FuzzyVariable();
+            variable.addFuzzySet("low", eFuzzySet.LEFT_SHOULDER, 0.0, 0.0, 10.0);
+            variable.addFuzzySet("middle", eFuzzySet.TRIANGULAR, 0.0, 10.0, 20.0);
+            ProxyFuzzySet high = variable.addFuzzySet("high", eFuzzySet.RIGHT_SHOULDER, 80.0, 90.0, 100.0);
+
+            // A set shared with another variable is written by that variable's fuzzification too
+            FuzzyVariable other = new FuzzyVariable();
+            if (shared) {
+                other.addFuzzySet("high", variable.getSet(2));
+            }
+
+            variable.fuzzify(5.0);
+            double expected = variable.defuzzify();
+            high.orWithDom(0.7);
+            other.fuzzify(95.0);
+            variable.fuzzify(5.0);
+
+            for (FuzzySet set : variable.getMembers().values()) {
+                if (Double.doubleToRawLongBits(set.getDom()) != Double.doubleToRawLongBits(set.calculateDom(5.0))) {
+                    throw new IllegalStateException("A set holds " + set.getDom() + " instead of " +
+                            set.calculateDom(5.0) + " after fuzzifying 5.0 again");
+                }
+            }
+            if (Double.doubleToRawLongBits(variable.defuzzify()) != Double.doubleToRawLongBits(expected)) {
+                throw new IllegalStateException("Fuzzifying 5.0 again defuzzifies to " + variable.defuzzify() +
+                        " instead of " + expected);
+            }
+        }
+    }
+
+    /**
+     * Method checks that a context of a generated model gives the same results as the interpreter.
+     * @param generated Context of the generated model.
+     * @param interpreted Context of the interpreted model of the same controller.
+     * @param inputs Number of input variables.
+     * @throws IllegalStateException If the model is not generated or the results differ.
+     */
+    protected static void verifyGenerated(FuzzyContext generated, FuzzyContext interpreted, int inputs) {
+        if (!generated.getModel().isGenerated()) {
+            throw new IllegalStateException("The code of the model could not be generated");
+        }
+        verifySame(inference(generated), inference(interpreted), inputs);
+    }
+
+    /**
+     * Method checks that a snapshot whose program jumps to itself, backwards or out of the segment of its
+     * rule, any of which would hang the inferences, or whose rule offsets decrease, fails to load.
+     * @throws IOException Never, the failures to load are expected.
+     * @throws IllegalStateException If a corrupt snapshot loads.
+     */
+    protected static void verifyCorruptSnapshot() throws IOException {
+        double[] mins = { -10.0, -10.0, 0.0, 0.0, 0.0 };
+        double[] widths = { 30.0, 30.0, 5.0, 5.0, 5.0 };
+        FuzzyController controller = chainedController(mins, widths);
+        FuzzyProgram program = FuzzyCompiler.compile(controller);
+        int[] code = program.getCode();
+        int[] ruleOffsets = program.getRuleOffsets();
+        ByteBuffer snapshot = FuzzySnapshot.toByteBuffer(controller).order(ByteOrder.LITTLE_ENDIAN);
+        int codeAt = find(snapshot, code);
+        int offsetsAt = find(snapshot, ruleOffsets);
+
+        int jump = -1;
+        for (int pc = 0; pc < code.length && jump < 0; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            if (FuzzyProgram.isJump(code[pc])) {
+                jump = pc;
+            }
+        }
+        if (jump < 0 || codeAt < 0 || offsetsAt < 0) {
+            throw new IllegalStateException("The snapshot holds no jump to corrupt");
+        }
+
+        // Each corruption replaces a single int of the snapshot
+        int rule = 0;
+        while (ruleOffsets[rule + 1] <= jump) {
+            rule++;
+        }
+        int[][] corruptions = {
+                { codeAt + 4 * (jump + 1), jump },
+                { codeAt + 4 * (jump + 1), ruleOffsets[rule] },
+                { codeAt + 4 * (jump + 1), code.length + FuzzyProgram.INSTRUCTION_SIZE },
+                { codeAt + 4 * (jump + 1), ruleOffsets[rule + 1] + FuzzyProgram.INSTRUCTION_SIZE },
+                { offsetsAt + 4 * (ruleOffsets.length - 1), 0 },
+                { offsetsAt + 4 * ruleOffsets.length, code.length - FuzzyProgram.INSTRUCTION_SIZE },
+        };
+        for (int[] corruption : corruptions) {
+            ByteBuffer corrupt = ByteBuffer.allocate(snapshot.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+            corrupt.put(snapshot.duplicate()).flip();
+            corrupt.putInt(corruption[0], corruption[1]);
+            try {
+                FuzzySnapshot.readModel(corrupt, false);
+                throw new IllegalStateException("A snapshot with " + corruption[1] + " at " + corruption[0] +
+                        " loaded");
+            }
+            catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Method finds an int array, stored as its length followed by its elements, in a snapshot.
+     * @param snapshot Snapshot to search.
+     * @param array Array to find.
+     * @return Position of the length of the array, or -1 if not found.
+     */
+    protected static int find(ByteBuffer snapshot, int[] array) {
+        search:
+        for (int at = snapshot.position(); at + 4 * (array.length + 1) <= snapshot.limit(); at++) {
+            if (snapshot.getInt(at) != array.length) {
+                continue;
+            }
+            for (int i = 0; i < array.length; i++) {
+                if (snapshot.getInt(at + 4 * (i + 1)) != array[i]) {
+                    continue search;
+                }
+            }
+            return at;
+        }
+        return -1;
+    }
+
+    /**
+     * Method checks that concurrent clients of a server get the same results as a context, reporting
+     * how their requests are coalesced, and that models can be replaced and unloaded while the server runs.
+     * @param server Server serving the given controller under the name {@code bench}.
+     * @param controller Controller with 3 inputs and 1 output.
+     * @throws IOException If a request fails.
+     * @throws InterruptedException If interrupted while waiting for the clients.
+     * @throws IllegalStateException If the server behaves differently.
+     */
+    protected static void verifyServer(final FuzzyServer server, FuzzyController controller)
+            throws IOException, InterruptedException {
+        final int records = 2048;
+        final int clients = 8;
+        final double[] inputs = new double[3 * records];
+        final double[] expected = expectedOutputs(controller, inputs);
+        FuzzyEndpoint endpoint = server.getEndpoint("bench");
+
+        FuzzyClient client = new FuzzyClient(server.getAddress());
+        try {
+            String[][] names = client.describe("bench");
+            if (!Arrays.equals(names[0], new String[] { "in0", "in1", "in2" })
+                    || !Arrays.equals(names[1], new String[] { "out0" })) {
+                throw new IllegalStateException("The server describes the model differently");
+            }
+
+            // Single-record requests of concurrent clients, coalesced by the endpoint
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread[] threads = new Thread[clients];
+            for (int t = 0; t < clients; t++) {
+                final int first = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            FuzzyClient client = new FuzzyClient(server.getAddress());
+                            try {
+                                for (int r = first; r < records; r += clients) {
+                                    double[] output = client.infer("bench", inputs[3 * r], inputs[3 * r + 1],
+                                                                   inputs[3 * r + 2]);
+                                    verifyOutput(output[0], expected[r], r);
+                                }
+                            }
+                            finally {
+                                client.close();
+                            }
+                        }
+                        catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure.get() != null) {
+                throw new IllegalStateException("A client of the server failed", failure.get());
+            }
+            if (endpoint.getRecordCount() != records || endpoint.getBatchCount() > records) {
+                throw new IllegalStateException("The server ran " + endpoint.getRecordCount() + " records in " +
+                        endpoint.getBatchCount() + " batches");
+            }
+            System.out.printf("server: %d single-record requests of %d clients run in %d batches%n",
+                    records, clients, endpoint.getBatchCount());
+
+            // All the records in a single request
+            double[] outputs = new double[records];
+            client.infer("bench", inputs, outputs, records);
+            for (int r = 0; r < records; r++) {
+                verifyOutput(outputs[r], expected[r], r);
+            }
+
+            // A malformed request leaves the connection usable
+            try {
+                client.infer("bench", 0.0, 0.0);
+                throw new IllegalStateException("The server accepted a record with 2 inputs");
+            }
+            catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            // Replace the model, then unload it
+            FuzzyController replacement = ControllerGenerator.generate(3, 1, 7, 1000, SEED + 1);
+            double[] replaced = expectedOutputs(replacement, inputs);
+            server.load("bench", replacement, new String[] { "in0", "in1", "in2" }, new String[] { "out0" });
+            client.infer("bench", inputs, outputs, records);
+            for (int r = 0; r < records; r++) {
+                verifyOutput(outputs[r], replaced[r], r);
+            }
+            server.unload("bench");
+            try {
+                client.infer("bench", inputs, outputs, records);
+                throw new IllegalStateException("The server ran an unloaded model");
+            }
+            catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+        finally {
+            client.close();
+            server.load("bench", controller, new String[] { "in0", "in1", "in2" }, new String[] { "out0" });
+        }
+    }
+
+    /**
+     * Method checks that an endpoint holding at most a few records per batch gives the expected results
+     * to concurrent callers, gathers no batch larger than that but for a call of more records, and runs
+     * such a call on its own.
+     * @param controller Controller with 3 inputs and 1 output.
+     * @throws InterruptedException If interrupted while waiting for the callers.
+     * @throws IllegalStateException If the results differ or a batch is too large.
+     */
+    protected static void verifyBoundedEndpoint(FuzzyController controller) throws InterruptedException {
+        final int records = 2048;
+        final int callers = 8;
+        final double[] inputs = new double[3 * records];
+        final double[] expected = expectedOutputs(controller, inputs);
+        final FuzzyEndpoint endpoint = new FuzzyEndpoint(controller.createModel(),
+                new String[] { "in0", "in1", "in2" }, new String[] { "out0" }, 4);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[callers];
+        for (int t = 0; t < callers; t++) {
+            final int first = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        double[] output = new double[1];
+                        for (int r = first; r < records; r += callers) {
+                            endpoint.infer(Arrays.copyOfRange(inputs, 3 * r, 3 * r + 3), output, 1);
+                            verifyOutput(output[0], expected[r], r);
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("A caller of the endpoint failed", failure.get());
+        }
+        if (endpoint.getRecordCount() != records || endpoint.getRecordCount() > 4 * endpoint.getBatchCount()) {
+            throw new IllegalStateException("The endpoint ran " + endpoint.getRecordCount() + " records in " +
+                    endpoint.getBatchCount() + " batches of at most 4 records");
+        }
+
+        double[] outputs = new double[records];
+        long batches = endpoint.getBatchCount();
+        endpoint.infer(inputs, outputs, records);
+        for (int r = 0; r < records; r++) {
+            verifyOutput(outputs[r], expected[r], r);
+        }
+        if (endpoint.getBatchCount() != batches + 1) {
+            throw new IllegalStateException("The endpoint split a call of " + records + " records");
+        }
+    }
+
+    /**
+     * Method fills the inputs of records with the input values the operations cycle through and runs
+     * them through a context of the given controller.
+     * @param controller Controller with 3 inputs and 1 output.
+     * @param inputs Array to store the input values of the records into, row-wise.
+     * @return Crisp value of the output of each record.
+     */
+    protected static double[] expectedOutputs(FuzzyController controller, double[] inputs) {
+        FuzzyContext context = controller.createModel().newContext();
+        double[] outputs = new double[inputs.length / 3];
+
+        for (int r = 0; r < outputs.length; r++) {
+            for (int i = 0; i < 3; i++) {
+                inputs[3 * r + i] = values[(3 * r + i) & (VALUES - 1)];
+                context.fuzzify(i, inputs[3 * r + i]);
+            }
+            outputs[r] = context.defuzzify(3);
+        }
+        return outputs;
+    }
+
+    /**
+     * Method checks that the output of a record is identical to the expected one.
+     * @param actual Output of the record.
+     * @param expected Expected output of the record.
+     * @param record Index of the record.
+     * @throws IllegalStateException If the outputs differ.
+     */
+    protected static void verifyOutput(double actual, double expected, int record) {
+        if (Double.doubleToRawLongBits(actual) != Double.doubleToRawLongBits(expected)) {
+            throw new IllegalStateException("Record " + record + " yields " + actual + " instead of " + expected);
+        }
+    }
+
+    /**
+     * Method checks that cached results are identical to the inferences of a context on the quantized
+     * inputs, whether they hit or miss, and also when shared by concurrent threads; that the counters
+     * add up; that unquantizable inputs bypass the cache; and that a small cache evicts entries instead
+     * of growing.
+     * @param cache Cache large enough for all the readings.
+     * @param small Cache too small for the readings.
+     * @param readings Readings, multiples of the step.
+     * @param step Resolution of the caches.
+     * @param threads Number of concurrent threads.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     * @throws IllegalStateException If a cache behaves differently.
+     */
+    protected static void verifyCache(final FuzzyCache cache, FuzzyCache small, final double[] readings,
+                                      double step, int threads) throws InterruptedException {
+        final FuzzyModel model = cache.getModel();
+        FuzzyContext context = model.newContext();
+        final double[] expected = new double[VALUES];
+        for (int r = 0; r < VALUES; r++) {
+            for (int i = 0; i < 3; i++) {
+                context.fuzzify(i, readings[(3 * r + i) & (VALUES - 1)]);
+            }
+            expected[r] = context.defuzzify(3);
+        }
+
+        double[] inputs = new double[3];
+        double[] outputs = new double[1];
+        for (int pass = 0; pass < 3; pass++) {
+            for (int r = 0; r < VALUES; r++) {
+                for (int i = 0; i < 3; i++) {
+                    // The last pass is off the readings by less than half the step
+                    inputs[i] = readings[(3 * r + i) & (VALUES - 1)] + (pass == 2 ? 0.3 * step : 0.0);
+                }
+                cache.defuzzify(context, inputs, outputs);
+                small.defuzzify(context, inputs, outputs);
+                verifyOutput(outputs[0], expected[r], r);
+            }
+        }
+        if (cache.getHitCount() + cache.getMissCount() != 3 * VALUES || cache.getHitCount() < 2 * VALUES ||
+            cache.getEvictionCount() != 0 || small.getEvictionCount() == 0 || small.getMemorySize() > 1 << 14) {
+            throw new IllegalStateException("Unexpected cache counters: " + cache.getHitCount() + " hits, " +
+                    cache.getMissCount() + " misses, " + small.getEvictionCount() + " evictions of the small cache");
+        }
+
+        long misses = cache.getMissCount();
+        inputs[0] = Double.NaN;
+        context.fuzzify(0, Double.NaN);
+        context.fuzzify(1, inputs[1]);
+        context.fuzzify(2, inputs[2]);
+        double bypassed = context.defuzzify(3);
+        cache.defuzzify(context, inputs, outputs);
+        cache.defuzzify(context, inputs, outputs);
+        verifyOutput(outputs[0], bypassed, -1);
+        if (cache.getMissCount() != misses + 2) {
+            throw new IllegalStateException("The cache stored the result of a NaN input");
+        }
+
+        // Concurrent threads on a cleared cache, so they race to store the same entries
+        cache.clear();
+        long lookups = cache.getHitCount() + cache.getMissCount();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[Math.max(4, threads)];
+        for (int t = 0; t < workers.length; t++) {
+            final int offset = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        FuzzyContext context = model.newContext();
+                        double[] inputs = new double[3];
+                        double[] outputs = new double[1];
+                        for (int n = 0; n < 4 * VALUES; n++) {
+                            int r = (n + offset * 97) & (VALUES - 1);
+                            for (int i = 0; i < 3; i++) {
+                                inputs[i] = readings[(3 * r + i) & (VALUES - 1)];
+                            }
+                            cache.defuzzify(context, inputs, outputs);
+                            verifyOutput(outputs[0], expected[r], r);
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("A thread sharing the cache failed", failure.get());
+        }
+        if (cache.getHitCount() + cache.getMissCount() - lookups != 4L * VALUES * workers.length) {
+            throw new IllegalStateException("The cache counters lost lookups of concurrent threads");
+        }
+    }
+
+    /**
+     * An inference compared by {@link #verifySame(Inference, Inference, int)}: the input variables are
+     * fuzzified one by one and the output {@code out0} is defuzzified.
+     */
+    protected interface Inference {
+
+        /**
+         * Method fuzzifies an input variable.
+         * @param input Index of the input variable.
+         * @param value Crisp value of the input.
+         */
+        void fuzzify(int input, double value);
+
+        /**
+         * Method defuzzifies the output {@code out0}.
+         * @return Crisp value of the output.
+         */
+        double defuzzify();
+    }
+
+    /**
+     * Method adapts a controller to an inference.
+     * @param controller Controller to adapt.
+     * @return Inference running the controller.
+     */
+    protected static Inference inference(final FuzzyController controller) {
+        final int output = controller.getHandle("out0");
+
+        return new Inference() {
+            @Override
+            public void fuzzify(int input, double value) {
+                controller.fuzzify(input, value);
+            }
+
+            @Override
+            public double defuzzify() {
+                return controller.defuzzify(output);
+            }
+        };
+    }
+
+    /**
+     * Method adapts a context to an inference.
+     * @param context Context to adapt.
+     * @return Inference running the context.
+     */
+    protected static Inference inference(final FuzzyContext context) {
+        final int output = context.getModel().getVariableIndex("out0");
+
+        return new Inference() {
+            @Override
+            public void fuzzify(int input, double value) {
+                context.fuzzify(input, value);
+            }
+
+            @Override
+            public double defuzzify() {
+                return context.defuzzify(output);
+            }
+        };
+    }
+
+    /**
+     * Method adapts a Takagi-Sugeno-Kang controller to an inference.
+     * @param controller Controller to adapt.
+     * @return Inference running the controller.
+     */
+    protected static Inference inference(final SugenoController controller) {
+        return new Inference() {
+            @Override
+            public void fuzzify(int input, double value) {
+                controller.fuzzify(input, value);
+            }
+
+            @Override
+            public double defuzzify() {
+                return controller.defuzzify(0);
+            }
+        };
+    }
+
+    /**
+     * Method checks that two inferences give the same results, to the last bit, for all the input values
+     * and the edge cases of the sets.
+     * @param actual Inference to check.
+     * @param expected Inference giving the expected results.
+     * @param inputs Number of input variables.
+     * @throws IllegalStateException If the results differ.
+     */
+    protected static void verifySame(Inference actual, Inference expected, int inputs) {
+        double step = ControllerGenerator.RANGE / 6;
+        double[] edges = {
+            0.0, -0.0, step, 3 * step, Math.nextUp(step), Math.nextDown(step), ControllerGenerator.RANGE,
+            -step, ControllerGenerator.RANGE + step, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        double[] checked = new double[VALUES + edges.length];
+        System.arraycopy(values, 0, checked, 0, VALUES);
+        System.arraycopy(edges, 0, checked, VALUES, edges.length);
+
+        for (int i = 0; i < checked.length; i++) {
+            for (int j = 0; j < inputs; j++) {
+                double value = checked[(i + j * (edges.length + 1)) % checked.length];
+                actual.fuzzify(j, value);
+                expected.fuzzify(j, value);
+            }
+            double expectedResult = expected.defuzzify();
+            double actualResult = actual.defuzzify();
+            if (Double.doubleToRawLongBits(expectedResult) != Double.doubleToRawLongBits(actualResult)) {
+                throw new IllegalStateException("The inference gives " + actualResult + " instead of " +
+                        expectedResult + " for the inputs " + i);
+            }
+        }
+    }
+}
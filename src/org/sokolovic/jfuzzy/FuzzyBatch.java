@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy;
+
+import org.sokolovic.jfuzzy.defuzzifier.Defuzzifier;
+import org.sokolovic.jfuzzy.defuzzifier.WeightedAverageDefuzzifier;
+import org.sokolovic.jfuzzy.variable.MembershipTable;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class runs inferences of a {@code FuzzyModel} over many records at once. The records are given
+ * column-wise, one array per input and output variable, and processed in blocks: each block is
+ * fuzzified one set at a time, the compiled rule base is run one instruction at a time over the whole
+ * block and the outputs are defuzzified one set at a time, so all the loops are tight and run over
+ * contiguous arrays. The results are the same as running a {@code FuzzyContext} on every record.
+ * <p>
+ * The sets of the variables that are not among the inputs have a zero degree of membership. An
+ * instance holds the block buffers and must not be used by more than one thread at a time.
+ *
+ * @author sokolovic
+ */
+public class FuzzyBatch {
+
+    /**
+     * Number of records processed in a single block.
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * Number of records below which a parallel batch is not split any further.
+     */
+    public static final int SPLIT_THRESHOLD = 16 * BLOCK_SIZE;
+
+    /**
+     * The model to run the inferences on.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Indices of the input variables.
+     */
+    protected final int[] inputs;
+
+    /**
+     * Indices of the output variables.
+     */
+    protected final int[] outputs;
+
+    /**
+     * Slot columns of the current block.
+     */
+    protected final double[][] slots;
+
+    /**
+     * Sums of the degrees of membership of the current block.
+     */
+    protected final double[] bottom;
+
+    /**
+     * Weighted sums of the representative values of the current block.
+     */
+    protected final double[] top;
+
+    /**
+     * Degrees of membership of the members of an output variable of a single record.
+     */
+    protected final double[] doms;
+
+    /**
+     * Workspace of the defuzzifiers of the model.
+     */
+    protected final double[] workspace;
+
+    /**
+     * Constructor to initialize the batch of the given model.
+     * @param model Model to run the inferences on.
+     * @param inputs Indices of the input variables.
+     * @param outputs Indices of the output variables.
+     */
+    public FuzzyBatch(FuzzyModel model, int[] inputs, int[] outputs) {
+        this.model = model;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.slots = model.getProgram().newSlots(BLOCK_SIZE);
+        this.bottom = new double[BLOCK_SIZE];
+        this.top = new double[BLOCK_SIZE];
+        this.workspace = new double[model.getWorkspaceSize()];
+
+        int sets = 0;
+        for (int v = 0; v < outputs.length; v++) {
+            sets = Math.max(sets, model.getEndSlot(outputs[v]) - model.getFirstSlot(outputs[v]));
+        }
+        this.doms = new double[sets];
+    }
+
+    /**
+     * Method runs the inferences of the records in the given range.
+     * @param inputColumns Input columns, one per input variable.
+     * @param outputColumns Output columns, one per output variable, to store the crisp values into.
+     * @param from Index of the first record.
+     * @param to Index past the last record.
+     */
+    public void run(double[][] inputColumns, double[][] outputColumns, int from, int to) {
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, to - start);
+
+            fuzzify(inputColumns, start, length);
+            model.getProgram().execute(slots, length);
+            defuzzify(outputColumns, start, length);
+        }
+    }
+
+    /**
+     * Method fuzzifies the input values of a block.
+     * @param inputColumns Input columns.
+     * @param start Index of the first record of the block.
+     * @param length Number of records in the block.
+     */
+    protected void fuzzify(double[][] inputColumns, int start, int length) {
+        for (int v = 0; v < inputs.length; v++) {
+            MembershipTable table = model.getMembershipTable(inputs[v]);
+            int first = model.getFirstSlot(inputs[v]);
+
+            for (int s = 0; s < table.size(); s++) {
+                table.calculate(s, inputColumns[v], start, length, slots[first + s]);
+            }
+        }
+    }
+
+    /**
+     * Method defuzzifies the output variables of a block. The variables with the default defuzzifier
+     * are defuzzified one set at a time by averaging the representative values of their members,
+     * weighted by the degrees of membership; the others record by record.
+     * @param outputColumns Output columns.
+     * @param start Index of the first record of the block.
+     * @param length Number of records in the block.
+     */
+    protected void defuzzify(double[][] outputColumns, int start, int length) {
+        for (int v = 0; v < outputs.length; v++) {
+            double[] column = outputColumns[v];
+            Defuzzifier defuzzifier = model.getDefuzzifier(outputs[v]);
+
+            if (defuzzifier.getClass() != WeightedAverageDefuzzifier.class) {
+                int first = model.getFirstSlot(outputs[v]);
+                int count = model.getEndSlot(outputs[v]) - first;
+
+                for (int i = 0; i < length; i++) {
+                    for (int s = 0; s < count; s++) {
+                        doms[s] = slots[first + s][i];
+                    }
+                    column[start + i] = defuzzifier.defuzzify(model.getAggregate(outputs[v]), doms, 0, workspace);
+                }
+                continue;
+            }
+
+            for (int i = 0; i < length; i++) {
+                bottom[i] = 0.0;
+                top[i] = 0.0;
+            }
+            for (int s = model.getFirstSlot(outputs[v]); s < model.getEndSlot(outputs[v]); s++) {
+                double representativeValue = model.getRepresentativeValue(s);
+                double[] dom = slots[s];
+
+                for (int i = 0; i < length; i++) {
+                    bottom[i] += dom[i];
+                    top[i] += representativeValue * dom[i];
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                // Make sure bottom is not equal to zero
+                column[start + i] = bottom[i] == 0.0 ? 0.0 : top[i] / bottom[i];
+            }
+        }
+    }
+
+    /**
+     * Fork/join task running the inferences of a range of records, splitting it in halves until it is
+     * small enough to be processed by a single batch.
+     */
+    public static class Task extends RecursiveAction {
+
+        /**
+         * Version of the serialized form of the task.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The model to run the inferences on.
+         */
+        protected final FuzzyModel model;
+
+        /**
+         * Indices of the input variables.
+         */
+        protected final int[] inputs;
+
+        /**
+         * Indices of the output variables.
+         */
+        protected final int[] outputs;
+
+        /**
+         * Input columns, one per input variable.
+         */
+        protected final double[][] inputColumns;
+
+        /**
+         * Output columns, one per output variable.
+         */
+        protected final double[][] outputColumns;
+
+        /**
+         * Index of the first record of the range.
+         */
+        protected final int from;
+
+        /**
+         * Index past the last record of the range.
+         */
+        protected final int to;
+
+        /**
+         * Constructor to initialize the task with the given range of records.
+         * @param model Model to run the inferences on.
+         * @param inputs Indices of the input variables.
+         * @param outputs Indices of the output variables.
+         * @param inputColumns Input columns, one per input variable.
+         * @param outputColumns Output columns, one per output variable.
+         * @param from Index of the first record.
+         * @param to Index past the last record.
+         */
+        public Task(FuzzyModel model, int[] inputs, int[] outputs, double[][] inputColumns,
+                    double[][] outputColumns, int from, int to) {
+            this.model = model;
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.inputColumns = inputColumns;
+            this.outputColumns = outputColumns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                new FuzzyBatch(model, inputs, outputs).run(inputColumns, outputColumns, from, to);
+                return;
+            }
+            // Split on a block boundary so only the last block of the batch is partial
+            int middle = from + ((to - from) / 2 / BLOCK_SIZE) * BLOCK_SIZE;
+            invokeAll(new Task(model, inputs, outputs, inputColumns, outputColumns, from, middle),
+                      new Task(model, inputs, outputs, inputColumns, outputColumns, middle, to));
+        }
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy;
+
+import org.sokolovic.jfuzzy.metrics.FuzzyMetrics;
+import org.sokolovic.jfuzzy.trace.FuzzyTrace;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class holds the state of the inferences run on a {@code FuzzyModel}: the degrees of membership of
+ * all the sets of the model, kept in a single primitive array. A context is cheap to create and is
+ * meant to be owned by a single thread, or created per call; any number of contexts can run
+ * inferences on the same model at the same time.
+ *
+ * @author sokolovic
+ */
+public class FuzzyContext {
+
+    /**
+     * The model this context runs the inferences on.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * The kernel of the model, running the steps of the inferences.
+     */
+    protected final FuzzyKernel kernel;
+
+    /**
+     * The slot array the compiled rule base of the model operates on.
+     */
+    protected final double[] slots;
+
+    /**
+     * Regions of the support indices the last fuzzified values of the variables fell into.
+     */
+    protected final int[] activeRegions;
+
+    /**
+     * Workspace of the defuzzifiers of the model.
+     */
+    protected final double[] workspace;
+
+    /**
+     * Pool the rules of large rule bases are evaluated in, or {@code null} to evaluate them on the
+     * calling thread.
+     */
+    protected ForkJoinPool pool;
+
+    /**
+     * Recorder of the metrics attached to the context, or {@code null} if no metrics are recorded.
+     */
+    protected FuzzyMetrics.Recorder recorder;
+
+    /**
+     * Trace the sampled inferences of the context are recorded into, or {@code null} if none are traced.
+     */
+    protected FuzzyTrace trace;
+
+    /**
+     * Number of inferences per traced inference.
+     */
+    protected int sampling;
+
+    /**
+     * Number of inferences until the next traced one.
+     */
+    protected int countdown;
+
+    /**
+     * Whether an inference has started, with its first input fuzzified, and is yet to be defuzzified.
+     */
+    protected boolean started;
+
+    /**
+     * Whether the current inference is traced.
+     */
+    protected boolean tracing;
+
+    /**
+     * Whether the inferences are observed by metrics or a trace; if not, they take the direct path.
+     */
+    protected boolean observed;
+
+    /**
+     * Constructor to initialize the context of the given model.
+     * @param model Model to run the inferences on.
+     */
+    public FuzzyContext(FuzzyModel model) {
+        this.model = model;
+        this.kernel = model.getKernel();
+        this.slots = model.getProgram().newSlots();
+        this.activeRegions = new int[model.getVariableCount()];
+        Arrays.fill(activeRegions, -1);
+        this.workspace = new double[model.getWorkspaceSize()];
+    }
+
+    /**
+     * Getter to obtain the model this context runs the inferences on.
+     * @return The model of the context.
+     */
+    public FuzzyModel getModel() {
+        return this.model;
+    }
+
+    /**
+     * Getter to obtain the pool the rules of large rule bases are evaluated in.
+     * @return Pool of the context, or {@code null} if the rules are evaluated on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Setter to split the evaluation of the rules of each inference across the workers of the given
+     * pool. Only rule bases of at least {@code FuzzyProgram.PARALLEL_THRESHOLD} instructions are split,
+     * smaller ones are evaluated on the calling thread as before. The results are the same either way.
+     * @param pool Pool to evaluate the rules in, or {@code null} to evaluate them on the calling thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Getter to obtain the metrics the inferences of the context are recorded into.
+     * @return Metrics of the context, or {@code null} if no metrics are recorded.
+     */
+    public FuzzyMetrics getMetrics() {
+        return recorder == null ? null : recorder.getMetrics();
+    }
+
+    /**
+     * Setter to record the inferences of the context into the given metrics. While the metrics are
+     * attached the rules are evaluated by the interpreter of the compiled program on the calling thread,
+     * to observe the activation strength of each rule; the results are the same.
+     * @param metrics Metrics to record into, or {@code null} to stop recording.
+     */
+    public void setMetrics(FuzzyMetrics metrics) {
+        if (metrics != null && (metrics.getRuleCount() != model.getProgram().getRuleCount() ||
+                                metrics.getVariableCount() != model.getVariableCount())) {
+            throw new IllegalArgumentException("Metrics " + metrics.getName() + " do not match the model");
+        }
+        this.recorder = metrics == null ? null : metrics.newRecorder();
+        this.observed = recorder != null || trace != null;
+    }
+
+    /**
+     * Getter to obtain the trace the inferences of the context are recorded into.
+     * @return Trace of the context, or {@code null} if no inferences are traced.
+     */
+    public FuzzyTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Setter to record every inference of the context into the given trace.
+     * @param trace Trace to record into, or {@code null} to stop tracing.
+     * @see #setTrace(FuzzyTrace, int)
+     */
+    public void setTrace(FuzzyTrace trace) {
+        setTrace(trace, 1);
+    }
+
+    /**
+     * Setter to record one in every {@code sampling} inferences of the context into the given trace,
+     * starting with the next one. An inference starts with the first input fuzzified after the previous
+     * inference was defuzzified. While a traced inference runs, the rules are evaluated by the
+     * interpreter of the compiled program on the calling thread, like with metrics attached; the other
+     * inferences run as usual. The results are the same either way.
+     * @param trace Trace to record into, or {@code null} to stop tracing.
+     * @param sampling Number of inferences per traced inference.
+     * @throws IllegalArgumentException If the trace is of another model or the sampling is not positive.
+     */
+    public void setTrace(FuzzyTrace trace, int sampling) {
+        if (trace != null && trace.getModel() != model) {
+            throw new IllegalArgumentException("The trace is of another model");
+        }
+        if (sampling < 1) {
+            throw new IllegalArgumentException("The sampling must be positive");
+        }
+        this.trace = trace;
+        this.sampling = sampling;
+        this.countdown = 1;
+        this.started = false;
+        this.tracing = false;
+        this.observed = recorder != null || trace != null;
+    }
+
+    /**
+     * Fuzzify a value by calculating its degree of membership in each of the named variable's sets.
+     * @param name Name of the variable.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(String name, double value) {
+        fuzzify(model.getVariableIndex(name), value);
+    }
+
+    /**
+     * Fuzzify a value by calculating its degree of membership in each of the given variable's sets.
+     * @param variable Index of the variable, equal to its handle in the controller.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(int variable, double value) {
+        if (!observed) {
+            kernel.fuzzify(slots, activeRegions, variable, value);
+            return;
+        }
+        if (!started) {
+            start();
+        }
+
+        if (recorder == null) {
+            kernel.fuzzify(slots, activeRegions, variable, value);
+        }
+        else {
+            long start = System.nanoTime();
+            kernel.fuzzify(slots, activeRegions, variable, value);
+            recorder.recordFuzzify(variable, System.nanoTime() - start);
+        }
+        if (tracing) {
+            trace.recordInput(variable, value, slots);
+        }
+    }
+
+    /**
+     * Given a fuzzy variable with the name specified method processes the rules and returns the
+     * crisp value of the variable.
+     * @param name Name of the variable to defuzzify.
+     * @return Crisp value of the variable specified.
+     */
+    public double defuzzify(String name) {
+        return defuzzify(model.getVariableIndex(name));
+    }
+
+    /**
+     * Given a fuzzy variable with the index specified method processes the rules and returns the
+     * crisp value of the variable.
+     * @param variable Index of the variable to defuzzify, equal to its handle in the controller.
+     * @return Crisp value of the variable specified.
+     */
+    public double defuzzify(int variable) {
+        if (observed) {
+            return defuzzifyObserved(variable);
+        }
+        kernel.execute(slots, pool);
+
+        return kernel.defuzzify(slots, variable, workspace);
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the given variables, so
+     * the cost of the rule evaluation does not depend on the number of variables defuzzified.
+     * @param names Names of the variables to defuzzify.
+     * @param results Array to store the crisp values into, in the order of the names.
+     */
+    public void defuzzify(String[] names, double[] results) {
+        if (observed) {
+            int[] variables = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                variables[i] = model.getVariableIndex(names[i]);
+            }
+            defuzzifyObserved(variables, results);
+            return;
+        }
+        kernel.execute(slots, pool);
+
+        for (int i = 0; i < names.length; i++) {
+            results[i] = kernel.defuzzify(slots, model.getVariableIndex(names[i]), workspace);
+        }
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the variables with the
+     * given indices.
+     * @param variables Indices of the variables to defuzzify, equal to their handles in the controller.
+     * @param results Array to store the crisp values into, in the order of the indices.
+     */
+    public void defuzzify(int[] variables, double[] results) {
+        if (observed) {
+            defuzzifyObserved(variables, results);
+            return;
+        }
+        kernel.execute(slots, pool);
+
+        for (int i = 0; i < variables.length; i++) {
+            results[i] = kernel.defuzzify(slots, variables[i], workspace);
+        }
+    }
+
+    /**
+     * Method starts an inference, deciding whether it is traced.
+     */
+    protected void start() {
+        started = true;
+        tracing = trace != null && --countdown == 0;
+        if (tracing) {
+            countdown = sampling;
+            trace.begin(recorder);
+        }
+    }
+
+    /**
+     * Method processes the rules and returns the crisp value of the given variable, recording the
+     * inference into the metrics and the trace of the context.
+     * @param variable Index of the variable to defuzzify.
+     * @return Crisp value of the variable specified.
+     */
+    protected double defuzzifyObserved(int variable) {
+        if (!started) {
+            start();
+        }
+        started = false;
+
+        double result;
+        if (recorder == null) {
+            execute();
+            result = kernel.defuzzify(slots, variable, workspace);
+        }
+        else {
+            long start = System.nanoTime();
+            execute();
+
+            long defuzzifyStart = System.nanoTime();
+            result = kernel.defuzzify(slots, variable, workspace);
+            long end = System.nanoTime();
+
+            recorder.recordDefuzzify(variable, end - defuzzifyStart);
+            recorder.recordInference(end - start, 1);
+        }
+        if (tracing) {
+            trace.recordOutput(variable, result);
+        }
+        return result;
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of the given variables, recording
+     * the inference into the metrics and the trace of the context.
+     * @param variables Indices of the variables to defuzzify.
+     * @param results Array to store the crisp values into, in the order of the indices.
+     */
+    protected void defuzzifyObserved(int[] variables, double[] results) {
+        if (!started) {
+            start();
+        }
+        started = false;
+
+        if (recorder == null) {
+            execute();
+            for (int i = 0; i < variables.length; i++) {
+                results[i] = kernel.defuzzify(slots, variables[i], workspace);
+            }
+        }
+        else {
+            long start = System.nanoTime();
+            execute();
+
+            long end = System.nanoTime();
+            for (int i = 0; i < variables.length; i++) {
+                long defuzzifyStart = end;
+                results[i] = kernel.defuzzify(slots, variables[i], workspace);
+                end = System.nanoTime();
+                recorder.recordDefuzzify(variables[i], end - defuzzifyStart);
+            }
+            recorder.recordInference(end - start, variables.length);
+        }
+        if (tracing) {
+            for (int i = 0; i < variables.length; i++) {
+                trace.recordOutput(variables[i], results[i]);
+            }
+        }
+    }
+
+    /**
+     * Method processes the rules of an observed inference: through the trace if the inference is traced,
+     * through the recorder of the metrics if they are attached, and as usual otherwise.
+     */
+    protected void execute() {
+        if (tracing) {
+            model.getProgram().execute(slots, trace);
+            trace.recordRules(slots);
+        }
+        else if (recorder != null) {
+            model.getProgram().execute(slots, recorder);
+        }
+        else {
+            kernel.execute(slots, pool);
+        }
+    }
+
+}
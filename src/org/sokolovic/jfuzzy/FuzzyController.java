@@ -15,11 +15,18 @@
 
 package org.sokolovic.jfuzzy;
 
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.metrics.FuzzyMetrics;
 import org.sokolovic.jfuzzy.variable.FuzzyVariable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Class models a fuzzy controller: a collection of fuzzy variables and rules
@@ -32,24 +39,201 @@ public class FuzzyController {
     protected HashMap<String, FuzzyVariable> variables;
     protected List<FuzzyRule> rules;
 
+    /**
+     * Handles of the variables keyed by their names.
+     */
+    protected HashMap<String, Integer> handles;
+
+    /**
+     * The variables indexed by their handles.
+     */
+    protected List<FuzzyVariable> variablesByHandle;
+
+    /**
+     * Whether the rules are evaluated by the compiled program instead of walking the rule trees.
+     */
+    protected boolean compiled;
+
+    /**
+     * The compiled rule base. Compiled lazily and discarded whenever the controller changes.
+     */
+    protected FuzzyProgram program;
+
+    /**
+     * The slot array the compiled program operates on.
+     */
+    protected double[] slots;
+
+    /**
+     * Pool the compiled rule base is evaluated in, or {@code null} to evaluate it on the calling thread.
+     */
+    protected ForkJoinPool pool;
+
+    /**
+     * Recorder of the metrics attached to the controller, or {@code null} if no metrics are recorded.
+     */
+    protected FuzzyMetrics.Recorder recorder;
+
+    /**
+     * Handle of the single variable defuzzified while the metrics are recorded, passed on as an array.
+     */
+    protected int[] recordedHandle;
+
+    /**
+     * Crisp value of the single variable defuzzified while the metrics are recorded.
+     */
+    protected double[] recordedResult;
+
+    /**
+     * Names of the variables last defuzzified by name while the metrics are recorded.
+     */
+    protected String[] recordedNames;
+
+    /**
+     * Handles of the variables last defuzzified by name while the metrics are recorded, in the order of
+     * their names.
+     */
+    protected int[] recordedHandles;
+
     /**
      * No-arg constructor. Initializes the new instance of the fuzzy
      * controller.
      */
     public FuzzyController() {
-        variables = new HashMap<String, FuzzyVariable>();
+        variables = new LinkedHashMap<String, FuzzyVariable>();
         rules = new ArrayList<FuzzyRule>();
+        handles = new HashMap<String, Integer>();
+        variablesByHandle = new ArrayList<FuzzyVariable>();
+        compiled = false;
+    }
+
+    /**
+     * Getter to obtain the fuzzy variables of the controller.
+     * @return Unmodifiable map of the variables keyed by their names, in the order of their handles.
+     */
+    public Map<String, FuzzyVariable> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * Method returns the handle of the named variable. Handles are assigned by {@code createFLV()} in
+     * the order the variables are created, starting from zero, and stay the same for the lifetime
+     * of the controller. They are also the variable indices of the models created from it.
+     * @param name Name of the variable.
+     * @return Handle of the variable.
+     * @throws IllegalArgumentException If the controller has no variable with the given name.
+     */
+    public int getHandle(String name) {
+        Integer handle = handles.get(name);
+
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown fuzzy variable: " + name);
+        }
+        return handle;
     }
 
     /**
-     * Creates a new 'empty' fuzzy variable and returns a reference to it.
+     * Getter to obtain the rules of the controller.
+     * @return Unmodifiable list of the rules, in the order they were added.
+     */
+    public List<FuzzyRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Setter to replace the rules of the controller, as the {@code FuzzyOptimizer} does.
+     * @param rules The new rules, in the order they are evaluated.
+     */
+    public void setRules(List<FuzzyRule> rules) {
+        this.rules = new ArrayList<FuzzyRule>(rules);
+        program = null;
+    }
+
+    /**
+     * Getter to check whether the controller runs in compiled mode.
+     * @return {@code true} if the rules are evaluated by the compiled program.
+     */
+    public boolean isCompiled() {
+        return this.compiled;
+    }
+
+    /**
+     * Setter to switch the compiled mode on or off. In compiled mode the rule base is lowered once into
+     * a {@code FuzzyProgram} which is then run on each {@code defuzzify()} call instead of walking the
+     * rule trees. The results are the same in both modes.
+     * @param compiled {@code true} to evaluate the rules by the compiled program.
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        this.program = null;
+        this.slots = null;
+    }
+
+    /**
+     * Getter to obtain the pool the compiled rule base is evaluated in.
+     * @return Pool of the controller, or {@code null} if the rules are evaluated on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Setter to split the evaluation of the rules of each inference across the workers of the given
+     * pool. The rules are split in compiled mode only, and only if the rule base compiles to at least
+     * {@code FuzzyProgram.PARALLEL_THRESHOLD} instructions; otherwise they are evaluated on the calling
+     * thread. The results are the same either way.
+     * @param pool Pool to evaluate the rules in, or {@code null} to evaluate them on the calling thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Getter to obtain the metrics the inferences of the controller are recorded into.
+     * @return Metrics of the controller, or {@code null} if no metrics are recorded.
+     */
+    public FuzzyMetrics getMetrics() {
+        return recorder == null ? null : recorder.getMetrics();
+    }
+
+    /**
+     * Setter to record the inferences of the controller into the given metrics. The metrics must be
+     * created for the rules and the variables the controller has when the inferences are run. While the
+     * metrics are attached the compiled rule base is evaluated on the calling thread.
+     * @param metrics Metrics to record into, or {@code null} to stop recording.
+     */
+    public void setMetrics(FuzzyMetrics metrics) {
+        this.recorder = metrics == null ? null : metrics.newRecorder();
+        if (recorder != null && recordedHandle == null) {
+            recordedHandle = new int[1];
+            recordedResult = new double[1];
+            recordedNames = new String[0];
+            recordedHandles = new int[0];
+        }
+    }
+
+    /**
+     * Creates a new 'empty' fuzzy variable and returns a reference to it. The variable is assigned the
+     * next free handle, unless it replaces a variable with the same name, whose handle it takes over.
      * @param name Name of the variable to create.
      * @return Reference to the newly created variable.
+     * @see #getHandle(String)
      */
     public FuzzyVariable createFLV(String name) {
-        variables.put(name, new FuzzyVariable());
+        FuzzyVariable variable = new FuzzyVariable();
+        Integer handle = handles.get(name);
 
-        return variables.get(name);
+        if (handle == null) {
+            handles.put(name, variablesByHandle.size());
+            variablesByHandle.add(variable);
+        }
+        else {
+            variablesByHandle.set(handle, variable);
+        }
+        variables.put(name, variable);
+        program = null;
+
+        return variable;
     }
 
     /**
@@ -59,6 +243,27 @@ public class FuzzyController {
      */
     public void addRule(FuzzyTerm antecedent, FuzzyTerm consequence) {
         rules.add(new FuzzyRule(antecedent, consequence));
+        program = null;
+    }
+
+    /**
+     * Method creates an immutable model of the controller in its current state. The model can run
+     * inferences from many threads at once, each using its own {@code FuzzyContext}.
+     * @return Model of the controller.
+     */
+    public FuzzyModel createModel() {
+        return new FuzzyModel(this);
+    }
+
+    /**
+     * Method creates an immutable model of the controller in its current state, optionally running
+     * its inferences with code generated for the model.
+     * @param generated Whether to generate the code of the inferences.
+     * @return Model of the controller.
+     * @see FuzzyModel#FuzzyModel(FuzzyController, boolean)
+     */
+    public FuzzyModel createModel(boolean generated) {
+        return new FuzzyModel(this, generated);
     }
 
     /**
@@ -67,33 +272,242 @@ public class FuzzyController {
      * @param value Value to fuzzify.
      */
     public void fuzzify(String name, double value) {
+        if (recorder != null) {
+            fuzzify(getHandle(name), value);
+            return;
+        }
         variables.get(name).fuzzify(value);
     }
 
+    /**
+     * Method calls the {@code fuzzify()} method of the FLV with the given handle.
+     * @param handle Handle of the FLV.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(int handle, double value) {
+        if (recorder == null) {
+            variablesByHandle.get(handle).fuzzify(value);
+            return;
+        }
+
+        long start = System.nanoTime();
+        variablesByHandle.get(handle).fuzzify(value);
+        recorder.recordFuzzify(handle, System.nanoTime() - start);
+    }
+
     /**
      * Given a fuzzy variable with the key specified method returns the crisp value.
      * @param name Name of the FLV to defuzzify.
      * @return Crisp value of the variable specified.
      */
     public double defuzzify(String name) {
+        if (recorder != null) {
+            return defuzzify(getHandle(name));
+        }
+
+        // Process the rules
+        calculate();
+
+        // Defuzzify the resultant conclusion
+        return variables.get(name).defuzzify();
+    }
+
+    /**
+     * Given a fuzzy variable with the handle specified method returns the crisp value.
+     * @param handle Handle of the FLV to defuzzify.
+     * @return Crisp value of the variable specified.
+     */
+    public double defuzzify(int handle) {
+        if (recorder != null) {
+            recordedHandle[0] = handle;
+            defuzzifyRecorded(recordedHandle, recordedResult);
+            return recordedResult[0];
+        }
+
+        // Process the rules
+        calculate();
+
+        // Defuzzify the resultant conclusion
+        return variablesByHandle.get(handle).defuzzify();
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the given variables, so
+     * the cost of the rule evaluation does not depend on the number of variables defuzzified.
+     * @param names Names of the FLVs to defuzzify.
+     * @param results Array to store the crisp values into, in the order of the names.
+     */
+    public void defuzzify(String[] names, double[] results) {
+        if (recorder != null) {
+            defuzzifyRecorded(recordedHandles(names), results);
+            return;
+        }
+
+        // Process the rules
+        calculate();
+
+        // Defuzzify the resultant conclusions
+        for (int i = 0; i < names.length; i++) {
+            results[i] = variables.get(names[i]).defuzzify();
+        }
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the variables with the
+     * given handles.
+     * @param handles Handles of the FLVs to defuzzify.
+     * @param results Array to store the crisp values into, in the order of the handles.
+     */
+    public void defuzzify(int[] handles, double[] results) {
+        if (recorder != null) {
+            defuzzifyRecorded(handles, results);
+            return;
+        }
+
+        // Process the rules
+        calculate();
+
+        // Defuzzify the resultant conclusions
+        for (int i = 0; i < handles.length; i++) {
+            results[i] = variablesByHandle.get(handles[i]).defuzzify();
+        }
+    }
+
+    /**
+     * Method runs the inferences of many records given column-wise: one array of values per input
+     * variable and one array to store the crisp values into per output variable. The inferences are
+     * run on a model of the controller and do not change the state of the controller.
+     * @param inputNames Names of the input FLVs.
+     * @param inputColumns Input columns, in the order of the input names.
+     * @param outputNames Names of the output FLVs.
+     * @param outputColumns Output columns, in the order of the output names.
+     * @see FuzzyModel#defuzzify(String[], double[][], String[], double[][])
+     */
+    public void defuzzify(String[] inputNames, double[][] inputColumns,
+                          String[] outputNames, double[][] outputColumns) {
+        createModel().defuzzify(inputNames, inputColumns, outputNames, outputColumns);
+    }
+
+    /**
+     * Method runs the inferences of many records given column-wise, splitting the records across the
+     * workers of the given pool.
+     * @param inputNames Names of the input FLVs.
+     * @param inputColumns Input columns, in the order of the input names.
+     * @param outputNames Names of the output FLVs.
+     * @param outputColumns Output columns, in the order of the output names.
+     * @param pool Pool to run the inferences in.
+     * @see FuzzyModel#defuzzify(String[], double[][], String[], double[][], ForkJoinPool)
+     */
+    public void defuzzify(String[] inputNames, double[][] inputColumns,
+                          String[] outputNames, double[][] outputColumns, ForkJoinPool pool) {
+        createModel().defuzzify(inputNames, inputColumns, outputNames, outputColumns, pool);
+    }
+
+    /**
+     * Method returns the handles of the named variables, resolving only the names that differ from the
+     * ones last defuzzified while the metrics are recorded. The array is reused by the next call.
+     * @param names Names of the FLVs.
+     * @return Handles of the FLVs, in the order of the names.
+     */
+    private int[] recordedHandles(String[] names) {
+        if (recordedNames.length != names.length) {
+            recordedNames = new String[names.length];
+            recordedHandles = new int[names.length];
+        }
+
+        for (int i = 0; i < names.length; i++) {
+            if (!names[i].equals(recordedNames[i])) {
+                recordedHandles[i] = getHandle(names[i]);
+                recordedNames[i] = names[i];
+            }
+        }
+        return recordedHandles;
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of the variables with the given
+     * handles, recording the inference into the metrics of the controller.
+     * @param handles Handles of the FLVs to defuzzify.
+     * @param results Array to store the crisp values into, in the order of the handles.
+     */
+    private void defuzzifyRecorded(int[] handles, double[] results) {
+        FuzzyMetrics metrics = recorder.getMetrics();
+        if (metrics.getRuleCount() != rules.size() || metrics.getVariableCount() != variablesByHandle.size()) {
+            throw new IllegalStateException("Metrics " + metrics.getName() + " do not match the controller");
+        }
+
+        long start = System.nanoTime();
+        calculate();
+
+        long end = System.nanoTime();
+        for (int i = 0; i < handles.length; i++) {
+            long defuzzifyStart = end;
+            results[i] = variablesByHandle.get(handles[i]).defuzzify();
+            end = System.nanoTime();
+            recorder.recordDefuzzify(handles[i], end - defuzzifyStart);
+        }
+        recorder.recordInference(end - start, handles.length);
+    }
+
+    /**
+     * Method processes the rules, updating the confidences of the consequent sets.
+     */
+    private void calculate() {
+        if (compiled) {
+            calculateCompiled();
+            return;
+        }
+
         // Clear the DOMs of all the consequences of all the rules
         setConfidencesOfConsequentsToZero();
 
         // Process the rules
-        for (FuzzyRule rule : rules) {
-            rule.calculate();
+        if (recorder == null) {
+            for (int i = 0; i < rules.size(); i++) {
+                rules.get(i).calculate();
+            }
+            return;
         }
+        for (int i = 0; i < rules.size(); i++) {
+            FuzzyRule rule = rules.get(i);
+            double strength = rule.getAntecedent().getDom();
+            rule.getConsequence().orWithDom(strength);
+            recorder.ruleFired(i, strength);
+        }
+    }
 
-        // Defuzzify the resultant conclusion
-        return variables.get(name).defuzzify();
+    /**
+     * Method processes the rules by running the compiled program, compiling the rule base first if
+     * it has changed since the last run. The DOMs of the sets are loaded into the slot array and the
+     * resulting confidences are stored back into the consequent sets.
+     */
+    private void calculateCompiled() {
+        if (program == null) {
+            program = FuzzyCompiler.compile(this);
+            slots = program.newSlots();
+        }
+
+        for (int i = 0; i < program.getSetCount(); i++) {
+            slots[i] = program.getSet(i).getDom();
+        }
+        if (recorder == null) {
+            program.execute(slots, pool);
+        }
+        else {
+            program.execute(slots, recorder);
+        }
+        for (int i = 0; i < program.getConsequentCount(); i++) {
+            int slot = program.getConsequentSlot(i);
+            program.getSet(slot).setDom(slots[slot]);
+        }
     }
 
     /**
      * Method zeros the DOMs of the consequents of each rule.
      */
     private void setConfidencesOfConsequentsToZero() {
-        for (FuzzyRule rule : rules) {
-            rule.setConfidenceOfConsequentToZero();
+        for (int i = 0; i < rules.size(); i++) {
+            rules.get(i).setConfidenceOfConsequentToZero();
         }
     }
 
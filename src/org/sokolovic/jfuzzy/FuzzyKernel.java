@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy;
+
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class runs the steps of the inferences of a {@code FuzzyModel} on the slot arrays of its contexts:
+ * the fuzzification of the inputs, the evaluation of the compiled rule base and the defuzzification of
+ * the outputs. This kernel interprets the model; {@code FuzzyCodeGenerator} generates kernels that run
+ * the same steps as code specialized to the model, with the same results.
+ * <p>
+ * A kernel keeps no state of its own and is shared by all the contexts of its model.
+ *
+ * @author sokolovic
+ * @see org.sokolovic.jfuzzy.compiler.FuzzyCodeGenerator
+ */
+public class FuzzyKernel {
+
+    /**
+     * The model the kernel runs the inferences of.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Constructor to initialize the kernel interpreting the given model.
+     * @param model Model to run the inferences of.
+     */
+    public FuzzyKernel(FuzzyModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Getter to obtain the model the kernel runs the inferences of.
+     * @return The model of the kernel.
+     */
+    public FuzzyModel getModel() {
+        return this.model;
+    }
+
+    /**
+     * Getter to check whether the kernel runs code generated for its model.
+     * @return {@code true} if the kernel is generated, {@code false} if it interprets the model.
+     */
+    public boolean isGenerated() {
+        return false;
+    }
+
+    /**
+     * Method calculates the degrees of membership of the given value in the members of the given
+     * variable and stores them into the slot array.
+     * @param slots Slot array of the context.
+     * @param activeRegions Regions of the previous values of the variables, -1 if unknown.
+     * @param variable Index of the variable.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(double[] slots, int[] activeRegions, int variable, double value) {
+        model.fuzzify(slots, activeRegions, variable, value);
+    }
+
+    /**
+     * Method evaluates the rule base on the given slot array, updating the confidences of the
+     * consequent sets.
+     * @param slots Slot array of the context.
+     */
+    public void execute(double[] slots) {
+        model.getProgram().execute(slots);
+    }
+
+    /**
+     * Method evaluates the rule base on the given slot array, splitting the rules across the workers of
+     * the given pool if the rule base is large enough to be evaluated in parallel.
+     * @param slots Slot array of the context.
+     * @param pool Pool to evaluate the rules in, or {@code null} to evaluate them on the calling thread.
+     * @see FuzzyProgram#isParallel(ForkJoinPool)
+     */
+    public void execute(double[] slots, ForkJoinPool pool) {
+        FuzzyProgram program = model.getProgram();
+
+        if (program.isParallel(pool)) {
+            program.execute(slots, pool);
+        }
+        else {
+            execute(slots);
+        }
+    }
+
+    /**
+     * Method defuzzifies the given variable from the degrees of membership held in the slot array.
+     * @param slots Slot array of the context.
+     * @param variable Index of the variable.
+     * @param workspace Workspace of at least {@code FuzzyModel.getWorkspaceSize()} elements.
+     * @return Defuzzified value.
+     */
+    public double defuzzify(double[] slots, int variable, double[] workspace) {
+        return model.defuzzify(slots, variable, workspace);
+    }
+
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy;
+
+import org.sokolovic.jfuzzy.compiler.FuzzyCodeGenerator;
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.defuzzifier.Defuzzifier;
+import org.sokolovic.jfuzzy.defuzzifier.FuzzyAggregate;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+import org.sokolovic.jfuzzy.variable.MembershipTable;
+import org.sokolovic.jfuzzy.variable.SupportIndex;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class models an immutable snapshot of a fuzzy controller: its variables and its compiled rule base.
+ * Unlike the controller, the model keeps no degree of membership state of its own. All the state of
+ * an inference lives in a {@code FuzzyContext}, so a single model can be shared by any number of
+ * threads, each running inferences through its own context without locking.
+ * <p>
+ * The model only reads the member sets of the controller through their membership tables,
+ * {@code calculateDom()} and {@code getRepresentativeValue()}, which do not depend on the mutable degree
+ * of membership of the sets. Changes made to the controller after the model was created are not
+ * reflected in the model.
+ *
+ * @author sokolovic
+ */
+public class FuzzyModel {
+
+    /**
+     * The compiled rule base.
+     */
+    protected final FuzzyProgram program;
+
+    /**
+     * Indices of the variables keyed by their names.
+     */
+    protected final Map<String, Integer> variableIndices;
+
+    /**
+     * Names of the variables, indexed by the variable index.
+     */
+    protected final String[] variableNames;
+
+    /**
+     * First slot of the members of each variable.
+     */
+    protected final int[] firstSlots;
+
+    /**
+     * Slot past the last member of each variable.
+     */
+    protected final int[] endSlots;
+
+    /**
+     * Whether the rules write the degrees of membership of any member of each variable.
+     */
+    protected final boolean[] consequents;
+
+    /**
+     * Names of the member sets within their variables, indexed by slot.
+     */
+    protected final String[] setNames;
+
+    /**
+     * Representative values of the member sets, indexed by slot.
+     */
+    protected final double[] representativeValues;
+
+    /**
+     * Indices of the members of each variable by their supports.
+     */
+    protected final SupportIndex[] supportIndices;
+
+    /**
+     * Membership functions of the members of each variable as parallel arrays.
+     */
+    protected final MembershipTable[] membershipTables;
+
+    /**
+     * Defuzzifiers of the variables.
+     */
+    protected final Defuzzifier[] defuzzifiers;
+
+    /**
+     * Aggregates of the member sets of the variables.
+     */
+    protected final FuzzyAggregate[] aggregates;
+
+    /**
+     * The largest workspace any of the defuzzifiers needs.
+     */
+    protected final int workspaceSize;
+
+    /**
+     * The kernel running the inferences of the model.
+     */
+    protected final FuzzyKernel kernel;
+
+    /**
+     * Constructor to create the model of the given controller.
+     * @param controller Controller to create the model of.
+     * @throws IllegalArgumentException If a rule refers to a set that is not a member of any variable
+     *                                  of the controller, or contains a term that cannot be compiled.
+     */
+    public FuzzyModel(FuzzyController controller) {
+        this(controller, false);
+    }
+
+    /**
+     * Constructor to create the model of the given controller, optionally running its inferences with
+     * code generated for the model. The generated code gives the same results as the interpreter; if
+     * it cannot be generated, the model interprets its inferences.
+     * @param controller Controller to create the model of.
+     * @param generated Whether to generate the code of the inferences.
+     * @throws IllegalArgumentException If a rule refers to a set that is not a member of any variable
+     *                                  of the controller, or contains a term that cannot be compiled.
+     * @see FuzzyCodeGenerator
+     */
+    public FuzzyModel(FuzzyController controller, boolean generated) {
+        this(FuzzyCompiler.compile(controller), controller.getVariables(), generated);
+    }
+
+    /**
+     * Constructor to create the model of a compiled rule base and the variables it was compiled from,
+     * such as the ones loaded from a snapshot. The leading slots of the program must hold the member
+     * sets of the variables, variable by variable.
+     * @param program Compiled rule base.
+     * @param variables Variables keyed by their names, in the order of their handles.
+     * @param generated Whether to generate the code of the inferences.
+     * @throws IllegalArgumentException If the program refers to a set that is not a member of any of
+     *                                  the variables.
+     * @throws IllegalStateException If the members of the variables do not match the slots of the program.
+     */
+    public FuzzyModel(FuzzyProgram program, Map<String, FuzzyVariable> variables, boolean generated) {
+        this.program = program;
+
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        this.variableNames = new String[variables.size()];
+        this.firstSlots = new int[variables.size()];
+        this.endSlots = new int[variables.size()];
+        this.consequents = new boolean[variables.size()];
+        this.supportIndices = new SupportIndex[variables.size()];
+        this.membershipTables = new MembershipTable[variables.size()];
+        this.defuzzifiers = new Defuzzifier[variables.size()];
+        this.aggregates = new FuzzyAggregate[variables.size()];
+
+        // The compiler lays the members out variable by variable, in the order of their handles
+        int index = 0;
+        int slot = 0;
+        int workspace = 0;
+        this.setNames = new String[program.getSetCount()];
+        for (Map.Entry<String, FuzzyVariable> entry : variables.entrySet()) {
+            indices.put(entry.getKey(), index);
+            variableNames[index] = entry.getKey();
+            firstSlots[index] = slot;
+            for (Map.Entry<String, FuzzySet> member : entry.getValue().getMembers().entrySet()) {
+                if (slot >= setNames.length || program.getSet(slot) != member.getValue()) {
+                    throw new IllegalStateException("Unexpected slot layout of the compiled rule base");
+                }
+                setNames[slot] = member.getKey();
+                slot++;
+            }
+            endSlots[index] = slot;
+            supportIndices[index] = entry.getValue().getIndex();
+            membershipTables[index] = entry.getValue().getMembershipTable();
+            defuzzifiers[index] = entry.getValue().getDefuzzifier();
+            aggregates[index] = entry.getValue().getAggregate();
+            workspace = Math.max(workspace, defuzzifiers[index].getWorkspaceSize(aggregates[index]));
+            index++;
+        }
+        if (slot != program.getSetCount()) {
+            throw new IllegalArgumentException("A rule refers to a fuzzy set that is not a member of any " +
+                    "variable of the controller");
+        }
+        this.variableIndices = Collections.unmodifiableMap(indices);
+        this.workspaceSize = workspace;
+
+        for (int i = 0; i < program.getConsequentCount(); i++) {
+            int consequentSlot = program.getConsequentSlot(i);
+            for (int j = 0; j < variableNames.length; j++) {
+                if (firstSlots[j] <= consequentSlot && consequentSlot < endSlots[j]) {
+                    consequents[j] = true;
+                }
+            }
+        }
+
+        this.representativeValues = new double[slot];
+        for (int i = 0; i < slot; i++) {
+            representativeValues[i] = program.getSet(i).getRepresentativeValue();
+        }
+
+        // The generator reads the rest of the model, so the kernel comes last
+        this.kernel = generated ? FuzzyCodeGenerator.generate(this) : new FuzzyKernel(this);
+    }
+
+    /**
+     * Method creates a new inference context for this model. A context must not be used by more
+     * than one thread at a time.
+     * @return New inference context.
+     */
+    public FuzzyContext newContext() {
+        return new FuzzyContext(this);
+    }
+
+    /**
+     * Getter to obtain the compiled rule base of the model.
+     * @return Compiled rule base.
+     */
+    public FuzzyProgram getProgram() {
+        return this.program;
+    }
+
+    /**
+     * Getter to obtain the kernel running the inferences of the model.
+     * @return Kernel of the model.
+     */
+    public FuzzyKernel getKernel() {
+        return this.kernel;
+    }
+
+    /**
+     * Getter to check whether the inferences of the model run code generated for it.
+     * @return {@code true} if the kernel of the model is generated.
+     */
+    public boolean isGenerated() {
+        return kernel.isGenerated();
+    }
+
+    /**
+     * Getter to obtain the number of variables of the model.
+     * @return Number of variables.
+     */
+    public int getVariableCount() {
+        return variableNames.length;
+    }
+
+    /**
+     * Method returns the index of the named variable. The index of a variable is equal to its handle
+     * in the controller the model was created from.
+     * @param name Name of the variable.
+     * @return Index of the variable.
+     * @throws IllegalArgumentException If the model has no variable with the given name.
+     */
+    public int getVariableIndex(String name) {
+        Integer index = variableIndices.get(name);
+
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown fuzzy variable: " + name);
+        }
+        return index;
+    }
+
+    /**
+     * Getter to obtain the name of the variable with the given index.
+     * @param variable Index of the variable.
+     * @return Name of the variable.
+     */
+    public String getVariableName(int variable) {
+        return variableNames[variable];
+    }
+
+    /**
+     * Getter to obtain the first slot of the members of the given variable.
+     * @param variable Index of the variable.
+     * @return First slot of the variable's members.
+     */
+    public int getFirstSlot(int variable) {
+        return firstSlots[variable];
+    }
+
+    /**
+     * Getter to obtain the slot past the last member of the given variable.
+     * @param variable Index of the variable.
+     * @return Slot past the last of the variable's members.
+     */
+    public int getEndSlot(int variable) {
+        return endSlots[variable];
+    }
+
+    /**
+     * Getter to obtain the membership functions of the members of a variable as parallel arrays.
+     * @param variable Index of the variable.
+     * @return Membership table of the variable.
+     */
+    public MembershipTable getMembershipTable(int variable) {
+        return membershipTables[variable];
+    }
+
+    /**
+     * Getter to obtain the defuzzifier of a variable, as set when the model was created.
+     * @param variable Index of the variable.
+     * @return Defuzzifier of the variable.
+     */
+    public Defuzzifier getDefuzzifier(int variable) {
+        return defuzzifiers[variable];
+    }
+
+    /**
+     * Getter to obtain the aggregate of the member sets of a variable.
+     * @param variable Index of the variable.
+     * @return Aggregate of the variable.
+     */
+    public FuzzyAggregate getAggregate(int variable) {
+        return aggregates[variable];
+    }
+
+    /**
+     * Getter to obtain the size of the workspace needed to defuzzify any of the variables.
+     * @return Number of elements of the workspace.
+     */
+    public int getWorkspaceSize() {
+        return workspaceSize;
+    }
+
+    /**
+     * Getter to obtain the name of the set held in the given slot, within its variable.
+     * @param slot Slot of the set.
+     * @return Name of the set.
+     */
+    public String getSetName(int slot) {
+        return setNames[slot];
+    }
+
+    /**
+     * Getter to obtain the representative value of the set held in the given slot.
+     * @param slot Slot of the set.
+     * @return Representative value of the set.
+     */
+    public double getRepresentativeValue(int slot) {
+        return representativeValues[slot];
+    }
+
+    /**
+     * Method runs the inferences of many records given column-wise: one array of values per input
+     * variable and one array to store the crisp values into per output variable. The sets of the
+     * variables that are not among the inputs have a zero degree of membership.
+     * @param inputNames Names of the input variables.
+     * @param inputColumns Input columns, in the order of the input names.
+     * @param outputNames Names of the output variables.
+     * @param outputColumns Output columns, in the order of the output names.
+     */
+    public void defuzzify(String[] inputNames, double[][] inputColumns,
+                          String[] outputNames, double[][] outputColumns) {
+        int records = checkColumns(inputNames, inputColumns, outputNames, outputColumns);
+
+        new FuzzyBatch(this, getVariableIndices(inputNames), getVariableIndices(outputNames))
+                .run(inputColumns, outputColumns, 0, records);
+    }
+
+    /**
+     * Method runs the inferences of many records given column-wise, splitting the records across the
+     * workers of the given pool.
+     * @param inputNames Names of the input variables.
+     * @param inputColumns Input columns, in the order of the input names.
+     * @param outputNames Names of the output variables.
+     * @param outputColumns Output columns, in the order of the output names.
+     * @param pool Pool to run the inferences in.
+     */
+    public void defuzzify(String[] inputNames, double[][] inputColumns,
+                          String[] outputNames, double[][] outputColumns, ForkJoinPool pool) {
+        int records = checkColumns(inputNames, inputColumns, outputNames, outputColumns);
+
+        pool.invoke(new FuzzyBatch.Task(this, getVariableIndices(inputNames), getVariableIndices(outputNames),
+                inputColumns, outputColumns, 0, records));
+    }
+
+    /**
+     * Method returns the indices of the named variables.
+     * @param names Names of the variables.
+     * @return Indices of the variables.
+     */
+    protected int[] getVariableIndices(String[] names) {
+        int[] indices = new int[names.length];
+
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = getVariableIndex(names[i]);
+        }
+        return indices;
+    }
+
+    /**
+     * Method checks that there is a column per variable and that all the columns are of the same
+     * length.
+     * @param inputNames Names of the input variables.
+     * @param inputColumns Input columns.
+     * @param outputNames Names of the output variables.
+     * @param outputColumns Output columns.
+     * @return Number of records.
+     * @throws IllegalArgumentException If the columns do not match the variables.
+     */
+    protected static int checkColumns(String[] inputNames, double[][] inputColumns,
+                                      String[] outputNames, double[][] outputColumns) {
+        if (inputNames.length != inputColumns.length || outputNames.length != outputColumns.length) {
+            throw new IllegalArgumentException("Each variable must be given exactly one column");
+        }
+        if (outputColumns.length == 0) {
+            return 0;
+        }
+
+        int records = outputColumns[0].length;
+        for (double[][] columns : new double[][][] { inputColumns, outputColumns }) {
+            for (double[] column : columns) {
+                if (column.length != records) {
+                    throw new IllegalArgumentException("All the columns must be of the same length");
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Method calculates the degrees of membership of the given value in the members of the given
+     * variable and stores them into the slot array. Only the members whose support contains the value
+     * are calculated: the members that were active for the previous value are zeroed first. The members
+     * of a variable the rules write to are all recalculated, as any of them may hold a confidence.
+     * @param slots Slot array of the context.
+     * @param activeRegions Regions of the previous values of the variables, -1 if unknown.
+     * @param variable Index of the variable.
+     * @param value Value to fuzzify.
+     */
+    protected void fuzzify(double[] slots, int[] activeRegions, int variable, double value) {
+        SupportIndex index = supportIndices[variable];
+        MembershipTable table = membershipTables[variable];
+        int first = firstSlots[variable];
+        int region = index.regionOf(value);
+        int activeRegion = activeRegions[variable];
+
+        if (region < 0 || activeRegion < 0 || consequents[variable]) {
+            table.calculate(value, slots, first);
+        }
+        else {
+            for (int i = index.getStart(activeRegion); i < index.getEnd(activeRegion); i++) {
+                slots[first + index.getCandidate(i)] = 0.0;
+            }
+            for (int i = index.getStart(region); i < index.getEnd(region); i++) {
+                int candidate = index.getCandidate(i);
+                slots[first + candidate] = table.calculate(candidate, value);
+            }
+        }
+        activeRegions[variable] = region;
+    }
+
+    /**
+     * Method defuzzifies the given variable with its defuzzifier, from the degrees of membership held
+     * in the slot array.
+     * @param slots Slot array of the context.
+     * @param variable Index of the variable.
+     * @param workspace Workspace of at least {@code getWorkspaceSize()} elements.
+     * @return Defuzzified value.
+     */
+    protected double defuzzify(double[] slots, int variable, double[] workspace) {
+        return defuzzifiers[variable].defuzzify(aggregates[variable], slots, firstSlots[variable], workspace);
+    }
+
+}
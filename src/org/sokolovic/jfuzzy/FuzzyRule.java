@@ -38,6 +38,22 @@ public class FuzzyRule {
         this.consequence = consequence;
     }
 
+    /**
+     * Getter to obtain the antecedent of the rule.
+     * @return Antecedent of the rule.
+     */
+    public FuzzyTerm getAntecedent() {
+        return this.antecedent;
+    }
+
+    /**
+     * Getter to obtain the consequence of the rule.
+     * @return Consequence of the rule.
+     */
+    public FuzzyTerm getConsequence() {
+        return this.consequence;
+    }
+
     /**
      * Method updates the degree of membership (the confidence) of the consequent
      * term with the degree of membership of the antecedent term.
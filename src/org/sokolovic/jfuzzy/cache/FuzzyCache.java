@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package org.sokolovic.jfuzzy.cache;
+
+import org.sokolovic.jfuzzy.FuzzyContext;
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.metrics.StripedCounters;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Class memoizes the results of the inferences of a model, keyed by the input values quantized to a
+ * resolution of each input variable. Before an inference each input value is rounded to the nearest
+ * multiple of its resolution, so a result depends only on its key and inputs that differ by less than
+ * the resolution share a single entry; a resolution of zero keys the exact value. Values too large to
+ * be quantized, and NaN at a non-zero resolution, are not cached.
+ * <p>
+ * The entries live in primitive arrays split into {@code SEGMENTS} segments, each an open-addressing
+ * table whose keys probe a set of {@code WAYS} consecutive slots. When the set of a new key is full,
+ * the entry to replace is chosen by the CLOCK algorithm: the hand of the set passes over the entries,
+ * clearing the reference bit of those used since it last passed, and stops at the first entry that was
+ * not. The number of entries follows from the memory the cache is allowed to take.
+ * <p>
+ * A cache is shared by any number of threads. Lookups do not lock: they read a segment optimistically
+ * and retry under its read lock only if an entry was stored in it meanwhile. The results of the misses
+ * are computed on the context of the calling thread and stored under the write lock of the segment.
+ * The hits, misses and evictions are counted in stripes, one per segment.
+ *
+ * @author sokolovic
+ */
+public class FuzzyCache {
+
+    /**
+     * Number of segments of the cache.
+     */
+    public static final int SEGMENTS = 16;
+
+    /**
+     * Number of slots of the set a key probes.
+     */
+    public static final int WAYS = 8;
+
+    /**
+     * The largest magnitude of a quantized value, so the rounded value is exact.
+     */
+    protected static final double MAX_QUANTUM = 1L << 52;
+
+    /**
+     * Index of the counter of the hits.
+     */
+    protected static final int HITS = 0;
+
+    /**
+     * Index of the counter of the misses.
+     */
+    protected static final int MISSES = 1;
+
+    /**
+     * Index of the counter of the evictions.
+     */
+    protected static final int EVICTIONS = 2;
+
+    /**
+     * The model the inferences are run on.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Indices of the input variables.
+     */
+    protected final int[] inputs;
+
+    /**
+     * Indices of the output variables.
+     */
+    protected final int[] outputs;
+
+    /**
+     * Resolutions the input values are quantized to, zero to key the exact values.
+     */
+    protected final double[] resolutions;
+
+    /**
+     * The segments of the cache.
+     */
+    protected final Segment[] segments;
+
+    /**
+     * Counters of the hits, misses and evictions, striped by segment.
+     */
+    protected final StripedCounters counters;
+
+    /**
+     * Constructor to initialize the cache of the model of the given controller.
+     * @param controller Controller to cache the results of. Its model is created once, so later changes
+     *                   of the controller do not affect the cache.
+     * @param inputNames Names of the input variables.
+     * @param resolutions Resolutions to quantize the values of the input variables to, in the order of
+     *                    the input names; zero keys the exact values.
+     * @param outputNames Names of the output variables.
+     * @param maxBytes The largest number of bytes the entries may take.
+     * @throws IllegalArgumentException If a variable is unknown, a resolution is negative or not finite,
+     *                                  or the number of bytes is not positive.
+     */
+    public FuzzyCache(FuzzyController controller, String[] inputNames, double[] resolutions,
+                      String[] outputNames, long maxBytes) {
+        this(controller.createModel(), inputNames, resolutions, outputNames, maxBytes);
+    }
+
+    /**
+     * Constructor to initialize the cache of the given model. The cache takes at most the given number
+     * of bytes, but holds at least {@code SEGMENTS * WAYS} entries.
+     * @param model Model to cache the results of.
+     * @param inputNames Names of the input variables.
+     * @param resolutions Resolutions to quantize the values of the input variables to, in the order of
+     *                    the input names; zero keys the exact values.
+     * @param outputNames Names of the output variables.
+     * @param maxBytes The largest number of bytes the entries may take.
+     * @throws IllegalArgumentException If a variable is unknown, a resolution is negative or not finite,
+     *                                  or the number of bytes is not positive.
+     */
+    public FuzzyCache(FuzzyModel model, String[] inputNames, double[] resolutions, String[] outputNames,
+                      long maxBytes) {
+        if (resolutions.length != inputNames.length) {
+            throw new IllegalArgumentException("Expected a resolution per input variable");
+        }
+        for (double resolution : resolutions) {
+            if (!(resolution >= 0.0) || Double.isInfinite(resolution)) {
+                throw new IllegalArgumentException("Invalid resolution: " + resolution);
+            }
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The number of bytes must be positive");
+        }
+
+        this.model = model;
+        this.inputs = new int[inputNames.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = model.getVariableIndex(inputNames[i]);
+        }
+        this.outputs = new int[outputNames.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = model.getVariableIndex(outputNames[i]);
+        }
+        this.resolutions = resolutions.clone();
+
+        // Split the entries that fit evenly into the segments, in a power of two number of sets each
+        long entries = maxBytes / getEntrySize();
+        long sets = Math.max(1, entries / ((long) SEGMENTS * WAYS));
+        int width = Math.max(1, Math.max(inputs.length, outputs.length));
+        int setCount = (int) Long.highestOneBit(Math.max(1, Math.min(sets, (1 << 30) / (WAYS * width))));
+
+        this.counters = new StripedCounters(3, SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int s = 0; s < SEGMENTS; s++) {
+            segments[s] = new Segment(setCount, counters.getStripe(s));
+        }
+    }
+
+    /**
+     * Getter to obtain the model the inferences are run on.
+     * @return The model.
+     */
+    public FuzzyModel getModel() {
+        return model;
+    }
+
+    /**
+     * Getter to obtain the number of entries the cache holds at most.
+     * @return Capacity of the cache.
+     */
+    public int getCapacity() {
+        return SEGMENTS * segments[0].tags.length;
+    }
+
+    /**
+     * Getter to obtain the number of bytes an entry takes: its tag, its key, its result and its
+     * reference bit.
+     * @return Size of an entry.
+     */
+    public int getEntrySize() {
+        return 8 + 8 * inputs.length + 8 * outputs.length + 1;
+    }
+
+    /**
+     * Getter to obtain the number of bytes the entries of the cache take.
+     * @return Size of the entries.
+     */
+    public long getMemorySize() {
+        return (long) getCapacity() * getEntrySize();
+    }
+
+    /**
+     * Getter to obtain the number of lookups that found their result in the cache.
+     * @return Number of hits.
+     */
+    public long getHitCount() {
+        return counters.get(HITS);
+    }
+
+    /**
+     * Getter to obtain the number of lookups that ran the inference.
+     * @return Number of misses.
+     */
+    public long getMissCount() {
+        return counters.get(MISSES);
+    }
+
+    /**
+     * Getter to obtain the number of entries replaced by the entries of new keys.
+     * @return Number of evictions.
+     */
+    public long getEvictionCount() {
+        return counters.get(EVICTIONS);
+    }
+
+    /**
+     * Method removes all the entries of the cache. The counters are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Method returns the crisp values of the output variables for the given input values, from the cache
+     * or by running the inference on the given context and storing its result.
+     * @param context Context of the model of the cache, owned by the calling thread.
+     * @param inputValues Values of the input variables, in the order of the input names.
+     * @param outputValues Array to store the crisp values of the output variables into, in the order of
+     *                     the output names.
+     * @throws IllegalArgumentException If the context is of another model.
+     */
+    public void defuzzify(FuzzyContext context, double[] inputValues, double[] outputValues) {
+        if (context.getModel() != model) {
+            throw new IllegalArgumentException("The context is of another model");
+        }
+
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < inputs.length; i++) {
+            double resolution = resolutions[i];
+            if (resolution != 0.0 && !(Math.abs(inputValues[i]) < MAX_QUANTUM * resolution)) {
+                // Not quantizable, run the inference on the exact values
+                infer(context, inputValues, outputValues, false);
+                segments[0].counters.incrementAndGet(MISSES);
+                return;
+            }
+            hash = (hash ^ quantize(i, inputValues[i])) * 0xC2B2AE3D27D4EB4FL;
+        }
+        hash ^= hash >>> 29;
+        hash *= 0x94D049BB133111EBL;
+        hash ^= hash >>> 32;
+
+        // The lowest bit marks a used slot, the top bits pick the segment and the bits above the lowest the set
+        long tag = hash | 1L;
+        Segment segment = segments[(int) (hash >>> 60)];
+        if (segment.get(tag, inputValues, outputValues)) {
+            segment.counters.incrementAndGet(HITS);
+            return;
+        }
+
+        infer(context, inputValues, outputValues, true);
+        segment.counters.incrementAndGet(MISSES);
+        segment.put(tag, inputValues, outputValues);
+    }
+
+    /**
+     * Method runs the inference of the given input values.
+     * @param context Context of the model.
+     * @param inputValues Values of the input variables.
+     * @param outputValues Array to store the crisp values of the output variables into.
+     * @param quantized Whether to run the inference on the quantized values.
+     */
+    protected void infer(FuzzyContext context, double[] inputValues, double[] outputValues, boolean quantized) {
+        for (int i = 0; i < inputs.length; i++) {
+            double value = inputValues[i];
+            if (quantized && resolutions[i] != 0.0) {
+                value = quantize(i, value) * resolutions[i];
+            }
+            context.fuzzify(inputs[i], value);
+        }
+        context.defuzzify(outputs, outputValues);
+    }
+
+    /**
+     * Method quantizes an input value: the index of the nearest multiple of the resolution, or the bits
+     * of the value if the resolution is zero.
+     * @param input Index of the input, in the order of the input names.
+     * @param value Value of the input, quantizable at its resolution.
+     * @return Quantized value.
+     */
+    protected long quantize(int input, double value) {
+        double resolution = resolutions[input];
+
+        return resolution == 0.0 ? Double.doubleToLongBits(value) : Math.round(value / resolution);
+    }
+
+    /**
+     * Segment of the cache: a table of {@code WAYS}-slot sets in parallel arrays, guarded by a lock of
+     * its own.
+     */
+    protected class Segment {
+
+        /**
+         * Lock guarding the entries of the segment.
+         */
+        protected final StampedLock lock;
+
+        /**
+         * Hash of the key of each slot with its lowest bit set, or zero if the slot is free.
+         */
+        protected final long[] tags;
+
+        /**
+         * Quantized input values of the key of each slot.
+         */
+        protected final long[] keys;
+
+        /**
+         * Crisp values of the output variables of each slot.
+         */
+        protected final double[] results;
+
+        /**
+         * Reference bit of each slot, set when its entry is used.
+         */
+        protected final byte[] referenced;
+
+        /**
+         * Position of the hand of the clock of each set.
+         */
+        protected final byte[] hands;
+
+        /**
+         * Mask of the index of the set of a hash.
+         */
+        protected final int setMask;
+
+        /**
+         * Counters of the segment.
+         */
+        protected final AtomicLongArray counters;
+
+        /**
+         * Constructor to initialize an empty segment.
+         * @param sets Number of sets, a power of two.
+         * @param counters Counters of the segment.
+         */
+        protected Segment(int sets, AtomicLongArray counters) {
+            this.lock = new StampedLock();
+            this.tags = new long[sets * WAYS];
+            this.keys = new long[sets * WAYS * inputs.length];
+            this.results = new double[sets * WAYS * outputs.length];
+            this.referenced = new byte[sets * WAYS];
+            this.hands = new byte[sets];
+            this.setMask = sets - 1;
+            this.counters = counters;
+        }
+
+        /**
+         * Method looks up the result of a key, reading the segment optimistically first.
+         * @param tag Tag of the key.
+         * @param inputValues Input values of the key.
+         * @param outputValues Array to copy the result into.
+         * @return Whether the key was found.
+         */
+        protected boolean get(long tag, double[] inputValues, double[] outputValues) {
+            long stamp = lock.tryOptimisticRead();
+            int slot = find(tag, inputValues);
+            if (slot >= 0) {
+                System.arraycopy(results, slot * outputs.length, outputValues, 0, outputs.length);
+            }
+
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    slot = find(tag, inputValues);
+                    if (slot >= 0) {
+                        System.arraycopy(results, slot * outputs.length, outputValues, 0, outputs.length);
+                    }
+                }
+                finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (slot < 0) {
+                return false;
+            }
+            // A lost update only gives the entry one chance less to stay
+            referenced[slot] = 1;
+            return true;
+        }
+
+        /**
+         * Method stores the result of a key, replacing an entry of its set if the set is full.
+         * @param tag Tag of the key.
+         * @param inputValues Input values of the key.
+         * @param outputValues Result of the key.
+         */
+        protected void put(long tag, double[] inputValues, double[] outputValues) {
+            long stamp = lock.writeLock();
+            try {
+                if (find(tag, inputValues) >= 0) {
+                    return;
+                }
+
+                int set = (int) (tag >>> 1) & setMask;
+                int first = set * WAYS;
+                int slot = -1;
+                for (int w = 0; w < WAYS && slot < 0; w++) {
+                    if (tags[first + w] == 0L) {
+                        slot = first + w;
+                    }
+                }
+                if (slot < 0) {
+                    // Each entry is passed at most once before one with a cleared bit comes up
+                    int hand = hands[set];
+                    while (referenced[first + hand] != 0) {
+                        referenced[first + hand] = 0;
+                        hand = (hand + 1) % WAYS;
+                    }
+                    slot = first + hand;
+                    hands[set] = (byte) ((hand + 1) % WAYS);
+                    counters.incrementAndGet(EVICTIONS);
+                }
+
+                for (int i = 0; i < inputs.length; i++) {
+                    keys[slot * inputs.length + i] = quantize(i, inputValues[i]);
+                }
+                System.arraycopy(outputValues, 0, results, slot * outputs.length, outputs.length);
+                tags[slot] = tag;
+                referenced[slot] = 1;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Method finds the slot of a key. It only reads the arrays, so it may run optimistically.
+         * @param tag Tag of the key.
+         * @param inputValues Input values of the key.
+         * @return Slot of the key, or -1 if not found.
+         */
+        protected int find(long tag, double[] inputValues) {
+            int first = ((int) (tag >>> 1) & setMask) * WAYS;
+
+            for (int slot = first; slot < first + WAYS; slot++) {
+                if (tags[slot] == tag) {
+                    boolean same = true;
+                    for (int i = 0; i < inputs.length && same; i++) {
+                        same = keys[slot * inputs.length + i] == quantize(i, inputValues[i]);
+                    }
+                    if (same) {
+                        return slot;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Method removes all the entries of the segment.
+         */
+        protected void clear() {
+            long stamp = lock.writeLock();
+            try {
+                Arrays.fill(tags, 0L);
+                Arrays.fill(referenced, (byte) 0);
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+    }
+
+}
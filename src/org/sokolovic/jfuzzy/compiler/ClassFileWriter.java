@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class assembles a class file: its constant pool and its methods. It supports what
+ * {@code FuzzyCodeGenerator} needs and nothing more: a class with no interfaces and no fields whose
+ * methods use integer, double and object values only.
+ *
+ * @author sokolovic
+ */
+class ClassFileWriter {
+
+    /**
+     * Access flag of public classes and members.
+     */
+    public static final int ACC_PUBLIC = 0x0001;
+
+    /**
+     * Access flag of private members.
+     */
+    public static final int ACC_PRIVATE = 0x0002;
+
+    /**
+     * Access flag of static members.
+     */
+    public static final int ACC_STATIC = 0x0008;
+
+    /**
+     * Access flag of final classes.
+     */
+    public static final int ACC_FINAL = 0x0010;
+
+    /**
+     * Access flag every class should have, selecting the current semantics of {@code invokespecial}.
+     */
+    public static final int ACC_SUPER = 0x0020;
+
+    /**
+     * Major version of the class files written, the first that requires the stack map frames.
+     */
+    protected static final int VERSION = 51;
+
+    /**
+     * Content of the constant pool.
+     */
+    protected final ByteArrayOutputStream pool;
+
+    /**
+     * Writer of the constant pool.
+     */
+    protected final DataOutputStream poolOut;
+
+    /**
+     * Indices of the constant pool entries, keyed by their content.
+     */
+    protected final Map<String, Integer> entries;
+
+    /**
+     * Index of the next constant pool entry.
+     */
+    protected int poolSize;
+
+    /**
+     * Content of the methods.
+     */
+    protected final ByteArrayOutputStream methods;
+
+    /**
+     * Writer of the methods.
+     */
+    protected final DataOutputStream methodsOut;
+
+    /**
+     * Number of the methods.
+     */
+    protected int methodCount;
+
+    /**
+     * Internal name of the class.
+     */
+    protected final String name;
+
+    /**
+     * Constant pool index of the class.
+     */
+    protected final int thisClass;
+
+    /**
+     * Constant pool index of the superclass.
+     */
+    protected final int superClass;
+
+    /**
+     * Constructor to initialize the class file of a public final class.
+     * @param name Internal name of the class.
+     * @param superName Internal name of the superclass.
+     */
+    public ClassFileWriter(String name, String superName) {
+        this.pool = new ByteArrayOutputStream();
+        this.poolOut = new DataOutputStream(pool);
+        this.entries = new HashMap<String, Integer>();
+        this.poolSize = 1;
+        this.methods = new ByteArrayOutputStream();
+        this.methodsOut = new DataOutputStream(methods);
+        this.methodCount = 0;
+        this.name = name;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    /**
+     * Getter to obtain the internal name of the class.
+     * @return Internal name of the class.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Getter to obtain the constant pool index of the class.
+     * @return Constant pool index of the class.
+     */
+    public int getThisClass() {
+        return this.thisClass;
+    }
+
+    /**
+     * Method returns the index of a UTF-8 string constant, adding it to the pool if needed.
+     * @param value Value of the constant.
+     * @return Constant pool index.
+     */
+    public int utf8(String value) {
+        Integer index = entries.get("U" + value);
+
+        if (index == null) {
+            index = add("U" + value, 1);
+            try {
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Method returns the index of a class constant, adding it to the pool if needed.
+     * @param internalName Internal name of the class.
+     * @return Constant pool index.
+     */
+    public int classRef(String internalName) {
+        Integer index = entries.get("C" + internalName);
+
+        if (index == null) {
+            int utf8 = utf8(internalName);
+            index = add("C" + internalName, 1);
+            writeEntry(7, utf8, -1);
+        }
+        return index;
+    }
+
+    /**
+     * Method returns the index of a method constant, adding it to the pool if needed.
+     * @param owner Internal name of the class declaring the method.
+     * @param name Name of the method.
+     * @param descriptor Descriptor of the method.
+     * @return Constant pool index.
+     */
+    public int methodRef(String owner, String name, String descriptor) {
+        String key = "M" + owner + '.' + name + descriptor;
+        Integer index = entries.get(key);
+
+        if (index == null) {
+            int ownerIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = add(key, 1);
+            writeEntry(10, ownerIndex, nameAndType);
+        }
+        return index;
+    }
+
+    /**
+     * Method returns the index of a name and type constant, adding it to the pool if needed.
+     * @param name Name of the member.
+     * @param descriptor Descriptor of the member.
+     * @return Constant pool index.
+     */
+    protected int nameAndType(String name, String descriptor) {
+        String key = "N" + name + ':' + descriptor;
+        Integer index = entries.get(key);
+
+        if (index == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            index = add(key, 1);
+            writeEntry(12, nameIndex, descriptorIndex);
+        }
+        return index;
+    }
+
+    /**
+     * Method returns the index of an integer constant, adding it to the pool if needed.
+     * @param value Value of the constant.
+     * @return Constant pool index.
+     */
+    public int intConstant(int value) {
+        Integer index = entries.get("I" + value);
+
+        if (index == null) {
+            index = add("I" + value, 1);
+            try {
+                poolOut.writeByte(3);
+                poolOut.writeInt(value);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Method returns the index of a double constant, adding it to the pool if needed. Constants are
+     * told apart by their bits, so a negative zero is not mistaken for a positive one.
+     * @param value Value of the constant.
+     * @return Constant pool index.
+     */
+    public int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = entries.get("D" + bits);
+
+        if (index == null) {
+            // A double takes two entries of the pool
+            index = add("D" + bits, 2);
+            try {
+                poolOut.writeByte(6);
+                poolOut.writeLong(bits);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Method reserves the entries of a new constant.
+     * @param key Content of the constant.
+     * @param size Number of the entries the constant takes.
+     * @return Constant pool index.
+     */
+    protected int add(String key, int size) {
+        if (poolSize + size > 0xFFFF) {
+            throw new IllegalStateException("The constant pool is too large");
+        }
+        int index = poolSize;
+
+        poolSize += size;
+        entries.put(key, index);
+        return index;
+    }
+
+    /**
+     * Method writes a constant made of one or two references to other constants.
+     * @param tag Tag of the constant.
+     * @param first First reference.
+     * @param second Second reference, or -1 if there is none.
+     */
+    protected void writeEntry(int tag, int first, int second) {
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if (second >= 0) {
+                poolOut.writeShort(second);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method adds a method to the class.
+     * @param access Access flags of the method.
+     * @param name Name of the method.
+     * @param descriptor Descriptor of the method.
+     * @param code Code of the method.
+     */
+    public void addMethod(int access, String name, String descriptor, CodeWriter code) {
+        byte[] attribute = code.toAttribute();
+
+        try {
+            methodsOut.writeShort(access);
+            methodsOut.writeShort(utf8(name));
+            methodsOut.writeShort(utf8(descriptor));
+            methodsOut.writeShort(1);
+            methodsOut.writeShort(utf8("Code"));
+            methodsOut.writeInt(attribute.length);
+            methodsOut.write(attribute);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    /**
+     * Method returns the content of the class file.
+     * @return Content of the class file.
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pool.size() + methods.size() + 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            // No interfaces, fields or attributes
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+}
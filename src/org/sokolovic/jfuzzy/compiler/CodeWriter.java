@@ -0,0 +1,665 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class assembles the code of a method of a {@code ClassFileWriter}, keeping track of the depth of the
+ * operand stack and resolving the branches once the code is complete.
+ * <p>
+ * The code is expected to declare all of its locals up front and keep their types: every branch
+ * target must be reached with an empty operand stack and the locals declared by {@code frameLocal()}.
+ * All the stack map frames are then the same, which keeps them trivial to write.
+ *
+ * @author sokolovic
+ */
+class CodeWriter {
+
+    /**
+     * Operation code of the {@code dconst_0} instruction.
+     */
+    public static final int DCONST_0 = 0x0E;
+
+    /**
+     * Operation code of the {@code dconst_1} instruction.
+     */
+    public static final int DCONST_1 = 0x0F;
+
+    /**
+     * Operation code of the {@code daload} instruction.
+     */
+    public static final int DALOAD = 0x31;
+
+    /**
+     * Operation code of the {@code dastore} instruction.
+     */
+    public static final int DASTORE = 0x52;
+
+    /**
+     * Operation code of the {@code dup2} instruction.
+     */
+    public static final int DUP2 = 0x5C;
+
+    /**
+     * Operation code of the {@code dadd} instruction.
+     */
+    public static final int DADD = 0x63;
+
+    /**
+     * Operation code of the {@code dsub} instruction.
+     */
+    public static final int DSUB = 0x67;
+
+    /**
+     * Operation code of the {@code dmul} instruction.
+     */
+    public static final int DMUL = 0x6B;
+
+    /**
+     * Operation code of the {@code ddiv} instruction.
+     */
+    public static final int DDIV = 0x6F;
+
+    /**
+     * Operation code of the {@code dcmpl} instruction.
+     */
+    public static final int DCMPL = 0x97;
+
+    /**
+     * Operation code of the {@code dcmpg} instruction.
+     */
+    public static final int DCMPG = 0x98;
+
+    /**
+     * Operation code of the {@code ifeq} instruction.
+     */
+    public static final int IFEQ = 0x99;
+
+    /**
+     * Operation code of the {@code ifne} instruction.
+     */
+    public static final int IFNE = 0x9A;
+
+    /**
+     * Operation code of the {@code iflt} instruction.
+     */
+    public static final int IFLT = 0x9B;
+
+    /**
+     * Operation code of the {@code ifge} instruction.
+     */
+    public static final int IFGE = 0x9C;
+
+    /**
+     * Operation code of the {@code ifgt} instruction.
+     */
+    public static final int IFGT = 0x9D;
+
+    /**
+     * Operation code of the {@code ifle} instruction.
+     */
+    public static final int IFLE = 0x9E;
+
+    /**
+     * Operation code of the {@code goto} instruction.
+     */
+    public static final int GOTO = 0xA7;
+
+    /**
+     * Operation code of the {@code ireturn} instruction.
+     */
+    public static final int IRETURN = 0xAC;
+
+    /**
+     * Operation code of the {@code dreturn} instruction.
+     */
+    public static final int DRETURN = 0xAF;
+
+    /**
+     * Operation code of the {@code return} instruction.
+     */
+    public static final int RETURN = 0xB1;
+
+    /**
+     * Operation code of the {@code invokespecial} instruction.
+     */
+    public static final int INVOKESPECIAL = 0xB7;
+
+    /**
+     * Operation code of the {@code invokestatic} instruction.
+     */
+    public static final int INVOKESTATIC = 0xB8;
+
+    /**
+     * Verification type of the double locals.
+     */
+    protected static final int ITEM_DOUBLE = 3;
+
+    /**
+     * Verification type of the integer locals.
+     */
+    protected static final int ITEM_INTEGER = 1;
+
+    /**
+     * Verification type of the object locals.
+     */
+    protected static final int ITEM_OBJECT = 7;
+
+    /**
+     * Position in the code a branch can jump to.
+     */
+    public static class Label {
+
+        /**
+         * Offset of the label in the code, or -1 until it is marked.
+         */
+        protected int offset = -1;
+    }
+
+    /**
+     * Class file the method belongs to.
+     */
+    protected final ClassFileWriter classFile;
+
+    /**
+     * Number of the local variable slots of the method.
+     */
+    protected final int maxLocals;
+
+    /**
+     * The code emitted so far.
+     */
+    protected byte[] code;
+
+    /**
+     * Number of bytes of the code in use.
+     */
+    protected int length;
+
+    /**
+     * Current depth of the operand stack.
+     */
+    protected int stack;
+
+    /**
+     * The largest depth of the operand stack.
+     */
+    protected int maxStack;
+
+    /**
+     * Verification types of the locals of the frames.
+     */
+    protected final ByteArrayOutputStream frameLocals;
+
+    /**
+     * Number of the locals of the frames.
+     */
+    protected int frameLocalCount;
+
+    /**
+     * Offsets of the branch targets, in the order they were marked.
+     */
+    protected int[] frameOffsets;
+
+    /**
+     * Number of the branch targets.
+     */
+    protected int frameCount;
+
+    /**
+     * For each branch to resolve: the offset of the instruction, the offset of its operand and the
+     * size of the operand.
+     */
+    protected int[] fixups;
+
+    /**
+     * Targets of the branches to resolve.
+     */
+    protected Label[] fixupLabels;
+
+    /**
+     * Number of the branches to resolve.
+     */
+    protected int fixupCount;
+
+    /**
+     * Constructor to initialize the empty code of a method.
+     * @param classFile Class file the method belongs to.
+     * @param maxLocals Number of the local variable slots of the method, a double taking two.
+     */
+    public CodeWriter(ClassFileWriter classFile, int maxLocals) {
+        this.classFile = classFile;
+        this.maxLocals = maxLocals;
+        this.code = new byte[256];
+        this.length = 0;
+        this.frameLocals = new ByteArrayOutputStream();
+        this.frameLocalCount = 0;
+        this.frameOffsets = new int[16];
+        this.fixups = new int[48];
+        this.fixupLabels = new Label[16];
+    }
+
+    /**
+     * Getter to obtain the size of the code emitted so far.
+     * @return Number of bytes of the code.
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Method declares the next local of the frames as an object of the given class.
+     * @param internalName Internal name or array descriptor of the class.
+     */
+    public void frameObject(String internalName) {
+        frameLocals.write(ITEM_OBJECT);
+        int index = classFile.classRef(internalName);
+        frameLocals.write(index >> 8);
+        frameLocals.write(index);
+        frameLocalCount++;
+    }
+
+    /**
+     * Method declares the next local of the frames as an integer.
+     */
+    public void frameInt() {
+        frameLocals.write(ITEM_INTEGER);
+        frameLocalCount++;
+    }
+
+    /**
+     * Method declares the next local of the frames as a double, which takes two local variable slots.
+     */
+    public void frameDouble() {
+        frameLocals.write(ITEM_DOUBLE);
+        frameLocalCount++;
+    }
+
+    /**
+     * Method emits an instruction without operands.
+     * @param opcode Operation code.
+     * @param delta Change of the depth of the operand stack.
+     */
+    public void op(int opcode, int delta) {
+        put(opcode);
+        grow(delta);
+    }
+
+    /**
+     * Method emits the {@code aload} of the given local.
+     * @param local Index of the local.
+     */
+    public void aload(int local) {
+        local(0x19, 0x2A, local);
+        grow(1);
+    }
+
+    /**
+     * Method emits the {@code iload} of the given local.
+     * @param local Index of the local.
+     */
+    public void iload(int local) {
+        local(0x15, 0x1A, local);
+        grow(1);
+    }
+
+    /**
+     * Method emits the {@code dload} of the given local.
+     * @param local Index of the local.
+     */
+    public void dload(int local) {
+        local(0x18, 0x26, local);
+        grow(2);
+    }
+
+    /**
+     * Method emits the {@code dstore} into the given local.
+     * @param local Index of the local.
+     */
+    public void dstore(int local) {
+        local(0x39, 0x47, local);
+        grow(-2);
+    }
+
+    /**
+     * Method emits an instruction accessing a local, in its shortest form.
+     * @param opcode Operation code of the general form.
+     * @param shortOpcode Operation code of the form accessing the local 0.
+     * @param local Index of the local.
+     */
+    protected void local(int opcode, int shortOpcode, int local) {
+        if (local < 4) {
+            put(shortOpcode + local);
+        }
+        else if (local < 256) {
+            put(opcode);
+            put(local);
+        }
+        else {
+            // The wide prefix takes a two byte index
+            put(0xC4);
+            put(opcode);
+            put(local >> 8);
+            put(local);
+        }
+    }
+
+    /**
+     * Method emits the instruction pushing the given integer, in its shortest form.
+     * @param value Value to push.
+     */
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            put(0x03 + value);
+        }
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            put(0x10);
+            put(value);
+        }
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            put(0x11);
+            put(value >> 8);
+            put(value);
+        }
+        else {
+            int index = classFile.intConstant(value);
+            put(0x13);
+            put(index >> 8);
+            put(index);
+        }
+        grow(1);
+    }
+
+    /**
+     * Method emits the instruction pushing the given double, in its shortest form.
+     * @param value Value to push.
+     */
+    public void pushDouble(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+
+        if (bits == Double.doubleToRawLongBits(0.0)) {
+            put(DCONST_0);
+        }
+        else if (bits == Double.doubleToRawLongBits(1.0)) {
+            put(DCONST_1);
+        }
+        else {
+            int index = classFile.doubleConstant(value);
+            put(0x14);
+            put(index >> 8);
+            put(index);
+        }
+        grow(2);
+    }
+
+    /**
+     * Method emits a method invocation.
+     * @param opcode Operation code, {@code INVOKESTATIC} or {@code INVOKESPECIAL}.
+     * @param owner Internal name of the class declaring the method.
+     * @param name Name of the method.
+     * @param descriptor Descriptor of the method, with object parameters of array types only.
+     */
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        int index = classFile.methodRef(owner, name, descriptor);
+        int delta = opcode == INVOKESTATIC ? 0 : -1;
+
+        put(opcode);
+        put(index >> 8);
+        put(index);
+
+        // Pop the arguments and push the result
+        int end = descriptor.indexOf(')');
+        for (int i = 1; i < end; i++) {
+            char type = descriptor.charAt(i);
+
+            if (type == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                delta -= 1;
+            }
+            else if (type == 'L') {
+                i = descriptor.indexOf(';', i);
+                delta -= 1;
+            }
+            else {
+                delta -= type == 'D' || type == 'J' ? 2 : 1;
+            }
+        }
+        char result = descriptor.charAt(end + 1);
+        delta += result == 'V' ? 0 : result == 'D' || result == 'J' ? 2 : 1;
+        grow(delta);
+    }
+
+    /**
+     * Method emits a branch to the given label.
+     * @param opcode Operation code, {@code GOTO} or one of the conditional branches on an integer.
+     * @param target Label to branch to.
+     */
+    public void branch(int opcode, Label target) {
+        int position = length;
+
+        put(opcode);
+        fixup(position, length, 2, target);
+        put(0);
+        put(0);
+        grow(opcode == GOTO ? 0 : -1);
+    }
+
+    /**
+     * Method emits a {@code lookupswitch} on the integer at the top of the operand stack.
+     * @param keys Keys of the cases, in ascending order.
+     * @param targets Labels of the cases.
+     * @param defaultTarget Label of the default case.
+     */
+    public void lookupSwitch(int[] keys, Label[] targets, Label defaultTarget) {
+        int position = length;
+
+        put(0xAB);
+        // The operands are aligned to four bytes from the start of the code
+        while (length % 4 != 0) {
+            put(0);
+        }
+        fixup(position, length, 4, defaultTarget);
+        putInt(0);
+        putInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            putInt(keys[i]);
+            fixup(position, length, 4, targets[i]);
+            putInt(0);
+        }
+        grow(-1);
+    }
+
+    /**
+     * Method marks the given label at the current position. The operand stack must be empty.
+     * @param label Label to mark.
+     */
+    public void mark(Label label) {
+        if (stack != 0) {
+            throw new IllegalStateException("A branch target must be reached with an empty operand stack");
+        }
+        label.offset = length;
+        if (frameCount == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, frameCount * 2);
+        }
+        frameOffsets[frameCount++] = length;
+    }
+
+    /**
+     * Method records a branch to resolve.
+     * @param position Offset of the branch instruction.
+     * @param operand Offset of the operand holding the branch offset.
+     * @param size Size of the operand.
+     * @param target Label to branch to.
+     */
+    protected void fixup(int position, int operand, int size, Label target) {
+        if (fixupCount == fixupLabels.length) {
+            fixupLabels = Arrays.copyOf(fixupLabels, fixupCount * 2);
+            fixups = Arrays.copyOf(fixups, fixupCount * 6);
+        }
+        fixups[3 * fixupCount] = position;
+        fixups[3 * fixupCount + 1] = operand;
+        fixups[3 * fixupCount + 2] = size;
+        fixupLabels[fixupCount++] = target;
+    }
+
+    /**
+     * Method changes the depth of the operand stack.
+     * @param delta Change of the depth.
+     */
+    protected void grow(int delta) {
+        stack += delta;
+        if (stack < 0) {
+            throw new IllegalStateException("Operand stack underflow");
+        }
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    /**
+     * Method appends a byte to the code.
+     * @param value Byte to append, only the lowest eight bits are used.
+     */
+    protected void put(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    /**
+     * Method appends a four byte integer to the code.
+     * @param value Integer to append.
+     */
+    protected void putInt(int value) {
+        put(value >> 24);
+        put(value >> 16);
+        put(value >> 8);
+        put(value);
+    }
+
+    /**
+     * Method resolves the branches and returns the content of the {@code Code} attribute of the method.
+     * @return Content of the attribute, following its name and length.
+     * @throws IllegalStateException If the code is too large or a label was never marked.
+     */
+    public byte[] toAttribute() {
+        if (length > 0xFFFF) {
+            throw new IllegalStateException("The code of a method is too large: " + length + " bytes");
+        }
+        for (int i = 0; i < fixupCount; i++) {
+            int position = fixups[3 * i];
+            int operand = fixups[3 * i + 1];
+            int target = fixupLabels[i].offset;
+
+            if (target < 0) {
+                throw new IllegalStateException("Branch to an unmarked label");
+            }
+            int offset = target - position;
+            if (fixups[3 * i + 2] == 2) {
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new IllegalStateException("Branch offset out of range: " + offset);
+                }
+                code[operand] = (byte) (offset >> 8);
+                code[operand + 1] = (byte) offset;
+            }
+            else {
+                code[operand] = (byte) (offset >> 24);
+                code[operand + 1] = (byte) (offset >> 16);
+                code[operand + 2] = (byte) (offset >> 8);
+                code[operand + 3] = (byte) offset;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            // No exception handlers
+            out.writeShort(0);
+            if (frameCount == 0) {
+                out.writeShort(0);
+            }
+            else {
+                byte[] frames = frames();
+                out.writeShort(1);
+                out.writeShort(classFile.utf8("StackMapTable"));
+                out.writeInt(frames.length);
+                out.write(frames);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Method writes the stack map frames of the branch targets: a full frame for the first one, and
+     * frames with the same locals and an empty stack for the others.
+     * @return Content of the {@code StackMapTable} attribute.
+     * @throws IOException Never, the frames are written to memory.
+     */
+    protected byte[] frames() throws IOException {
+        int[] offsets = Arrays.copyOf(frameOffsets, frameCount);
+        Arrays.sort(offsets);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int entries = 0;
+        int previous = -1;
+        for (int offset : offsets) {
+            if (offset == previous) {
+                continue;
+            }
+            if (previous < 0) {
+                out.writeByte(255);
+                out.writeShort(offset);
+                out.writeShort(frameLocalCount);
+                frameLocals.writeTo(out);
+                out.writeShort(0);
+            }
+            else if (offset - previous - 1 < 64) {
+                out.writeByte(offset - previous - 1);
+            }
+            else {
+                out.writeByte(251);
+                out.writeShort(offset - previous - 1);
+            }
+            previous = offset;
+            entries++;
+        }
+
+        byte[] content = bytes.toByteArray();
+        byte[] table = new byte[content.length + 2];
+        table[0] = (byte) (entries >> 8);
+        table[1] = (byte) entries;
+        System.arraycopy(content, 0, table, 2, content.length);
+        return table;
+    }
+
+}
@@ -0,0 +1,998 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import org.sokolovic.jfuzzy.FuzzyKernel;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.defuzzifier.FuzzyAggregate;
+import org.sokolovic.jfuzzy.defuzzifier.WeightedAverageDefuzzifier;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.LeftShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.RightShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.TriangularFuzzySet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.sokolovic.jfuzzy.compiler.CodeWriter.*;
+
+/**
+ * Class generates a {@code FuzzyKernel} specialized to a {@code FuzzyModel}: a hidden class whose code
+ * runs the inferences of the model with all of its parameters built in. The membership functions of
+ * the triangular and shoulder sets are generated with the parameters of the sets as constants, the
+ * compiled rule base is translated instruction by instruction into straight-line code that keeps its
+ * temporaries in local variables, leaving in the slot array only the results read by other rules, and
+ * the weighted average of the outputs is generated with the representative values of the sets as
+ * constants.
+ * <p>
+ * The generated code performs the same floating point operations in the same order as the interpreter,
+ * so the results are identical to the last bit. It is split into methods smaller than the 8000 bytes
+ * above which HotSpot does not compile a method, and the rules keyed on a set are guarded by a test of
+ * its degree of membership, as in the interpreter. The variables the code is not generated for, those
+ * with more than {@code MAX_INLINED_SETS} members, with members of other types or with another
+ * defuzzifier, are left to the interpreter. If the code cannot be generated or the JVM rejects it, the
+ * interpreting kernel is used instead.
+ * <p>
+ * Every rule becomes code of its own, and the JIT compiles the rule methods only after they have run
+ * a few thousand times, so large rule bases run slower than in the interpreter until they are warmed up.
+ *
+ * @author sokolovic
+ */
+public class FuzzyCodeGenerator {
+
+    /**
+     * The largest number of members of a variable whose fuzzification and defuzzification are generated.
+     * The support index of the interpreter is faster for the larger variables.
+     */
+    public static final int MAX_INLINED_SETS = 64;
+
+    /**
+     * Size of the code of a generated method after which no more rules are added to it.
+     */
+    protected static final int METHOD_SIZE = 7000;
+
+    /**
+     * The largest number of methods called by a single generated method.
+     */
+    protected static final int MAX_CALLS = 1000;
+
+    /**
+     * Internal name of the generated class. The JVM appends a suffix to the name of a hidden class.
+     */
+    protected static final String CLASS_NAME = "org/sokolovic/jfuzzy/compiler/GeneratedKernel";
+
+    /**
+     * Internal name of the superclass of the generated class.
+     */
+    protected static final String KERNEL = "org/sokolovic/jfuzzy/FuzzyKernel";
+
+    /**
+     * Internal name of the model class.
+     */
+    protected static final String MODEL = "org/sokolovic/jfuzzy/FuzzyModel";
+
+    /**
+     * Local holding the slot array in the generated static methods.
+     */
+    protected static final int SLOTS = 0;
+
+    /**
+     * Local holding the value to fuzzify in the generated fuzzification methods.
+     */
+    protected static final int VALUE = 1;
+
+    /**
+     * Local holding the result of an instruction in the generated rule methods.
+     */
+    protected static final int A = 1;
+
+    /**
+     * Local holding the second operand of an instruction in the generated rule methods.
+     */
+    protected static final int B = 3;
+
+    /**
+     * Local holding the first temporary in the generated rule methods.
+     */
+    protected static final int FIRST_TEMPORARY = 5;
+
+    /**
+     * The model the code is generated for.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * The compiled rule base of the model.
+     */
+    protected final FuzzyProgram program;
+
+    /**
+     * Initial content of the slot array, holding the values of the constants.
+     */
+    protected final double[] initialSlots;
+
+    /**
+     * Locals holding the temporaries, indexed by their slots; -1 for the other slots.
+     */
+    protected final int[] locals;
+
+    /**
+     * Flags of the slots held in the slot array: the sets and the results written by a segment of the
+     * rule base and read by another, such as the shared terms.
+     */
+    protected final boolean[] stored;
+
+    /**
+     * Number of the local variable slots of the generated rule methods.
+     */
+    protected final int ruleLocals;
+
+    /**
+     * The class being generated.
+     */
+    protected final ClassFileWriter classFile;
+
+    /**
+     * The rule method being generated, or {@code null} if there is none.
+     */
+    protected CodeWriter rules;
+
+    /**
+     * Slot of the set guarding the rules being generated, or -1 if they are not guarded.
+     */
+    protected int guardSlot;
+
+    /**
+     * End of the rules guarded by the guard slot.
+     */
+    protected Label guardEnd;
+
+    /**
+     * Method generates the kernel of the given model.
+     * @param model Model to generate the kernel of.
+     * @return Generated kernel, or the interpreting kernel of the model if the code cannot be generated.
+     */
+    public static FuzzyKernel generate(FuzzyModel model) {
+        try {
+            byte[] bytes = new FuzzyCodeGenerator(model).generateClass();
+            Class<?> type = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+
+            return (FuzzyKernel) type.getConstructor(FuzzyModel.class).newInstance(model);
+        }
+        // Fall back to the interpreter if the code cannot be generated or is rejected by the JVM
+        catch (Exception e) {
+            return new FuzzyKernel(model);
+        }
+        catch (LinkageError e) {
+            return new FuzzyKernel(model);
+        }
+    }
+
+    /**
+     * Constructor to initialize the generator of the given model. The slots the rule base writes to,
+     * other than the slots of the sets, are its temporaries, unless a segment of the rule base reads them
+     * before writing them; the others hold its constants.
+     * @param model Model to generate the code of.
+     */
+    protected FuzzyCodeGenerator(FuzzyModel model) {
+        this.model = model;
+        this.program = model.getProgram();
+        this.initialSlots = program.newSlots();
+        this.locals = new int[initialSlots.length];
+        this.stored = new boolean[initialSlots.length];
+        Arrays.fill(locals, -1);
+        Arrays.fill(stored, 0, program.getSetCount(), true);
+
+        // Find the slots a segment of the rule base reads before writing them
+        int[] segments = new int[initialSlots.length];
+        boolean[] readFirst = new boolean[initialSlots.length];
+        boolean[] written = new boolean[initialSlots.length];
+        int segment = 1;
+        for (int pc = 0; pc < program.code.length; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            while (segment <= program.ruleOffsets.length && pc >= program.ruleOffsets[segment - 1]) {
+                segment++;
+            }
+            int operation = program.code[pc];
+            for (int operand = 1; operand < FuzzyProgram.INSTRUCTION_SIZE; operand++) {
+                int slot = program.code[pc + operand];
+                if (reads(operation, operand) && segments[slot] != segment) {
+                    readFirst[slot] = true;
+                }
+            }
+            if (!FuzzyProgram.isJump(operation)) {
+                segments[program.code[pc + 1]] = segment;
+                written[program.code[pc + 1]] = true;
+            }
+        }
+        for (int slot = program.getSetCount(); slot < initialSlots.length; slot++) {
+            stored[slot] = written[slot] && readFirst[slot];
+        }
+
+        int local = FIRST_TEMPORARY;
+        for (int pc = 0; pc < program.code.length; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            int dst = program.code[pc + 1];
+
+            if (!FuzzyProgram.isJump(program.code[pc]) && !stored[dst] && locals[dst] < 0) {
+                locals[dst] = local;
+                local += 2;
+            }
+        }
+        this.ruleLocals = local;
+        this.classFile = new ClassFileWriter(CLASS_NAME, KERNEL);
+        this.guardSlot = -1;
+    }
+
+    /**
+     * Method checks whether an instruction reads the given field as a slot.
+     * @param operation Operation code of the instruction.
+     * @param operand Index of the field, 1 for the destination.
+     * @return {@code true} if the field is a slot the instruction reads.
+     */
+    protected static boolean reads(int operation, int operand) {
+        switch (operation) {
+            case FuzzyProgram.OP_CLEAR:
+                return false;
+            case FuzzyProgram.OP_MIN:
+            case FuzzyProgram.OP_MAX:
+                return operand > 1;
+            case FuzzyProgram.OP_ACCUMULATE:
+                return operand < 3;
+            case FuzzyProgram.OP_JUMP_IF_AT_LEAST:
+                return operand > 1;
+            default:
+                return operand == 2;
+        }
+    }
+
+    /**
+     * Method generates the class of the kernel.
+     * @return Content of the class file.
+     */
+    protected byte[] generateClass() {
+        CodeWriter constructor = new CodeWriter(classFile, 2);
+        constructor.aload(0);
+        constructor.aload(1);
+        constructor.invoke(INVOKESPECIAL, KERNEL, "<init>", "(L" + MODEL + ";)V");
+        constructor.op(RETURN, 0);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "(L" + MODEL + ";)V", constructor);
+
+        CodeWriter generated = new CodeWriter(classFile, 1);
+        generated.pushInt(1);
+        generated.op(IRETURN, -1);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "isGenerated", "()Z", generated);
+
+        generateFuzzify();
+        generateExecute();
+        generateDefuzzify();
+
+        return classFile.toByteArray();
+    }
+
+    /**
+     * Method checks whether the fuzzification and defuzzification of the given variable can be generated.
+     * @param variable Index of the variable.
+     * @return {@code true} if the variable has at most {@code MAX_INLINED_SETS} members, all of them
+     *         triangular or shoulder sets.
+     */
+    protected boolean isInlined(int variable) {
+        if (model.getEndSlot(variable) - model.getFirstSlot(variable) > MAX_INLINED_SETS) {
+            return false;
+        }
+        for (int slot = model.getFirstSlot(variable); slot < model.getEndSlot(variable); slot++) {
+            Class<?> type = program.getSet(slot).getClass();
+
+            // Subclasses may calculate the degree of membership differently
+            if (type != TriangularFuzzySet.class && type != LeftShoulderFuzzySet.class &&
+                type != RightShoulderFuzzySet.class) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method generates the fuzzification of the variables, dispatching on the index of the variable.
+     */
+    protected void generateFuzzify() {
+        List<Integer> variables = new ArrayList<Integer>();
+        for (int v = 0; v < model.getVariableCount(); v++) {
+            if (isInlined(v)) {
+                generateFuzzify(v);
+                variables.add(v);
+            }
+        }
+        if (variables.isEmpty()) {
+            return;
+        }
+
+        // fuzzify(double[] slots, int[] activeRegions, int variable, double value)
+        CodeWriter code = new CodeWriter(classFile, 6);
+        code.frameObject(CLASS_NAME);
+        code.frameObject("[D");
+        code.frameObject("[I");
+        code.frameInt();
+        code.frameDouble();
+
+        Label interpreted = new Label();
+        Label[] targets = switchOn(code, 3, variables, interpreted);
+        for (int i = 0; i < targets.length; i++) {
+            code.mark(targets[i]);
+            code.aload(1);
+            code.dload(4);
+            code.invoke(INVOKESTATIC, CLASS_NAME, "fuzzify" + variables.get(i), "([DD)V");
+            code.op(RETURN, 0);
+        }
+        code.mark(interpreted);
+        code.aload(0);
+        code.aload(1);
+        code.aload(2);
+        code.iload(3);
+        code.dload(4);
+        code.invoke(INVOKESPECIAL, KERNEL, "fuzzify", "([D[IID)V");
+        code.op(RETURN, 0);
+
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "fuzzify", "([D[IID)V", code);
+    }
+
+    /**
+     * Method generates the fuzzification of a single variable. All the members are calculated, which
+     * yields the same degrees of membership as calculating only the members whose support contains
+     * the value.
+     * @param variable Index of the variable.
+     */
+    protected void generateFuzzify(int variable) {
+        CodeWriter code = new CodeWriter(classFile, 3);
+        code.frameObject("[D");
+        code.frameDouble();
+
+        for (int slot = model.getFirstSlot(variable); slot < model.getEndSlot(variable); slot++) {
+            FuzzySet set = program.getSet(slot);
+            Label done = new Label();
+
+            if (set instanceof TriangularFuzzySet) {
+                TriangularFuzzySet triangle = (TriangularFuzzySet) set;
+                generateTriangular(code, slot, triangle.getPeak(), triangle.getLeftOffset(),
+                        triangle.getRightOffset(), done);
+            }
+            else if (set instanceof LeftShoulderFuzzySet) {
+                LeftShoulderFuzzySet shoulder = (LeftShoulderFuzzySet) set;
+                generateLeftShoulder(code, slot, shoulder.getPeak(), shoulder.getLeftOffset(),
+                        shoulder.getRightOffset(), done);
+            }
+            else {
+                RightShoulderFuzzySet shoulder = (RightShoulderFuzzySet) set;
+                generateRightShoulder(code, slot, shoulder.getPeak(), shoulder.getLeftOffset(),
+                        shoulder.getRightOffset(), done);
+            }
+            code.mark(done);
+        }
+        code.op(RETURN, 0);
+
+        classFile.addMethod(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC, "fuzzify" + variable,
+                "([DD)V", code);
+    }
+
+    /**
+     * Method generates {@code TriangularFuzzySet.calculateDom()}.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     * @param done Label following the code of the set.
+     */
+    protected void generateTriangular(CodeWriter code, int slot, double peak, double leftOffset,
+                                      double rightOffset, Label done) {
+        generateZeroOffset(code, slot, peak, leftOffset, rightOffset, done);
+
+        // Left of center: value <= peak && value >= peak - leftOffset
+        Label right = new Label();
+        compareValue(code, peak, DCMPG, IFGT, right);
+        compareValue(code, peak - leftOffset, DCMPL, IFLT, right);
+        generateRising(code, slot, peak, leftOffset);
+        code.branch(GOTO, done);
+
+        // Right of center: value > peak && value < peak + rightOffset
+        code.mark(right);
+        Label outside = new Label();
+        compareValue(code, peak, DCMPL, IFLE, outside);
+        compareValue(code, peak + rightOffset, DCMPG, IFGE, outside);
+        generateFalling(code, slot, peak, rightOffset);
+        code.branch(GOTO, done);
+
+        code.mark(outside);
+        storeConstant(code, slot, 0.0);
+    }
+
+    /**
+     * Method generates {@code LeftShoulderFuzzySet.calculateDom()}.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     * @param done Label following the code of the set.
+     */
+    protected void generateLeftShoulder(CodeWriter code, int slot, double peak, double leftOffset,
+                                        double rightOffset, Label done) {
+        generateZeroOffset(code, slot, peak, leftOffset, rightOffset, done);
+
+        // Right of center: value >= peak && value < peak + rightOffset
+        Label left = new Label();
+        compareValue(code, peak, DCMPL, IFLT, left);
+        compareValue(code, peak + rightOffset, DCMPG, IFGE, left);
+        generateFalling(code, slot, peak, rightOffset);
+        code.branch(GOTO, done);
+
+        // Plateau: value < peak && value >= peak - leftOffset
+        code.mark(left);
+        Label outside = new Label();
+        compareValue(code, peak, DCMPG, IFGE, outside);
+        compareValue(code, peak - leftOffset, DCMPL, IFLT, outside);
+        storeConstant(code, slot, 1.0);
+        code.branch(GOTO, done);
+
+        code.mark(outside);
+        storeConstant(code, slot, 0.0);
+    }
+
+    /**
+     * Method generates {@code RightShoulderFuzzySet.calculateDom()}.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     * @param done Label following the code of the set.
+     */
+    protected void generateRightShoulder(CodeWriter code, int slot, double peak, double leftOffset,
+                                         double rightOffset, Label done) {
+        generateZeroOffset(code, slot, peak, leftOffset, rightOffset, done);
+
+        // Left of center: value <= peak && value > peak - leftOffset
+        Label right = new Label();
+        compareValue(code, peak, DCMPG, IFGT, right);
+        compareValue(code, peak - leftOffset, DCMPL, IFLE, right);
+        generateRising(code, slot, peak, leftOffset);
+        code.branch(GOTO, done);
+
+        // Plateau: value > peak && value <= peak + rightOffset
+        code.mark(right);
+        Label outside = new Label();
+        compareValue(code, peak, DCMPL, IFLE, outside);
+        compareValue(code, peak + rightOffset, DCMPG, IFGT, outside);
+        storeConstant(code, slot, 1.0);
+        code.branch(GOTO, done);
+
+        code.mark(outside);
+        storeConstant(code, slot, 0.0);
+    }
+
+    /**
+     * Method generates the test of the sets with a zero offset, whose degree of membership at the peak
+     * is one.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     * @param done Label following the code of the set.
+     */
+    protected void generateZeroOffset(CodeWriter code, int slot, double peak, double leftOffset,
+                                      double rightOffset, Label done) {
+        if (rightOffset == 0.0 || leftOffset == 0.0) {
+            Label next = new Label();
+
+            compareValue(code, peak, DCMPL, IFNE, next);
+            storeConstant(code, slot, 1.0);
+            code.branch(GOTO, done);
+            code.mark(next);
+        }
+    }
+
+    /**
+     * Method generates the rising edge of a set: {@code (1.0 / leftOffset) * (value - (peak - leftOffset))}.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param leftOffset Left offset of the set.
+     */
+    protected void generateRising(CodeWriter code, int slot, double peak, double leftOffset) {
+        code.aload(SLOTS);
+        code.pushInt(slot);
+        code.pushDouble(1.0 / leftOffset);
+        code.dload(VALUE);
+        code.pushDouble(peak - leftOffset);
+        code.op(DSUB, -2);
+        code.op(DMUL, -2);
+        code.op(DASTORE, -4);
+    }
+
+    /**
+     * Method generates the falling edge of a set: {@code (1.0 / -rightOffset) * (value - peak) + 1.0}.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param peak Peak point of the set.
+     * @param rightOffset Right offset of the set.
+     */
+    protected void generateFalling(CodeWriter code, int slot, double peak, double rightOffset) {
+        code.aload(SLOTS);
+        code.pushInt(slot);
+        code.pushDouble(1.0 / -rightOffset);
+        code.dload(VALUE);
+        code.pushDouble(peak);
+        code.op(DSUB, -2);
+        code.op(DMUL, -2);
+        code.pushDouble(1.0);
+        code.op(DADD, -2);
+        code.op(DASTORE, -4);
+    }
+
+    /**
+     * Method generates a comparison of the value to fuzzify with a constant, branching if it fails.
+     * @param code Code of the fuzzification method.
+     * @param constant Constant to compare the value with.
+     * @param compare {@code DCMPL} or {@code DCMPG}, whichever makes a NaN value fail the comparison.
+     * @param branch Branch taken if the comparison fails.
+     * @param target Label to branch to.
+     */
+    protected static void compareValue(CodeWriter code, double constant, int compare, int branch, Label target) {
+        code.dload(VALUE);
+        code.pushDouble(constant);
+        code.op(compare, -3);
+        code.branch(branch, target);
+    }
+
+    /**
+     * Method generates the store of a constant degree of membership.
+     * @param code Code of the fuzzification method.
+     * @param slot Slot of the set.
+     * @param value Degree of membership.
+     */
+    protected static void storeConstant(CodeWriter code, int slot, double value) {
+        code.aload(SLOTS);
+        code.pushInt(slot);
+        code.pushDouble(value);
+        code.op(DASTORE, -4);
+    }
+
+    /**
+     * Method generates the evaluation of the rule base. The rules run in the same order as in the
+     * interpreter and are packed into methods of about {@code METHOD_SIZE} bytes, called in turn.
+     */
+    protected void generateExecute() {
+        List<String> methods = new ArrayList<String>();
+        int[] ruleOffsets = program.ruleOffsets;
+
+        // Clear the consequents and evaluate the shared terms, then run the rules that can fire
+        addPrelude(ruleOffsets[0], methods);
+        if (program.alwaysRules == null) {
+            for (int rule = 0; rule < program.getRuleCount(); rule++) {
+                addSegment(ruleOffsets[rule], ruleOffsets[rule + 1], -1, methods);
+            }
+        }
+        else {
+            for (int rule : program.alwaysRules) {
+                addSegment(ruleOffsets[rule], ruleOffsets[rule + 1], -1, methods);
+            }
+            for (int k = 0; k < program.keySlots.length; k++) {
+                for (int i = program.keyOffsets[k]; i < program.keyOffsets[k + 1]; i++) {
+                    int rule = program.keyedRules[i];
+                    addSegment(ruleOffsets[rule], ruleOffsets[rule + 1], program.keySlots[k], methods);
+                }
+            }
+        }
+        finishRules(methods);
+
+        // Too many methods to call from a single one are called from methods calling them in turn
+        for (int level = 0; methods.size() > MAX_CALLS; level++) {
+            List<String> callers = new ArrayList<String>();
+
+            for (int i = 0; i < methods.size(); i += MAX_CALLS) {
+                String name = "execute" + level + "_" + callers.size();
+                generateCalls(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC, name, SLOTS,
+                        methods.subList(i, Math.min(i + MAX_CALLS, methods.size())));
+                callers.add(name);
+            }
+            methods = callers;
+        }
+        generateCalls(ClassFileWriter.ACC_PUBLIC, "execute", 1, methods);
+    }
+
+    /**
+     * Method adds the code preceding the rules, split into segments after each store into the slot
+     * array that no jump spans, so the evaluation of many shared terms does not end up in a single
+     * method too large to be compiled.
+     * @param end Offset of the first rule.
+     * @param methods Names of the rule methods generated so far.
+     */
+    protected void addPrelude(int end, List<String> methods) {
+        int[] code = program.code;
+        int from = 0;
+        int jumpEnd = 0;
+
+        for (int pc = 0; pc < end; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            if (FuzzyProgram.isJump(code[pc])) {
+                jumpEnd = Math.max(jumpEnd, code[pc + 1]);
+            }
+            else if (stored[code[pc + 1]] && jumpEnd <= pc + FuzzyProgram.INSTRUCTION_SIZE) {
+                addSegment(from, pc + FuzzyProgram.INSTRUCTION_SIZE, -1, methods);
+                from = pc + FuzzyProgram.INSTRUCTION_SIZE;
+            }
+        }
+        if (from < end) {
+            addSegment(from, end, -1, methods);
+        }
+    }
+
+    /**
+     * Method generates a method calling the given rule methods in turn.
+     * @param access Access flags of the method.
+     * @param name Name of the method.
+     * @param slots Local holding the slot array.
+     * @param methods Names of the methods to call.
+     */
+    protected void generateCalls(int access, String name, int slots, List<String> methods) {
+        CodeWriter code = new CodeWriter(classFile, slots + 1);
+
+        for (String method : methods) {
+            code.aload(slots);
+            code.invoke(INVOKESTATIC, CLASS_NAME, method, "([D)V");
+        }
+        code.op(RETURN, 0);
+        classFile.addMethod(access, name, "([D)V", code);
+    }
+
+    /**
+     * Method adds a segment of the rule base to the rule method being generated, starting a new one
+     * if it is full.
+     * @param from Offset of the first instruction of the segment.
+     * @param to Offset following the last instruction of the segment.
+     * @param guard Slot of the set whose zero degree of membership skips the segment, or -1.
+     * @param methods Names of the rule methods generated so far.
+     */
+    protected void addSegment(int from, int to, int guard, List<String> methods) {
+        if (rules != null && rules.length() >= METHOD_SIZE) {
+            finishRules(methods);
+        }
+        if (rules == null) {
+            // All the locals are doubles, set before any branch so that all the frames are the same
+            rules = new CodeWriter(classFile, ruleLocals);
+            rules.frameObject("[D");
+            for (int local = A; local < ruleLocals; local += 2) {
+                rules.frameDouble();
+                rules.pushDouble(0.0);
+                rules.dstore(local);
+            }
+        }
+        if (guard != guardSlot) {
+            closeGuard();
+            if (guard >= 0) {
+                guardSlot = guard;
+                guardEnd = new Label();
+                load(guard);
+                rules.pushDouble(0.0);
+                rules.op(DCMPL, -3);
+                rules.branch(IFEQ, guardEnd);
+            }
+        }
+
+        // The jumps of a rule stay within the rule
+        int[] code = program.code;
+        Label[] targets = new Label[(to - from) / FuzzyProgram.INSTRUCTION_SIZE + 1];
+        for (int pc = from; pc < to; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            if (FuzzyProgram.isJump(code[pc])) {
+                int target = code[pc + 1];
+
+                if (target < from || target > to) {
+                    throw new IllegalStateException("Jump out of the rule at " + pc);
+                }
+                if (targets[(target - from) / FuzzyProgram.INSTRUCTION_SIZE] == null) {
+                    targets[(target - from) / FuzzyProgram.INSTRUCTION_SIZE] = new Label();
+                }
+            }
+        }
+        for (int pc = from; pc <= to; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            Label target = targets[(pc - from) / FuzzyProgram.INSTRUCTION_SIZE];
+
+            if (target != null) {
+                rules.mark(target);
+            }
+            if (pc < to) {
+                generateInstruction(code[pc], code[pc + 1], code[pc + 2], code[pc + 3], targets, from);
+            }
+        }
+    }
+
+    /**
+     * Method ends the rule method being generated, if any.
+     * @param methods Names of the rule methods generated so far, to add its name to.
+     */
+    protected void finishRules(List<String> methods) {
+        if (rules == null) {
+            return;
+        }
+        closeGuard();
+        rules.op(RETURN, 0);
+
+        String name = "rules" + methods.size();
+        classFile.addMethod(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC, name, "([D)V", rules);
+        methods.add(name);
+        rules = null;
+    }
+
+    /**
+     * Method ends the rules guarded by the guard slot, if any.
+     */
+    protected void closeGuard() {
+        if (guardSlot >= 0) {
+            rules.mark(guardEnd);
+            guardSlot = -1;
+        }
+    }
+
+    /**
+     * Method generates a single instruction of the rule base, as {@code FuzzyProgram.execute()} runs it.
+     * @param operation Operation code.
+     * @param dst Destination slot, or the offset of the target of a jump.
+     * @param a First operand slot.
+     * @param b Second operand slot.
+     * @param targets Labels of the instructions of the segment that are targets of jumps.
+     * @param from Offset of the first instruction of the segment.
+     */
+    protected void generateInstruction(int operation, int dst, int a, int b, Label[] targets, int from) {
+        switch (operation) {
+            case FuzzyProgram.OP_CLEAR:
+                rules.pushDouble(0.0);
+                rules.dstore(A);
+                store(dst);
+                break;
+            // b < a ? b : a and b > a ? b : a, which a NaN fails
+            case FuzzyProgram.OP_MIN:
+            case FuzzyProgram.OP_MAX: {
+                boolean min = operation == FuzzyProgram.OP_MIN;
+                Label keep = new Label();
+
+                load(a);
+                rules.dstore(A);
+                load(b);
+                rules.dstore(B);
+                rules.dload(B);
+                rules.dload(A);
+                rules.op(min ? DCMPG : DCMPL, -3);
+                rules.branch(min ? IFGE : IFLE, keep);
+                rules.dload(B);
+                rules.dstore(A);
+                rules.mark(keep);
+                store(dst);
+                break;
+            }
+            case FuzzyProgram.OP_NOT:
+                rules.pushDouble(1.0);
+                load(a);
+                rules.op(DSUB, -2);
+                rules.dstore(A);
+                store(dst);
+                break;
+            case FuzzyProgram.OP_SQUARE:
+                load(a);
+                rules.dstore(A);
+                rules.dload(A);
+                rules.dload(A);
+                rules.op(DMUL, -2);
+                rules.dstore(A);
+                store(dst);
+                break;
+            case FuzzyProgram.OP_SQRT:
+                load(a);
+                rules.invoke(INVOKESTATIC, "java/lang/Math", "sqrt", "(D)D");
+                rules.dstore(A);
+                store(dst);
+                break;
+            case FuzzyProgram.OP_ACCUMULATE: {
+                Label skip = new Label();
+
+                load(a);
+                rules.dstore(A);
+                rules.dload(A);
+                load(dst);
+                rules.op(DCMPL, -3);
+                rules.branch(IFLE, skip);
+                store(dst);
+                rules.mark(skip);
+                break;
+            }
+            case FuzzyProgram.OP_JUMP_IF_NOT_POSITIVE:
+                load(a);
+                rules.pushDouble(0.0);
+                rules.op(DCMPG, -3);
+                rules.branch(IFLE, targets[(dst - from) / FuzzyProgram.INSTRUCTION_SIZE]);
+                break;
+            case FuzzyProgram.OP_JUMP_IF_AT_LEAST:
+                load(a);
+                load(b);
+                rules.op(DCMPL, -3);
+                rules.branch(IFGE, targets[(dst - from) / FuzzyProgram.INSTRUCTION_SIZE]);
+                break;
+            // This will never occur for the programs created by the compiler
+            default:
+                throw new IllegalStateException("Unknown operation code: " + operation);
+        }
+    }
+
+    /**
+     * Method generates the load of a slot: a temporary from its local, a set or a shared result from
+     * the slot array and a constant as a constant.
+     * @param slot Slot to load.
+     */
+    protected void load(int slot) {
+        if (locals[slot] >= 0) {
+            rules.dload(locals[slot]);
+        }
+        else if (stored[slot]) {
+            rules.aload(SLOTS);
+            rules.pushInt(slot);
+            rules.op(DALOAD, 0);
+        }
+        else {
+            rules.pushDouble(initialSlots[slot]);
+        }
+    }
+
+    /**
+     * Method generates the store of the result held in local {@code A} into a slot.
+     * @param slot Slot to store into, a temporary, a set or a shared result.
+     */
+    protected void store(int slot) {
+        if (locals[slot] >= 0) {
+            rules.dload(A);
+            rules.dstore(locals[slot]);
+        }
+        else if (stored[slot]) {
+            rules.aload(SLOTS);
+            rules.pushInt(slot);
+            rules.dload(A);
+            rules.op(DASTORE, -4);
+        }
+        else {
+            throw new IllegalStateException("Store into the constant slot " + slot);
+        }
+    }
+
+    /**
+     * Method generates the defuzzification of the variables, dispatching on the index of the variable.
+     */
+    protected void generateDefuzzify() {
+        List<Integer> variables = new ArrayList<Integer>();
+        for (int v = 0; v < model.getVariableCount(); v++) {
+            if (model.getDefuzzifier(v).getClass() == WeightedAverageDefuzzifier.class &&
+                model.getEndSlot(v) - model.getFirstSlot(v) <= MAX_INLINED_SETS) {
+                generateDefuzzify(v);
+                variables.add(v);
+            }
+        }
+        if (variables.isEmpty()) {
+            return;
+        }
+
+        // defuzzify(double[] slots, int variable, double[] workspace)
+        CodeWriter code = new CodeWriter(classFile, 4);
+        code.frameObject(CLASS_NAME);
+        code.frameObject("[D");
+        code.frameInt();
+        code.frameObject("[D");
+
+        Label interpreted = new Label();
+        Label[] targets = switchOn(code, 2, variables, interpreted);
+        for (int i = 0; i < targets.length; i++) {
+            code.mark(targets[i]);
+            code.aload(1);
+            code.invoke(INVOKESTATIC, CLASS_NAME, "defuzzify" + variables.get(i), "([D)D");
+            code.op(DRETURN, -2);
+        }
+        code.mark(interpreted);
+        code.aload(0);
+        code.aload(1);
+        code.iload(2);
+        code.aload(3);
+        code.invoke(INVOKESPECIAL, KERNEL, "defuzzify", "([DI[D)D");
+        code.op(DRETURN, -2);
+
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "defuzzify", "([DI[D)D", code);
+    }
+
+    /**
+     * Method generates {@code WeightedAverageDefuzzifier.defuzzify()} for a single variable.
+     * @param variable Index of the variable.
+     */
+    protected void generateDefuzzify(int variable) {
+        final int bottom = 1;
+        final int top = 3;
+        final int dom = 5;
+        FuzzyAggregate aggregate = model.getAggregate(variable);
+
+        CodeWriter code = new CodeWriter(classFile, 7);
+        code.frameObject("[D");
+        for (int local = bottom; local <= dom; local += 2) {
+            code.frameDouble();
+            code.pushDouble(0.0);
+            code.dstore(local);
+        }
+
+        int first = model.getFirstSlot(variable);
+        for (int i = 0; i < aggregate.getSetCount(); i++) {
+            code.aload(SLOTS);
+            code.pushInt(first + i);
+            code.op(DALOAD, 0);
+            code.dstore(dom);
+            // bottom += dom
+            code.dload(bottom);
+            code.dload(dom);
+            code.op(DADD, -2);
+            code.dstore(bottom);
+            // top += representativeValue * dom
+            code.dload(top);
+            code.pushDouble(aggregate.getRepresentativeValue(i));
+            code.dload(dom);
+            code.op(DMUL, -2);
+            code.op(DADD, -2);
+            code.dstore(top);
+        }
+
+        // Make sure bottom is not equal to zero
+        Label divide = new Label();
+        code.dload(bottom);
+        code.pushDouble(0.0);
+        code.op(DCMPL, -3);
+        code.branch(IFNE, divide);
+        code.pushDouble(0.0);
+        code.op(DRETURN, -2);
+        code.mark(divide);
+        code.dload(top);
+        code.dload(bottom);
+        code.op(DDIV, -2);
+        code.op(DRETURN, -2);
+
+        classFile.addMethod(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC, "defuzzify" + variable,
+                "([D)D", code);
+    }
+
+    /**
+     * Method generates a switch on the index of a variable.
+     * @param code Code of the method.
+     * @param local Local holding the index of the variable.
+     * @param variables Indices of the variables with a case of their own, in ascending order.
+     * @param otherwise Label of the other variables.
+     * @return Labels of the cases, in the order of the variables.
+     */
+    protected static Label[] switchOn(CodeWriter code, int local, List<Integer> variables, Label otherwise) {
+        int[] keys = new int[variables.size()];
+        Label[] targets = new Label[variables.size()];
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = variables.get(i);
+            targets[i] = new Label();
+        }
+        code.iload(local);
+        code.lookupSwitch(keys, targets, otherwise);
+
+        return targets;
+    }
+
+}
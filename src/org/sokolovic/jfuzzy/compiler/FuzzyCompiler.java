@@ -0,0 +1,671 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class lowers the rule base of a fuzzy controller into a {@code FuzzyProgram}. The member sets of the
+ * controller's variables are assigned the leading slots of the program, variable by variable, and each
+ * rule is translated into a sequence of instructions that evaluates its antecedent exactly once and
+ * accumulates the result into the slots of its consequent sets.
+ * <p>
+ * The compiler also prepares the activation-driven evaluation of the rules. For each antecedent it works
+ * out the sets whose zero degree of membership makes the antecedent non-positive, so the rule cannot
+ * raise the confidence of its consequent, and keys the rule on one of them: the rule only has to be
+ * evaluated when its key set has a non-zero degree of membership. A set makes an AND zero and a hedged
+ * set zero, while a NOT is one for a zero operand and an OR never evaluates below its positive starting
+ * value, so rules whose antecedent is a NOT or an OR at the top are always evaluated. Within a rule an
+ * AND stops at the first non-positive operand, unless a NOT or a hedge above it depends on its exact
+ * value, and an OR stops as soon as its value reaches the largest value its remaining operands can
+ * take. All of this leaves the results exactly the same as evaluating every operand of every rule.
+ * <p>
+ * Composite terms shared by several rules, the very same instance referred to more than once, are
+ * evaluated only once per inference: ahead of the rules, into slots of their own placed after the
+ * temporaries, which the rules then read like the slots of the sets. Terms that read the confidence
+ * of a consequent are evaluated where they occur, as their value depends on the rules run before.
+ *
+ * @author sokolovic
+ */
+public class FuzzyCompiler {
+
+    /**
+     * Marks the operands that refer to temporaries until their slots are known.
+     */
+    protected static final int TEMPORARY = 1 << 30;
+
+    /**
+     * Marks the operands that refer to the slots of the shared terms until their slots are known.
+     */
+    protected static final int SHARED = 1 << 29;
+
+    /**
+     * Slots assigned to the fuzzy sets, in the order of assignment.
+     */
+    protected Map<FuzzySet, Integer> setSlots;
+
+    /**
+     * The fuzzy sets, indexed by their slots.
+     */
+    protected List<FuzzySet> sets;
+
+    /**
+     * Values of the constants, in the order of their slots.
+     */
+    protected List<Double> constants;
+
+    /**
+     * Instructions emitted so far.
+     */
+    protected int[] code;
+
+    /**
+     * Number of elements of the code array in use.
+     */
+    protected int codeLength;
+
+    /**
+     * Slot of the constant used to initialize the AND operator.
+     */
+    protected int andIdentitySlot;
+
+    /**
+     * Slot of the constant used to initialize the OR operator.
+     */
+    protected int orIdentitySlot;
+
+    /**
+     * Flags of the slots of the sets used as consequents of the rules.
+     */
+    protected boolean[] consequent;
+
+    /**
+     * Number of temporaries used by the program.
+     */
+    protected int temporaryCount;
+
+    /**
+     * Marked slots of the shared terms evaluated ahead of the rules.
+     */
+    protected Map<FuzzyTerm, Integer> sharedSlots;
+
+    /**
+     * Rules evaluated regardless of the degrees of membership, or {@code null} if the rules are not indexed.
+     */
+    protected int[] alwaysRules;
+
+    /**
+     * Slots of the sets the indexed rules are keyed on.
+     */
+    protected int[] keySlots;
+
+    /**
+     * Offsets of the rules keyed on each key slot into {@code keyedRules}, followed by their total number.
+     */
+    protected int[] keyOffsets;
+
+    /**
+     * The indexed rules, grouped by their key slots.
+     */
+    protected int[] keyedRules;
+
+    /**
+     * Method compiles the rule base of the given controller.
+     * @param controller Controller to compile.
+     * @return Compiled program.
+     * @throws IllegalArgumentException If the rule base contains a term that cannot be compiled.
+     */
+    public static FuzzyProgram compile(FuzzyController controller) {
+        return new FuzzyCompiler().compileRules(controller.getVariables().values(), controller.getRules());
+    }
+
+    /**
+     * Method compiles the given rules over the given variables, for controllers that keep their rules
+     * in another form, such as the {@code SugenoController}.
+     * @param variables Variables whose members are assigned the leading slots, in order.
+     * @param rules Rules to compile.
+     * @return Compiled program.
+     * @throws IllegalArgumentException If a rule contains a term that cannot be compiled.
+     */
+    public static FuzzyProgram compile(Collection<FuzzyVariable> variables, List<FuzzyRule> rules) {
+        return new FuzzyCompiler().compileRules(variables, rules);
+    }
+
+    /**
+     * Constructor to initialize the empty compiler state.
+     */
+    protected FuzzyCompiler() {
+        this.setSlots = new IdentityHashMap<FuzzySet, Integer>();
+        this.sets = new ArrayList<FuzzySet>();
+        this.constants = new ArrayList<Double>();
+        this.sharedSlots = new IdentityHashMap<FuzzyTerm, Integer>();
+        this.code = new int[64];
+        this.codeLength = 0;
+    }
+
+    /**
+     * Method performs the compilation of the given rules.
+     * @param variables Variables of the controller.
+     * @param rules Rules of the controller.
+     * @return Compiled program.
+     */
+    protected FuzzyProgram compileRules(Collection<FuzzyVariable> variables, List<FuzzyRule> rules) {
+        // Assign slots to the variable members first, so each variable occupies a contiguous range
+        for (FuzzyVariable variable : variables) {
+            for (FuzzySet set : variable.getMembers().values()) {
+                slotOf(set);
+            }
+        }
+        // Then to the sets that are referenced by the rules only
+        for (FuzzyRule rule : rules) {
+            collectSets(rule.getAntecedent());
+            collectSets(rule.getConsequence());
+        }
+
+        andIdentitySlot = constantSlot(Double.MAX_VALUE);
+        orIdentitySlot = constantSlot(Double.MIN_VALUE);
+        temporaryCount = 0;
+
+        // Clear the DOMs of all the consequents of all the rules
+        List<Integer> consequentSlots = new ArrayList<Integer>();
+        consequent = new boolean[sets.size()];
+        for (FuzzyRule rule : rules) {
+            List<Integer> slots = new ArrayList<Integer>();
+            collectConsequentSlots(rule.getConsequence(), slots);
+            for (Integer slot : slots) {
+                if (!consequent[slot]) {
+                    consequent[slot] = true;
+                    consequentSlots.add(slot);
+                    emit(FuzzyProgram.OP_CLEAR, slot, slot, 0);
+                }
+            }
+        }
+
+        // Evaluate the terms shared by several rules once, children first
+        for (FuzzyTerm term : sharedTerms(rules, consequent)) {
+            int result = compileTerm(term, 0, false);
+            int slot = SHARED + sharedSlots.size();
+            emit(FuzzyProgram.OP_MAX, slot, result, result);
+            sharedSlots.put(term, slot);
+        }
+
+        // Process the rules
+        int[] ruleOffsets = new int[rules.size() + 1];
+        for (int r = 0; r < rules.size(); r++) {
+            ruleOffsets[r] = codeLength;
+            compileRule(rules.get(r));
+        }
+        ruleOffsets[rules.size()] = codeLength;
+
+        // Place the temporaries after the constants, and the shared terms after the temporaries
+        int firstTemporarySlot = sets.size() + constants.size();
+        int firstSharedSlot = firstTemporarySlot + temporaryCount;
+        for (int pc = 0; pc < codeLength; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            boolean jump = FuzzyProgram.isJump(code[pc]);
+            for (int i = jump ? 2 : 1; i < FuzzyProgram.INSTRUCTION_SIZE; i++) {
+                if (code[pc + i] >= TEMPORARY) {
+                    code[pc + i] = firstTemporarySlot + code[pc + i] - TEMPORARY;
+                }
+                else if (code[pc + i] >= SHARED) {
+                    code[pc + i] = firstSharedSlot + code[pc + i] - SHARED;
+                }
+            }
+        }
+
+        double[] initialSlots = new double[firstSharedSlot + sharedSlots.size()];
+        for (int i = 0; i < constants.size(); i++) {
+            initialSlots[sets.size() + i] = constants.get(i);
+        }
+
+        indexRules(rules, consequent);
+
+        return new FuzzyProgram(Arrays.copyOf(code, codeLength), initialSlots,
+                sets.toArray(new FuzzySet[sets.size()]), toArray(consequentSlots),
+                ruleOffsets, alwaysRules, keySlots, keyOffsets, keyedRules);
+    }
+
+    /**
+     * Method finds the composite terms the antecedents of the rules refer to more than once. The terms
+     * are returned children first, so each shared term can read the slots of the shared terms within it.
+     * @param rules Rules of the controller.
+     * @param consequent Flags of the consequent slots.
+     * @return Shared terms that do not read the confidence of a consequent.
+     */
+    protected List<FuzzyTerm> sharedTerms(List<FuzzyRule> rules, boolean[] consequent) {
+        Map<FuzzyTerm, Integer> counts = new IdentityHashMap<FuzzyTerm, Integer>();
+        List<FuzzyTerm> terms = new ArrayList<FuzzyTerm>();
+        for (FuzzyRule rule : rules) {
+            countTerms(rule.getAntecedent(), counts, terms);
+        }
+
+        List<FuzzyTerm> shared = new ArrayList<FuzzyTerm>();
+        for (FuzzyTerm term : terms) {
+            if (counts.get(term) < 2) {
+                continue;
+            }
+            List<Integer> leaves = new ArrayList<Integer>();
+            collectConsequentSlots(term, leaves);
+            boolean ordered = false;
+            for (Integer slot : leaves) {
+                ordered |= consequent[slot];
+            }
+            if (!ordered) {
+                shared.add(term);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Method counts the references to the composite terms within the given term. The terms within a
+     * term are only counted on its first reference, as a shared term is evaluated once.
+     * @param term Term to walk.
+     * @param counts Numbers of references to the terms.
+     * @param terms List to add the terms to on their first reference, children first.
+     */
+    protected void countTerms(FuzzyTerm term, Map<FuzzyTerm, Integer> counts, List<FuzzyTerm> terms) {
+        if (term instanceof ProxyFuzzySet) {
+            return;
+        }
+
+        Integer count = counts.get(term);
+        counts.put(term, count == null ? 1 : count + 1);
+        if (count != null) {
+            return;
+        }
+
+        if (term instanceof FuzzyAnd) {
+            for (FuzzyTerm child : ((FuzzyAnd) term).getTerms()) {
+                countTerms(child, counts, terms);
+            }
+        }
+        else if (term instanceof FuzzyOr) {
+            for (FuzzyTerm child : ((FuzzyOr) term).getTerms()) {
+                countTerms(child, counts, terms);
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            countTerms(((FuzzyNot) term).getTerm(), counts, terms);
+        }
+        else if (term instanceof FuzzyVery) {
+            countTerms(((FuzzyVery) term).getTerm(), counts, terms);
+        }
+        else if (term instanceof FuzzyFairly) {
+            countTerms(((FuzzyFairly) term).getTerm(), counts, terms);
+        }
+        terms.add(term);
+    }
+
+    /**
+     * Method keys each rule on one of the sets whose zero degree of membership keeps the rule from
+     * firing. If a rule reads a consequent set the order of the rules matters and no index is built, so
+     * the rules are evaluated one after another.
+     * @param rules Rules of the controller.
+     * @param consequent Flags of the consequent slots.
+     */
+    protected void indexRules(List<FuzzyRule> rules, boolean[] consequent) {
+        List<Integer> leaves = new ArrayList<Integer>();
+        for (FuzzyRule rule : rules) {
+            collectConsequentSlots(rule.getAntecedent(), leaves);
+        }
+        for (Integer slot : leaves) {
+            if (consequent[slot]) {
+                return;
+            }
+        }
+
+        int[] keys = new int[rules.size()];
+        int[] bucketSizes = new int[sets.size()];
+        List<Integer> always = new ArrayList<Integer>();
+        for (int r = 0; r < rules.size(); r++) {
+            // Key the rule on the killer set with the fewest rules so far, to keep the buckets even
+            int key = -1;
+            for (Integer slot : killers(rules.get(r).getAntecedent(), false)) {
+                if (key < 0 || bucketSizes[slot] < bucketSizes[key]) {
+                    key = slot;
+                }
+            }
+            keys[r] = key;
+            if (key < 0) {
+                always.add(r);
+            }
+            else {
+                bucketSizes[key]++;
+            }
+        }
+
+        // Lay the buckets out one after another, keeping the rules of each bucket in their order
+        List<Integer> keyed = new ArrayList<Integer>();
+        int[] bucketOffsets = new int[sets.size()];
+        int offset = 0;
+        for (int slot = 0; slot < sets.size(); slot++) {
+            if (bucketSizes[slot] > 0) {
+                keyed.add(slot);
+                bucketOffsets[slot] = offset;
+                offset += bucketSizes[slot];
+            }
+        }
+        int[] offsets = new int[keyed.size() + 1];
+        for (int k = 0; k < keyed.size(); k++) {
+            offsets[k] = bucketOffsets[keyed.get(k)];
+        }
+        offsets[keyed.size()] = offset;
+
+        int[] rulesByKey = new int[offset];
+        for (int r = 0; r < rules.size(); r++) {
+            if (keys[r] >= 0) {
+                rulesByKey[bucketOffsets[keys[r]]++] = r;
+            }
+        }
+
+        this.alwaysRules = toArray(always);
+        this.keySlots = toArray(keyed);
+        this.keyOffsets = offsets;
+        this.keyedRules = rulesByKey;
+    }
+
+    /**
+     * Method returns the slots of the sets whose zero degree of membership forces the given term to a
+     * non-positive value (or, if exact is set, to zero).
+     * @param term Antecedent term.
+     * @param exact Whether the zero degree of membership has to force the term to exactly zero.
+     * @return Slots of the sets.
+     */
+    protected Set<Integer> killers(FuzzyTerm term, boolean exact) {
+        Set<Integer> killers = new LinkedHashSet<Integer>();
+
+        if (term instanceof ProxyFuzzySet) {
+            killers.add(slotOf(((ProxyFuzzySet) term).getSet()));
+        }
+        else if (term instanceof FuzzyAnd) {
+            List<FuzzyTerm> terms = ((FuzzyAnd) term).getTerms();
+            // The minimum of a zero and another operand is only known to be zero for a single operand
+            if (!exact || terms.size() == 1) {
+                for (FuzzyTerm child : terms) {
+                    killers.addAll(killers(child, exact));
+                }
+            }
+        }
+        // Squaring and the square root keep a zero, but not a negative value
+        else if (term instanceof FuzzyVery) {
+            killers.addAll(killers(((FuzzyVery) term).getTerm(), true));
+        }
+        else if (term instanceof FuzzyFairly) {
+            killers.addAll(killers(((FuzzyFairly) term).getTerm(), true));
+        }
+        return killers;
+    }
+
+    /**
+     * Method returns the largest value the given term can evaluate to, or positive infinity if unknown.
+     * @param term Antecedent term.
+     * @return Upper bound of the value of the term.
+     */
+    protected double upperBound(FuzzyTerm term) {
+        double bound = Double.POSITIVE_INFINITY;
+
+        // The slot of a consequent holds the confidence raised by the rules, not a degree of membership
+        if (term instanceof ProxyFuzzySet && !consequent[slotOf(((ProxyFuzzySet) term).getSet())]) {
+            bound = ((ProxyFuzzySet) term).getSet().getMaxDom();
+        }
+        else if (term instanceof FuzzyAnd) {
+            bound = Double.MAX_VALUE;
+            for (FuzzyTerm child : ((FuzzyAnd) term).getTerms()) {
+                bound = Math.min(bound, upperBound(child));
+            }
+        }
+        else if (term instanceof FuzzyOr) {
+            bound = Double.MIN_VALUE;
+            for (FuzzyTerm child : ((FuzzyOr) term).getTerms()) {
+                bound = Math.max(bound, upperBound(child));
+            }
+        }
+        else if (term instanceof FuzzyFairly) {
+            bound = Math.sqrt(upperBound(((FuzzyFairly) term).getTerm()));
+        }
+        return Double.isNaN(bound) ? Double.POSITIVE_INFINITY : bound;
+    }
+
+    /**
+     * Method emits the instructions of a single rule.
+     * @param rule Rule to compile.
+     */
+    protected void compileRule(FuzzyRule rule) {
+        int result = compileTerm(rule.getAntecedent(), 0, true);
+
+        List<Integer> slots = new ArrayList<Integer>();
+        collectConsequentSlots(rule.getConsequence(), slots);
+        for (Integer slot : slots) {
+            emit(FuzzyProgram.OP_ACCUMULATE, slot, result, 0);
+        }
+    }
+
+    /**
+     * Method emits the instructions evaluating the given antecedent term and returns the slot that
+     * holds its degree of membership. Leaf sets and shared terms are read directly from their slots, while
+     * the results of the operators are stored in the temporary assigned to the given nesting depth.
+     * @param term Term to compile.
+     * @param depth Nesting depth of the term.
+     * @param monotone Whether only ANDs and ORs lie between the term and the root of the antecedent,
+     *                 so a non-positive value of the term is as good as any other.
+     * @return Slot holding the degree of membership of the term.
+     */
+    protected int compileTerm(FuzzyTerm term, int depth, boolean monotone) {
+        Integer shared = sharedSlots.get(term);
+        if (shared != null) {
+            return shared;
+        }
+        if (term instanceof ProxyFuzzySet) {
+            return slotOf(((ProxyFuzzySet) term).getSet());
+        }
+
+        int target = temporary(depth);
+
+        if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            boolean and = term instanceof FuzzyAnd;
+            List<FuzzyTerm> terms = and ? ((FuzzyAnd) term).getTerms() : ((FuzzyOr) term).getTerms();
+            int operation = and ? FuzzyProgram.OP_MIN : FuzzyProgram.OP_MAX;
+            int accumulator = and ? andIdentitySlot : orIdentitySlot;
+            List<Integer> jumps = new ArrayList<Integer>();
+
+            // An empty composite evaluates to the identity the operator starts from
+            if (terms.isEmpty()) {
+                return accumulator;
+            }
+            for (int i = 0; i < terms.size(); i++) {
+                emit(operation, target, accumulator, compileTerm(terms.get(i), depth + 1, monotone));
+                accumulator = target;
+                if (i == terms.size() - 1) {
+                    break;
+                }
+                if (and && monotone) {
+                    jumps.add(codeLength);
+                    emit(FuzzyProgram.OP_JUMP_IF_NOT_POSITIVE, 0, target, 0);
+                }
+                else if (!and) {
+                    double bound = Double.MIN_VALUE;
+                    for (int j = i + 1; j < terms.size(); j++) {
+                        bound = Math.max(bound, upperBound(terms.get(j)));
+                    }
+                    if (bound != Double.POSITIVE_INFINITY) {
+                        jumps.add(codeLength);
+                        emit(FuzzyProgram.OP_JUMP_IF_AT_LEAST, 0, target, constantSlot(bound));
+                    }
+                }
+            }
+            for (Integer jump : jumps) {
+                code[jump + 1] = codeLength;
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            emit(FuzzyProgram.OP_NOT, target, compileTerm(((FuzzyNot) term).getTerm(), depth, false), 0);
+        }
+        else if (term instanceof FuzzyVery) {
+            emit(FuzzyProgram.OP_SQUARE, target, compileTerm(((FuzzyVery) term).getTerm(), depth, false), 0);
+        }
+        else if (term instanceof FuzzyFairly) {
+            emit(FuzzyProgram.OP_SQRT, target, compileTerm(((FuzzyFairly) term).getTerm(), depth, false), 0);
+        }
+        else {
+            throw unsupported(term);
+        }
+        return target;
+    }
+
+    /**
+     * Method collects the slots of the sets a consequent term updates when its rule fires.
+     * @param term Consequent term.
+     * @param slots List to add the slots to.
+     */
+    protected void collectConsequentSlots(FuzzyTerm term, List<Integer> slots) {
+        if (term instanceof ProxyFuzzySet) {
+            slots.add(slotOf(((ProxyFuzzySet) term).getSet()));
+        }
+        else if (term instanceof FuzzyAnd) {
+            for (FuzzyTerm child : ((FuzzyAnd) term).getTerms()) {
+                collectConsequentSlots(child, slots);
+            }
+        }
+        else if (term instanceof FuzzyOr) {
+            for (FuzzyTerm child : ((FuzzyOr) term).getTerms()) {
+                collectConsequentSlots(child, slots);
+            }
+        }
+        // The hedges pass the confidence on to the term they are applied to unchanged
+        else if (term instanceof FuzzyNot) {
+            collectConsequentSlots(((FuzzyNot) term).getTerm(), slots);
+        }
+        else if (term instanceof FuzzyVery) {
+            collectConsequentSlots(((FuzzyVery) term).getTerm(), slots);
+        }
+        else if (term instanceof FuzzyFairly) {
+            collectConsequentSlots(((FuzzyFairly) term).getTerm(), slots);
+        }
+        else {
+            throw unsupported(term);
+        }
+    }
+
+    /**
+     * Method assigns slots to all the sets the given term refers to.
+     * @param term Term to walk.
+     */
+    protected void collectSets(FuzzyTerm term) {
+        collectConsequentSlots(term, new ArrayList<Integer>());
+    }
+
+    /**
+     * Method returns the slot of the given set, assigning a new one if the set has none yet.
+     * @param set Fuzzy set.
+     * @return Slot of the set.
+     */
+    protected int slotOf(FuzzySet set) {
+        Integer slot = setSlots.get(set);
+
+        if (slot == null) {
+            slot = sets.size();
+            setSlots.put(set, slot);
+            sets.add(set);
+        }
+        return slot;
+    }
+
+    /**
+     * Method returns the slot of a constant with the given value, assigning a new one if there is none.
+     * @param value Value of the constant.
+     * @return Slot of the constant.
+     */
+    protected int constantSlot(double value) {
+        for (int i = 0; i < constants.size(); i++) {
+            if (Double.doubleToLongBits(constants.get(i)) == Double.doubleToLongBits(value)) {
+                return sets.size() + i;
+            }
+        }
+        constants.add(value);
+
+        return sets.size() + constants.size() - 1;
+    }
+
+    /**
+     * Method returns the temporary of the given nesting depth. The temporaries are placed after the
+     * constants once all the code is emitted, until then they are marked by {@code TEMPORARY}.
+     * @param depth Nesting depth.
+     * @return Marked temporary.
+     */
+    protected int temporary(int depth) {
+        if (depth >= temporaryCount) {
+            temporaryCount = depth + 1;
+        }
+        return TEMPORARY + depth;
+    }
+
+    /**
+     * Method appends an instruction to the code.
+     * @param operation Operation code.
+     * @param dst Destination slot.
+     * @param a First operand slot.
+     * @param b Second operand slot.
+     */
+    protected void emit(int operation, int dst, int a, int b) {
+        if (codeLength + FuzzyProgram.INSTRUCTION_SIZE > code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[codeLength++] = operation;
+        code[codeLength++] = dst;
+        code[codeLength++] = a;
+        code[codeLength++] = b;
+    }
+
+    /**
+     * Method copies a list of integers into an array.
+     * @param list List to copy.
+     * @return Array with the elements of the list.
+     */
+    protected static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Method creates the exception reported for a term the compiler does not know how to lower.
+     * @param term Unsupported term.
+     * @return Exception to throw.
+     */
+    protected static IllegalArgumentException unsupported(FuzzyTerm term) {
+        return new IllegalArgumentException("Unsupported fuzzy term: " + term.getClass().getName());
+    }
+
+}
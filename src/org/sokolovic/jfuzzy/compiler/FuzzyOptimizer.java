@@ -0,0 +1,656 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class rewrites the rule base of a fuzzy controller into a smaller one giving the same results. The
+ * optimizer first replaces the terms that are structurally the same, the same operators applied to the
+ * same sets in the same order, by a single shared instance, which the compiler evaluates only once per
+ * inference. Then it removes the rules that cannot change the outcome of an inference:
+ * <ul>
+ *     <li>duplicates of an earlier rule, with the same consequent and the same antecedent, or an AND
+ *     of the same terms in a different order,</li>
+ *     <li>rules subsumed by another rule with the same consequent whose antecedent is an AND of a
+ *     subset of their terms: the confidences are accumulated by taking the maximum, and the weaker
+ *     rule never evaluates above the stronger one,</li>
+ *     <li>rules none of whose consequents belong to the output variables, if these are given.</li>
+ * </ul>
+ * Finally the rules with the same antecedent are merged into a single rule updating all of their
+ * consequents, so the antecedent is evaluated once.
+ * <p>
+ * If an antecedent reads the confidence of a consequent, the results depend on the order of the rules
+ * and only the terms are shared. The optimizer leaves the terms of the original rules untouched.
+ *
+ * @author sokolovic
+ */
+public class FuzzyOptimizer {
+
+    /**
+     * The largest number of terms of an AND whose subsets are looked up for a subsuming rule.
+     */
+    public static final int MAX_SUBSUMPTION_TERMS = 8;
+
+    /**
+     * Operator code of an AND in the keys of the terms.
+     */
+    protected static final int AND = -1;
+
+    /**
+     * Operator code of an OR in the keys of the terms.
+     */
+    protected static final int OR = -2;
+
+    /**
+     * Operator code of a NOT in the keys of the terms.
+     */
+    protected static final int NOT = -3;
+
+    /**
+     * Operator code of a VERY in the keys of the terms.
+     */
+    protected static final int VERY = -4;
+
+    /**
+     * Operator code of a FAIRLY in the keys of the terms.
+     */
+    protected static final int FAIRLY = -5;
+
+    /**
+     * The shared proxy of each set.
+     */
+    protected Map<FuzzySet, ProxyFuzzySet> proxies;
+
+    /**
+     * The shared composite terms, keyed by their operator code followed by the identifiers of their
+     * operands.
+     */
+    protected Map<List<Integer>, FuzzyTerm> terms;
+
+    /**
+     * Identifiers of the shared terms.
+     */
+    protected Map<FuzzyTerm, Integer> ids;
+
+    /**
+     * Method optimizes the rule base of the given controller.
+     * @param controller Controller to optimize.
+     * @return Report of the optimization.
+     * @throws IllegalArgumentException If the rule base contains a term that cannot be optimized.
+     */
+    public static Report optimize(FuzzyController controller) {
+        return new FuzzyOptimizer().optimizeController(controller, null);
+    }
+
+    /**
+     * Method optimizes the rule base of the given controller, removing the rules that do not update the
+     * given output variables.
+     * @param controller Controller to optimize.
+     * @param outputs Names of the variables that are defuzzified.
+     * @return Report of the optimization.
+     * @throws IllegalArgumentException If an output is not a variable of the controller or the rule base
+     *                                  contains a term that cannot be optimized.
+     */
+    public static Report optimize(FuzzyController controller, Collection<String> outputs) {
+        return new FuzzyOptimizer().optimizeController(controller, outputs);
+    }
+
+    /**
+     * Constructor to initialize the empty optimizer state.
+     */
+    protected FuzzyOptimizer() {
+        this.proxies = new IdentityHashMap<FuzzySet, ProxyFuzzySet>();
+        this.terms = new HashMap<List<Integer>, FuzzyTerm>();
+        this.ids = new IdentityHashMap<FuzzyTerm, Integer>();
+    }
+
+    /**
+     * Method performs the optimization of the given controller.
+     * @param controller Controller to optimize.
+     * @param outputs Names of the output variables, or {@code null} if all the variables may be outputs.
+     * @return Report of the optimization.
+     */
+    protected Report optimizeController(FuzzyController controller, Collection<String> outputs) {
+        List<FuzzyRule> rules = controller.getRules();
+        int count = rules.size();
+        FuzzyTerm[] antecedents = new FuzzyTerm[count];
+        FuzzyTerm[] consequents = new FuzzyTerm[count];
+        int termCount = 0;
+
+        for (int r = 0; r < count; r++) {
+            termCount += countComposites(rules.get(r).getAntecedent());
+            antecedents[r] = intern(rules.get(r).getAntecedent());
+            consequents[r] = intern(rules.get(r).getConsequence());
+        }
+
+        // Removing or merging rules is only safe if their order does not matter
+        Set<FuzzySet> consequentSets = Collections.newSetFromMap(new IdentityHashMap<FuzzySet, Boolean>());
+        for (FuzzyTerm consequent : consequents) {
+            collectSets(consequent, consequentSets);
+        }
+        boolean ordered = false;
+        for (FuzzyTerm antecedent : antecedents) {
+            Set<FuzzySet> sets = Collections.newSetFromMap(new IdentityHashMap<FuzzySet, Boolean>());
+            collectSets(antecedent, sets);
+            sets.retainAll(consequentSets);
+            ordered |= !sets.isEmpty();
+        }
+
+        boolean[] removed = new boolean[count];
+        int deadRules = 0;
+        int duplicateRules = 0;
+        int subsumedRules = 0;
+        int mergedRules = 0;
+        if (!ordered) {
+            deadRules = removeDead(controller, outputs, consequents, removed);
+            duplicateRules = removeDuplicates(antecedents, consequents, removed);
+            subsumedRules = removeSubsumed(antecedents, consequents, removed);
+        }
+
+        // Merge the rules with the same antecedent into the first of them
+        Map<FuzzyTerm, List<FuzzyTerm>> merged = new LinkedHashMap<FuzzyTerm, List<FuzzyTerm>>();
+        List<FuzzyRule> optimized = new ArrayList<FuzzyRule>();
+        for (int r = 0; r < count; r++) {
+            if (removed[r]) {
+                continue;
+            }
+            if (ordered) {
+                optimized.add(new FuzzyRule(antecedents[r], consequents[r]));
+                continue;
+            }
+            List<FuzzyTerm> group = merged.get(antecedents[r]);
+            if (group == null) {
+                group = new ArrayList<FuzzyTerm>();
+                merged.put(antecedents[r], group);
+            }
+            else {
+                mergedRules++;
+            }
+            group.add(consequents[r]);
+        }
+        for (Map.Entry<FuzzyTerm, List<FuzzyTerm>> entry : merged.entrySet()) {
+            FuzzyTerm consequent = entry.getValue().get(0);
+            if (entry.getValue().size() > 1) {
+                FuzzyAnd and = new FuzzyAnd();
+                for (FuzzyTerm term : entry.getValue()) {
+                    and.addTerm(term);
+                }
+                consequent = and;
+            }
+            optimized.add(new FuzzyRule(entry.getKey(), consequent));
+        }
+        controller.setRules(optimized);
+
+        Set<FuzzyTerm> evaluated = Collections.newSetFromMap(new IdentityHashMap<FuzzyTerm, Boolean>());
+        for (FuzzyRule rule : optimized) {
+            collectComposites(rule.getAntecedent(), evaluated);
+        }
+        return new Report(count, optimized.size(), duplicateRules, subsumedRules, deadRules, mergedRules,
+                          termCount, evaluated.size());
+    }
+
+    /**
+     * Method removes the rules none of whose consequent sets belong to an output variable.
+     * @param controller Controller being optimized.
+     * @param outputs Names of the output variables, or {@code null} to keep all the rules.
+     * @param consequents Consequents of the rules.
+     * @param removed Flags of the removed rules.
+     * @return Number of rules removed.
+     */
+    protected int removeDead(FuzzyController controller, Collection<String> outputs, FuzzyTerm[] consequents,
+                             boolean[] removed) {
+        if (outputs == null) {
+            return 0;
+        }
+
+        Set<FuzzySet> outputSets = Collections.newSetFromMap(new IdentityHashMap<FuzzySet, Boolean>());
+        for (String name : outputs) {
+            controller.getHandle(name);
+            FuzzyVariable variable = controller.getVariables().get(name);
+            outputSets.addAll(variable.getMembers().values());
+        }
+
+        int dead = 0;
+        for (int r = 0; r < consequents.length; r++) {
+            Set<FuzzySet> sets = Collections.newSetFromMap(new IdentityHashMap<FuzzySet, Boolean>());
+            collectSets(consequents[r], sets);
+            sets.retainAll(outputSets);
+            if (sets.isEmpty()) {
+                removed[r] = true;
+                dead++;
+            }
+        }
+        return dead;
+    }
+
+    /**
+     * Method removes the rules repeating the antecedent and the consequent of an earlier rule.
+     * @param antecedents Shared antecedents of the rules.
+     * @param consequents Shared consequents of the rules.
+     * @param removed Flags of the removed rules.
+     * @return Number of rules removed.
+     */
+    protected int removeDuplicates(FuzzyTerm[] antecedents, FuzzyTerm[] consequents, boolean[] removed) {
+        Set<List<Integer>> seen = new HashSet<List<Integer>>();
+        int duplicates = 0;
+
+        for (int r = 0; r < antecedents.length; r++) {
+            if (!removed[r] && !seen.add(Arrays.asList(ids.get(antecedents[r]), ids.get(consequents[r])))) {
+                removed[r] = true;
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Method removes the rules whose antecedent is an AND of the terms of another rule with the same
+     * consequent, or of more. The rules are visited from the fewest terms to the most, so a rule is
+     * only ever removed in favour of a rule that is kept; of the rules with the same terms the first is
+     * kept.
+     * @param antecedents Shared antecedents of the rules.
+     * @param consequents Shared consequents of the rules.
+     * @param removed Flags of the removed rules.
+     * @return Number of rules removed.
+     */
+    protected int removeSubsumed(FuzzyTerm[] antecedents, FuzzyTerm[] consequents, boolean[] removed) {
+        final int[][] operands = new int[antecedents.length][];
+        List<Integer> candidates = new ArrayList<Integer>();
+
+        for (int r = 0; r < antecedents.length; r++) {
+            if (!removed[r] && antecedents[r] instanceof FuzzyAnd && !((FuzzyAnd) antecedents[r]).getTerms().isEmpty()) {
+                Set<Integer> distinct = new HashSet<Integer>();
+                for (FuzzyTerm term : ((FuzzyAnd) antecedents[r]).getTerms()) {
+                    distinct.add(ids.get(term));
+                }
+                operands[r] = new int[distinct.size()];
+                int i = 0;
+                for (Integer id : distinct) {
+                    operands[r][i++] = id;
+                }
+                Arrays.sort(operands[r]);
+                candidates.add(r);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int order = operands[a].length - operands[b].length;
+                return order != 0 ? order : a - b;
+            }
+        });
+
+        Set<List<Integer>> kept = new HashSet<List<Integer>>();
+        int subsumed = 0;
+        for (Integer r : candidates) {
+            int consequent = ids.get(consequents[r]);
+            int[] terms = operands[r];
+            boolean weaker = kept.contains(key(consequent, terms, -1));
+
+            // Look for a kept rule with a proper subset of the terms
+            if (!weaker && terms.length <= MAX_SUBSUMPTION_TERMS) {
+                for (int mask = 1; mask < (1 << terms.length) - 1 && !weaker; mask++) {
+                    weaker = kept.contains(key(consequent, terms, mask));
+                }
+            }
+            if (weaker) {
+                removed[r] = true;
+                subsumed++;
+            }
+            else {
+                kept.add(key(consequent, terms, -1));
+            }
+        }
+        return subsumed;
+    }
+
+    /**
+     * Method builds the key of an AND of a subset of the given terms updating the given consequent.
+     * @param consequent Identifier of the consequent.
+     * @param terms Identifiers of the terms, sorted.
+     * @param mask Bit mask of the terms of the subset, or -1 for all the terms.
+     * @return Key of the rule.
+     */
+    protected static List<Integer> key(int consequent, int[] terms, int mask) {
+        List<Integer> key = new ArrayList<Integer>(terms.length + 1);
+
+        key.add(consequent);
+        for (int i = 0; i < terms.length; i++) {
+            if (mask == -1 || (mask & 1 << i) != 0) {
+                key.add(terms[i]);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Method returns the shared instance of the given term, creating it if the term is the first of its
+     * structure.
+     * @param term Term to share.
+     * @return Shared term.
+     */
+    protected FuzzyTerm intern(FuzzyTerm term) {
+        if (term instanceof ProxyFuzzySet) {
+            FuzzySet set = ((ProxyFuzzySet) term).getSet();
+            ProxyFuzzySet proxy = proxies.get(set);
+            if (proxy == null) {
+                proxy = (ProxyFuzzySet) term;
+                proxies.put(set, proxy);
+                ids.put(proxy, ids.size());
+            }
+            return proxy;
+        }
+
+        List<Integer> key = new ArrayList<Integer>();
+        List<FuzzyTerm> operands = new ArrayList<FuzzyTerm>();
+        if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            key.add(term instanceof FuzzyAnd ? AND : OR);
+            for (FuzzyTerm child : term instanceof FuzzyAnd ? ((FuzzyAnd) term).getTerms() : ((FuzzyOr) term).getTerms()) {
+                operands.add(intern(child));
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            key.add(NOT);
+            operands.add(intern(((FuzzyNot) term).getTerm()));
+        }
+        else if (term instanceof FuzzyVery) {
+            key.add(VERY);
+            operands.add(intern(((FuzzyVery) term).getTerm()));
+        }
+        else if (term instanceof FuzzyFairly) {
+            key.add(FAIRLY);
+            operands.add(intern(((FuzzyFairly) term).getTerm()));
+        }
+        else {
+            throw FuzzyCompiler.unsupported(term);
+        }
+        for (FuzzyTerm operand : operands) {
+            key.add(ids.get(operand));
+        }
+
+        FuzzyTerm shared = terms.get(key);
+        if (shared == null) {
+            shared = create(key.get(0), operands);
+            terms.put(key, shared);
+            ids.put(shared, ids.size());
+        }
+        return shared;
+    }
+
+    /**
+     * Method creates a composite term of the given operator applied to the given operands.
+     * @param operator Operator code.
+     * @param operands Shared operands.
+     * @return New term.
+     */
+    protected static FuzzyTerm create(int operator, List<FuzzyTerm> operands) {
+        switch (operator) {
+            case AND: {
+                FuzzyAnd and = new FuzzyAnd();
+                for (FuzzyTerm operand : operands) {
+                    and.addTerm(operand);
+                }
+                return and;
+            }
+            case OR: {
+                FuzzyOr or = new FuzzyOr();
+                for (FuzzyTerm operand : operands) {
+                    or.addTerm(operand);
+                }
+                return or;
+            }
+            case NOT:
+                return new FuzzyNot(operands.get(0));
+            case VERY:
+                return new FuzzyVery(operands.get(0));
+            default:
+                return new FuzzyFairly(operands.get(0));
+        }
+    }
+
+    /**
+     * Method collects the sets the given term refers to.
+     * @param term Term to walk.
+     * @param sets Set to add the sets to.
+     */
+    protected static void collectSets(FuzzyTerm term, Set<FuzzySet> sets) {
+        if (term instanceof ProxyFuzzySet) {
+            sets.add(((ProxyFuzzySet) term).getSet());
+        }
+        for (FuzzyTerm child : children(term)) {
+            collectSets(child, sets);
+        }
+    }
+
+    /**
+     * Method counts the composite terms of the given term, every reference counted.
+     * @param term Term to walk.
+     * @return Number of composite terms.
+     */
+    protected static int countComposites(FuzzyTerm term) {
+        int count = term instanceof ProxyFuzzySet ? 0 : 1;
+
+        for (FuzzyTerm child : children(term)) {
+            count += countComposites(child);
+        }
+        return count;
+    }
+
+    /**
+     * Method collects the distinct composite terms of the given term.
+     * @param term Term to walk.
+     * @param composites Set to add the composite terms to.
+     */
+    protected static void collectComposites(FuzzyTerm term, Set<FuzzyTerm> composites) {
+        if (!(term instanceof ProxyFuzzySet) && composites.add(term)) {
+            for (FuzzyTerm child : children(term)) {
+                collectComposites(child, composites);
+            }
+        }
+    }
+
+    /**
+     * Method returns the operands of the given term.
+     * @param term The term.
+     * @return Operands of the term, empty for a set.
+     */
+    protected static List<FuzzyTerm> children(FuzzyTerm term) {
+        if (term instanceof FuzzyAnd) {
+            return ((FuzzyAnd) term).getTerms();
+        }
+        if (term instanceof FuzzyOr) {
+            return ((FuzzyOr) term).getTerms();
+        }
+        if (term instanceof FuzzyNot) {
+            return Collections.singletonList(((FuzzyNot) term).getTerm());
+        }
+        if (term instanceof FuzzyVery) {
+            return Collections.singletonList(((FuzzyVery) term).getTerm());
+        }
+        if (term instanceof FuzzyFairly) {
+            return Collections.singletonList(((FuzzyFairly) term).getTerm());
+        }
+        if (term instanceof ProxyFuzzySet) {
+            return Collections.emptyList();
+        }
+        throw FuzzyCompiler.unsupported(term);
+    }
+
+    /**
+     * Class reports how much an optimization reduced a rule base.
+     */
+    public static class Report {
+
+        /**
+         * Number of rules before the optimization.
+         */
+        protected final int ruleCount;
+
+        /**
+         * Number of rules after the optimization.
+         */
+        protected final int optimizedRuleCount;
+
+        /**
+         * Number of duplicate rules removed.
+         */
+        protected final int duplicateRules;
+
+        /**
+         * Number of subsumed rules removed.
+         */
+        protected final int subsumedRules;
+
+        /**
+         * Number of rules removed as they do not update an output.
+         */
+        protected final int deadRules;
+
+        /**
+         * Number of rules merged into a rule with the same antecedent.
+         */
+        protected final int mergedRules;
+
+        /**
+         * Number of composite terms evaluated per inference before the optimization.
+         */
+        protected final int termCount;
+
+        /**
+         * Number of distinct composite terms left after the optimization.
+         */
+        protected final int optimizedTermCount;
+
+        /**
+         * Constructor to initialize the report with the given numbers.
+         * @param ruleCount Number of rules before the optimization.
+         * @param optimizedRuleCount Number of rules after the optimization.
+         * @param duplicateRules Number of duplicate rules removed.
+         * @param subsumedRules Number of subsumed rules removed.
+         * @param deadRules Number of rules removed as they do not update an output.
+         * @param mergedRules Number of rules merged.
+         * @param termCount Number of composite terms before the optimization.
+         * @param optimizedTermCount Number of distinct composite terms after the optimization.
+         */
+        public Report(int ruleCount, int optimizedRuleCount, int duplicateRules, int subsumedRules, int deadRules,
+                      int mergedRules, int termCount, int optimizedTermCount) {
+            this.ruleCount = ruleCount;
+            this.optimizedRuleCount = optimizedRuleCount;
+            this.duplicateRules = duplicateRules;
+            this.subsumedRules = subsumedRules;
+            this.deadRules = deadRules;
+            this.mergedRules = mergedRules;
+            this.termCount = termCount;
+            this.optimizedTermCount = optimizedTermCount;
+        }
+
+        /**
+         * Getter to obtain the number of rules before the optimization.
+         * @return Number of rules.
+         */
+        public int getRuleCount() {
+            return this.ruleCount;
+        }
+
+        /**
+         * Getter to obtain the number of rules after the optimization.
+         * @return Number of rules.
+         */
+        public int getOptimizedRuleCount() {
+            return this.optimizedRuleCount;
+        }
+
+        /**
+         * Getter to obtain the number of duplicate rules removed.
+         * @return Number of rules.
+         */
+        public int getDuplicateRules() {
+            return this.duplicateRules;
+        }
+
+        /**
+         * Getter to obtain the number of subsumed rules removed.
+         * @return Number of rules.
+         */
+        public int getSubsumedRules() {
+            return this.subsumedRules;
+        }
+
+        /**
+         * Getter to obtain the number of rules removed as they do not update an output.
+         * @return Number of rules.
+         */
+        public int getDeadRules() {
+            return this.deadRules;
+        }
+
+        /**
+         * Getter to obtain the number of rules merged into a rule with the same antecedent.
+         * @return Number of rules.
+         */
+        public int getMergedRules() {
+            return this.mergedRules;
+        }
+
+        /**
+         * Getter to obtain the number of composite terms of the antecedents before the optimization,
+         * each reference counted.
+         * @return Number of terms.
+         */
+        public int getTermCount() {
+            return this.termCount;
+        }
+
+        /**
+         * Getter to obtain the number of distinct composite terms of the antecedents after the
+         * optimization, each of which the compiled rule base evaluates at most once per inference.
+         * @return Number of terms.
+         */
+        public int getOptimizedTermCount() {
+            return this.optimizedTermCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Rules: " + ruleCount + " -> " + optimizedRuleCount + " (" + duplicateRules + " duplicate, " +
+                   subsumedRules + " subsumed, " + deadRules + " dead, " + mergedRules + " merged), terms: " +
+                   termCount + " -> " + optimizedTermCount;
+        }
+
+    }
+
+}
@@ -0,0 +1,765 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.compiler;
+
+import org.sokolovic.jfuzzy.set.FuzzySet;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Class models a compiled rule base: a linear program of primitive instructions that operates on a
+ * single array of degree of membership slots. The slot array is laid out as follows: the first
+ * {@code getSetCount()} slots hold the degrees of membership of the fuzzy sets the rule base refers to,
+ * followed by the constant slots and the temporary slots used to hold intermediate results.
+ * <p>
+ * Each instruction occupies {@code INSTRUCTION_SIZE} consecutive elements of the code array: the
+ * operation code, the destination slot and up to two operand slots. The program starts by clearing
+ * the consequent slots and then evaluates the rules in the order they were added to the controller,
+ * so running it yields exactly the same degrees of membership as the rule tree it was compiled from.
+ * <p>
+ * The instructions of each rule occupy a segment of the code of their own. If the compiler indexed the
+ * rules by their key sets, only the rules evaluated regardless of the inputs and the rules whose key set
+ * has a non-zero degree of membership are run; the others could not raise the confidence of their
+ * consequents anyway. The confidences are accumulated by taking the maximum, so the order the rules run
+ * in does not change the results. Within a rule, jump instructions skip the operands of an AND or an OR
+ * that can no longer change the outcome of the rule.
+ * <p>
+ * The program is immutable and can be shared between threads, as long as each thread executes it
+ * on its own slot array. An indexed program of at least {@code PARALLEL_THRESHOLD} instructions can
+ * also split a single evaluation across the workers of a fork/join pool: each worker evaluates a
+ * range of the rules on a private slot array and the confidences of the consequents are merged by
+ * taking the maximum, which gives the same results as evaluating all the rules on a single thread.
+ * The private slot arrays are kept by the program and reused by the later evaluations; only the
+ * degrees of membership of the sets are copied into them, as the constants never change and the
+ * temporaries are written before they are read.
+ *
+ * @author sokolovic
+ */
+public class FuzzyProgram {
+
+    /**
+     * Number of elements of the code array occupied by a single instruction.
+     */
+    public static final int INSTRUCTION_SIZE = 4;
+
+    /**
+     * Sets the destination slot to zero.
+     */
+    public static final int OP_CLEAR = 0;
+
+    /**
+     * Sets the destination slot to the minimum of the two operand slots (fuzzy AND).
+     */
+    public static final int OP_MIN = 1;
+
+    /**
+     * Sets the destination slot to the maximum of the two operand slots (fuzzy OR).
+     */
+    public static final int OP_MAX = 2;
+
+    /**
+     * Sets the destination slot to the complement of the operand slot (fuzzy NOT).
+     */
+    public static final int OP_NOT = 3;
+
+    /**
+     * Sets the destination slot to the square of the operand slot (hedge VERY).
+     */
+    public static final int OP_SQUARE = 4;
+
+    /**
+     * Sets the destination slot to the square root of the operand slot (hedge FAIRLY).
+     */
+    public static final int OP_SQRT = 5;
+
+    /**
+     * Raises the destination (consequent) slot to the value of the operand slot if it is greater.
+     */
+    public static final int OP_ACCUMULATE = 6;
+
+    /**
+     * Continues at the instruction whose offset is held in the destination field if the operand slot is
+     * not positive (short-circuit AND).
+     */
+    public static final int OP_JUMP_IF_NOT_POSITIVE = 7;
+
+    /**
+     * Continues at the instruction whose offset is held in the destination field if the first operand
+     * slot is not lower than the second one (short-circuit OR).
+     */
+    public static final int OP_JUMP_IF_AT_LEAST = 8;
+
+    /**
+     * The smallest number of instructions for which a program is evaluated in parallel. Below it the
+     * cost of the tasks outweighs the rules they evaluate.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * Number of tasks the rules are split into per worker of the pool, to even out their load.
+     */
+    public static final int TASKS_PER_WORKER = 4;
+
+    /**
+     * The instructions of the program.
+     */
+    protected final int[] code;
+
+    /**
+     * Initial content of the slot array: constants are set, all the other slots are zero.
+     */
+    protected final double[] initialSlots;
+
+    /**
+     * The fuzzy sets whose degrees of membership are held in the leading slots of the slot array.
+     */
+    protected final FuzzySet[] sets;
+
+    /**
+     * Distinct slots of the sets used as consequents of the rules.
+     */
+    protected final int[] consequentSlots;
+
+    /**
+     * Offsets of the code segments of the rules, followed by the length of the code. The code preceding
+     * the first rule clears the consequent slots.
+     */
+    protected final int[] ruleOffsets;
+
+    /**
+     * Rules run regardless of the degrees of membership, or {@code null} if all the rules are run in order.
+     */
+    protected final int[] alwaysRules;
+
+    /**
+     * Slots of the sets the indexed rules are keyed on.
+     */
+    protected final int[] keySlots;
+
+    /**
+     * Offsets of the rules keyed on each key slot into {@code keyedRules}, followed by their total number.
+     */
+    protected final int[] keyOffsets;
+
+    /**
+     * The indexed rules, grouped by their key slots.
+     */
+    protected final int[] keyedRules;
+
+    /**
+     * Slots holding the activation strength of each rule once its segment has run, or -1 for the rules
+     * without consequents.
+     */
+    protected final int[] strengthSlots;
+
+    /**
+     * Private slot arrays of the workers of the parallel evaluations, kept for the later evaluations.
+     */
+    protected final ArrayDeque<double[]> workerSlots;
+
+    /**
+     * Constructor to initialize the program with the given instructions and slot layout. The program
+     * runs all of its instructions in order.
+     * @param code The instructions of the program.
+     * @param initialSlots Initial content of the slot array.
+     * @param sets The fuzzy sets held in the leading slots of the slot array.
+     * @param consequentSlots Distinct slots of the sets used as consequents.
+     */
+    public FuzzyProgram(int[] code, double[] initialSlots, FuzzySet[] sets, int[] consequentSlots) {
+        this(code, initialSlots, sets, consequentSlots, new int[] { code.length, code.length }, null, null, null, null);
+    }
+
+    /**
+     * Constructor to initialize the program with the given instructions, slot layout and rule index.
+     * @param code The instructions of the program.
+     * @param initialSlots Initial content of the slot array.
+     * @param sets The fuzzy sets held in the leading slots of the slot array.
+     * @param consequentSlots Distinct slots of the sets used as consequents.
+     * @param ruleOffsets Offsets of the code segments of the rules, followed by the length of the code.
+     * @param alwaysRules Rules run regardless of the inputs, or {@code null} to run all the rules in order.
+     * @param keySlots Slots of the sets the indexed rules are keyed on.
+     * @param keyOffsets Offsets of the rules keyed on each key slot, followed by their total number.
+     * @param keyedRules The indexed rules, grouped by their key slots.
+     */
+    public FuzzyProgram(int[] code, double[] initialSlots, FuzzySet[] sets, int[] consequentSlots,
+                        int[] ruleOffsets, int[] alwaysRules, int[] keySlots, int[] keyOffsets, int[] keyedRules) {
+        this.code = code;
+        this.initialSlots = initialSlots;
+        this.sets = sets;
+        this.consequentSlots = consequentSlots;
+        this.ruleOffsets = ruleOffsets;
+        this.alwaysRules = alwaysRules;
+        this.keySlots = keySlots;
+        this.keyOffsets = keyOffsets;
+        this.keyedRules = keyedRules;
+        this.strengthSlots = new int[ruleOffsets.length - 1];
+        this.workerSlots = new ArrayDeque<double[]>();
+
+        // The operand of the first accumulation of a rule holds the value of its antecedent
+        for (int r = 0; r < strengthSlots.length; r++) {
+            strengthSlots[r] = -1;
+            for (int pc = ruleOffsets[r]; pc < ruleOffsets[r + 1]; pc += INSTRUCTION_SIZE) {
+                if (code[pc] == OP_ACCUMULATE) {
+                    strengthSlots[r] = code[pc + 2];
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method checks whether the given operation code is a jump, whose destination field holds an
+     * instruction offset rather than a slot.
+     * @param operation Operation code.
+     * @return {@code true} if the operation is a jump.
+     */
+    public static boolean isJump(int operation) {
+        return operation == OP_JUMP_IF_NOT_POSITIVE || operation == OP_JUMP_IF_AT_LEAST;
+    }
+
+    /**
+     * Getter to obtain the number of slots the program operates on.
+     * @return Number of slots.
+     */
+    public int getSlotCount() {
+        return initialSlots.length;
+    }
+
+    /**
+     * Getter to obtain the number of fuzzy sets held in the leading slots.
+     * @return Number of fuzzy sets.
+     */
+    public int getSetCount() {
+        return sets.length;
+    }
+
+    /**
+     * Getter to obtain the fuzzy set held in the given slot.
+     * @param slot Slot of the set, lower than {@code getSetCount()}.
+     * @return Fuzzy set held in the slot.
+     */
+    public FuzzySet getSet(int slot) {
+        return sets[slot];
+    }
+
+    /**
+     * Getter to obtain the number of distinct consequent slots.
+     * @return Number of consequent slots.
+     */
+    public int getConsequentCount() {
+        return consequentSlots.length;
+    }
+
+    /**
+     * Getter to obtain the consequent slot at the given position.
+     * @param index Position of the consequent slot.
+     * @return Consequent slot.
+     */
+    public int getConsequentSlot(int index) {
+        return consequentSlots[index];
+    }
+
+    /**
+     * Getter to obtain the number of rules of the program.
+     * @return Number of rules.
+     */
+    public int getRuleCount() {
+        return ruleOffsets.length - 1;
+    }
+
+    /**
+     * Getter to check whether the rules are indexed by their key sets.
+     * @return {@code true} if only the rules that can fire are run.
+     */
+    public boolean isIndexed() {
+        return alwaysRules != null;
+    }
+
+    /**
+     * Getter to obtain the number of instructions of the program.
+     * @return Number of instructions.
+     */
+    public int getInstructionCount() {
+        return code.length / INSTRUCTION_SIZE;
+    }
+
+    /**
+     * Getter to obtain a copy of the instructions of the program.
+     * @return The instructions, {@code INSTRUCTION_SIZE} elements each.
+     */
+    public int[] getCode() {
+        return code.clone();
+    }
+
+    /**
+     * Getter to obtain a copy of the offsets of the code segments of the rules.
+     * @return Offsets of the rules, followed by the length of the code.
+     */
+    public int[] getRuleOffsets() {
+        return ruleOffsets.clone();
+    }
+
+    /**
+     * Getter to obtain a copy of the rules run regardless of the inputs.
+     * @return Rules run regardless of the inputs, or {@code null} if the rules are not indexed.
+     */
+    public int[] getAlwaysRules() {
+        return alwaysRules == null ? null : alwaysRules.clone();
+    }
+
+    /**
+     * Getter to obtain a copy of the slots of the sets the indexed rules are keyed on.
+     * @return Key slots, or {@code null} if the rules are not indexed.
+     */
+    public int[] getKeySlots() {
+        return keySlots == null ? null : keySlots.clone();
+    }
+
+    /**
+     * Getter to obtain a copy of the offsets of the rules keyed on each key slot.
+     * @return Offsets of the keyed rules, followed by their total number, or {@code null} if the rules
+     *         are not indexed.
+     */
+    public int[] getKeyOffsets() {
+        return keyOffsets == null ? null : keyOffsets.clone();
+    }
+
+    /**
+     * Getter to obtain a copy of the indexed rules, grouped by their key slots.
+     * @return The indexed rules, or {@code null} if the rules are not indexed.
+     */
+    public int[] getKeyedRules() {
+        return keyedRules == null ? null : keyedRules.clone();
+    }
+
+    /**
+     * Getter to obtain the slot holding the activation strength of a rule once the rule has run.
+     * @param rule Index of the rule.
+     * @return Slot of the value of the antecedent of the rule, or -1 if the rule has no consequents.
+     */
+    public int getStrengthSlot(int rule) {
+        return strengthSlots[rule];
+    }
+
+    /**
+     * Method creates a new slot array initialized for this program.
+     * @return New slot array.
+     */
+    public double[] newSlots() {
+        return initialSlots.clone();
+    }
+
+    /**
+     * Method runs the program on the given slot array. The set slots must hold the degrees of
+     * membership of the fuzzified input values; on return the consequent slots hold the confidences
+     * of the consequent sets.
+     * @param slots Slot array, created by {@code newSlots()}.
+     */
+    public void execute(double[] slots) {
+        if (alwaysRules == null) {
+            execute(slots, 0, code.length);
+            return;
+        }
+
+        // Clear the consequents, then run the rules that can fire
+        execute(slots, 0, ruleOffsets[0]);
+        for (int i = 0; i < alwaysRules.length; i++) {
+            int rule = alwaysRules[i];
+            execute(slots, ruleOffsets[rule], ruleOffsets[rule + 1]);
+        }
+        for (int k = 0; k < keySlots.length; k++) {
+            if (slots[keySlots[k]] != 0.0) {
+                for (int i = keyOffsets[k]; i < keyOffsets[k + 1]; i++) {
+                    int rule = keyedRules[i];
+                    execute(slots, ruleOffsets[rule], ruleOffsets[rule + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method runs the program on the given slot array like {@code execute(double[])}, reporting the
+     * activation strength of every rule it runs to the given listener. The rules skipped by the index,
+     * whose key set has a zero degree of membership, are not reported.
+     * @param slots Slot array, created by {@code newSlots()}.
+     * @param listener Listener notified once a rule has run.
+     */
+    public void execute(double[] slots, RuleListener listener) {
+        execute(slots, 0, ruleOffsets[0]);
+        if (alwaysRules == null) {
+            for (int rule = 0; rule < strengthSlots.length; rule++) {
+                executeRule(slots, rule, listener);
+            }
+            return;
+        }
+
+        for (int i = 0; i < alwaysRules.length; i++) {
+            executeRule(slots, alwaysRules[i], listener);
+        }
+        for (int k = 0; k < keySlots.length; k++) {
+            if (slots[keySlots[k]] != 0.0) {
+                for (int i = keyOffsets[k]; i < keyOffsets[k + 1]; i++) {
+                    executeRule(slots, keyedRules[i], listener);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method runs a single rule and reports its activation strength to the given listener.
+     * @param slots Slot array.
+     * @param rule Index of the rule.
+     * @param listener Listener notified once the rule has run.
+     */
+    protected void executeRule(double[] slots, int rule, RuleListener listener) {
+        execute(slots, ruleOffsets[rule], ruleOffsets[rule + 1]);
+        if (strengthSlots[rule] >= 0) {
+            listener.ruleFired(rule, slots[strengthSlots[rule]]);
+        }
+    }
+
+    /**
+     * Method runs the program on the given slot array, splitting the rules across the workers of the
+     * given pool if the program is large enough. Programs that are not indexed, whose rules may read
+     * the confidences of other rules, and programs of fewer than {@code PARALLEL_THRESHOLD}
+     * instructions are run on the calling thread.
+     * @param slots Slot array, created by {@code newSlots()}.
+     * @param pool Pool to evaluate the rules in, or {@code null} to evaluate them on the calling thread.
+     */
+    public void execute(double[] slots, ForkJoinPool pool) {
+        if (!isParallel(pool)) {
+            execute(slots);
+            return;
+        }
+
+        // Clear the consequents, so the copies of the workers start from zero confidences
+        execute(slots, 0, ruleOffsets[0]);
+
+        int rules = alwaysRules.length + keyedRules.length;
+        int taskSize = Math.max(1, rules / (pool.getParallelism() * TASKS_PER_WORKER));
+        double[] results = pool.invoke(new RuleTask(this, slots, 0, rules, taskSize));
+        merge(slots, results);
+        releaseWorkerSlots(results);
+    }
+
+    /**
+     * Method takes a private slot array for a worker of a parallel evaluation, holding the degrees of
+     * membership of the sets of the given slot array and the constants.
+     * @param slots Slot array of the evaluation, with the consequents cleared.
+     * @return Private slot array.
+     */
+    protected double[] takeWorkerSlots(double[] slots) {
+        double[] taken;
+        synchronized (workerSlots) {
+            taken = workerSlots.pollFirst();
+        }
+        if (taken == null) {
+            taken = newSlots();
+        }
+        System.arraycopy(slots, 0, taken, 0, sets.length);
+        return taken;
+    }
+
+    /**
+     * Method returns a private slot array whose confidences have been merged, for a later evaluation.
+     * @param slots Private slot array.
+     */
+    protected void releaseWorkerSlots(double[] slots) {
+        synchronized (workerSlots) {
+            workerSlots.addFirst(slots);
+        }
+    }
+
+    /**
+     * Method checks whether the program is evaluated in parallel in the given pool.
+     * @param pool Pool to evaluate the rules in, or {@code null}.
+     * @return {@code true} if the program is indexed, has at least {@code PARALLEL_THRESHOLD}
+     *         instructions and the pool has more than one worker.
+     */
+    public boolean isParallel(ForkJoinPool pool) {
+        return pool != null && pool.getParallelism() > 1 && alwaysRules != null &&
+               getInstructionCount() >= PARALLEL_THRESHOLD;
+    }
+
+    /**
+     * Method runs a range of the rules that can fire. The range indexes the rules evaluated regardless
+     * of the inputs followed by the keyed rules; the keyed rules run only if their key set has a
+     * non-zero degree of membership, as in {@code execute(double[])}.
+     * @param slots Slot array.
+     * @param from Index of the first rule of the range.
+     * @param to Index past the last rule of the range.
+     */
+    protected void executeRules(double[] slots, int from, int to) {
+        int position = from;
+
+        for (; position < to && position < alwaysRules.length; position++) {
+            int rule = alwaysRules[position];
+            execute(slots, ruleOffsets[rule], ruleOffsets[rule + 1]);
+        }
+        if (position == to) {
+            return;
+        }
+
+        // Find the bucket of the first keyed rule, then walk the buckets
+        int k = Arrays.binarySearch(keyOffsets, 0, keySlots.length, position - alwaysRules.length);
+        if (k < 0) {
+            k = -k - 2;
+        }
+        for (; position < to; k++) {
+            int end = Math.min(to, alwaysRules.length + keyOffsets[k + 1]);
+
+            if (slots[keySlots[k]] != 0.0) {
+                for (int i = position - alwaysRules.length; i < end - alwaysRules.length; i++) {
+                    int rule = keyedRules[i];
+                    execute(slots, ruleOffsets[rule], ruleOffsets[rule + 1]);
+                }
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * Method merges the confidences of the consequents evaluated on another slot array into the given
+     * one, the same way the rules accumulate them.
+     * @param slots Slot array to merge into.
+     * @param other Slot array to merge from.
+     */
+    protected void merge(double[] slots, double[] other) {
+        for (int slot : consequentSlots) {
+            if (other[slot] > slots[slot]) {
+                slots[slot] = other[slot];
+            }
+        }
+    }
+
+    /**
+     * Method runs the given range of the code on the given slot array.
+     * @param slots Slot array.
+     * @param from Offset of the first instruction to run.
+     * @param to Offset following the last instruction to run.
+     */
+    protected void execute(double[] slots, int from, int to) {
+        final int[] code = this.code;
+
+        for (int pc = from; pc < to; pc += INSTRUCTION_SIZE) {
+            int dst = code[pc + 1];
+            double a = slots[code[pc + 2]];
+
+            switch (code[pc]) {
+                case OP_CLEAR:
+                    slots[dst] = 0.0;
+                    break;
+                case OP_MIN: {
+                    double b = slots[code[pc + 3]];
+                    slots[dst] = b < a ? b : a;
+                    break;
+                }
+                case OP_MAX: {
+                    double b = slots[code[pc + 3]];
+                    slots[dst] = b > a ? b : a;
+                    break;
+                }
+                case OP_NOT:
+                    slots[dst] = 1 - a;
+                    break;
+                case OP_SQUARE:
+                    slots[dst] = a * a;
+                    break;
+                case OP_SQRT:
+                    slots[dst] = Math.sqrt(a);
+                    break;
+                case OP_ACCUMULATE:
+                    if (a > slots[dst]) {
+                        slots[dst] = a;
+                    }
+                    break;
+                // The jump targets the instruction itself, compensate for the increment
+                case OP_JUMP_IF_NOT_POSITIVE:
+                    if (a <= 0.0) {
+                        pc = dst - INSTRUCTION_SIZE;
+                    }
+                    break;
+                case OP_JUMP_IF_AT_LEAST:
+                    if (a >= slots[code[pc + 3]]) {
+                        pc = dst - INSTRUCTION_SIZE;
+                    }
+                    break;
+                // This will never occur for the programs created by the compiler
+                default:
+                    throw new IllegalStateException("Unknown operation code: " + code[pc]);
+            }
+        }
+    }
+
+    /**
+     * Method runs the program on a block of records stored column-wise: each slot is an array holding
+     * the slot's value for every record of the block. Each instruction is applied to the whole block
+     * before moving on to the next one, which keeps the inner loops tight. The results are the same as
+     * running {@code execute(double[])} on every record separately. The block runs all the rules and
+     * skips no operands: the jumps are ignored, as they would have to hold for every record at once.
+     * @param slots Slot columns, one per slot, each at least {@code length} elements long. The constant
+     *              slots must be filled with their initial values.
+     * @param length Number of records in the block.
+     */
+    public void execute(double[][] slots, int length) {
+        final int[] code = this.code;
+
+        for (int pc = 0; pc < code.length; pc += INSTRUCTION_SIZE) {
+            if (isJump(code[pc])) {
+                continue;
+            }
+            double[] dst = slots[code[pc + 1]];
+            double[] a = slots[code[pc + 2]];
+            double[] b = slots[code[pc + 3]];
+
+            switch (code[pc]) {
+                case OP_CLEAR:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = 0.0;
+                    }
+                    break;
+                case OP_MIN:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = b[i] < a[i] ? b[i] : a[i];
+                    }
+                    break;
+                case OP_MAX:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = b[i] > a[i] ? b[i] : a[i];
+                    }
+                    break;
+                case OP_NOT:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = 1 - a[i];
+                    }
+                    break;
+                case OP_SQUARE:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = a[i] * a[i];
+                    }
+                    break;
+                case OP_SQRT:
+                    for (int i = 0; i < length; i++) {
+                        dst[i] = Math.sqrt(a[i]);
+                    }
+                    break;
+                case OP_ACCUMULATE:
+                    for (int i = 0; i < length; i++) {
+                        if (a[i] > dst[i]) {
+                            dst[i] = a[i];
+                        }
+                    }
+                    break;
+                // This will never occur for the programs created by the compiler
+                default:
+                    throw new IllegalStateException("Unknown operation code: " + code[pc]);
+            }
+        }
+    }
+
+    /**
+     * Method creates a new block of slot columns initialized for this program.
+     * @param length Number of records the block can hold.
+     * @return New slot columns.
+     */
+    public double[][] newSlots(int length) {
+        double[][] slots = new double[initialSlots.length][length];
+
+        for (int i = 0; i < initialSlots.length; i++) {
+            Arrays.fill(slots[i], initialSlots[i]);
+        }
+        return slots;
+    }
+
+    /**
+     * Fork/join task evaluating a range of the rules that can fire, splitting it in halves until it is
+     * no larger than the task size. Each task evaluates its rules on a private slot array of the
+     * program and returns it, merging into it the confidences of the other half of its range and
+     * giving the array of that half back to the program.
+     */
+    public static class RuleTask extends RecursiveTask<double[]> {
+
+        /**
+         * Version of the serialized form of the task.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The program to evaluate.
+         */
+        protected final FuzzyProgram program;
+
+        /**
+         * Slot array holding the degrees of membership of the sets and the cleared consequents.
+         */
+        protected final double[] slots;
+
+        /**
+         * Index of the first rule of the range.
+         */
+        protected final int from;
+
+        /**
+         * Index past the last rule of the range.
+         */
+        protected final int to;
+
+        /**
+         * The largest number of rules evaluated without splitting the range.
+         */
+        protected final int taskSize;
+
+        /**
+         * Constructor to initialize the task with the given range of rules.
+         * @param program Program to evaluate.
+         * @param slots Slot array, only read by the task.
+         * @param from Index of the first rule.
+         * @param to Index past the last rule.
+         * @param taskSize The largest number of rules evaluated without splitting the range.
+         */
+        public RuleTask(FuzzyProgram program, double[] slots, int from, int to, int taskSize) {
+            this.program = program;
+            this.slots = slots;
+            this.from = from;
+            this.to = to;
+            this.taskSize = taskSize;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (to - from <= taskSize) {
+                double[] results = program.takeWorkerSlots(slots);
+                program.executeRules(results, from, to);
+                return results;
+            }
+
+            int middle = (from + to) >>> 1;
+            RuleTask right = new RuleTask(program, slots, middle, to, taskSize);
+            right.fork();
+            double[] results = new RuleTask(program, slots, from, middle, taskSize).compute();
+            double[] merged = right.join();
+            program.merge(results, merged);
+            program.releaseWorkerSlots(merged);
+            return results;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Class returns the bisector of the aggregate: the value that splits the area under it in halves.
+ *
+ * @author sokolovic
+ */
+public class BisectorDefuzzifier extends ShapeDefuzzifier {
+
+    /**
+     * Constructor to initialize the defuzzifier with the default number of samples.
+     */
+    public BisectorDefuzzifier() {
+        super();
+    }
+
+    /**
+     * Constructor to initialize the defuzzifier with the given number of samples.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     */
+    public BisectorDefuzzifier(int samples) {
+        super(samples);
+    }
+
+    @Override
+    protected double defuzzify(double[] intervals, int count) {
+        int end = count * FuzzyAggregate.INTERVAL_SIZE;
+        double area = 0.0;
+
+        for (int i = 0; i < end; i += FuzzyAggregate.INTERVAL_SIZE) {
+            area += (intervals[i + 2] + intervals[i + 3]) * (intervals[i + 1] - intervals[i]) / 2;
+        }
+        // Make sure area is not equal to zero
+        if (area == 0.0) {
+            return 0.0;
+        }
+
+        double remaining = area / 2;
+        for (int i = 0; i < end; i += FuzzyAggregate.INTERVAL_SIZE) {
+            double a = intervals[i];
+            double width = intervals[i + 1] - a;
+            double fa = intervals[i + 2];
+            double fb = intervals[i + 3];
+            double part = (fa + fb) * width / 2;
+
+            if (remaining <= 0.0) {
+                return a;
+            }
+            if (part >= remaining || i + FuzzyAggregate.INTERVAL_SIZE == end) {
+                // Solve fa * t + slope * t^2 / 2 = remaining, in the form that is stable for any slope
+                double slope = (fb - fa) / width;
+                double t = 2 * remaining / (fa + Math.sqrt(Math.max(0.0, fa * fa + 2 * slope * remaining)));
+
+                return a + Math.max(0.0, Math.min(width, t));
+            }
+            remaining -= part;
+        }
+        return 0.0;
+    }
+
+}
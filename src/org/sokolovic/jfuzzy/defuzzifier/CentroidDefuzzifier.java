@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Class returns the centroid of the aggregate: the value that balances the area under it. The area
+ * and its moment are integrated exactly over each interval the aggregate is linear on.
+ *
+ * @author sokolovic
+ */
+public class CentroidDefuzzifier extends ShapeDefuzzifier {
+
+    /**
+     * Constructor to initialize the defuzzifier with the default number of samples.
+     */
+    public CentroidDefuzzifier() {
+        super();
+    }
+
+    /**
+     * Constructor to initialize the defuzzifier with the given number of samples.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     */
+    public CentroidDefuzzifier(int samples) {
+        super(samples);
+    }
+
+    @Override
+    protected double defuzzify(double[] intervals, int count) {
+        double area = 0.0;
+        double moment = 0.0;
+
+        for (int i = 0; i < count * FuzzyAggregate.INTERVAL_SIZE; i += FuzzyAggregate.INTERVAL_SIZE) {
+            double a = intervals[i];
+            double b = intervals[i + 1];
+            double fa = intervals[i + 2];
+            double fb = intervals[i + 3];
+            double width = b - a;
+
+            area += (fa + fb) * width / 2;
+            moment += (fa * (2 * a + b) + fb * (a + 2 * b)) * width / 6;
+        }
+        // Make sure area is not equal to zero
+        if (area == 0.0) {
+            return 0.0;
+        }
+
+        return moment / area;
+    }
+
+}
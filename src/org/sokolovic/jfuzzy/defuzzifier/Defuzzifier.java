@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Interface of the strategies turning the degrees of membership of the sets of a fuzzy variable into a
+ * crisp value. A defuzzifier is shared by all the threads running inferences on a model, so it must
+ * not keep any state between the calls: whatever memory it needs is provided by the caller as a
+ * workspace, allocated once.
+ *
+ * @author sokolovic
+ */
+public interface Defuzzifier {
+
+    /**
+     * Method returns the size of the workspace {@code defuzzify()} needs for the given aggregate.
+     * @param aggregate Aggregate of the variable.
+     * @return Number of elements of the workspace.
+     */
+    int getWorkspaceSize(FuzzyAggregate aggregate);
+
+    /**
+     * Method calculates the crisp value of a variable.
+     * @param aggregate Aggregate of the variable.
+     * @param doms Array holding the degrees of membership of the sets, in the order of their handles.
+     * @param offset Position of the degree of membership of the first set in the array.
+     * @param workspace Workspace of at least {@code getWorkspaceSize()} elements.
+     * @return Crisp value, zero if no set has fired.
+     */
+    double defuzzify(FuzzyAggregate aggregate, double[] doms, int offset, double[] workspace);
+
+}
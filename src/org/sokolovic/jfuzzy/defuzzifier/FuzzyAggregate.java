@@ -0,0 +1,547 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+import org.sokolovic.jfuzzy.set.FuzzySet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class describes the aggregate output of a fuzzy variable: the maximum, at each value of the variable,
+ * of the membership functions of its sets clipped at their degrees of membership. The aggregate is
+ * handed to the defuzzifiers as a sequence of intervals the aggregate is linear on.
+ * <p>
+ * If the membership functions of all the sets are piecewise linear, the intervals are exact. Their
+ * bounds are the vertices of the sets, the points where the membership functions of overlapping sets
+ * cross, both computed once, and the points where the membership functions cross the degrees of
+ * membership of the set itself and of the sets it overlaps, computed on each call. Otherwise the
+ * aggregate is sampled at points evenly spread over the range of the variable and the intervals join
+ * the neighbouring samples. Negative degrees of membership count as zero.
+ * <p>
+ * The aggregate is immutable and can be shared between threads. The intervals are written into a
+ * workspace the caller provides, so describing the aggregate does not allocate any memory.
+ *
+ * @author sokolovic
+ */
+public class FuzzyAggregate {
+
+    /**
+     * Number of elements of the workspace describing a single interval: its bounds and the values of
+     * the aggregate at them.
+     */
+    public static final int INTERVAL_SIZE = 4;
+
+    /**
+     * The largest number of crossings sorted by insertion.
+     */
+    protected static final int INSERTION_SORT_SIZE = 64;
+
+    /**
+     * The member sets of the variable, in the order of their handles.
+     */
+    protected final FuzzySet[] sets;
+
+    /**
+     * Representative values of the member sets.
+     */
+    protected final double[] representativeValues;
+
+    /**
+     * The minimum value of the range of the variable.
+     */
+    protected final double minRange;
+
+    /**
+     * The maximum value of the range of the variable.
+     */
+    protected final double maxRange;
+
+    /**
+     * Vertices of the membership functions of the sets, or {@code null} if any of them is not piecewise
+     * linear.
+     */
+    protected final double[][] vertices;
+
+    /**
+     * Sorted vertices of all the sets and the points where the membership functions of overlapping sets
+     * cross.
+     */
+    protected final double[] breakpoints;
+
+    /**
+     * Lower bounds of the supports of the sets.
+     */
+    protected final double[] supportMins;
+
+    /**
+     * Upper bounds of the supports of the sets.
+     */
+    protected final double[] supportMaxs;
+
+    /**
+     * For each set, the sets whose supports overlap its support.
+     */
+    protected final int[][] neighbours;
+
+    /**
+     * The largest number of breakpoints of the exact intervals.
+     */
+    protected final int breakpointCapacity;
+
+    /**
+     * Constructor to initialize the aggregate of the given sets.
+     * @param sets The member sets of the variable, in the order of their handles.
+     * @param count Number of the member sets.
+     * @param minRange The minimum value of the range of the variable.
+     * @param maxRange The maximum value of the range of the variable.
+     */
+    public FuzzyAggregate(FuzzySet[] sets, int count, double minRange, double maxRange) {
+        this.sets = Arrays.copyOf(sets, count);
+        this.representativeValues = new double[count];
+        this.minRange = minRange;
+        this.maxRange = maxRange;
+
+        double[][] vertices = new double[count][];
+        for (int i = 0; i < count; i++) {
+            representativeValues[i] = sets[i].getRepresentativeValue();
+            vertices[i] = sets[i].getVertices();
+            if (vertices[i] == null) {
+                vertices = null;
+                break;
+            }
+        }
+        this.vertices = vertices;
+        this.neighbours = new int[vertices == null ? 0 : count][];
+        this.supportMins = new double[neighbours.length];
+        this.supportMaxs = new double[neighbours.length];
+
+        if (vertices == null) {
+            this.breakpoints = null;
+            this.breakpointCapacity = 0;
+            return;
+        }
+
+        List<Double> breakpoints = new ArrayList<Double>();
+        int capacity = 0;
+        for (int i = 0; i < count; i++) {
+            supportMins[i] = vertices[i][0];
+            supportMaxs[i] = vertices[i][vertices[i].length - 2];
+            for (int k = 0; k < vertices[i].length; k += 2) {
+                breakpoints.add(vertices[i][k]);
+            }
+            List<Integer> overlapping = new ArrayList<Integer>();
+            for (int j = 0; j < count; j++) {
+                if (j != i && overlap(vertices[i], vertices[j])) {
+                    overlapping.add(j);
+                    if (j > i) {
+                        addCrossings(vertices[i], vertices[j], breakpoints);
+                    }
+                }
+            }
+            neighbours[i] = new int[overlapping.size()];
+            for (int j = 0; j < neighbours[i].length; j++) {
+                neighbours[i][j] = overlapping.get(j);
+            }
+            // Each edge may cross the degree of membership of the set and of each of its neighbours
+            capacity += (vertices[i].length / 2 - 1) * (1 + neighbours[i].length);
+        }
+
+        this.breakpoints = new double[breakpoints.size()];
+        for (int i = 0; i < this.breakpoints.length; i++) {
+            this.breakpoints[i] = breakpoints.get(i);
+        }
+        Arrays.sort(this.breakpoints);
+        this.breakpointCapacity = capacity + this.breakpoints.length;
+    }
+
+    /**
+     * Method checks whether the supports of two piecewise linear sets overlap.
+     * @param a Vertices of the first set.
+     * @param b Vertices of the second set.
+     * @return {@code true} if the supports overlap.
+     */
+    protected static boolean overlap(double[] a, double[] b) {
+        return Math.max(a[0], b[0]) < Math.min(a[a.length - 2], b[b.length - 2]);
+    }
+
+    /**
+     * Method adds the points where the edges of two piecewise linear sets cross.
+     * @param a Vertices of the first set.
+     * @param b Vertices of the second set.
+     * @param breakpoints List to add the points to.
+     */
+    protected static void addCrossings(double[] a, double[] b, List<Double> breakpoints) {
+        for (int i = 0; i + 2 < a.length; i += 2) {
+            for (int j = 0; j + 2 < b.length; j += 2) {
+                double from = Math.max(a[i], b[j]);
+                double to = Math.min(a[i + 2], b[j + 2]);
+
+                if (!(from < to)) {
+                    continue;
+                }
+                // The difference of the edges is linear, so it crosses zero where its sign changes
+                double atFrom = line(a, i, from) - line(b, j, from);
+                double atTo = line(a, i, to) - line(b, j, to);
+                if ((atFrom < 0.0 && atTo > 0.0) || (atFrom > 0.0 && atTo < 0.0)) {
+                    double x = from + (to - from) * (atFrom / (atFrom - atTo));
+
+                    if (x > from && x < to) {
+                        breakpoints.add(x);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method evaluates the line through an edge of a piecewise linear set.
+     * @param vertices Vertices of the set.
+     * @param edge Offset of the first vertex of the edge.
+     * @param x Value to evaluate the line at.
+     * @return Degree of membership on the line, exact at the vertices.
+     */
+    protected static double line(double[] vertices, int edge, double x) {
+        double x0 = vertices[edge];
+        double x1 = vertices[edge + 2];
+
+        if (x <= x0) {
+            return vertices[edge + 1];
+        }
+        if (x >= x1) {
+            return vertices[edge + 3];
+        }
+        return vertices[edge + 1] + (vertices[edge + 3] - vertices[edge + 1]) * ((x - x0) / (x1 - x0));
+    }
+
+    /**
+     * Getter to obtain the number of the member sets.
+     * @return Number of the member sets.
+     */
+    public int getSetCount() {
+        return sets.length;
+    }
+
+    /**
+     * Getter to obtain a member set.
+     * @param handle Handle of the set.
+     * @return Member set with the given handle.
+     */
+    public FuzzySet getSet(int handle) {
+        return sets[handle];
+    }
+
+    /**
+     * Getter to obtain the representative value of a member set.
+     * @param handle Handle of the set.
+     * @return Representative value of the set.
+     */
+    public double getRepresentativeValue(int handle) {
+        return representativeValues[handle];
+    }
+
+    /**
+     * Getter to obtain the minimum value of the range of the variable.
+     * @return The minimum value of the range.
+     */
+    public double getMinRange() {
+        return minRange;
+    }
+
+    /**
+     * Getter to obtain the maximum value of the range of the variable.
+     * @return The maximum value of the range.
+     */
+    public double getMaxRange() {
+        return maxRange;
+    }
+
+    /**
+     * Getter to check whether the intervals are exact or sampled.
+     * @return {@code true} if the membership functions of all the sets are piecewise linear.
+     */
+    public boolean isExact() {
+        return vertices != null;
+    }
+
+    /**
+     * Method returns the size of the workspace {@code intervals()} needs.
+     * @param samples Number of samples of an aggregate that is not exact.
+     * @return Number of elements of the workspace.
+     */
+    public int getWorkspaceSize(int samples) {
+        if (vertices == null) {
+            return INTERVAL_SIZE * Math.max(samples - 1, 0);
+        }
+        return INTERVAL_SIZE * Math.max(breakpointCapacity - 1, 0) + breakpointCapacity;
+    }
+
+    /**
+     * Method describes the aggregate for the given degrees of membership as a sequence of intervals
+     * the aggregate is linear on, in the order of their bounds. The intervals the aggregate is zero
+     * on are left out. Each interval occupies {@code INTERVAL_SIZE} consecutive elements of the
+     * workspace, starting from the first one: its lower and upper bound and the values of the
+     * aggregate at them.
+     * @param doms Array holding the degrees of membership of the sets, in the order of their handles.
+     * @param offset Position of the degree of membership of the first set in the array.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     * @param workspace Workspace of at least {@code getWorkspaceSize(samples)} elements.
+     * @return Number of intervals.
+     */
+    public int intervals(double[] doms, int offset, int samples, double[] workspace) {
+        return vertices == null ? sample(doms, offset, samples, workspace) : exact(doms, offset, workspace);
+    }
+
+    /**
+     * Method describes the aggregate of piecewise linear sets exactly.
+     * @param doms Degrees of membership.
+     * @param offset Position of the degree of membership of the first set.
+     * @param workspace Workspace.
+     * @return Number of intervals.
+     */
+    protected int exact(double[] doms, int offset, double[] workspace) {
+        // Gather the level crossings at the start of the workspace and sort them
+        int crossings = 0;
+        for (int i = 0; i < sets.length; i++) {
+            double dom = doms[offset + i];
+
+            if (dom > 0.0) {
+                crossings = addLevel(vertices[i], dom, workspace, crossings);
+                for (int j = 0; j < neighbours[i].length; j++) {
+                    double level = doms[offset + neighbours[i][j]];
+
+                    if (level > 0.0) {
+                        crossings = addLevel(vertices[i], level, workspace, crossings);
+                    }
+                }
+            }
+        }
+        sort(workspace, 0, crossings);
+
+        // Merge them with the fixed breakpoints into the space following the one reserved for the intervals
+        int base = INTERVAL_SIZE * Math.max(breakpointCapacity - 1, 0);
+        int end = base;
+        for (int i = 0, j = 0; i < breakpoints.length || j < crossings; ) {
+            if (j == crossings || (i < breakpoints.length && breakpoints[i] <= workspace[j])) {
+                workspace[end++] = breakpoints[i++];
+            }
+            else {
+                workspace[end++] = workspace[j++];
+            }
+        }
+
+        int count = 0;
+        for (int p = base; p + 1 < end; p++) {
+            double a = workspace[p];
+            double b = workspace[p + 1];
+
+            if (!(a < b)) {
+                continue;
+            }
+            // Nothing crosses within the interval, so the set on top in the middle is on top throughout
+            double middle = a + (b - a) / 2;
+            int top = -1;
+            int topEdge = -1;
+            double topValue = 0.0;
+            for (int i = 0; i < sets.length; i++) {
+                double dom = doms[offset + i];
+                int edge = dom > topValue && supportMins[i] < middle && middle < supportMaxs[i]
+                        ? edgeAt(vertices[i], middle) : -1;
+
+                if (edge >= 0) {
+                    double value = Math.min(dom, line(vertices[i], edge, middle));
+
+                    if (value > topValue) {
+                        top = i;
+                        topEdge = edge;
+                        topValue = value;
+                    }
+                }
+            }
+            if (top >= 0) {
+                double dom = doms[offset + top];
+                int interval = INTERVAL_SIZE * count++;
+
+                workspace[interval] = a;
+                workspace[interval + 1] = b;
+                // A set clipped in the middle is clipped throughout, keep its plateau exactly level
+                if (topValue == dom) {
+                    workspace[interval + 2] = dom;
+                    workspace[interval + 3] = dom;
+                }
+                else {
+                    workspace[interval + 2] = Math.min(dom, line(vertices[top], topEdge, a));
+                    workspace[interval + 3] = Math.min(dom, line(vertices[top], topEdge, b));
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Method adds the points where the edges of a set cross the given level.
+     * @param vertices Vertices of the set.
+     * @param level Level to cross.
+     * @param workspace Workspace to add the points to.
+     * @param end Position following the last point added so far.
+     * @return Position following the last point added.
+     */
+    protected static int addLevel(double[] vertices, double level, double[] workspace, int end) {
+        for (int k = 0; k + 2 < vertices.length; k += 2) {
+            double y0 = vertices[k + 1];
+            double y1 = vertices[k + 3];
+
+            if ((y0 < level && level < y1) || (y1 < level && level < y0)) {
+                double x0 = vertices[k];
+                double x1 = vertices[k + 2];
+
+                workspace[end++] = x0 + (x1 - x0) * ((level - y0) / (y1 - y0));
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Method sorts a range of an array in place. Unlike {@code Arrays.sort()}, which allocates memory
+     * to merge the sorted runs of larger ranges, it never allocates. The crossings of sets laid out
+     * in the order of their handles are mostly sorted already, so short ranges are sorted by insertion.
+     * @param values Array to sort.
+     * @param from Position of the first element of the range.
+     * @param to Position following the last element of the range.
+     */
+    protected static void sort(double[] values, int from, int to) {
+        int size = to - from;
+
+        if (size <= INSERTION_SORT_SIZE) {
+            for (int i = from + 1; i < to; i++) {
+                double value = values[i];
+                int j = i - 1;
+
+                for (; j >= from && values[j] > value; j--) {
+                    values[j + 1] = values[j];
+                }
+                values[j + 1] = value;
+            }
+            return;
+        }
+        // Heapsort: build a max-heap, then move its top behind the shrinking heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(values, from, i, size);
+        }
+        for (int last = size - 1; last > 0; last--) {
+            double top = values[from];
+
+            values[from] = values[from + last];
+            values[from + last] = top;
+            siftDown(values, from, 0, last);
+        }
+    }
+
+    /**
+     * Method restores the heap property below the given node of a heap.
+     * @param values Array holding the heap.
+     * @param from Position of the root of the heap.
+     * @param node Index of the node within the heap.
+     * @param size Number of nodes of the heap.
+     */
+    protected static void siftDown(double[] values, int from, int node, int size) {
+        double value = values[from + node];
+
+        for (int child = 2 * node + 1; child < size; child = 2 * node + 1) {
+            if (child + 1 < size && values[from + child + 1] > values[from + child]) {
+                child++;
+            }
+            if (!(values[from + child] > value)) {
+                break;
+            }
+            values[from + node] = values[from + child];
+            node = child;
+        }
+        values[from + node] = value;
+    }
+
+    /**
+     * Method finds the edge of a piecewise linear set strictly containing the given value.
+     * @param vertices Vertices of the set.
+     * @param x Value to find.
+     * @return Offset of the first vertex of the edge, or -1 if the value is outside of the support.
+     */
+    protected static int edgeAt(double[] vertices, double x) {
+        for (int k = 0; k + 2 < vertices.length; k += 2) {
+            if (vertices[k] < x && x < vertices[k + 2]) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method describes the aggregate by sampling it evenly over the range of the variable.
+     * @param doms Degrees of membership.
+     * @param offset Position of the degree of membership of the first set.
+     * @param samples Number of samples.
+     * @param workspace Workspace.
+     * @return Number of intervals.
+     */
+    protected int sample(double[] doms, int offset, int samples, double[] workspace) {
+        if (!(maxRange > minRange) || samples < 2) {
+            return 0;
+        }
+        int count = 0;
+        double a = minRange;
+        double fa = evaluate(doms, offset, a);
+
+        for (int k = 1; k < samples; k++) {
+            double b = k == samples - 1 ? maxRange : minRange + (maxRange - minRange) * k / (samples - 1);
+            double fb = evaluate(doms, offset, b);
+
+            if (fa > 0.0 || fb > 0.0) {
+                int interval = INTERVAL_SIZE * count++;
+
+                workspace[interval] = a;
+                workspace[interval + 1] = b;
+                workspace[interval + 2] = fa;
+                workspace[interval + 3] = fb;
+            }
+            a = b;
+            fa = fb;
+        }
+        return count;
+    }
+
+    /**
+     * Method evaluates the aggregate at the given value.
+     * @param doms Degrees of membership.
+     * @param offset Position of the degree of membership of the first set.
+     * @param x Value to evaluate the aggregate at.
+     * @return Value of the aggregate.
+     */
+    public double evaluate(double[] doms, int offset, double x) {
+        double value = 0.0;
+
+        for (int i = 0; i < sets.length; i++) {
+            double clipped = Math.min(doms[offset + i], sets[i].calculateDom(x));
+
+            if (clipped > value) {
+                value = clipped;
+            }
+        }
+        return value;
+    }
+
+}
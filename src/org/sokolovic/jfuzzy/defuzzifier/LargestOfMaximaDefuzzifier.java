@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Class returns the largest of the maxima of the aggregate.
+ *
+ * @author sokolovic
+ */
+public class LargestOfMaximaDefuzzifier extends MaximaDefuzzifier {
+
+    /**
+     * Constructor to initialize the defuzzifier with the default number of samples.
+     */
+    public LargestOfMaximaDefuzzifier() {
+        super();
+    }
+
+    /**
+     * Constructor to initialize the defuzzifier with the given number of samples.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     */
+    public LargestOfMaximaDefuzzifier(int samples) {
+        super(samples);
+    }
+
+    @Override
+    protected double defuzzify(double[] intervals, int count) {
+        double height = height(intervals, count);
+
+        for (int i = (count - 1) * FuzzyAggregate.INTERVAL_SIZE; i >= 0; i -= FuzzyAggregate.INTERVAL_SIZE) {
+            if (intervals[i + 3] == height) {
+                return intervals[i + 1];
+            }
+            if (intervals[i + 2] == height) {
+                return intervals[i];
+            }
+        }
+        return 0.0;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Class returns the mean of the maxima of the aggregate. If the aggregate reaches its height on
+ * intervals of non-zero length, the mean is taken over them, otherwise over the isolated values.
+ *
+ * @author sokolovic
+ */
+public class MeanOfMaximaDefuzzifier extends MaximaDefuzzifier {
+
+    /**
+     * Constructor to initialize the defuzzifier with the default number of samples.
+     */
+    public MeanOfMaximaDefuzzifier() {
+        super();
+    }
+
+    /**
+     * Constructor to initialize the defuzzifier with the given number of samples.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     */
+    public MeanOfMaximaDefuzzifier(int samples) {
+        super(samples);
+    }
+
+    @Override
+    protected double defuzzify(double[] intervals, int count) {
+        double height = height(intervals, count);
+        double length = 0.0;
+        double moment = 0.0;
+        double sum = 0.0;
+        int points = 0;
+        double last = Double.NaN;
+
+        for (int i = 0; i < count * FuzzyAggregate.INTERVAL_SIZE; i += FuzzyAggregate.INTERVAL_SIZE) {
+            double a = intervals[i];
+            double b = intervals[i + 1];
+            boolean atA = intervals[i + 2] == height;
+            boolean atB = intervals[i + 3] == height;
+
+            if (atA && atB) {
+                length += b - a;
+                moment += (b - a) * (a + (b - a) / 2);
+            }
+            // The neighbouring intervals share their bounds, count each value once
+            if (atA && a != last) {
+                sum += a;
+                points++;
+                last = a;
+            }
+            if (atB && b != last) {
+                sum += b;
+                points++;
+                last = b;
+            }
+        }
+        if (length > 0.0) {
+            return moment / length;
+        }
+        return points == 0 ? 0.0 : sum / points;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Base class of the defuzzifiers working on the shape of the aggregate of the clipped sets. The shape
+ * is exact if all the sets are piecewise linear, and sampled at a configurable number of points
+ * otherwise.
+ *
+ * @author sokolovic
+ * @see FuzzyAggregate
+ */
+public abstract class ShapeDefuzzifier implements Defuzzifier {
+
+    /**
+     * Number of samples of an aggregate that is not exact, unless specified otherwise.
+     */
+    public static final int DEFAULT_SAMPLES = 101;
+
+    /**
+     * Number of samples of an aggregate that is not exact.
+     */
+    protected final int samples;
+
+    /**
+     * Constructor to initialize the defuzzifier with the default number of samples.
+     */
+    public ShapeDefuzzifier() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * Constructor to initialize the defuzzifier with the given number of samples.
+     * @param samples Number of samples of an aggregate that is not exact, at least 2.
+     */
+    public ShapeDefuzzifier(int samples) {
+        if (samples < 2) {
+            throw new IllegalArgumentException("At least 2 samples are needed, got " + samples);
+        }
+        this.samples = samples;
+    }
+
+    /**
+     * Getter to obtain the number of samples of an aggregate that is not exact.
+     * @return Number of samples.
+     */
+    public int getSamples() {
+        return this.samples;
+    }
+
+    @Override
+    public int getWorkspaceSize(FuzzyAggregate aggregate) {
+        return aggregate.getWorkspaceSize(samples);
+    }
+
+    @Override
+    public double defuzzify(FuzzyAggregate aggregate, double[] doms, int offset, double[] workspace) {
+        int count = aggregate.intervals(doms, offset, samples, workspace);
+
+        return count == 0 ? 0.0 : defuzzify(workspace, count);
+    }
+
+    /**
+     * Method calculates the crisp value from the intervals of the aggregate.
+     * @param intervals Intervals the aggregate is linear on, as described by {@code FuzzyAggregate}.
+     * @param count Number of intervals, at least one.
+     * @return Crisp value.
+     */
+    protected abstract double defuzzify(double[] intervals, int count);
+
+}
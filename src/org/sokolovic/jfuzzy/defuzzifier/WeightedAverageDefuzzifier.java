@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.defuzzifier;
+
+/**
+ * Class averages the representative values of the sets, weighted by their degrees of membership. It
+ * ignores the shapes of the sets and is the default defuzzifier of the variables.
+ *
+ * @author sokolovic
+ */
+public class WeightedAverageDefuzzifier implements Defuzzifier {
+
+    @Override
+    public int getWorkspaceSize(FuzzyAggregate aggregate) {
+        return 0;
+    }
+
+    @Override
+    public double defuzzify(FuzzyAggregate aggregate, double[] doms, int offset, double[] workspace) {
+        double bottom = 0.0;
+        double top = 0.0;
+
+        for (int i = 0; i < aggregate.getSetCount(); i++) {
+            double dom = doms[offset + i];
+
+            bottom += dom;
+            top += aggregate.getRepresentativeValue(i) * dom;
+        }
+        // Make sure bottom is not equal to zero
+        if (bottom == 0.0) {
+            return 0.0;
+        }
+
+        return top / bottom;
+    }
+
+}
@@ -0,0 +1,640 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.graph;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class models a graph of fuzzy controllers, where the crisp outputs of some controllers are the
+ * inputs of others. Each node of the graph runs the inferences of a {@code FuzzyModel}; its input
+ * variables are bound either to the inputs of the graph or to output variables of other nodes, and
+ * the output variables of any node can be exposed as outputs of the graph. The wiring refers to the
+ * variables by their handles, so running the graph involves no name lookups, and the graph is kept
+ * acyclic: a connection that would close a cycle is rejected.
+ * <p>
+ * The graph itself holds no inference state. The inferences run in a {@code FuzzyGraphContext}, which
+ * evaluates the nodes in topological order over a single array of crisp values shared by all the
+ * nodes, and can evaluate the independent nodes of wide graphs concurrently. The input variables of a
+ * node that are not bound to anything are not fuzzified, so their sets have a zero degree of
+ * membership. Changes made to the graph after a context was created are not reflected in the context.
+ *
+ * @author sokolovic
+ */
+public class FuzzyGraph {
+
+    /**
+     * Number of rule instructions of a level of independent nodes, summed over the nodes, from which
+     * the nodes of the level are evaluated concurrently when a context has a pool.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /**
+     * Names of the nodes, indexed by the node index.
+     */
+    protected final List<String> nodeNames;
+
+    /**
+     * Indices of the nodes keyed by their names.
+     */
+    protected final Map<String, Integer> nodeIndices;
+
+    /**
+     * Models of the nodes, indexed by the node index.
+     */
+    protected final List<FuzzyModel> models;
+
+    /**
+     * Sources of the input variables of each node: the index of the source node, {@code INPUT} for an
+     * input of the graph or {@code UNBOUND}.
+     */
+    protected final List<int[]> sourceNodes;
+
+    /**
+     * Output variables of the source nodes, or the inputs of the graph, bound to the input variables of
+     * each node.
+     */
+    protected final List<int[]> sourceVariables;
+
+    /**
+     * Names of the inputs of the graph, indexed by the input index.
+     */
+    protected final List<String> inputNames;
+
+    /**
+     * Indices of the inputs of the graph keyed by their names.
+     */
+    protected final Map<String, Integer> inputIndices;
+
+    /**
+     * Names of the outputs of the graph, indexed by the output index.
+     */
+    protected final List<String> outputNames;
+
+    /**
+     * Indices of the outputs of the graph keyed by their names.
+     */
+    protected final Map<String, Integer> outputIndices;
+
+    /**
+     * Nodes of the outputs of the graph, indexed by the output index.
+     */
+    protected final List<Integer> outputNodes;
+
+    /**
+     * Variables of the outputs of the graph, indexed by the output index.
+     */
+    protected final List<Integer> outputVariables;
+
+    /**
+     * Execution schedule of the graph, or {@code null} if the graph changed since it was built.
+     */
+    protected Schedule schedule;
+
+    /**
+     * Source node of an input variable bound to an input of the graph.
+     */
+    protected static final int INPUT = -1;
+
+    /**
+     * Source node of an input variable that is not bound.
+     */
+    protected static final int UNBOUND = -2;
+
+    /**
+     * Constructor to initialize an empty graph.
+     */
+    public FuzzyGraph() {
+        this.nodeNames = new ArrayList<String>();
+        this.nodeIndices = new HashMap<String, Integer>();
+        this.models = new ArrayList<FuzzyModel>();
+        this.sourceNodes = new ArrayList<int[]>();
+        this.sourceVariables = new ArrayList<int[]>();
+        this.inputNames = new ArrayList<String>();
+        this.inputIndices = new HashMap<String, Integer>();
+        this.outputNames = new ArrayList<String>();
+        this.outputIndices = new HashMap<String, Integer>();
+        this.outputNodes = new ArrayList<Integer>();
+        this.outputVariables = new ArrayList<Integer>();
+    }
+
+    /**
+     * Method adds a node running the inferences of a model of the given controller in its current state.
+     * @param name Name of the node.
+     * @param controller Controller of the node.
+     * @return Index of the node.
+     * @throws IllegalArgumentException If the graph already has a node with the given name.
+     */
+    public int addNode(String name, FuzzyController controller) {
+        return addNode(name, controller.createModel());
+    }
+
+    /**
+     * Method adds a node running the inferences of the given model. The same model can be the model of
+     * any number of nodes.
+     * @param name Name of the node.
+     * @param model Model of the node.
+     * @return Index of the node.
+     * @throws IllegalArgumentException If the graph already has a node with the given name.
+     */
+    public int addNode(String name, FuzzyModel model) {
+        if (nodeIndices.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate node: " + name);
+        }
+        int[] nodes = new int[model.getVariableCount()];
+        Arrays.fill(nodes, UNBOUND);
+
+        nodeIndices.put(name, nodeNames.size());
+        nodeNames.add(name);
+        models.add(model);
+        sourceNodes.add(nodes);
+        sourceVariables.add(new int[model.getVariableCount()]);
+        schedule = null;
+        return nodeNames.size() - 1;
+    }
+
+    /**
+     * Method adds an input to the graph.
+     * @param name Name of the input.
+     * @return Index of the input.
+     * @throws IllegalArgumentException If the graph already has an input with the given name.
+     */
+    public int addInput(String name) {
+        if (inputIndices.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate input: " + name);
+        }
+        inputIndices.put(name, inputNames.size());
+        inputNames.add(name);
+        schedule = null;
+        return inputNames.size() - 1;
+    }
+
+    /**
+     * Method exposes an output variable of a node as an output of the graph.
+     * @param name Name of the output.
+     * @param node Index of the node.
+     * @param variable Handle of the output variable of the node.
+     * @return Index of the output.
+     * @throws IllegalArgumentException If the graph already has an output with the given name, or the
+     *                                  node has no variable with the given handle.
+     */
+    public int addOutput(String name, int node, int variable) {
+        if (outputIndices.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate output: " + name);
+        }
+        checkVariable(node, variable);
+
+        outputIndices.put(name, outputNames.size());
+        outputNames.add(name);
+        outputNodes.add(node);
+        outputVariables.add(variable);
+        schedule = null;
+        return outputNames.size() - 1;
+    }
+
+    /**
+     * Method exposes the named output variable of the named node as an output of the graph.
+     * @param name Name of the output.
+     * @param node Name of the node.
+     * @param variable Name of the output variable of the node.
+     * @return Index of the output.
+     * @throws IllegalArgumentException If the graph already has an output with the given name, or the
+     *                                  node or the variable is unknown.
+     */
+    public int addOutput(String name, String node, String variable) {
+        int index = getNode(node);
+
+        return addOutput(name, index, models.get(index).getVariableIndex(variable));
+    }
+
+    /**
+     * Method binds an input variable of a node to an input of the graph.
+     * @param input Index of the input of the graph.
+     * @param node Index of the node.
+     * @param variable Handle of the input variable of the node.
+     * @throws IllegalArgumentException If the input or the variable is unknown, or the variable is
+     *                                  already bound.
+     */
+    public void bind(int input, int node, int variable) {
+        if (input < 0 || input >= inputNames.size()) {
+            throw new IllegalArgumentException("Unknown input: " + input);
+        }
+        checkUnbound(node, variable);
+
+        sourceNodes.get(node)[variable] = INPUT;
+        sourceVariables.get(node)[variable] = input;
+        schedule = null;
+    }
+
+    /**
+     * Method binds the named input variable of the named node to the named input of the graph.
+     * @param input Name of the input of the graph.
+     * @param node Name of the node.
+     * @param variable Name of the input variable of the node.
+     * @throws IllegalArgumentException If the input, the node or the variable is unknown, or the variable
+     *                                  is already bound.
+     */
+    public void bind(String input, String node, String variable) {
+        int index = getNode(node);
+
+        bind(getInput(input), index, models.get(index).getVariableIndex(variable));
+    }
+
+    /**
+     * Method connects an output variable of one node to an input variable of another, so the crisp
+     * value of the output is fuzzified as the input. An output can be connected to any number of
+     * inputs.
+     * @param source Index of the source node.
+     * @param output Handle of the output variable of the source node.
+     * @param target Index of the target node.
+     * @param input Handle of the input variable of the target node.
+     * @throws IllegalArgumentException If a node or a variable is unknown, the input is already bound, or
+     *                                  the connection would close a cycle.
+     */
+    public void connect(int source, int output, int target, int input) {
+        checkVariable(source, output);
+        checkUnbound(target, input);
+        if (source == target || reaches(target, source)) {
+            throw new IllegalArgumentException("Connecting " + nodeNames.get(source) + " to " +
+                    nodeNames.get(target) + " would close a cycle");
+        }
+
+        sourceNodes.get(target)[input] = source;
+        sourceVariables.get(target)[input] = output;
+        schedule = null;
+    }
+
+    /**
+     * Method connects the named output variable of one node to the named input variable of another.
+     * @param source Name of the source node.
+     * @param output Name of the output variable of the source node.
+     * @param target Name of the target node.
+     * @param input Name of the input variable of the target node.
+     * @throws IllegalArgumentException If a node or a variable is unknown, the input is already bound, or
+     *                                  the connection would close a cycle.
+     */
+    public void connect(String source, String output, String target, String input) {
+        int from = getNode(source);
+        int to = getNode(target);
+
+        connect(from, models.get(from).getVariableIndex(output), to, models.get(to).getVariableIndex(input));
+    }
+
+    /**
+     * Method returns the index of the named node.
+     * @param name Name of the node.
+     * @return Index of the node.
+     * @throws IllegalArgumentException If the graph has no node with the given name.
+     */
+    public int getNode(String name) {
+        return index(nodeIndices, name, "node");
+    }
+
+    /**
+     * Method returns the index of the named input of the graph.
+     * @param name Name of the input.
+     * @return Index of the input.
+     * @throws IllegalArgumentException If the graph has no input with the given name.
+     */
+    public int getInput(String name) {
+        return index(inputIndices, name, "input");
+    }
+
+    /**
+     * Method returns the index of the named output of the graph.
+     * @param name Name of the output.
+     * @return Index of the output.
+     * @throws IllegalArgumentException If the graph has no output with the given name.
+     */
+    public int getOutput(String name) {
+        return index(outputIndices, name, "output");
+    }
+
+    /**
+     * Getter to obtain the number of nodes of the graph.
+     * @return Number of nodes.
+     */
+    public int getNodeCount() {
+        return nodeNames.size();
+    }
+
+    /**
+     * Getter to obtain the model of the given node.
+     * @param node Index of the node.
+     * @return Model of the node.
+     */
+    public FuzzyModel getModel(int node) {
+        return models.get(node);
+    }
+
+    /**
+     * Getter to obtain the number of inputs of the graph.
+     * @return Number of inputs.
+     */
+    public int getInputCount() {
+        return inputNames.size();
+    }
+
+    /**
+     * Getter to obtain the number of outputs of the graph.
+     * @return Number of outputs.
+     */
+    public int getOutputCount() {
+        return outputNames.size();
+    }
+
+    /**
+     * Method creates a new inference context for the graph in its current state. A context must not be
+     * used by more than one thread at a time.
+     * @return New inference context.
+     */
+    public FuzzyGraphContext newContext() {
+        return new FuzzyGraphContext(this);
+    }
+
+    /**
+     * Method returns the execution schedule of the graph in its current state, building it if the
+     * graph changed since it was last built.
+     * @return Schedule of the graph.
+     */
+    protected Schedule getSchedule() {
+        if (schedule == null) {
+            schedule = new Schedule(this);
+        }
+        return schedule;
+    }
+
+    /**
+     * Method checks whether the target node is reachable from the source node along the connections.
+     * @param source Index of the source node.
+     * @param target Index of the target node.
+     * @return {@code true} if a path leads from the source to the target.
+     */
+    protected boolean reaches(int source, int target) {
+        boolean[] visited = new boolean[nodeNames.size()];
+        int[] stack = new int[nodeNames.size()];
+        int top = 0;
+
+        stack[top++] = source;
+        visited[source] = true;
+        while (top > 0) {
+            int node = stack[--top];
+            if (node == target) {
+                return true;
+            }
+            // Follow the connections forward by scanning the inputs of every node
+            for (int n = 0; n < nodeNames.size(); n++) {
+                if (visited[n]) {
+                    continue;
+                }
+                int[] nodes = sourceNodes.get(n);
+                for (int v = 0; v < nodes.length; v++) {
+                    if (nodes[v] == node) {
+                        visited[n] = true;
+                        stack[top++] = n;
+                        break;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method checks that the given node has a variable with the given handle.
+     * @param node Index of the node.
+     * @param variable Handle of the variable.
+     * @throws IllegalArgumentException If the node or the variable is unknown.
+     */
+    protected void checkVariable(int node, int variable) {
+        if (node < 0 || node >= nodeNames.size()) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        if (variable < 0 || variable >= models.get(node).getVariableCount()) {
+            throw new IllegalArgumentException("Unknown fuzzy variable " + variable + " of node " +
+                    nodeNames.get(node));
+        }
+    }
+
+    /**
+     * Method checks that the given input variable of a node is not bound yet.
+     * @param node Index of the node.
+     * @param variable Handle of the input variable.
+     * @throws IllegalArgumentException If the node or the variable is unknown, or the variable is bound.
+     */
+    protected void checkUnbound(int node, int variable) {
+        checkVariable(node, variable);
+        if (sourceNodes.get(node)[variable] != UNBOUND) {
+            throw new IllegalArgumentException("Fuzzy variable " + models.get(node).getVariableName(variable) +
+                    " of node " + nodeNames.get(node) + " is already bound");
+        }
+    }
+
+    /**
+     * Method looks up the index of a name.
+     * @param indices Indices keyed by the names.
+     * @param name Name to look up.
+     * @param kind Kind of the name, for the error message.
+     * @return Index of the name.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    protected static int index(Map<String, Integer> indices, String name, String kind) {
+        Integer index = indices.get(name);
+
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown " + kind + ": " + name);
+        }
+        return index;
+    }
+
+    /**
+     * Class holds the execution schedule of a graph, flattened into primitive arrays. The crisp values
+     * of the graph live in a single array: the inputs of the graph come first, followed by one value
+     * per output variable of a node that is connected or exposed, shared by all the inputs it is
+     * connected to. The nodes are ordered topologically and grouped into levels; the nodes of a level
+     * only depend on the nodes of earlier levels, so they can be evaluated concurrently.
+     */
+    protected static class Schedule {
+
+        /**
+         * Models of the nodes, indexed by the node index.
+         */
+        protected final FuzzyModel[] models;
+
+        /**
+         * Number of crisp values of the graph.
+         */
+        protected final int valueCount;
+
+        /**
+         * Indices of the nodes in topological order.
+         */
+        protected final int[] order;
+
+        /**
+         * Offsets of the levels into the order, followed by the number of nodes.
+         */
+        protected final int[] levelOffsets;
+
+        /**
+         * Numbers of rule instructions of the levels.
+         */
+        protected final int[] levelWork;
+
+        /**
+         * Handles of the input variables each node fuzzifies.
+         */
+        protected final int[][] inputVariables;
+
+        /**
+         * Indices of the crisp values fuzzified as the input variables of each node.
+         */
+        protected final int[][] inputValues;
+
+        /**
+         * Handles of the output variables each node defuzzifies.
+         */
+        protected final int[][] outputVariables;
+
+        /**
+         * Indices of the crisp values the output variables of each node are stored into.
+         */
+        protected final int[][] outputValues;
+
+        /**
+         * Indices of the crisp values of the outputs of the graph.
+         */
+        protected final int[] graphOutputs;
+
+        /**
+         * Constructor to build the schedule of the given graph.
+         * @param graph Graph to schedule.
+         */
+        protected Schedule(FuzzyGraph graph) {
+            int nodeCount = graph.nodeNames.size();
+            this.models = graph.models.toArray(new FuzzyModel[nodeCount]);
+
+            // Assign a crisp value to every output variable that is connected or exposed
+            int[][] values = new int[nodeCount][];
+            for (int n = 0; n < nodeCount; n++) {
+                values[n] = new int[models[n].getVariableCount()];
+                Arrays.fill(values[n], -1);
+            }
+            int valueCount = graph.inputNames.size();
+            for (int n = 0; n < nodeCount; n++) {
+                int[] nodes = graph.sourceNodes.get(n);
+                int[] variables = graph.sourceVariables.get(n);
+                for (int v = 0; v < nodes.length; v++) {
+                    if (nodes[v] >= 0 && values[nodes[v]][variables[v]] < 0) {
+                        values[nodes[v]][variables[v]] = valueCount++;
+                    }
+                }
+            }
+            this.graphOutputs = new int[graph.outputNames.size()];
+            for (int o = 0; o < graphOutputs.length; o++) {
+                int node = graph.outputNodes.get(o);
+                int variable = graph.outputVariables.get(o);
+                if (values[node][variable] < 0) {
+                    values[node][variable] = valueCount++;
+                }
+                graphOutputs[o] = values[node][variable];
+            }
+            this.valueCount = valueCount;
+
+            this.inputVariables = new int[nodeCount][];
+            this.inputValues = new int[nodeCount][];
+            this.outputVariables = new int[nodeCount][];
+            this.outputValues = new int[nodeCount][];
+            for (int n = 0; n < nodeCount; n++) {
+                int[] nodes = graph.sourceNodes.get(n);
+                int[] variables = graph.sourceVariables.get(n);
+                int inputs = 0;
+                int outputs = 0;
+                for (int v = 0; v < nodes.length; v++) {
+                    inputs += nodes[v] != UNBOUND ? 1 : 0;
+                    outputs += values[n][v] >= 0 ? 1 : 0;
+                }
+
+                inputVariables[n] = new int[inputs];
+                inputValues[n] = new int[inputs];
+                outputVariables[n] = new int[outputs];
+                outputValues[n] = new int[outputs];
+                inputs = 0;
+                outputs = 0;
+                for (int v = 0; v < nodes.length; v++) {
+                    if (nodes[v] != UNBOUND) {
+                        inputVariables[n][inputs] = v;
+                        inputValues[n][inputs++] = nodes[v] == INPUT ? variables[v] : values[nodes[v]][variables[v]];
+                    }
+                    if (values[n][v] >= 0) {
+                        outputVariables[n][outputs] = v;
+                        outputValues[n][outputs++] = values[n][v];
+                    }
+                }
+            }
+
+            // The level of a node is one past the deepest level of its sources
+            int[] levels = new int[nodeCount];
+            boolean[] done = new boolean[nodeCount];
+            int levelCount = nodeCount == 0 ? 0 : 1;
+            for (int remaining = nodeCount; remaining > 0; ) {
+                for (int n = 0; n < nodeCount; n++) {
+                    if (done[n]) {
+                        continue;
+                    }
+                    int[] nodes = graph.sourceNodes.get(n);
+                    int level = 0;
+                    boolean ready = true;
+                    for (int v = 0; v < nodes.length && ready; v++) {
+                        if (nodes[v] >= 0) {
+                            ready = done[nodes[v]];
+                            level = Math.max(level, levels[nodes[v]] + 1);
+                        }
+                    }
+                    if (ready) {
+                        levels[n] = level;
+                        levelCount = Math.max(levelCount, level + 1);
+                        done[n] = true;
+                        remaining--;
+                    }
+                }
+            }
+
+            this.order = new int[nodeCount];
+            this.levelOffsets = new int[levelCount + 1];
+            this.levelWork = new int[levelCount];
+            int position = 0;
+            for (int l = 0; l < levelCount; l++) {
+                levelOffsets[l] = position;
+                for (int n = 0; n < nodeCount; n++) {
+                    if (levels[n] == l) {
+                        order[position++] = n;
+                        levelWork[l] += models[n].getProgram().getInstructionCount();
+                    }
+                }
+            }
+            levelOffsets[levelCount] = position;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.graph;
+
+import org.sokolovic.jfuzzy.FuzzyContext;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class holds the state of the inferences run on a {@code FuzzyGraph}: an inference context per node
+ * and the crisp values of the graph, kept in a single primitive array. Each node fuzzifies its inputs
+ * straight from the array and defuzzifies its outputs back into it, running its rules once per
+ * inference of the graph, so the values flow between the nodes without being copied into
+ * intermediate objects or looked up by name.
+ * <p>
+ * The nodes are evaluated level by level in topological order. With a pool, the nodes of a level
+ * holding more than one node and at least {@code FuzzyGraph.PARALLEL_THRESHOLD} rule instructions are
+ * evaluated concurrently by the workers of the pool; the pool is also handed to the context of each
+ * node, to split the rules of large rule bases. The results are the same either way. A context must
+ * not be used by more than one thread at a time.
+ *
+ * @author sokolovic
+ */
+public class FuzzyGraphContext {
+
+    /**
+     * The graph this context runs the inferences on.
+     */
+    protected final FuzzyGraph graph;
+
+    /**
+     * Execution schedule of the graph.
+     */
+    protected final FuzzyGraph.Schedule schedule;
+
+    /**
+     * Inference contexts of the nodes, indexed by the node index.
+     */
+    protected final FuzzyContext[] contexts;
+
+    /**
+     * Crisp values of the graph.
+     */
+    protected final double[] values;
+
+    /**
+     * Crisp values of the outputs of each node, in the order of its output variables.
+     */
+    protected final double[][] results;
+
+    /**
+     * Tasks evaluating the nodes, indexed by the node index.
+     */
+    protected final NodeTask[] nodeTasks;
+
+    /**
+     * Tasks evaluating the levels, indexed by the level.
+     */
+    protected final LevelTask[] levelTasks;
+
+    /**
+     * Pool the independent nodes are evaluated in, or {@code null} to evaluate them on the calling
+     * thread.
+     */
+    protected ForkJoinPool pool;
+
+    /**
+     * Constructor to initialize the context of the given graph in its current state.
+     * @param graph Graph to run the inferences on.
+     */
+    public FuzzyGraphContext(FuzzyGraph graph) {
+        this.graph = graph;
+        this.schedule = graph.getSchedule();
+        this.values = new double[schedule.valueCount];
+
+        int nodeCount = schedule.models.length;
+        this.contexts = new FuzzyContext[nodeCount];
+        this.results = new double[nodeCount][];
+        this.nodeTasks = new NodeTask[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            contexts[n] = schedule.models[n].newContext();
+            results[n] = new double[schedule.outputVariables[n].length];
+            nodeTasks[n] = new NodeTask(n);
+        }
+        this.levelTasks = new LevelTask[schedule.levelWork.length];
+        for (int l = 0; l < levelTasks.length; l++) {
+            levelTasks[l] = new LevelTask(schedule.levelOffsets[l], schedule.levelOffsets[l + 1]);
+        }
+    }
+
+    /**
+     * Getter to obtain the graph this context runs the inferences on.
+     * @return The graph of the context.
+     */
+    public FuzzyGraph getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * Getter to obtain the pool the independent nodes are evaluated in.
+     * @return Pool of the context, or {@code null} if the nodes are evaluated on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Setter to evaluate the independent nodes of wide levels of the graph in the given pool.
+     * @param pool Pool to evaluate the nodes in, or {@code null} to evaluate them on the calling thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        for (int n = 0; n < contexts.length; n++) {
+            contexts[n].setPool(pool);
+        }
+    }
+
+    /**
+     * Method sets the value of an input of the graph.
+     * @param input Index of the input.
+     * @param value Crisp value of the input.
+     */
+    public void setInput(int input, double value) {
+        values[input] = value;
+    }
+
+    /**
+     * Method sets the value of the named input of the graph.
+     * @param name Name of the input.
+     * @param value Crisp value of the input.
+     */
+    public void setInput(String name, double value) {
+        values[graph.getInput(name)] = value;
+    }
+
+    /**
+     * Method returns the value an output of the graph had after the last inference.
+     * @param output Index of the output.
+     * @return Crisp value of the output.
+     */
+    public double getOutput(int output) {
+        return values[schedule.graphOutputs[output]];
+    }
+
+    /**
+     * Method returns the value the named output of the graph had after the last inference.
+     * @param name Name of the output.
+     * @return Crisp value of the output.
+     */
+    public double getOutput(String name) {
+        return getOutput(graph.getOutput(name));
+    }
+
+    /**
+     * Method runs an inference of the graph from the given input values and stores the output values.
+     * @param inputs Values of the inputs, in the order of the input indices.
+     * @param outputs Array to store the values of the outputs into, in the order of the output indices.
+     */
+    public void run(double[] inputs, double[] outputs) {
+        System.arraycopy(inputs, 0, values, 0, inputs.length);
+        run();
+        for (int o = 0; o < outputs.length; o++) {
+            outputs[o] = values[schedule.graphOutputs[o]];
+        }
+    }
+
+    /**
+     * Method runs an inference of the graph from the current input values, evaluating every node once.
+     */
+    public void run() {
+        int[] order = schedule.order;
+
+        for (int l = 0; l < levelTasks.length; l++) {
+            int from = schedule.levelOffsets[l];
+            int to = schedule.levelOffsets[l + 1];
+
+            if (pool != null && to - from > 1 && schedule.levelWork[l] >= FuzzyGraph.PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    nodeTasks[order[i]].reinitialize();
+                }
+                levelTasks[l].reinitialize();
+                pool.invoke(levelTasks[l]);
+                continue;
+            }
+            for (int i = from; i < to; i++) {
+                evaluate(order[i]);
+            }
+        }
+    }
+
+    /**
+     * Method evaluates a node: fuzzifies its inputs, runs its rules once and stores the crisp values of
+     * its outputs.
+     * @param node Index of the node.
+     */
+    protected void evaluate(int node) {
+        FuzzyContext context = contexts[node];
+        int[] inputVariables = schedule.inputVariables[node];
+        int[] inputValues = schedule.inputValues[node];
+        int[] outputValues = schedule.outputValues[node];
+        double[] result = results[node];
+
+        for (int i = 0; i < inputVariables.length; i++) {
+            context.fuzzify(inputVariables[i], values[inputValues[i]]);
+        }
+        context.defuzzify(schedule.outputVariables[node], result);
+        for (int i = 0; i < outputValues.length; i++) {
+            values[outputValues[i]] = result[i];
+        }
+    }
+
+    /**
+     * Fork/join task evaluating a single node.
+     */
+    protected class NodeTask extends RecursiveAction {
+
+        /**
+         * Version of the serialized form of the task.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Index of the node.
+         */
+        protected final int node;
+
+        /**
+         * Constructor to initialize the task of the given node.
+         * @param node Index of the node.
+         */
+        protected NodeTask(int node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            evaluate(node);
+        }
+    }
+
+    /**
+     * Fork/join task evaluating the nodes of a level concurrently.
+     */
+    protected class LevelTask extends RecursiveAction {
+
+        /**
+         * Version of the serialized form of the task.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Offset of the first node of the level into the order.
+         */
+        protected final int from;
+
+        /**
+         * Offset past the last node of the level into the order.
+         */
+        protected final int to;
+
+        /**
+         * Constructor to initialize the task of the given level.
+         * @param from Offset of the first node of the level into the order.
+         * @param to Offset past the last node of the level into the order.
+         */
+        protected LevelTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            // Fork the other nodes in reverse, so the joins find them on top of the queue of this worker
+            for (int i = to - 1; i > from; i--) {
+                nodeTasks[schedule.order[i]].fork();
+            }
+            evaluate(schedule.order[from]);
+            for (int i = from + 1; i < to; i++) {
+                nodeTasks[schedule.order[i]].join();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.metrics;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.compiler.RuleListener;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class collects the metrics of the inferences run on a rule base: how many times each rule fired and
+ * with what activation strength, how long the fuzzification and the defuzzification of each variable
+ * took and how long the inferences took. Inferences slower than a threshold are counted separately and
+ * reported to the Flight Recorder as {@code InferenceEvent}s.
+ * <p>
+ * The metrics are attached to the contexts or the controllers whose inferences they should record,
+ * each of which obtains a {@code Recorder} of its own. The recorders of different threads add to
+ * different stripes of the counters, so recording scales with the number of threads; contexts and
+ * controllers without metrics do not record anything and run as fast as before. The counters can be
+ * read at any time by taking a {@code snapshot()}, or through JMX once the metrics are registered.
+ * <p>
+ * The recording contexts evaluate the rules with the interpreter of the compiled program, on the
+ * calling thread, to observe the strength of each rule: a generated kernel or a pool set on the context
+ * is not used while the metrics are attached. The results are the same either way.
+ *
+ * @author sokolovic
+ */
+public class FuzzyMetrics implements FuzzyMetricsMXBean {
+
+    /**
+     * Number of buckets of the histograms of the activation strengths of the rules.
+     */
+    public static final int STRENGTH_BUCKETS = 10;
+
+    /**
+     * Number of buckets of the histograms of the latencies, enough for any positive {@code long}.
+     */
+    public static final int LATENCY_BUCKETS = 248;
+
+    /**
+     * Default time above which an inference is counted as slow: one millisecond.
+     */
+    public static final long DEFAULT_SLOW_INFERENCE_THRESHOLD = 1000000L;
+
+    /**
+     * The largest number of stripes of the counters.
+     */
+    public static final int MAX_STRIPES = 64;
+
+    /**
+     * Index of the counter of the rule evaluations.
+     */
+    protected static final int EVALUATED_RULES = 0;
+
+    /**
+     * Index of the counter of the slow inferences.
+     */
+    protected static final int SLOW_INFERENCES = 1;
+
+    /**
+     * Name of the metrics.
+     */
+    protected final String name;
+
+    /**
+     * Number of rules of the rule base.
+     */
+    protected final int ruleCount;
+
+    /**
+     * Names of the variables, in the order of their indices.
+     */
+    protected final String[] variableNames;
+
+    /**
+     * Histograms of the activation strengths of the rules, {@code STRENGTH_BUCKETS} per rule.
+     */
+    protected final StripedCounters strengths;
+
+    /**
+     * Histograms of the fuzzification times, {@code LATENCY_BUCKETS} per variable.
+     */
+    protected final StripedCounters fuzzifyTimes;
+
+    /**
+     * Histograms of the defuzzification times, {@code LATENCY_BUCKETS} per variable.
+     */
+    protected final StripedCounters defuzzifyTimes;
+
+    /**
+     * Histogram of the inference times.
+     */
+    protected final StripedCounters inferenceTimes;
+
+    /**
+     * Counters of the rule evaluations and of the slow inferences.
+     */
+    protected final StripedCounters events;
+
+    /**
+     * Stripe assigned to the next recorder.
+     */
+    protected final AtomicInteger nextStripe;
+
+    /**
+     * Time above which an inference is counted as slow, in nanoseconds.
+     */
+    protected volatile long slowInferenceThreshold;
+
+    /**
+     * Constructor to initialize the metrics of a rule base of the given size.
+     * @param name Name of the metrics, used for the JMX registration and the Flight Recorder events.
+     * @param ruleCount Number of rules.
+     * @param variableNames Names of the variables, in the order of their indices.
+     */
+    public FuzzyMetrics(String name, int ruleCount, String[] variableNames) {
+        if (name == null || ruleCount < 0 || variableNames == null) {
+            throw new IllegalArgumentException("Invalid metrics: " + name + ", " + ruleCount + " rules");
+        }
+
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+
+        this.name = name;
+        this.ruleCount = ruleCount;
+        this.variableNames = variableNames.clone();
+        this.strengths = new StripedCounters(ruleCount * STRENGTH_BUCKETS, stripes);
+        this.fuzzifyTimes = new StripedCounters(variableNames.length * LATENCY_BUCKETS, stripes);
+        this.defuzzifyTimes = new StripedCounters(variableNames.length * LATENCY_BUCKETS, stripes);
+        this.inferenceTimes = new StripedCounters(LATENCY_BUCKETS, stripes);
+        this.events = new StripedCounters(2, stripes);
+        this.nextStripe = new AtomicInteger();
+        this.slowInferenceThreshold = DEFAULT_SLOW_INFERENCE_THRESHOLD;
+    }
+
+    /**
+     * Constructor to initialize the metrics of the given model.
+     * @param name Name of the metrics.
+     * @param model Model whose inferences are recorded.
+     */
+    public FuzzyMetrics(String name, FuzzyModel model) {
+        this(name, model.getProgram().getRuleCount(), getVariableNames(model));
+    }
+
+    /**
+     * Constructor to initialize the metrics of the given controller, as it is now.
+     * @param name Name of the metrics.
+     * @param controller Controller whose inferences are recorded.
+     */
+    public FuzzyMetrics(String name, FuzzyController controller) {
+        this(name, controller.getRules().size(),
+             controller.getVariables().keySet().toArray(new String[controller.getVariables().size()]));
+    }
+
+    /**
+     * Method returns the names of the variables of a model, in the order of their indices.
+     * @param model The model.
+     * @return Names of the variables.
+     */
+    protected static String[] getVariableNames(FuzzyModel model) {
+        String[] names = new String[model.getVariableCount()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = model.getVariableName(i);
+        }
+        return names;
+    }
+
+    /**
+     * Method returns the bucket of the latency histograms counting the given time. Times below 4 ns
+     * have a bucket each; above, each power of two is split into 4 buckets, so the width of a bucket is
+     * at most a quarter of the times it counts.
+     * @param nanos Time, in nanoseconds.
+     * @return Index of the bucket.
+     */
+    public static int getLatencyBucket(long nanos) {
+        if (nanos < 4) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        return exponent * 4 - 4 + (int) (nanos >>> (exponent - 2) & 3);
+    }
+
+    /**
+     * Method returns the largest time counted by the given bucket of the latency histograms.
+     * @param bucket Index of the bucket.
+     * @return Upper bound of the bucket, in nanoseconds.
+     */
+    public static long getLatencyBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+
+        int exponent = bucket / 4 + 1;
+        long lower = (long) (4 + bucket % 4) << (exponent - 2);
+        return lower + (1L << (exponent - 2)) - 1;
+    }
+
+    /**
+     * Method returns the bucket of the strength histograms counting the given activation strength.
+     * @param strength Positive activation strength.
+     * @return Index of the bucket.
+     */
+    public static int getStrengthBucket(double strength) {
+        int bucket = (int) Math.ceil(strength * STRENGTH_BUCKETS) - 1;
+
+        return bucket < 0 ? 0 : bucket < STRENGTH_BUCKETS ? bucket : STRENGTH_BUCKETS - 1;
+    }
+
+    /**
+     * Method creates a recorder adding to these metrics. A recorder is meant to be used by a single
+     * thread at a time; each context or controller the metrics are attached to creates its own.
+     * @return New recorder.
+     */
+    public Recorder newRecorder() {
+        return new Recorder(this, nextStripe.getAndIncrement() & (events.getStripeCount() - 1));
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Getter to obtain the number of rules the metrics are recorded for.
+     * @return Number of rules.
+     */
+    public int getRuleCount() {
+        return this.ruleCount;
+    }
+
+    /**
+     * Getter to obtain the number of variables the metrics are recorded for.
+     * @return Number of variables.
+     */
+    public int getVariableCount() {
+        return variableNames.length;
+    }
+
+    @Override
+    public String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    @Override
+    public long getInferenceCount() {
+        long count = 0;
+
+        for (long bucket : inferenceTimes.get(0, LATENCY_BUCKETS)) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    @Override
+    public long getSlowInferenceCount() {
+        return events.get(SLOW_INFERENCES);
+    }
+
+    @Override
+    public long getEvaluatedRuleCount() {
+        return events.get(EVALUATED_RULES);
+    }
+
+    @Override
+    public long getSlowInferenceThreshold() {
+        return this.slowInferenceThreshold;
+    }
+
+    @Override
+    public void setSlowInferenceThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Negative threshold: " + threshold);
+        }
+        this.slowInferenceThreshold = threshold;
+    }
+
+    @Override
+    public long getInferenceTimeP50() {
+        return FuzzyMetricsSnapshot.getPercentile(inferenceTimes.get(0, LATENCY_BUCKETS), 50);
+    }
+
+    @Override
+    public long getInferenceTimeP99() {
+        return FuzzyMetricsSnapshot.getPercentile(inferenceTimes.get(0, LATENCY_BUCKETS), 99);
+    }
+
+    @Override
+    public long[] getFuzzifyTimesP99() {
+        return getPercentiles(fuzzifyTimes, 99);
+    }
+
+    @Override
+    public long[] getDefuzzifyTimesP99() {
+        return getPercentiles(defuzzifyTimes, 99);
+    }
+
+    /**
+     * Method returns a percentile of the latency histogram of each variable.
+     * @param times Latency histograms of the variables.
+     * @param percentile Percentile, between 0 and 100.
+     * @return Percentiles, in the order of the variables.
+     */
+    protected long[] getPercentiles(StripedCounters times, double percentile) {
+        long[] percentiles = new long[variableNames.length];
+
+        for (int v = 0; v < percentiles.length; v++) {
+            long[] histogram = times.get(v * LATENCY_BUCKETS, (v + 1) * LATENCY_BUCKETS);
+            percentiles[v] = FuzzyMetricsSnapshot.getPercentile(histogram, percentile);
+        }
+        return percentiles;
+    }
+
+    @Override
+    public long[] getFiringCounts() {
+        long[] histograms = strengths.get(0, strengths.getSize());
+        long[] counts = new long[ruleCount];
+
+        for (int i = 0; i < histograms.length; i++) {
+            counts[i / STRENGTH_BUCKETS] += histograms[i];
+        }
+        return counts;
+    }
+
+    /**
+     * Method reads all the counters of the metrics.
+     * @return Snapshot of the counters.
+     */
+    public FuzzyMetricsSnapshot snapshot() {
+        long[][] fuzzify = new long[variableNames.length][];
+        long[][] defuzzify = new long[variableNames.length][];
+
+        for (int v = 0; v < variableNames.length; v++) {
+            fuzzify[v] = fuzzifyTimes.get(v * LATENCY_BUCKETS, (v + 1) * LATENCY_BUCKETS);
+            defuzzify[v] = defuzzifyTimes.get(v * LATENCY_BUCKETS, (v + 1) * LATENCY_BUCKETS);
+        }
+        return new FuzzyMetricsSnapshot(name, variableNames.clone(), strengths.get(0, strengths.getSize()),
+                                        fuzzify, defuzzify, inferenceTimes.get(0, LATENCY_BUCKETS),
+                                        events.get(EVALUATED_RULES), events.get(SLOW_INFERENCES));
+    }
+
+    @Override
+    public void reset() {
+        strengths.reset();
+        fuzzifyTimes.reset();
+        defuzzifyTimes.reset();
+        inferenceTimes.reset();
+        events.reset();
+    }
+
+    /**
+     * Getter to obtain the name the metrics are registered under with the MBean server.
+     * @return Object name of the metrics.
+     * @throws JMException If the name of the metrics does not make a valid object name.
+     */
+    public ObjectName getObjectName() throws JMException {
+        return new ObjectName("org.sokolovic.jfuzzy:type=FuzzyMetrics,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Method registers the metrics with the platform MBean server.
+     * @return Object name the metrics are registered under.
+     * @throws JMException If the metrics could not be registered.
+     */
+    public ObjectName register() throws JMException {
+        ObjectName objectName = getObjectName();
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Method unregisters the metrics from the platform MBean server.
+     * @throws JMException If the metrics are not registered.
+     */
+    public void unregister() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+    }
+
+    /**
+     * Class records the inferences of a single context or controller into a stripe of the counters of
+     * the metrics. It keeps the numbers of the rules evaluated and fired by the current inference, so
+     * it must not be used by several threads at the same time.
+     */
+    public static class Recorder implements RuleListener {
+
+        /**
+         * The metrics recorded into.
+         */
+        protected final FuzzyMetrics metrics;
+
+        /**
+         * Stripe of the strength histograms.
+         */
+        protected final AtomicLongArray strengths;
+
+        /**
+         * Stripe of the fuzzification time histograms.
+         */
+        protected final AtomicLongArray fuzzifyTimes;
+
+        /**
+         * Stripe of the defuzzification time histograms.
+         */
+        protected final AtomicLongArray defuzzifyTimes;
+
+        /**
+         * Stripe of the inference time histogram.
+         */
+        protected final AtomicLongArray inferenceTimes;
+
+        /**
+         * Stripe of the event counters.
+         */
+        protected final AtomicLongArray events;
+
+        /**
+         * Number of rules evaluated by the current inference.
+         */
+        protected int evaluatedRules;
+
+        /**
+         * Number of rules fired by the current inference.
+         */
+        protected int firedRules;
+
+        /**
+         * Constructor to initialize the recorder of the given stripe.
+         * @param metrics The metrics to record into.
+         * @param stripe Index of the stripe.
+         */
+        protected Recorder(FuzzyMetrics metrics, int stripe) {
+            this.metrics = metrics;
+            this.strengths = metrics.strengths.getStripe(stripe);
+            this.fuzzifyTimes = metrics.fuzzifyTimes.getStripe(stripe);
+            this.defuzzifyTimes = metrics.defuzzifyTimes.getStripe(stripe);
+            this.inferenceTimes = metrics.inferenceTimes.getStripe(stripe);
+            this.events = metrics.events.getStripe(stripe);
+        }
+
+        /**
+         * Getter to obtain the metrics recorded into.
+         * @return The metrics of the recorder.
+         */
+        public FuzzyMetrics getMetrics() {
+            return this.metrics;
+        }
+
+        /**
+         * Method records the time the fuzzification of a variable took.
+         * @param variable Index of the variable.
+         * @param nanos Time, in nanoseconds.
+         */
+        public void recordFuzzify(int variable, long nanos) {
+            fuzzifyTimes.incrementAndGet(variable * LATENCY_BUCKETS + getLatencyBucket(nanos));
+        }
+
+        @Override
+        public void ruleFired(int rule, double strength) {
+            evaluatedRules++;
+            if (strength > 0.0) {
+                firedRules++;
+                strengths.incrementAndGet(rule * STRENGTH_BUCKETS + getStrengthBucket(strength));
+            }
+        }
+
+        /**
+         * Method records the time the defuzzification of a variable took.
+         * @param variable Index of the variable.
+         * @param nanos Time, in nanoseconds.
+         */
+        public void recordDefuzzify(int variable, long nanos) {
+            defuzzifyTimes.incrementAndGet(variable * LATENCY_BUCKETS + getLatencyBucket(nanos));
+        }
+
+        /**
+         * Method records the end of an inference, together with the rules reported since the previous
+         * one. A slow inference is counted and committed to the Flight Recorder.
+         * @param nanos Time the rule evaluation and the defuzzification took, in nanoseconds.
+         * @param outputs Number of variables defuzzified.
+         */
+        public void recordInference(long nanos, int outputs) {
+            inferenceTimes.incrementAndGet(getLatencyBucket(nanos));
+            events.addAndGet(EVALUATED_RULES, evaluatedRules);
+
+            if (nanos >= metrics.slowInferenceThreshold) {
+                events.incrementAndGet(SLOW_INFERENCES);
+                InferenceEvent event = new InferenceEvent(metrics.name, nanos, evaluatedRules, firedRules, outputs);
+                if (event.shouldCommit()) {
+                    event.commit();
+                }
+            }
+            evaluatedRules = 0;
+            firedRules = 0;
+        }
+
+    }
+
+}
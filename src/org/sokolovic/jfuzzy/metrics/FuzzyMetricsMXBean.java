@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.metrics;
+
+/**
+ * Management interface of the {@code FuzzyMetrics}, registered with the platform MBean server. The
+ * latencies are given in nanoseconds.
+ *
+ * @author sokolovic
+ */
+public interface FuzzyMetricsMXBean {
+
+    /**
+     * Getter to obtain the name of the metrics.
+     * @return Name of the metrics.
+     */
+    String getName();
+
+    /**
+     * Getter to obtain the number of inferences recorded.
+     * @return Number of inferences.
+     */
+    long getInferenceCount();
+
+    /**
+     * Getter to obtain the number of inferences slower than the threshold.
+     * @return Number of slow inferences.
+     */
+    long getSlowInferenceCount();
+
+    /**
+     * Getter to obtain the total number of rules evaluated by the inferences.
+     * @return Number of rule evaluations.
+     */
+    long getEvaluatedRuleCount();
+
+    /**
+     * Getter to obtain the time above which an inference is counted as slow.
+     * @return Threshold, in nanoseconds.
+     */
+    long getSlowInferenceThreshold();
+
+    /**
+     * Setter to change the time above which an inference is counted as slow.
+     * @param threshold Threshold, in nanoseconds.
+     */
+    void setSlowInferenceThreshold(long threshold);
+
+    /**
+     * Getter to obtain the median of the inference times.
+     * @return Median inference time.
+     */
+    long getInferenceTimeP50();
+
+    /**
+     * Getter to obtain the 99th percentile of the inference times.
+     * @return 99th percentile of the inference times.
+     */
+    long getInferenceTimeP99();
+
+    /**
+     * Getter to obtain the names of the variables, in the order of the per-variable attributes.
+     * @return Names of the variables.
+     */
+    String[] getVariableNames();
+
+    /**
+     * Getter to obtain the 99th percentile of the fuzzification times of each variable.
+     * @return Percentiles, in the order of the variables.
+     */
+    long[] getFuzzifyTimesP99();
+
+    /**
+     * Getter to obtain the 99th percentile of the defuzzification times of each variable.
+     * @return Percentiles, in the order of the variables.
+     */
+    long[] getDefuzzifyTimesP99();
+
+    /**
+     * Getter to obtain how many times each rule fired.
+     * @return Number of firings of each rule, in the order of the rules.
+     */
+    long[] getFiringCounts();
+
+    /**
+     * Method resets all the counters to zero.
+     */
+    void reset();
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.metrics;
+
+/**
+ * Class holds the values of the counters of a {@code FuzzyMetrics} at the time it was taken. The
+ * histograms of the latencies count the recorded times in buckets of a quarter of a power of two,
+ * see {@code FuzzyMetrics.getLatencyBucket()}, so the percentiles derived from them are upper bounds
+ * within 25% of the true values. The snapshot is immutable and does not change as more inferences
+ * are recorded.
+ *
+ * @author sokolovic
+ */
+public class FuzzyMetricsSnapshot {
+
+    /**
+     * Name of the metrics the snapshot was taken of.
+     */
+    protected final String name;
+
+    /**
+     * Names of the variables, in the order of their indices.
+     */
+    protected final String[] variableNames;
+
+    /**
+     * Histograms of the activation strengths of the rules, {@code FuzzyMetrics.STRENGTH_BUCKETS} per rule.
+     */
+    protected final long[] strengths;
+
+    /**
+     * Histograms of the fuzzification times of the variables.
+     */
+    protected final long[][] fuzzifyTimes;
+
+    /**
+     * Histograms of the defuzzification times of the variables.
+     */
+    protected final long[][] defuzzifyTimes;
+
+    /**
+     * Histogram of the inference times.
+     */
+    protected final long[] inferenceTimes;
+
+    /**
+     * Total number of rules evaluated by the inferences.
+     */
+    protected final long evaluatedRules;
+
+    /**
+     * Number of the inferences slower than the threshold.
+     */
+    protected final long slowInferences;
+
+    /**
+     * Constructor to initialize the snapshot with the given counter values.
+     * @param name Name of the metrics.
+     * @param variableNames Names of the variables.
+     * @param strengths Histograms of the activation strengths of the rules.
+     * @param fuzzifyTimes Histograms of the fuzzification times of the variables.
+     * @param defuzzifyTimes Histograms of the defuzzification times of the variables.
+     * @param inferenceTimes Histogram of the inference times.
+     * @param evaluatedRules Total number of rules evaluated.
+     * @param slowInferences Number of the slow inferences.
+     */
+    public FuzzyMetricsSnapshot(String name, String[] variableNames, long[] strengths, long[][] fuzzifyTimes,
+                                long[][] defuzzifyTimes, long[] inferenceTimes, long evaluatedRules,
+                                long slowInferences) {
+        this.name = name;
+        this.variableNames = variableNames;
+        this.strengths = strengths;
+        this.fuzzifyTimes = fuzzifyTimes;
+        this.defuzzifyTimes = defuzzifyTimes;
+        this.inferenceTimes = inferenceTimes;
+        this.evaluatedRules = evaluatedRules;
+        this.slowInferences = slowInferences;
+    }
+
+    /**
+     * Method returns the given percentile of a latency histogram.
+     * @param histogram Counts of the latency buckets.
+     * @param percentile Percentile, between 0 and 100.
+     * @return Upper bound of the bucket the percentile falls into, in nanoseconds, or 0 if the
+     *         histogram is empty.
+     */
+    public static long getPercentile(long[] histogram, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return FuzzyMetrics.getLatencyBound(i);
+            }
+        }
+        return FuzzyMetrics.getLatencyBound(histogram.length - 1);
+    }
+
+    /**
+     * Getter to obtain the name of the metrics the snapshot was taken of.
+     * @return Name of the metrics.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Getter to obtain the number of rules.
+     * @return Number of rules.
+     */
+    public int getRuleCount() {
+        return strengths.length / FuzzyMetrics.STRENGTH_BUCKETS;
+    }
+
+    /**
+     * Getter to obtain the number of variables.
+     * @return Number of variables.
+     */
+    public int getVariableCount() {
+        return variableNames.length;
+    }
+
+    /**
+     * Getter to obtain the name of a variable.
+     * @param variable Index of the variable.
+     * @return Name of the variable.
+     */
+    public String getVariableName(int variable) {
+        return variableNames[variable];
+    }
+
+    /**
+     * Getter to obtain the number of inferences recorded.
+     * @return Number of inferences.
+     */
+    public long getInferenceCount() {
+        long count = 0;
+
+        for (long bucket : inferenceTimes) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /**
+     * Getter to obtain the number of inferences slower than the threshold of the metrics.
+     * @return Number of slow inferences.
+     */
+    public long getSlowInferenceCount() {
+        return this.slowInferences;
+    }
+
+    /**
+     * Getter to obtain the total number of rules evaluated by the inferences. Rules skipped by the index
+     * of the rule base are not evaluated.
+     * @return Number of rule evaluations.
+     */
+    public long getEvaluatedRuleCount() {
+        return this.evaluatedRules;
+    }
+
+    /**
+     * Getter to obtain how many times a rule fired, with a positive activation strength.
+     * @param rule Index of the rule.
+     * @return Number of firings of the rule.
+     */
+    public long getFiringCount(int rule) {
+        long count = 0;
+
+        for (int i = rule * FuzzyMetrics.STRENGTH_BUCKETS; i < (rule + 1) * FuzzyMetrics.STRENGTH_BUCKETS; i++) {
+            count += strengths[i];
+        }
+        return count;
+    }
+
+    /**
+     * Getter to obtain how many times each rule fired.
+     * @return Number of firings of each rule, in the order of the rules.
+     */
+    public long[] getFiringCounts() {
+        long[] counts = new long[getRuleCount()];
+
+        for (int r = 0; r < counts.length; r++) {
+            counts[r] = getFiringCount(r);
+        }
+        return counts;
+    }
+
+    /**
+     * Getter to obtain the histogram of the activation strengths of a rule: bucket {@code i} counts the
+     * firings with a strength in {@code (i / STRENGTH_BUCKETS, (i + 1) / STRENGTH_BUCKETS]}.
+     * @param rule Index of the rule.
+     * @return Counts of the strength buckets.
+     */
+    public long[] getStrengthHistogram(int rule) {
+        long[] histogram = new long[FuzzyMetrics.STRENGTH_BUCKETS];
+
+        System.arraycopy(strengths, rule * histogram.length, histogram, 0, histogram.length);
+        return histogram;
+    }
+
+    /**
+     * Getter to obtain the histogram of the fuzzification times of a variable.
+     * @param variable Index of the variable.
+     * @return Counts of the latency buckets.
+     */
+    public long[] getFuzzifyHistogram(int variable) {
+        return fuzzifyTimes[variable].clone();
+    }
+
+    /**
+     * Getter to obtain the histogram of the defuzzification times of a variable.
+     * @param variable Index of the variable.
+     * @return Counts of the latency buckets.
+     */
+    public long[] getDefuzzifyHistogram(int variable) {
+        return defuzzifyTimes[variable].clone();
+    }
+
+    /**
+     * Getter to obtain the histogram of the inference times: the rule evaluation together with the
+     * defuzzification of the variables requested by a call.
+     * @return Counts of the latency buckets.
+     */
+    public long[] getInferenceHistogram() {
+        return inferenceTimes.clone();
+    }
+
+    /**
+     * Getter to obtain a percentile of the fuzzification times of a variable.
+     * @param variable Index of the variable.
+     * @param percentile Percentile, between 0 and 100.
+     * @return The percentile, in nanoseconds.
+     */
+    public long getFuzzifyTime(int variable, double percentile) {
+        return getPercentile(fuzzifyTimes[variable], percentile);
+    }
+
+    /**
+     * Getter to obtain a percentile of the defuzzification times of a variable.
+     * @param variable Index of the variable.
+     * @param percentile Percentile, between 0 and 100.
+     * @return The percentile, in nanoseconds.
+     */
+    public long getDefuzzifyTime(int variable, double percentile) {
+        return getPercentile(defuzzifyTimes[variable], percentile);
+    }
+
+    /**
+     * Getter to obtain a percentile of the inference times.
+     * @param percentile Percentile, between 0 and 100.
+     * @return The percentile, in nanoseconds.
+     */
+    public long getInferenceTime(double percentile) {
+        return getPercentile(inferenceTimes, percentile);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event committed for every inference slower than the threshold of its metrics. The
+ * event is only created once an inference turned out to be slow, so recording the metrics costs no
+ * allocation otherwise; the time of the inference is therefore held in a field of its own rather than
+ * in the duration of the event.
+ *
+ * @author sokolovic
+ */
+@Name("org.sokolovic.jfuzzy.SlowInference")
+@Label("Slow Fuzzy Inference")
+@Category("JFuzzy")
+@Description("Inference that took longer than the slow inference threshold of its metrics")
+@StackTrace(false)
+public class InferenceEvent extends Event {
+
+    /**
+     * Name of the metrics that recorded the inference.
+     */
+    @Label("Metrics")
+    protected String metrics;
+
+    /**
+     * Time the rule evaluation and the defuzzification took.
+     */
+    @Label("Inference Time")
+    @Timespan(Timespan.NANOSECONDS)
+    protected long inferenceTime;
+
+    /**
+     * Number of rules evaluated by the inference.
+     */
+    @Label("Evaluated Rules")
+    protected int evaluatedRules;
+
+    /**
+     * Number of rules that fired, with a positive activation strength.
+     */
+    @Label("Fired Rules")
+    protected int firedRules;
+
+    /**
+     * Number of variables defuzzified by the inference.
+     */
+    @Label("Outputs")
+    protected int outputs;
+
+    /**
+     * Constructor to initialize the event of an inference.
+     * @param metrics Name of the metrics that recorded the inference.
+     * @param inferenceTime Time the inference took, in nanoseconds.
+     * @param evaluatedRules Number of rules evaluated.
+     * @param firedRules Number of rules that fired.
+     * @param outputs Number of variables defuzzified.
+     */
+    public InferenceEvent(String metrics, long inferenceTime, int evaluatedRules, int firedRules, int outputs) {
+        this.metrics = metrics;
+        this.inferenceTime = inferenceTime;
+        this.evaluatedRules = evaluatedRules;
+        this.firedRules = firedRules;
+        this.outputs = outputs;
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class models an array of counters split into stripes, so the threads counting at the same time do
+ * not contend for the same cache lines. Each recording thread is assigned a stripe and only ever adds
+ * to its own copy of the counters; reading a counter sums it over all the stripes. The stripes are
+ * allocated on first use, so counters that are only ever updated from a single thread take no more
+ * memory than a plain array.
+ *
+ * @author sokolovic
+ */
+public class StripedCounters {
+
+    /**
+     * Number of counters of each stripe.
+     */
+    protected final int size;
+
+    /**
+     * The stripes, allocated on first use.
+     */
+    protected final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    /**
+     * Constructor to initialize the given number of counters, split into the given number of stripes.
+     * @param size Number of counters.
+     * @param stripes Number of stripes.
+     */
+    public StripedCounters(int size, int stripes) {
+        if (size < 0 || stripes < 1) {
+            throw new IllegalArgumentException("Invalid number of counters or stripes: " + size + ", " + stripes);
+        }
+        this.size = size;
+        this.stripes = new AtomicReferenceArray<AtomicLongArray>(stripes);
+    }
+
+    /**
+     * Getter to obtain the number of counters.
+     * @return Number of counters.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Getter to obtain the number of stripes.
+     * @return Number of stripes.
+     */
+    public int getStripeCount() {
+        return stripes.length();
+    }
+
+    /**
+     * Method returns the copy of the counters of the given stripe, allocating it if it is not in use yet.
+     * The recorders keep the stripe they were assigned, so they add to it without any lookup.
+     * @param stripe Index of the stripe.
+     * @return Counters of the stripe.
+     */
+    public AtomicLongArray getStripe(int stripe) {
+        AtomicLongArray counters = stripes.get(stripe);
+
+        if (counters == null) {
+            stripes.compareAndSet(stripe, null, new AtomicLongArray(size));
+            counters = stripes.get(stripe);
+        }
+        return counters;
+    }
+
+    /**
+     * Method sums the given counter over all the stripes.
+     * @param index Index of the counter.
+     * @return Value of the counter.
+     */
+    public long get(int index) {
+        long sum = 0;
+
+        for (int s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counters = stripes.get(s);
+            if (counters != null) {
+                sum += counters.get(index);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Method sums a range of the counters over all the stripes. The counters are read one by one while
+     * the recorders may be adding to them, so the sums are not an atomic snapshot, but no count is ever
+     * lost or counted twice.
+     * @param from Index of the first counter.
+     * @param to Index past the last counter.
+     * @return Values of the counters.
+     */
+    public long[] get(int from, int to) {
+        long[] sums = new long[to - from];
+
+        for (int s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counters = stripes.get(s);
+            if (counters != null) {
+                for (int i = from; i < to; i++) {
+                    sums[i - from] += counters.get(i);
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Method resets all the counters to zero. Counts added while the counters are being reset may be
+     * kept or dropped.
+     */
+    public void reset() {
+        for (int s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counters = stripes.get(s);
+            if (counters != null) {
+                for (int i = 0; i < size; i++) {
+                    counters.set(i, 0L);
+                }
+            }
+        }
+    }
+
+}
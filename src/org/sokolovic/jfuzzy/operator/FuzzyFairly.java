@@ -38,6 +38,14 @@ public class FuzzyFairly extends FuzzyTerm {
         this.term = term;
     }
 
+    /**
+     * Getter to obtain the term the operator is applied to.
+     * @return Term the operator is applied to.
+     */
+    public FuzzyTerm getTerm() {
+        return this.term;
+    }
+
     /**
      * {@inheritDoc}
      * The FAIRLY operator returns the square root of the degree of membership of
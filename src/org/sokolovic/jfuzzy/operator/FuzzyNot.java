@@ -37,6 +37,14 @@ public class FuzzyNot extends FuzzyTerm {
         this.term = term;
     }
 
+    /**
+     * Getter to obtain the term the operator is applied to.
+     * @return Term the operator is applied to.
+     */
+    public FuzzyTerm getTerm() {
+        return this.term;
+    }
+
     @Override
     public double getDom() {
         return 1 - term.getDom();
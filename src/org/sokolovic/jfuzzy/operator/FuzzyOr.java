@@ -18,6 +18,7 @@ package org.sokolovic.jfuzzy.operator;
 import org.sokolovic.jfuzzy.FuzzyTerm;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -48,6 +49,14 @@ public class FuzzyOr extends FuzzyTerm {
         terms.add(term);
     }
 
+    /**
+     * Getter to obtain the terms that make this composite term.
+     * @return Unmodifiable list of the terms of this composite term.
+     */
+    public List<FuzzyTerm> getTerms() {
+        return Collections.unmodifiableList(terms);
+    }
+
     /**
      * {@inheritDoc}
      * The OR operator returns the maximum degree of membership of the sets it is operating on.
@@ -56,7 +65,9 @@ public class FuzzyOr extends FuzzyTerm {
     public double getDom() {
         double max = Double.MIN_VALUE;
 
-        for (FuzzyTerm term : terms) {
+        for (int i = 0; i < terms.size(); i++) {
+            FuzzyTerm term = terms.get(i);
+
             if (term.getDom() > max) {
                 max = term.getDom();
             }
@@ -66,15 +77,15 @@ public class FuzzyOr extends FuzzyTerm {
 
     @Override
     public void clearDom() {
-        for (FuzzyTerm term : terms) {
-            term.clearDom();
+        for (int i = 0; i < terms.size(); i++) {
+            terms.get(i).clearDom();
         }
     }
 
     @Override
     public void orWithDom(double value) {
-        for (FuzzyTerm term : terms) {
-            term.orWithDom(value);
+        for (int i = 0; i < terms.size(); i++) {
+            terms.get(i).orWithDom(value);
         }
     }
 }
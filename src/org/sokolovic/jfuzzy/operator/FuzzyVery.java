@@ -38,6 +38,14 @@ public class FuzzyVery extends FuzzyTerm {
         this.term = term;
     }
 
+    /**
+     * Getter to obtain the term the operator is applied to.
+     * @return Term the operator is applied to.
+     */
+    public FuzzyTerm getTerm() {
+        return this.term;
+    }
+
     /**
      * {@inheritDoc}
      * The VERY operator returns the square of the degree of membership of the set it
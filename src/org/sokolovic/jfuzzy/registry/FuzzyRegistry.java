@@ -0,0 +1,661 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.registry;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.defuzzifier.*;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.LeftShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.RightShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.TriangularFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class hosts the models of the controllers of many tenants, sharing everything their definitions have
+ * in common. A controller registered for a tenant is reduced to an immutable {@code FuzzyModel}; the
+ * controller itself, with its rules and their terms, is not retained. On the way the definition is
+ * interned piece by piece:
+ * <ul>
+ * <li>the built-in fuzzy sets, by their types and parameters, and the built-in defuzzifiers, by their
+ * types and numbers of samples;</li>
+ * <li>the variables, by their ranges, defuzzifiers and member sets with their names, along with their
+ * support indices, membership tables and aggregates;</li>
+ * <li>the arrays of the compiled rule base, by their content;</li>
+ * <li>whole models, by the names and variables they are built of and the arrays of their rule bases.</li>
+ * </ul>
+ * Tenants with identical definitions thus share a single model, and a tenant whose definition differs,
+ * say, in the defuzzifier of a variable or a parameter of a set gets a model of its own that holds only
+ * the differing variables and sets, and shares the compiled rules and all the rest. Other sets and
+ * defuzzifiers are shared only as the same instances.
+ * <p>
+ * The registry reports the memory retained by each tenant, splitting the estimated size of every
+ * shared piece evenly between the tenants it serves. Looking up the model of a tenant does not lock;
+ * registering and unregistering tenants and the reports are serialized.
+ *
+ * @author sokolovic
+ */
+public class FuzzyRegistry {
+
+    /**
+     * Estimated size of the entry of a tenant, apart from its name: the entry of the map of the tenants.
+     */
+    protected static final long TENANT_ENTRY_SIZE = 32;
+
+    /**
+     * Whether the inferences of the models run code generated for them.
+     */
+    protected final boolean generated;
+
+    /**
+     * Definitions of the tenants keyed by the names of the tenants.
+     */
+    protected final ConcurrentHashMap<String, Definition> tenants;
+
+    /**
+     * Definitions of the models keyed by the pieces they are built of.
+     */
+    protected final Map<List<Object>, Definition> definitions;
+
+    /**
+     * Interned pieces of the definitions keyed by their content.
+     */
+    protected final Map<Object, Shared> pieces;
+
+    /**
+     * Estimator of the sizes of the pieces.
+     */
+    protected final MemoryEstimator estimator;
+
+    /**
+     * No-arg constructor. Initializes an empty registry of interpreted models.
+     */
+    public FuzzyRegistry() {
+        this(false);
+    }
+
+    /**
+     * Constructor to initialize an empty registry, optionally running the inferences of its models with
+     * code generated for them.
+     * @param generated Whether to generate the code of the inferences.
+     */
+    public FuzzyRegistry(boolean generated) {
+        this.generated = generated;
+        this.tenants = new ConcurrentHashMap<String, Definition>();
+        this.definitions = new HashMap<List<Object>, Definition>();
+        this.pieces = new HashMap<Object, Shared>();
+        this.estimator = new MemoryEstimator();
+    }
+
+    /**
+     * Method registers the controller of a tenant in its current state, replacing the one registered
+     * before, if any. Changes made to the controller afterwards are not reflected in the registry.
+     * @param tenant Name of the tenant.
+     * @param controller Controller of the tenant.
+     * @return Model of the tenant, possibly shared with other tenants.
+     * @throws IllegalArgumentException If a rule refers to a set that is not a member of any variable
+     *                                  of the controller, or contains a term that cannot be compiled.
+     */
+    public synchronized FuzzyModel register(String tenant, FuzzyController controller) {
+        FuzzyProgram compiled = FuzzyCompiler.compile(controller);
+        int setCount = 0;
+        for (FuzzyVariable variable : controller.getVariables().values()) {
+            setCount += variable.getSetCount();
+        }
+        if (setCount != compiled.getSetCount()) {
+            throw new IllegalArgumentException("A rule refers to a fuzzy set that is not a member of any " +
+                    "variable of the controller");
+        }
+
+        Set<Shared> used = new LinkedHashSet<Shared>();
+        List<Object> key = new ArrayList<Object>();
+        Map<String, FuzzyVariable> variables = new LinkedHashMap<String, FuzzyVariable>();
+        FuzzySet[] sets = new FuzzySet[setCount];
+        int slot = 0;
+        for (Map.Entry<String, FuzzyVariable> entry : controller.getVariables().entrySet()) {
+            FuzzyVariable variable = internVariable(entry.getValue(), used);
+            variables.put(entry.getKey(), variable);
+            key.add(entry.getKey());
+            key.add(variable);
+            for (int i = 0; i < variable.getSetCount(); i++) {
+                sets[slot++] = variable.getSet(i);
+            }
+        }
+
+        int[] consequentSlots = new int[compiled.getConsequentCount()];
+        for (int i = 0; i < consequentSlots.length; i++) {
+            consequentSlots[i] = compiled.getConsequentSlot(i);
+        }
+        Object[] arrays = {
+            compiled.getCode(), compiled.newSlots(), consequentSlots, compiled.getRuleOffsets(),
+            compiled.getAlwaysRules(), compiled.getKeySlots(), compiled.getKeyOffsets(), compiled.getKeyedRules()
+        };
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = internArray(arrays[i], used);
+            key.add(arrays[i]);
+        }
+
+        Definition definition = definitions.get(key);
+        if (definition == null) {
+            FuzzyProgram program = new FuzzyProgram((int[]) arrays[0], (double[]) arrays[1], sets,
+                    (int[]) arrays[2], (int[]) arrays[3], (int[]) arrays[4], (int[]) arrays[5], (int[]) arrays[6],
+                    (int[]) arrays[7]);
+            definition = new Definition(key, new FuzzyModel(program, variables, generated),
+                    used.toArray(new Shared[used.size()]));
+            definition.size = sizeOfModel(definition);
+            for (Shared piece : definition.pieces) {
+                piece.definitions++;
+            }
+            definitions.put(key, definition);
+        }
+
+        // Take the new definition before releasing the old one, which may be the same
+        definition.tenants++;
+        for (Shared piece : definition.pieces) {
+            piece.tenants++;
+        }
+        release(tenants.put(tenant, definition));
+        return definition.model;
+    }
+
+    /**
+     * Method unregisters a tenant, releasing the pieces of its definition no other tenant uses.
+     * @param tenant Name of the tenant.
+     * @return {@code true} if the tenant was registered.
+     */
+    public synchronized boolean unregister(String tenant) {
+        Definition definition = tenants.remove(tenant);
+
+        release(definition);
+        return definition != null;
+    }
+
+    /**
+     * Method releases a tenant of a definition, releasing the definition and the pieces no other
+     * definition uses along with the last tenant.
+     * @param definition Definition of the tenant, or {@code null}.
+     */
+    protected void release(Definition definition) {
+        if (definition == null) {
+            return;
+        }
+        definition.tenants--;
+        for (Shared piece : definition.pieces) {
+            piece.tenants--;
+        }
+        if (definition.tenants == 0) {
+            definitions.remove(definition.key);
+            for (Shared piece : definition.pieces) {
+                if (--piece.definitions == 0) {
+                    pieces.remove(piece.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method returns the model of a tenant.
+     * @param tenant Name of the tenant.
+     * @return Model of the tenant.
+     * @throws IllegalArgumentException If the tenant is not registered.
+     */
+    public FuzzyModel getModel(String tenant) {
+        Definition definition = tenants.get(tenant);
+
+        if (definition == null) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        return definition.model;
+    }
+
+    /**
+     * Getter to obtain the number of registered tenants.
+     * @return Number of tenants.
+     */
+    public int getTenantCount() {
+        return tenants.size();
+    }
+
+    /**
+     * Getter to obtain the number of distinct models of the tenants.
+     * @return Number of models.
+     */
+    public synchronized int getModelCount() {
+        return definitions.size();
+    }
+
+    /**
+     * Getter to obtain the number of distinct pieces the models are built of: sets, defuzzifiers,
+     * variables and arrays of the compiled rule bases.
+     * @return Number of pieces.
+     */
+    public synchronized int getPieceCount() {
+        return pieces.size();
+    }
+
+    /**
+     * Method estimates the memory retained by a tenant: the entry of the tenant and its share of its
+     * model and of every piece the model is built of, each split evenly between the tenants using it.
+     * The shares of all the tenants add up to the memory retained by the registry.
+     * @param tenant Name of the tenant.
+     * @return Estimated size in bytes.
+     * @throws IllegalArgumentException If the tenant is not registered.
+     */
+    public synchronized long getRetainedSize(String tenant) {
+        Definition definition = tenants.get(tenant);
+
+        if (definition == null) {
+            throw new IllegalArgumentException("Unknown tenant: " + tenant);
+        }
+        double size = (double) definition.size / definition.tenants;
+        for (Shared piece : definition.pieces) {
+            size += (double) piece.size / piece.tenants;
+        }
+        return sizeOfTenant(tenant) + Math.round(size);
+    }
+
+    /**
+     * Method estimates the memory retained by the registry: the entries of the tenants, the models and
+     * the pieces they are built of.
+     * @return Estimated size in bytes.
+     */
+    public synchronized long getRetainedSize() {
+        long size = 0;
+
+        for (String tenant : tenants.keySet()) {
+            size += sizeOfTenant(tenant);
+        }
+        for (Definition definition : definitions.values()) {
+            size += definition.size;
+        }
+        for (Shared piece : pieces.values()) {
+            size += piece.size;
+        }
+        return size;
+    }
+
+    /**
+     * Method interns a variable along with its member sets and defuzzifier.
+     * @param variable Variable to intern.
+     * @param used Pieces used by the definition being registered, to add the pieces of the variable to.
+     * @return The shared variable.
+     */
+    protected FuzzyVariable internVariable(FuzzyVariable variable, Set<Shared> used) {
+        List<Object> key = new ArrayList<Object>();
+        FuzzySet[] sets = new FuzzySet[variable.getSetCount()];
+        Shared defuzzifier = intern(variable.getDefuzzifier(), defuzzifierKey(variable.getDefuzzifier()), used);
+
+        key.add(variable.getMinRange());
+        key.add(variable.getMaxRange());
+        key.add(defuzzifier.value);
+        int i = 0;
+        for (Map.Entry<String, FuzzySet> entry : variable.getMembers().entrySet()) {
+            FuzzySet set = entry.getValue();
+            sets[i] = (FuzzySet) intern(set, setKey(set), used).value;
+            key.add(entry.getKey());
+            key.add(sets[i++]);
+        }
+
+        Shared shared = pieces.get(key);
+        if (shared == null) {
+            FuzzyVariable copy = new FuzzyVariable();
+            i = 0;
+            for (String name : variable.getMembers().keySet()) {
+                copy.addFuzzySet(name, sets[i++]);
+            }
+            copy.adjustRangeToFit(variable.getMinRange(), variable.getMaxRange());
+            copy.setDefuzzifier((Defuzzifier) defuzzifier.value);
+
+            // Build the pieces the models read, so they are sized with the variable
+            copy.getIndex();
+            copy.getMembershipTable();
+            copy.getAggregate();
+
+            IdentityHashMap<Object, Boolean> excluded = new IdentityHashMap<Object, Boolean>();
+            excluded.put(defuzzifier.value, Boolean.TRUE);
+            for (FuzzySet set : sets) {
+                excluded.put(set, Boolean.TRUE);
+            }
+            shared = new Shared(key, copy, estimator.sizeOf(copy, excluded));
+            pieces.put(key, shared);
+        }
+        used.add(shared);
+        return (FuzzyVariable) shared.value;
+    }
+
+    /**
+     * Method interns a set or a defuzzifier. A built-in one is keyed by its content and copied, so the
+     * registry does not retain the controller it comes from; any other one is keyed by its identity.
+     * @param value Set or defuzzifier to intern.
+     * @param key Key of the content of the value, or {@code null} if it is not a built-in one.
+     * @param used Pieces used by the definition being registered.
+     * @return The shared piece.
+     */
+    protected Shared intern(Object value, List<Object> key, Set<Shared> used) {
+        Object lookup = key == null ? new IdentityKey(value) : key;
+        Shared shared = pieces.get(lookup);
+
+        if (shared == null) {
+            Object copy = key == null ? value : copy(value);
+            shared = new Shared(lookup, copy, estimator.sizeOf(copy, new IdentityHashMap<Object, Boolean>()));
+            pieces.put(lookup, shared);
+        }
+        used.add(shared);
+        return shared;
+    }
+
+    /**
+     * Method interns an array of a compiled rule base by its content.
+     * @param array Array of ints or doubles, or {@code null}.
+     * @param used Pieces used by the definition being registered.
+     * @return The shared array, or {@code null}.
+     */
+    protected Object internArray(Object array, Set<Shared> used) {
+        if (array == null) {
+            return null;
+        }
+        ArrayKey key = new ArrayKey(array);
+        Shared shared = pieces.get(key);
+
+        if (shared == null) {
+            shared = new Shared(key, array, estimator.sizeOf(array, new IdentityHashMap<Object, Boolean>()));
+            pieces.put(key, shared);
+        }
+        used.add(shared);
+        return shared.value;
+    }
+
+    /**
+     * Method estimates the size of a new model, apart from the pieces it is built of.
+     * @param definition Definition of the model.
+     * @return Estimated size in bytes.
+     */
+    protected long sizeOfModel(Definition definition) {
+        IdentityHashMap<Object, Boolean> excluded = new IdentityHashMap<Object, Boolean>();
+
+        for (Shared piece : definition.pieces) {
+            excluded.put(piece.value, Boolean.TRUE);
+            if (piece.value instanceof FuzzyVariable) {
+                FuzzyVariable variable = (FuzzyVariable) piece.value;
+                excluded.put(variable.getIndex(), Boolean.TRUE);
+                excluded.put(variable.getMembershipTable(), Boolean.TRUE);
+                excluded.put(variable.getAggregate(), Boolean.TRUE);
+            }
+        }
+        return estimator.sizeOf(definition.model, excluded) + MemoryEstimator.align(definition.key.size() * 4L + 40);
+    }
+
+    /**
+     * Method estimates the size of the entry of a tenant.
+     * @param tenant Name of the tenant.
+     * @return Estimated size in bytes.
+     */
+    protected long sizeOfTenant(String tenant) {
+        return TENANT_ENTRY_SIZE + estimator.sizeOf(tenant, new IdentityHashMap<Object, Boolean>());
+    }
+
+    /**
+     * Method returns the key of the content of a built-in set.
+     * @param set Fuzzy set.
+     * @return Key of the set, or {@code null} if it is not a built-in one.
+     */
+    protected static List<Object> setKey(FuzzySet set) {
+        if (set.getClass() == TriangularFuzzySet.class) {
+            TriangularFuzzySet triangle = (TriangularFuzzySet) set;
+            return Arrays.<Object>asList(set.getClass(), triangle.getPeak(), triangle.getLeftOffset(),
+                    triangle.getRightOffset());
+        }
+        if (set.getClass() == LeftShoulderFuzzySet.class) {
+            LeftShoulderFuzzySet shoulder = (LeftShoulderFuzzySet) set;
+            return Arrays.<Object>asList(set.getClass(), shoulder.getPeak(), shoulder.getLeftOffset(),
+                    shoulder.getRightOffset());
+        }
+        if (set.getClass() == RightShoulderFuzzySet.class) {
+            RightShoulderFuzzySet shoulder = (RightShoulderFuzzySet) set;
+            return Arrays.<Object>asList(set.getClass(), shoulder.getPeak(), shoulder.getLeftOffset(),
+                    shoulder.getRightOffset());
+        }
+        return null;
+    }
+
+    /**
+     * Method returns the key of the content of a built-in defuzzifier.
+     * @param defuzzifier Defuzzifier.
+     * @return Key of the defuzzifier, or {@code null} if it is not a built-in one.
+     */
+    protected static List<Object> defuzzifierKey(Defuzzifier defuzzifier) {
+        Class<?> type = defuzzifier.getClass();
+
+        if (type == WeightedAverageDefuzzifier.class) {
+            return Arrays.<Object>asList(type);
+        }
+        if (type == CentroidDefuzzifier.class || type == BisectorDefuzzifier.class ||
+                type == MeanOfMaximaDefuzzifier.class || type == SmallestOfMaximaDefuzzifier.class ||
+                type == LargestOfMaximaDefuzzifier.class) {
+            return Arrays.<Object>asList(type, ((ShapeDefuzzifier) defuzzifier).getSamples());
+        }
+        return null;
+    }
+
+    /**
+     * Method copies a built-in set or defuzzifier.
+     * @param value Set or defuzzifier with a key.
+     * @return A new instance with the same content.
+     */
+    protected static Object copy(Object value) {
+        if (value instanceof TriangularFuzzySet) {
+            TriangularFuzzySet set = (TriangularFuzzySet) value;
+            return new TriangularFuzzySet(set.getPeak(), set.getLeftOffset(), set.getRightOffset());
+        }
+        if (value instanceof LeftShoulderFuzzySet) {
+            LeftShoulderFuzzySet set = (LeftShoulderFuzzySet) value;
+            return new LeftShoulderFuzzySet(set.getPeak(), set.getLeftOffset(), set.getRightOffset());
+        }
+        if (value instanceof RightShoulderFuzzySet) {
+            RightShoulderFuzzySet set = (RightShoulderFuzzySet) value;
+            return new RightShoulderFuzzySet(set.getPeak(), set.getLeftOffset(), set.getRightOffset());
+        }
+        if (value instanceof WeightedAverageDefuzzifier) {
+            return new WeightedAverageDefuzzifier();
+        }
+        int samples = ((ShapeDefuzzifier) value).getSamples();
+        if (value instanceof CentroidDefuzzifier) {
+            return new CentroidDefuzzifier(samples);
+        }
+        if (value instanceof BisectorDefuzzifier) {
+            return new BisectorDefuzzifier(samples);
+        }
+        if (value instanceof MeanOfMaximaDefuzzifier) {
+            return new MeanOfMaximaDefuzzifier(samples);
+        }
+        if (value instanceof SmallestOfMaximaDefuzzifier) {
+            return new SmallestOfMaximaDefuzzifier(samples);
+        }
+        return new LargestOfMaximaDefuzzifier(samples);
+    }
+
+    /**
+     * Class holds an interned piece of the definitions with the counts of its users.
+     */
+    protected static class Shared {
+
+        /**
+         * Key the piece is interned by.
+         */
+        protected final Object key;
+
+        /**
+         * The piece.
+         */
+        protected final Object value;
+
+        /**
+         * Estimated size of the piece in bytes.
+         */
+        protected final long size;
+
+        /**
+         * Number of the definitions of models built of the piece.
+         */
+        protected int definitions;
+
+        /**
+         * Number of the tenants whose models are built of the piece.
+         */
+        protected int tenants;
+
+        /**
+         * Constructor to initialize the piece.
+         * @param key Key the piece is interned by.
+         * @param value The piece.
+         * @param size Estimated size of the piece in bytes.
+         */
+        protected Shared(Object key, Object value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Class holds the definition of a model with the pieces it is built of.
+     */
+    protected static class Definition {
+
+        /**
+         * Key the definition is interned by.
+         */
+        protected final List<Object> key;
+
+        /**
+         * Model of the definition.
+         */
+        protected final FuzzyModel model;
+
+        /**
+         * Distinct pieces the model is built of.
+         */
+        protected final Shared[] pieces;
+
+        /**
+         * Estimated size of the model apart from its pieces, in bytes.
+         */
+        protected long size;
+
+        /**
+         * Number of the tenants of the model.
+         */
+        protected int tenants;
+
+        /**
+         * Constructor to initialize the definition.
+         * @param key Key the definition is interned by.
+         * @param model Model of the definition.
+         * @param pieces Distinct pieces the model is built of.
+         */
+        protected Definition(List<Object> key, FuzzyModel model, Shared[] pieces) {
+            this.key = key;
+            this.model = model;
+            this.pieces = pieces;
+        }
+    }
+
+    /**
+     * Class keys an object by its identity.
+     */
+    protected static class IdentityKey {
+
+        /**
+         * The object.
+         */
+        protected final Object value;
+
+        /**
+         * Constructor to initialize the key of the given object.
+         * @param value The object.
+         */
+        protected IdentityKey(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey && ((IdentityKey) other).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+
+    /**
+     * Class keys an array of ints or doubles by its content.
+     */
+    protected static class ArrayKey {
+
+        /**
+         * The array.
+         */
+        protected final Object array;
+
+        /**
+         * Hash code of the content of the array.
+         */
+        protected final int hash;
+
+        /**
+         * Constructor to initialize the key of the given array.
+         * @param array Array of ints or doubles.
+         */
+        protected ArrayKey(Object array) {
+            this.array = array;
+            this.hash = array instanceof int[] ? Arrays.hashCode((int[]) array) : 31 * Arrays.hashCode((double[]) array);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ArrayKey) || ((ArrayKey) other).hash != hash) {
+                return false;
+            }
+            Object that = ((ArrayKey) other).array;
+            if (array instanceof int[]) {
+                return that instanceof int[] && Arrays.equals((int[]) array, (int[]) that);
+            }
+            return that instanceof double[] && Arrays.equals((double[]) array, (double[]) that);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
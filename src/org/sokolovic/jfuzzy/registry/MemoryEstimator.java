@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.registry;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class estimates the memory retained by graphs of the objects of the library. The sizes follow the
+ * layout of a 64-bit virtual machine with compressed references: 12-byte object headers, 16-byte array
+ * headers, 4-byte references and every object padded to a multiple of 8 bytes.
+ * <p>
+ * The fields of the classes of the library are read reflectively. The classes of the platform are not
+ * looked into: strings, boxed values, maps and collections are sized from their length or size,
+ * following the layout of their usual implementations, and their elements are followed; classes and
+ * enumeration constants are shared by the whole virtual machine and cost nothing. The estimates are
+ * meant to compare controllers and tenants with each other, not to match a heap dump to the byte.
+ *
+ * @author sokolovic
+ */
+public class MemoryEstimator {
+
+    /**
+     * Size of an object header.
+     */
+    public static final int OBJECT_HEADER = 12;
+
+    /**
+     * Size of an array header.
+     */
+    public static final int ARRAY_HEADER = 16;
+
+    /**
+     * Size of a reference.
+     */
+    public static final int REFERENCE = 4;
+
+    /**
+     * Prefix of the names of the classes whose fields are read reflectively.
+     */
+    protected static final String LIBRARY_PACKAGE = "org.sokolovic.jfuzzy.";
+
+    /**
+     * Instance fields of the classes of the library, cached per class.
+     */
+    protected final Map<Class<?>, Field[]> fields;
+
+    /**
+     * Shallow sizes of the instances of the classes of the library, cached per class.
+     */
+    protected final Map<Class<?>, Long> shallowSizes;
+
+    /**
+     * No-arg constructor. Initializes an estimator with empty caches.
+     */
+    public MemoryEstimator() {
+        this.fields = new HashMap<Class<?>, Field[]>();
+        this.shallowSizes = new HashMap<Class<?>, Long>();
+    }
+
+    /**
+     * Method estimates the memory retained by the given object and everything reachable from it, except
+     * the objects in the given set, which are neither counted nor followed. The objects visited are added
+     * to the set, so sizing several roots with the same set counts each object once.
+     * @param root Object to size, or {@code null}.
+     * @param visited Objects not to count, keyed by identity; receives the objects counted.
+     * @return Estimated size in bytes.
+     */
+    public long sizeOf(Object root, IdentityHashMap<Object, Boolean> visited) {
+        List<Object> stack = new ArrayList<Object>();
+        long size = 0;
+
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Object object = stack.remove(stack.size() - 1);
+            if (object == null || visited.containsKey(object)) {
+                continue;
+            }
+            visited.put(object, Boolean.TRUE);
+            size += shallowSizeOf(object, stack);
+        }
+        return size;
+    }
+
+    /**
+     * Method estimates the size of a single object and pushes the objects it refers to.
+     * @param object Object to size.
+     * @param stack Stack to push the referenced objects onto.
+     * @return Estimated size of the object in bytes.
+     */
+    protected long shallowSizeOf(Object object, List<Object> stack) {
+        Class<?> type = object.getClass();
+
+        if (type.isArray()) {
+            int length = Array.getLength(object);
+            Class<?> component = type.getComponentType();
+            if (!component.isPrimitive()) {
+                Object[] elements = (Object[]) object;
+                for (int i = 0; i < length; i++) {
+                    stack.add(elements[i]);
+                }
+            }
+            return align(ARRAY_HEADER + (long) length * sizeOfType(component));
+        }
+        if (type.getName().startsWith(LIBRARY_PACKAGE)) {
+            for (Field field : fieldsOf(type)) {
+                if (!field.getType().isPrimitive()) {
+                    try {
+                        stack.add(field.get(object));
+                    }
+                    catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Cannot read " + field, e);
+                    }
+                }
+            }
+            return shallowSizeOfClass(type);
+        }
+        if (object instanceof String) {
+            // A string and its array of Latin-1 bytes
+            return align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + ((String) object).length());
+        }
+        if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+            return align(OBJECT_HEADER + 8);
+        }
+        if (object instanceof Class || object instanceof Enum) {
+            return 0;
+        }
+        if (object instanceof Map) {
+            // A hash map with its table and an entry per mapping
+            Map<?, ?> map = (Map<?, ?>) object;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                stack.add(entry.getKey());
+                stack.add(entry.getValue());
+            }
+            return align(OBJECT_HEADER + 36) + align(ARRAY_HEADER + 2L * map.size() * REFERENCE) +
+                   map.size() * align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+        }
+        if (object instanceof Collection) {
+            // An array list with its backing array
+            Collection<?> collection = (Collection<?>) object;
+            stack.addAll(collection);
+            return align(OBJECT_HEADER + 8 + REFERENCE) + align(ARRAY_HEADER + (long) collection.size() * REFERENCE);
+        }
+        return align(OBJECT_HEADER);
+    }
+
+    /**
+     * Method returns the instance fields of a class of the library and of its superclasses.
+     * @param type Class of the library.
+     * @return Accessible instance fields.
+     */
+    protected Field[] fieldsOf(Class<?> type) {
+        Field[] cached = fields.get(type);
+
+        if (cached == null) {
+            List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            cached = list.toArray(new Field[list.size()]);
+            fields.put(type, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Method returns the shallow size of the instances of a class of the library.
+     * @param type Class of the library.
+     * @return Size of an instance in bytes.
+     */
+    protected long shallowSizeOfClass(Class<?> type) {
+        Long cached = shallowSizes.get(type);
+
+        if (cached == null) {
+            long size = OBJECT_HEADER;
+            for (Field field : fieldsOf(type)) {
+                size += sizeOfType(field.getType());
+            }
+            cached = align(size);
+            shallowSizes.put(type, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Method returns the size a field or an array element of the given type takes.
+     * @param type Type of the field or the element.
+     * @return Size in bytes.
+     */
+    protected static int sizeOfType(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    /**
+     * Method pads a size to a multiple of 8 bytes.
+     * @param size Size in bytes.
+     * @return Padded size.
+     */
+    protected static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+}
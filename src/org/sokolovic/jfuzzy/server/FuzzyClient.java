@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package org.sokolovic.jfuzzy.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Class connects to a {@code FuzzyServer} and runs the inferences of its models over a single connection.
+ * The requests of a client are sent one at a time, so a client must not be used by more than one
+ * thread at a time; threads running requests concurrently should use clients of their own, whose
+ * requests the server coalesces into micro-batches.
+ * <p>
+ * A request the server answers with a status other than {@code OK} fails with an
+ * {@code IllegalArgumentException}, or an {@code IllegalStateException} if its inferences failed,
+ * holding the message of the server. The connection stays usable unless the request was malformed.
+ *
+ * @author sokolovic
+ * @see FuzzyServer
+ */
+public class FuzzyClient implements Closeable {
+
+    /**
+     * The socket of the connection.
+     */
+    protected final Socket socket;
+
+    /**
+     * Stream of the responses.
+     */
+    protected final DataInputStream in;
+
+    /**
+     * Stream of the requests.
+     */
+    protected final DataOutputStream out;
+
+    /**
+     * Buffer of the encoded values.
+     */
+    protected byte[] bytes;
+
+    /**
+     * Constructor to connect the client to the server on the given host and port.
+     * @param host Host of the server.
+     * @param port Port of the server.
+     * @throws IOException If the connection cannot be established.
+     */
+    public FuzzyClient(String host, int port) throws IOException {
+        this(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Constructor to connect the client to the server on the given address.
+     * @param address Address of the server.
+     * @throws IOException If the connection cannot be established.
+     */
+    public FuzzyClient(InetSocketAddress address) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.bytes = new byte[0];
+    }
+
+    /**
+     * Method gets the names of the variables of a model.
+     * @param name Name of the model.
+     * @return Two arrays: the names of the input variables and the names of the output variables.
+     * @throws IOException If the request cannot be sent or the response received.
+     * @throws IllegalArgumentException If no model is loaded under the name.
+     */
+    public String[][] describe(String name) throws IOException {
+        out.writeByte(FuzzyServer.DESCRIBE);
+        out.writeUTF(name);
+        out.flush();
+
+        readStatus();
+        return new String[][] { readNames(), readNames() };
+    }
+
+    /**
+     * Method runs the inference of a single record.
+     * @param name Name of the model.
+     * @param inputValues Values of the input variables, in the order the model describes them.
+     * @return Crisp values of the output variables, in the order the model describes them.
+     * @throws IOException If the request cannot be sent or the response received.
+     * @throws IllegalArgumentException If no model is loaded under the name or the number of values is wrong.
+     * @throws IllegalStateException If the inference failed.
+     */
+    public double[] infer(String name, double... inputValues) throws IOException {
+        int width = send(name, inputValues, 1);
+        double[] outputValues = new double[width];
+
+        readValues(outputValues, width);
+        return outputValues;
+    }
+
+    /**
+     * Method runs the inferences of records stored row-wise: the values of the input variables of a
+     * record follow the values of the previous record, and so do the crisp values of the output variables.
+     * @param name Name of the model.
+     * @param inputValues Values of the input variables of the records.
+     * @param outputValues Array to store the crisp values of the output variables of the records into.
+     * @param count Number of records.
+     * @throws IOException If the request cannot be sent or the response received.
+     * @throws IllegalArgumentException If no model is loaded under the name, the number of values is
+     *                                  wrong or the output array is too short.
+     * @throws IllegalStateException If the inferences failed.
+     */
+    public void infer(String name, double[] inputValues, double[] outputValues, int count) throws IOException {
+        if (count < 1 || inputValues.length % count != 0) {
+            throw new IllegalArgumentException("Expected the values of " + count + " records");
+        }
+
+        int width = send(name, inputValues, count);
+        if (outputValues.length < count * width) {
+            // Consume the response, so the connection stays usable
+            readValues(new double[count * width], count * width);
+            throw new IllegalArgumentException("Expected room for " + count * width + " output values");
+        }
+        readValues(outputValues, count * width);
+    }
+
+    /**
+     * Method closes the connection.
+     * @throws IOException If the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    /**
+     * Method sends an {@code INFER} request and reads the response up to the output values.
+     * @param name Name of the model.
+     * @param inputValues Values of the input variables of the records.
+     * @param count Number of records.
+     * @return Number of output values of a record.
+     * @throws IOException If the request cannot be sent or the response received.
+     */
+    protected int send(String name, double[] inputValues, int count) throws IOException {
+        int values = inputValues.length;
+
+        out.writeByte(FuzzyServer.INFER);
+        out.writeUTF(name);
+        out.writeInt(count);
+        out.writeShort(values / count);
+        if (bytes.length < 8 * values) {
+            bytes = new byte[8 * values];
+        }
+        ByteBuffer.wrap(bytes).asDoubleBuffer().put(inputValues, 0, values);
+        out.write(bytes, 0, 8 * values);
+        out.flush();
+
+        readStatus();
+        return in.readUnsignedShort();
+    }
+
+    /**
+     * Method reads values of a response.
+     * @param values Array to store the values into.
+     * @param count Number of values.
+     * @throws IOException If the values cannot be received.
+     */
+    protected void readValues(double[] values, int count) throws IOException {
+        if (bytes.length < 8 * count) {
+            bytes = new byte[8 * count];
+        }
+        in.readFully(bytes, 0, 8 * count);
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(values, 0, count);
+    }
+
+    /**
+     * Method reads a number of names followed by the names.
+     * @return The names.
+     * @throws IOException If the names cannot be received.
+     */
+    protected String[] readNames() throws IOException {
+        String[] names = new String[in.readUnsignedShort()];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    /**
+     * Method reads the status of a response and fails if it is not {@code OK}.
+     * @throws IOException If the status cannot be received.
+     * @throws IllegalArgumentException If the model is not loaded or the request was malformed.
+     * @throws IllegalStateException If the inferences failed.
+     */
+    protected void readStatus() throws IOException {
+        int status = in.readUnsignedByte();
+
+        if (status == FuzzyServer.OK) {
+            return;
+        }
+        String message = in.readUTF();
+        if (status == FuzzyServer.FAILED) {
+            throw new IllegalStateException(message);
+        }
+        throw new IllegalArgumentException(message);
+    }
+
+}
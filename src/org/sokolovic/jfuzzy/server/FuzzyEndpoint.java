@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package org.sokolovic.jfuzzy.server;
+
+import org.sokolovic.jfuzzy.FuzzyBatch;
+import org.sokolovic.jfuzzy.FuzzyModel;
+
+/**
+ * Class serves the inferences of a model to any number of concurrent callers, coalescing the records
+ * of the calls that arrive together into micro-batches run through a {@code FuzzyBatch}. A call adds its
+ * records to the batch being gathered; if no batch is running, the calling thread takes the batch and
+ * runs it at once. The calls arriving meanwhile gather the next batch and wait, and once the running
+ * batch is done one of them is woken to run the batch they gathered. No thread runs the batches but the
+ * callers, so a lone caller runs its records right away, while under contention each batch holds the
+ * records of all the calls that arrived while the previous one ran, up to the largest size of a batch.
+ * A call whose records do not fit into the batch being gathered waits until that batch starts to run
+ * and then gathers the next one, so the callers are slowed down to the pace of the inferences instead
+ * of queueing records without bound. A call larger than a whole batch runs in a batch of its own.
+ * <p>
+ * The results are the same as running each record through a {@code FuzzyContext}.
+ *
+ * @author sokolovic
+ */
+public class FuzzyEndpoint {
+
+    /**
+     * Initial number of records a batch has room for.
+     */
+    protected static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Default largest number of records of a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1 << 16;
+
+    /**
+     * The model to run the inferences on.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Names of the input variables.
+     */
+    protected final String[] inputNames;
+
+    /**
+     * Names of the output variables.
+     */
+    protected final String[] outputNames;
+
+    /**
+     * Runner of the batches, used by one thread at a time.
+     */
+    protected final FuzzyBatch runner;
+
+    /**
+     * Largest number of records of a batch, unless a single call brings more.
+     */
+    protected final int maxBatchSize;
+
+    /**
+     * The batch gathering the arriving records, or {@code null}.
+     */
+    protected Batch current;
+
+    /**
+     * The gathered batch whose callers are to run it, or {@code null}.
+     */
+    protected Batch promoted;
+
+    /**
+     * Whether a batch is running or about to run.
+     */
+    protected boolean running;
+
+    /**
+     * Number of batches run.
+     */
+    protected long batchCount;
+
+    /**
+     * Number of records run.
+     */
+    protected long recordCount;
+
+    /**
+     * Constructor to initialize the endpoint of the given model with the default largest size of a batch.
+     * @param model Model to run the inferences on.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @throws IllegalArgumentException If a variable is unknown or there are no output variables.
+     */
+    public FuzzyEndpoint(FuzzyModel model, String[] inputNames, String[] outputNames) {
+        this(model, inputNames, outputNames, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor to initialize the endpoint of the given model.
+     * @param model Model to run the inferences on.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @param maxBatchSize Largest number of records of a batch, unless a single call brings more.
+     * @throws IllegalArgumentException If a variable is unknown, there are no output variables or the
+     *                                  size of a batch is not positive.
+     */
+    public FuzzyEndpoint(FuzzyModel model, String[] inputNames, String[] outputNames, int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Invalid size of a batch: " + maxBatchSize);
+        }
+        if (outputNames.length == 0) {
+            throw new IllegalArgumentException("At least one output variable is required");
+        }
+        int[] inputs = new int[inputNames.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = model.getVariableIndex(inputNames[i]);
+        }
+        int[] outputs = new int[outputNames.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = model.getVariableIndex(outputNames[i]);
+        }
+
+        this.model = model;
+        this.inputNames = inputNames.clone();
+        this.outputNames = outputNames.clone();
+        this.runner = new FuzzyBatch(model, inputs, outputs);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Getter method to get the model the inferences are run on.
+     * @return The model.
+     */
+    public FuzzyModel getModel() {
+        return model;
+    }
+
+    /**
+     * Getter method to get the names of the input variables.
+     * @return Names of the input variables.
+     */
+    public String[] getInputNames() {
+        return inputNames.clone();
+    }
+
+    /**
+     * Getter method to get the names of the output variables.
+     * @return Names of the output variables.
+     */
+    public String[] getOutputNames() {
+        return outputNames.clone();
+    }
+
+    /**
+     * Getter method to get the number of input variables.
+     * @return Number of input variables.
+     */
+    public int getInputCount() {
+        return inputNames.length;
+    }
+
+    /**
+     * Getter method to get the number of output variables.
+     * @return Number of output variables.
+     */
+    public int getOutputCount() {
+        return outputNames.length;
+    }
+
+    /**
+     * Getter method to get the largest number of records of a batch, unless a single call brings more.
+     * @return Largest size of a batch.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Getter method to get the number of batches run so far.
+     * @return Number of batches.
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Getter method to get the number of records run so far.
+     * @return Number of records.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Method runs the inferences of the given records, waiting for the batch they are coalesced into.
+     * The records are stored row-wise: the values of the input variables of a record, in the order of
+     * the input names, follow the values of the previous record, and so do the crisp values of the
+     * output variables. If the batch being gathered is full, the call waits for it to start running.
+     * @param inputValues Values of the input variables of the records.
+     * @param outputValues Array to store the crisp values of the output variables of the records into.
+     * @param count Number of records.
+     * @throws IllegalArgumentException If the arrays are too short for the records.
+     * @throws IllegalStateException If the inferences of the batch failed.
+     */
+    public void infer(double[] inputValues, double[] outputValues, int count) {
+        if (count < 0 || inputValues.length < (long) count * inputNames.length
+                || outputValues.length < (long) count * outputNames.length) {
+            throw new IllegalArgumentException("Expected " + count + " records of " + inputNames.length +
+                    " inputs and " + outputNames.length + " outputs");
+        }
+        if (count == 0) {
+            return;
+        }
+
+        Batch batch;
+        int offset;
+        boolean leader;
+        boolean interrupted = false;
+        synchronized (this) {
+            // The records are not added yet, but an interrupt still cannot cut the wait short
+            while (current != null && current.size > 0 && current.size > maxBatchSize - count) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (current == null) {
+                current = new Batch();
+            }
+            batch = current;
+            offset = batch.add(inputValues, count);
+
+            if (!running) {
+                running = true;
+                current = null;
+            }
+            else {
+                // The records stay in the batch either way, so an interrupt cannot cut the wait short
+                while (!batch.done && promoted != batch) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (promoted == batch) {
+                    promoted = null;
+                }
+            }
+            leader = !batch.done;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (leader) {
+            run(batch);
+        }
+        if (batch.failure != null) {
+            throw new IllegalStateException("The inferences of the batch failed", batch.failure);
+        }
+        batch.output(offset, count, outputValues);
+    }
+
+    /**
+     * Method runs the inferences of the given batch, then promotes the batch gathered meanwhile.
+     * @param batch Batch to run.
+     */
+    protected void run(Batch batch) {
+        Throwable failure = null;
+
+        try {
+            runner.run(batch.inputColumns, batch.outputColumns, 0, batch.size);
+        }
+        catch (Throwable t) {
+            failure = t;
+        }
+
+        synchronized (this) {
+            batch.failure = failure;
+            batch.done = true;
+            batchCount++;
+            recordCount += batch.size;
+
+            if (current != null) {
+                promoted = current;
+                current = null;
+            }
+            else {
+                running = false;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Micro-batch of records, stored column-wise.
+     */
+    protected class Batch {
+
+        /**
+         * Input columns, one per input variable.
+         */
+        protected double[][] inputColumns;
+
+        /**
+         * Output columns, one per output variable.
+         */
+        protected double[][] outputColumns;
+
+        /**
+         * Number of records of the batch.
+         */
+        protected int size;
+
+        /**
+         * Whether the inferences of the batch have run.
+         */
+        protected boolean done;
+
+        /**
+         * The failure of the inferences of the batch, or {@code null}.
+         */
+        protected Throwable failure;
+
+        /**
+         * Constructor to initialize an empty batch.
+         */
+        protected Batch() {
+            this.inputColumns = new double[inputNames.length][INITIAL_CAPACITY];
+            this.outputColumns = new double[outputNames.length][INITIAL_CAPACITY];
+        }
+
+        /**
+         * Method adds records to the batch, growing its columns as needed.
+         * @param values Values of the input variables of the records, stored row-wise.
+         * @param count Number of records.
+         * @return Index of the first added record.
+         */
+        protected int add(double[] values, int count) {
+            int capacity = outputColumns[0].length;
+            if (size + count > capacity) {
+                capacity = Math.max((int) Math.min(2L * capacity, maxBatchSize), size + count);
+                inputColumns = grow(inputColumns, capacity);
+                outputColumns = grow(outputColumns, capacity);
+            }
+
+            int width = inputColumns.length;
+            for (int r = 0; r < count; r++) {
+                for (int v = 0; v < width; v++) {
+                    inputColumns[v][size + r] = values[r * width + v];
+                }
+            }
+
+            int offset = size;
+            size += count;
+            return offset;
+        }
+
+        /**
+         * Method copies the crisp values of the output variables of records of the batch.
+         * @param offset Index of the first record.
+         * @param count Number of records.
+         * @param values Array to store the values into, row-wise.
+         */
+        protected void output(int offset, int count, double[] values) {
+            int width = outputColumns.length;
+            for (int r = 0; r < count; r++) {
+                for (int v = 0; v < width; v++) {
+                    values[r * width + v] = outputColumns[v][offset + r];
+                }
+            }
+        }
+
+        /**
+         * Method copies columns into larger ones.
+         * @param columns Columns to grow.
+         * @param capacity Length of the new columns.
+         * @return The new columns.
+         */
+        protected double[][] grow(double[][] columns, int capacity) {
+            double[][] grown = new double[columns.length][];
+            for (int c = 0; c < columns.length; c++) {
+                grown[c] = new double[capacity];
+                System.arraycopy(columns[c], 0, grown[c], 0, size);
+            }
+            return grown;
+        }
+
+    }
+
+}
@@ -0,0 +1,595 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package org.sokolovic.jfuzzy.server;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class serves the inferences of named models over TCP with a compact binary protocol. Each model is
+ * served by a {@code FuzzyEndpoint}, so the records of concurrent requests to the same model are
+ * coalesced into micro-batches. The models can be loaded, replaced and unloaded by name at any time:
+ * the requests that already found the previous model complete on it, and the later ones run on the
+ * new one.
+ * <p>
+ * Every connection is served by a task of the executor of the server, which reads a request, runs
+ * it and writes the response before reading the next one, so a client can pipeline its requests. By
+ * default the tasks run on virtual threads when the Java runtime has them and on a cached pool of
+ * daemon threads otherwise. The protocol is made of the following messages, with the numbers in the
+ * big-endian order and the names in the modified UTF-8 of {@code DataOutput.writeUTF()}:
+ * <ul>
+ * <li>{@code DESCRIBE}: the operation byte and the name of the model; answered by the status byte, the
+ * number of the input variables as a short followed by their names, and the number of the output
+ * variables as a short followed by their names;</li>
+ * <li>{@code INFER}: the operation byte, the name of the model, the number of records as an int, the
+ * number of input values of a record as a short and the input values of the records as doubles, record
+ * by record; answered by the status byte, the number of output values of a record as a short and the
+ * output values of the records as doubles, record by record.</li>
+ * </ul>
+ * A status other than {@code OK} is followed only by a message. A malformed request is answered with
+ * {@code BAD_REQUEST} and the connection is closed.
+ *
+ * @author sokolovic
+ */
+public class FuzzyServer implements Closeable {
+
+    /**
+     * Operation describing the variables of a model.
+     */
+    public static final int DESCRIBE = 1;
+
+    /**
+     * Operation running the inferences of records.
+     */
+    public static final int INFER = 2;
+
+    /**
+     * Status of a request that succeeded.
+     */
+    public static final int OK = 0;
+
+    /**
+     * Status of a request to a model that is not loaded.
+     */
+    public static final int NOT_FOUND = 1;
+
+    /**
+     * Status of a malformed request.
+     */
+    public static final int BAD_REQUEST = 2;
+
+    /**
+     * Status of a request whose inferences failed.
+     */
+    public static final int FAILED = 3;
+
+    /**
+     * The largest number of records, and of input values, of a request.
+     */
+    public static final int MAX_VALUES = 1 << 20;
+
+    /**
+     * Pause after the first of consecutive failures to accept a connection, in milliseconds.
+     */
+    protected static final long MIN_ACCEPT_BACKOFF = 1;
+
+    /**
+     * Longest pause between consecutive failures to accept a connection, in milliseconds.
+     */
+    protected static final long MAX_ACCEPT_BACKOFF = 1000;
+
+    /**
+     * Address to listen on.
+     */
+    protected final InetSocketAddress address;
+
+    /**
+     * Executor running the connections.
+     */
+    protected final ExecutorService executor;
+
+    /**
+     * Whether the executor was created by the server and is shut down with it.
+     */
+    protected final boolean ownsExecutor;
+
+    /**
+     * Endpoints of the loaded models keyed by their names.
+     */
+    protected final ConcurrentHashMap<String, FuzzyEndpoint> endpoints;
+
+    /**
+     * The open connections.
+     */
+    protected final Set<Socket> connections;
+
+    /**
+     * The listening socket, or {@code null} until started.
+     */
+    protected volatile ServerSocket serverSocket;
+
+    /**
+     * Whether the server is closed.
+     */
+    protected volatile boolean closed;
+
+    /**
+     * Constructor to initialize the server listening on an ephemeral port of the loopback address.
+     */
+    public FuzzyServer() {
+        this(0);
+    }
+
+    /**
+     * Constructor to initialize the server listening on the given port of the loopback address.
+     * @param port Port to listen on, or 0 for an ephemeral port.
+     */
+    public FuzzyServer(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), null);
+    }
+
+    /**
+     * Constructor to initialize the server.
+     * @param address Address to listen on.
+     * @param executor Executor to run the connections in, or {@code null} for the default one. Each
+     *                 connection, as well as accepting them, occupies a task of the executor while open.
+     */
+    public FuzzyServer(InetSocketAddress address, ExecutorService executor) {
+        this.address = address;
+        this.executor = executor != null ? executor : newExecutor();
+        this.ownsExecutor = executor == null;
+        this.endpoints = new ConcurrentHashMap<String, FuzzyEndpoint>();
+        this.connections = ConcurrentHashMap.<Socket>newKeySet();
+    }
+
+    /**
+     * Method loads the model of the given controller under the given name, replacing the model loaded
+     * under that name, if any.
+     * @param name Name of the model.
+     * @param controller Controller to serve. Its model is created once, so later changes of the
+     *                   controller do not affect the server.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @return Endpoint serving the model.
+     * @throws IllegalArgumentException If a variable is unknown or there are no output variables.
+     */
+    public FuzzyEndpoint load(String name, FuzzyController controller, String[] inputNames, String[] outputNames) {
+        return load(name, controller.createModel(), inputNames, outputNames);
+    }
+
+    /**
+     * Method loads the given model under the given name, replacing the model loaded under that name,
+     * if any.
+     * @param name Name of the model.
+     * @param model Model to serve.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @return Endpoint serving the model.
+     * @throws IllegalArgumentException If a variable is unknown or there are no output variables.
+     */
+    public FuzzyEndpoint load(String name, FuzzyModel model, String[] inputNames, String[] outputNames) {
+        FuzzyEndpoint endpoint = new FuzzyEndpoint(model, inputNames, outputNames);
+
+        endpoints.put(name, endpoint);
+        return endpoint;
+    }
+
+    /**
+     * Method unloads the model loaded under the given name.
+     * @param name Name of the model.
+     * @return Whether a model was loaded under the name.
+     */
+    public boolean unload(String name) {
+        return endpoints.remove(name) != null;
+    }
+
+    /**
+     * Getter method to get the endpoint of the model loaded under the given name.
+     * @param name Name of the model.
+     * @return The endpoint, or {@code null} if no model is loaded under the name.
+     */
+    public FuzzyEndpoint getEndpoint(String name) {
+        return endpoints.get(name);
+    }
+
+    /**
+     * Getter method to get the address the server listens on.
+     * @return The bound address once started, otherwise the address to listen on.
+     */
+    public InetSocketAddress getAddress() {
+        ServerSocket socket = serverSocket;
+
+        return socket != null ? (InetSocketAddress) socket.getLocalSocketAddress() : address;
+    }
+
+    /**
+     * Method binds the server to its address and starts accepting connections.
+     * @throws IOException If the address cannot be bound.
+     * @throws IllegalStateException If the server is already started or closed.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null || closed) {
+            throw new IllegalStateException("The server is already started or closed");
+        }
+
+        final ServerSocket socket = new ServerSocket();
+        try {
+            socket.bind(address);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    accept(socket);
+                }
+            });
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        catch (RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+        serverSocket = socket;
+    }
+
+    /**
+     * Method stops accepting connections and closes the open ones. The executor is shut down if it
+     * was created by the server.
+     * @throws IOException If the listening socket cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        }
+        finally {
+            for (Socket connection : connections) {
+                closeQuietly(connection);
+            }
+            if (ownsExecutor) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Method accepts connections until the server is closed. After a failure to accept a connection,
+     * such as when the process is out of file descriptors, the method pauses before the next attempt,
+     * doubling the pause on each consecutive failure, so as not to spin while the failure lasts.
+     * @param socket The listening socket.
+     */
+    protected void accept(ServerSocket socket) {
+        long backoff = 0;
+        while (!closed) {
+            Socket connection;
+            try {
+                connection = socket.accept();
+            }
+            catch (IOException e) {
+                // The socket is closed along with the server; other failures may last a while
+                backoff = backoff == 0 ? MIN_ACCEPT_BACKOFF : Math.min(2 * backoff, MAX_ACCEPT_BACKOFF);
+                if (!closed && !pause(backoff)) {
+                    return;
+                }
+                continue;
+            }
+            backoff = 0;
+            try {
+                connection.setTcpNoDelay(true);
+            }
+            catch (IOException e) {
+                // The connection was reset before it could be served
+                closeQuietly(connection);
+                continue;
+            }
+
+            connections.add(connection);
+            if (closed) {
+                // The server was closed while the connection was being accepted
+                connections.remove(connection);
+                closeQuietly(connection);
+                continue;
+            }
+            try {
+                executor.execute(new Connection(connection));
+            }
+            catch (RejectedExecutionException e) {
+                connections.remove(connection);
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    /**
+     * Method pauses the accepting thread after a failure to accept a connection.
+     * @param millis Length of the pause in milliseconds.
+     * @return Whether the pause ran to its end; if interrupted, the thread stops accepting connections.
+     */
+    protected boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Method creates the default executor: one virtual thread per task when the Java runtime has
+     * virtual threads, a cached pool of daemon threads otherwise.
+     * @return New executor.
+     */
+    protected static ExecutorService newExecutor() {
+        try {
+            // Looked up reflectively, as virtual threads are not available on all the supported runtimes
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            final AtomicInteger threads = new AtomicInteger();
+
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "jfuzzy-server-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Method closes a connection, ignoring any failure.
+     * @param connection Connection to close.
+     */
+    protected static void closeQuietly(Socket connection) {
+        try {
+            connection.close();
+        }
+        catch (IOException e) {
+            // Nothing left to do with the connection
+        }
+    }
+
+    /**
+     * Task serving the requests of a connection one after another.
+     */
+    protected class Connection implements Runnable {
+
+        /**
+         * The socket of the connection.
+         */
+        protected final Socket socket;
+
+        /**
+         * Stream of the requests.
+         */
+        protected DataInputStream in;
+
+        /**
+         * Stream of the responses.
+         */
+        protected DataOutputStream out;
+
+        /**
+         * Buffer of the encoded values.
+         */
+        protected byte[] bytes;
+
+        /**
+         * Buffer of the input values.
+         */
+        protected double[] inputValues;
+
+        /**
+         * Buffer of the output values.
+         */
+        protected double[] outputValues;
+
+        /**
+         * Constructor to initialize the task of the given connection.
+         * @param socket The socket of the connection.
+         */
+        protected Connection(Socket socket) {
+            this.socket = socket;
+            this.bytes = new byte[0];
+            this.inputValues = new double[0];
+            this.outputValues = new double[0];
+        }
+
+        @Override
+        public void run() {
+            try {
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                boolean open = true;
+                while (open) {
+                    int operation = in.read();
+                    if (operation < 0) {
+                        break;
+                    }
+
+                    if (operation == DESCRIBE) {
+                        describe();
+                    }
+                    else if (operation == INFER) {
+                        open = infer();
+                    }
+                    else {
+                        error(BAD_REQUEST, "Unknown operation: " + operation);
+                        open = false;
+                    }
+                    out.flush();
+                }
+            }
+            catch (IOException e) {
+                // The connection is dropped
+            }
+            finally {
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+
+        /**
+         * Method serves a {@code DESCRIBE} request.
+         * @throws IOException If the request cannot be read or the response written.
+         */
+        protected void describe() throws IOException {
+            String name = in.readUTF();
+            FuzzyEndpoint endpoint = endpoints.get(name);
+
+            if (endpoint == null) {
+                error(NOT_FOUND, "Unknown model: " + name);
+                return;
+            }
+            out.writeByte(OK);
+            writeNames(endpoint.getInputNames());
+            writeNames(endpoint.getOutputNames());
+        }
+
+        /**
+         * Method serves an {@code INFER} request.
+         * @return Whether the connection stays open.
+         * @throws IOException If the request cannot be read or the response written.
+         */
+        protected boolean infer() throws IOException {
+            String name = in.readUTF();
+            int count = in.readInt();
+            int width = in.readUnsignedShort();
+
+            if (count < 0 || count > MAX_VALUES || (long) count * width > MAX_VALUES) {
+                error(BAD_REQUEST, "Expected at most " + MAX_VALUES + " records and values");
+                return false;
+            }
+            int values = count * width;
+            readValues(values);
+
+            FuzzyEndpoint endpoint = endpoints.get(name);
+            if (endpoint == null) {
+                error(NOT_FOUND, "Unknown model: " + name);
+                return true;
+            }
+            if (width != endpoint.getInputCount()) {
+                error(BAD_REQUEST, "Expected " + endpoint.getInputCount() + " input values per record");
+                return true;
+            }
+
+            int outputs = count * endpoint.getOutputCount();
+            if (outputValues.length < outputs) {
+                outputValues = new double[outputs];
+            }
+            try {
+                endpoint.infer(inputValues, outputValues, count);
+            }
+            catch (RuntimeException e) {
+                error(FAILED, String.valueOf(e.getMessage()));
+                return true;
+            }
+
+            out.writeByte(OK);
+            out.writeShort(endpoint.getOutputCount());
+            writeValues(outputs);
+            return true;
+        }
+
+        /**
+         * Method reads input values into the buffer of the input values.
+         * @param count Number of values.
+         * @throws IOException If the values cannot be read.
+         */
+        protected void readValues(int count) throws IOException {
+            if (inputValues.length < count) {
+                inputValues = new double[count];
+            }
+            if (bytes.length < 8 * count) {
+                bytes = new byte[8 * count];
+            }
+            in.readFully(bytes, 0, 8 * count);
+            ByteBuffer.wrap(bytes).asDoubleBuffer().get(inputValues, 0, count);
+        }
+
+        /**
+         * Method writes output values from the buffer of the output values.
+         * @param count Number of values.
+         * @throws IOException If the values cannot be written.
+         */
+        protected void writeValues(int count) throws IOException {
+            if (bytes.length < 8 * count) {
+                bytes = new byte[8 * count];
+            }
+            ByteBuffer.wrap(bytes).asDoubleBuffer().put(outputValues, 0, count);
+            out.write(bytes, 0, 8 * count);
+        }
+
+        /**
+         * Method writes a number of names followed by the names.
+         * @param names Names to write.
+         * @throws IOException If the names cannot be written.
+         */
+        protected void writeNames(String[] names) throws IOException {
+            out.writeShort(names.length);
+            for (String name : names) {
+                out.writeUTF(name);
+            }
+        }
+
+        /**
+         * Method writes the response of a request that did not succeed.
+         * @param status Status of the request.
+         * @param message Message describing the status.
+         * @throws IOException If the response cannot be written.
+         */
+        protected void error(int status, String message) throws IOException {
+            out.writeByte(status);
+            out.writeUTF(message);
+        }
+
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.set;
+
+import java.util.Arrays;
+
+/**
+ * Class records the member sets of a variable that have been given a non-zero degree of membership since
+ * the record was last cleared, whether by the fuzzification or by the rules firing them, so only those
+ * have to be zeroed before the next value is fuzzified. A set reports its writes to the record it is
+ * attached to; a set attached to the records of several variables makes all of them shared, and the
+ * variables of a shared record treat all their sets as written.
+ *
+ * @author sokolovic
+ */
+public class DirtySets {
+
+    /**
+     * The recorded sets.
+     */
+    protected FuzzySet[] sets;
+
+    /**
+     * Number of the recorded sets.
+     */
+    protected int count;
+
+    /**
+     * Whether any of the sets may have been written without being recorded, until the record is cleared.
+     */
+    protected boolean incomplete;
+
+    /**
+     * Whether some of the sets are attached to another record as well, so their writes are not recorded.
+     */
+    protected boolean shared;
+
+    /**
+     * Constructor to initialize an empty record.
+     */
+    public DirtySets() {
+        this.sets = new FuzzySet[4];
+        this.count = 0;
+    }
+
+    /**
+     * Method attaches a set to this record, so its writes are recorded from now on. A set already
+     * holding a non-zero degree of membership is recorded at once.
+     * @param set Set to attach.
+     */
+    public void attach(FuzzySet set) {
+        if (set.dirtySets != null && set.dirtySets != this) {
+            set.dirtySets.shared = true;
+            shared = true;
+            return;
+        }
+        set.dirtySets = this;
+        if (set.dom != 0.0) {
+            set.written();
+        }
+    }
+
+    /**
+     * Method detaches a set replaced in its variable from this record. The set may already be recorded,
+     * so the record is incomplete until cleared.
+     * @param set Set to detach.
+     */
+    public void detach(FuzzySet set) {
+        if (set.dirtySets == this) {
+            set.dirtySets = null;
+        }
+        incomplete = true;
+    }
+
+    /**
+     * Method records a written set. Called by the set on its first write since the record was cleared.
+     * @param set The written set.
+     */
+    protected void add(FuzzySet set) {
+        if (count == sets.length) {
+            sets = Arrays.copyOf(sets, count * 2);
+        }
+        sets[count++] = set;
+    }
+
+    /**
+     * Method tells whether the recorded sets are all the sets that may hold a non-zero degree of
+     * membership.
+     * @return Whether the record can be relied on.
+     */
+    public boolean isComplete() {
+        return !incomplete && !shared;
+    }
+
+    /**
+     * Getter to obtain the number of the recorded sets.
+     * @return Number of the recorded sets.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Getter to obtain a recorded set.
+     * @param index Index of the set, in the order they were recorded.
+     * @return The recorded set.
+     */
+    public FuzzySet get(int index) {
+        return sets[index];
+    }
+
+    /**
+     * Method forgets the recorded sets, so their next writes are recorded again.
+     */
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            sets[i].dirty = false;
+            sets[i] = null;
+        }
+        count = 0;
+        incomplete = false;
+    }
+
+}
@@ -36,6 +36,16 @@ public abstract class FuzzySet {
      */
     protected double representativeValue;
 
+    /**
+     * Record of the written sets of the variable this set is a member of, or {@code null}.
+     */
+    protected DirtySets dirtySets;
+
+    /**
+     * Whether this set is in its record of the written sets.
+     */
+    protected boolean dirty;
+
     /**
      * Constructor to initialize the {@code FuzzySet} with the given representative value and
      * default (zero) degree of membership.
@@ -60,6 +70,9 @@ public abstract class FuzzySet {
      */
     public void setDom(double dom) {
         this.dom = dom;
+        if (dom != 0.0) {
+            written();
+        }
     }
 
     /**
@@ -70,6 +83,45 @@ public abstract class FuzzySet {
         return this.representativeValue;
     }
 
+    /**
+     * Getter to obtain the lower bound of the support of the set: the degree of membership of any value
+     * lower than the bound is zero. Sets that cannot tell their support return negative infinity.
+     * @return Lower bound of the support of the set.
+     */
+    public double getSupportMin() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Getter to obtain the upper bound of the support of the set: the degree of membership of any value
+     * greater than the bound is zero. Sets that cannot tell their support return positive infinity.
+     * @return Upper bound of the support of the set.
+     */
+    public double getSupportMax() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Getter to obtain the vertices of the membership function of the set, if it is piecewise linear:
+     * the degree of membership is interpolated linearly between consecutive vertices and zero outside
+     * of them. Two vertices with the same coordinate make a step. Sets whose membership function is
+     * not piecewise linear return {@code null}.
+     * @return New array of the coordinates and degrees of membership of the vertices, interleaved,
+     *         or {@code null}.
+     */
+    public double[] getVertices() {
+        return null;
+    }
+
+    /**
+     * Getter to obtain the upper bound of the degrees of membership {@code calculateDom()} returns. Sets
+     * that cannot tell the bound return positive infinity.
+     * @return Upper bound of the degree of membership.
+     */
+    public double getMaxDom() {
+        return Double.POSITIVE_INFINITY;
+    }
+
     /**
      * Method to calculate and return the degree of membership in this set for the given value.
      * @param value Value to calculate the degree of membership for.
@@ -87,6 +139,17 @@ public abstract class FuzzySet {
     public void orWithDom(double value) {
         if (value > dom) {
             dom = value;
+            written();
+        }
+    }
+
+    /**
+     * Method records this set as written in the record of its variable, if not recorded yet.
+     */
+    protected void written() {
+        if (!dirty && dirtySets != null) {
+            dirty = true;
+            dirtySets.add(this);
         }
     }
 
@@ -52,6 +52,58 @@ public class LeftShoulderFuzzySet extends FuzzySet {
         this.rightOffset = rightOffset;
     }
 
+    /**
+     * Getter to obtain the left shoulder function peak point.
+     * @return Left shoulder function peak point.
+     */
+    public double getPeak() {
+        return this.peak;
+    }
+
+    /**
+     * Getter to obtain the left shoulder function left offset.
+     * @return Left shoulder function left offset.
+     */
+    public double getLeftOffset() {
+        return this.leftOffset;
+    }
+
+    /**
+     * Getter to obtain the left shoulder function right offset.
+     * @return Left shoulder function right offset.
+     */
+    public double getRightOffset() {
+        return this.rightOffset;
+    }
+
+    @Override
+    public double getSupportMin() {
+        return Math.min(peak - leftOffset, peak);
+    }
+
+    @Override
+    public double getSupportMax() {
+        return Math.max(peak + rightOffset, peak);
+    }
+
+    /**
+     * The plateau starts with a step, as the degree of membership is one from the left bound on.
+     */
+    @Override
+    public double[] getVertices() {
+        // Only the well-formed sets, with finite vertices in the order of their coordinates
+        if (!(leftOffset >= 0.0 && rightOffset >= 0.0 &&
+              Math.abs(peak) + leftOffset + rightOffset < Double.POSITIVE_INFINITY)) {
+            return null;
+        }
+        return new double[] { peak - leftOffset, 0.0, peak - leftOffset, 1.0, peak, 1.0, peak + rightOffset, 0.0 };
+    }
+
+    @Override
+    public double getMaxDom() {
+        return 1.0;
+    }
+
     @Override
     public double calculateDom(double value) {
         // Test for the case where the left or right offsets are zero
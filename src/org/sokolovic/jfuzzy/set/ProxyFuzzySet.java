@@ -38,6 +38,14 @@ public class ProxyFuzzySet extends FuzzyTerm {
         this.set = set;
     }
 
+    /**
+     * Getter to obtain the fuzzy set this proxy represents.
+     * @return Fuzzy set this proxy represents.
+     */
+    public FuzzySet getSet() {
+        return this.set;
+    }
+
     @Override
     public double getDom() {
         return set.getDom();
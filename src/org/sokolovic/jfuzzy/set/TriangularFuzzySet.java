@@ -52,6 +52,64 @@ public class TriangularFuzzySet extends FuzzySet {
         this.rightOffset = rightOffset;
     }
 
+    /**
+     * Getter to obtain the triangular function peak point.
+     * @return Triangular function peak point.
+     */
+    public double getPeak() {
+        return this.peak;
+    }
+
+    /**
+     * Getter to obtain the triangular function left offset.
+     * @return Triangular function left offset.
+     */
+    public double getLeftOffset() {
+        return this.leftOffset;
+    }
+
+    /**
+     * Getter to obtain the triangular function right offset.
+     * @return Triangular function right offset.
+     */
+    public double getRightOffset() {
+        return this.rightOffset;
+    }
+
+    @Override
+    public double getSupportMin() {
+        return Math.min(peak - leftOffset, peak);
+    }
+
+    @Override
+    public double getSupportMax() {
+        return Math.max(peak + rightOffset, peak);
+    }
+
+    @Override
+    public double[] getVertices() {
+        // Only the well-formed sets, with finite vertices in the order of their coordinates
+        if (!(leftOffset >= 0.0 && rightOffset >= 0.0 &&
+              Math.abs(peak) + leftOffset + rightOffset < Double.POSITIVE_INFINITY)) {
+            return null;
+        }
+        return new double[] { peak - leftOffset, 0.0, peak, 1.0, peak + rightOffset, 0.0 };
+    }
+
+    /**
+     * The rising edge can slightly overshoot one when the offset is small compared to the peak, so the
+     * bound is its value at the peak, computed the same way as the degree of membership.
+     */
+    @Override
+    public double getMaxDom() {
+        if (!(leftOffset > 0.0)) {
+            return 1.0;
+        }
+        double bound = (1.0 / leftOffset) * (peak - (peak - leftOffset));
+
+        return Double.isNaN(bound) ? Double.POSITIVE_INFINITY : Math.max(1.0, bound);
+    }
+
     @Override
     public double calculateDom(double value) {
         // Test for the case where the triangle's left ir right offset are zero
@@ -0,0 +1,849 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.snapshot;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.defuzzifier.*;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.*;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class writes fuzzy controllers into compact binary snapshots and loads them back. A snapshot holds
+ * the variables with the types and parameters of their member sets and their defuzzifiers, the
+ * compiled rule base as the flat arrays of a {@code FuzzyProgram}, and the structure of the rules in
+ * prefix form. All the values are stored in little-endian order:
+ * <pre>
+ * header     int magic, int version
+ * variables  int count, then per variable: string name, double minRange, double maxRange,
+ *            int defuzzifier, int samples, int set count, then per set: string name, int type,
+ *            double peak, double leftOffset, double rightOffset
+ * program    int[] code, double[] initialSlots, int[] consequentSlots, int[] ruleOffsets,
+ *            int[] alwaysRules, int[] keySlots, int[] keyOffsets, int[] keyedRules
+ * rules      int count, int[] terms
+ * </pre>
+ * An array is stored as its length followed by its elements, with -1 standing for {@code null}, and a
+ * string as the length of its UTF-8 encoding followed by the encoding. A term is stored as its kind
+ * followed by the slot of its set, the number of its operands or nothing, and then by its operands;
+ * each rule is stored as its antecedent followed by its consequence.
+ * <p>
+ * A model is loaded from a memory-mapped snapshot without compiling the rule base or building the
+ * terms of the rules: the arrays of the program are copied out of the mapping in bulk and only the
+ * variables and their sets are created, so a model of a large rule base is usable in milliseconds.
+ * Loading a controller rebuilds the terms of its rules as well.
+ * <p>
+ * Only the built-in fuzzy sets and defuzzifiers, matched by their exact classes, can be written into
+ * a snapshot.
+ *
+ * @author sokolovic
+ */
+public class FuzzySnapshot {
+
+    /**
+     * Leading value of every snapshot, the characters {@code JFZS} in little-endian order.
+     */
+    public static final int MAGIC = 0x535A464A;
+
+    /**
+     * Version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Kind of a term referring to a fuzzy set.
+     */
+    protected static final int TERM_SET = 0;
+
+    /**
+     * Kind of an AND term.
+     */
+    protected static final int TERM_AND = 1;
+
+    /**
+     * Kind of an OR term.
+     */
+    protected static final int TERM_OR = 2;
+
+    /**
+     * Kind of a NOT term.
+     */
+    protected static final int TERM_NOT = 3;
+
+    /**
+     * Kind of a VERY term.
+     */
+    protected static final int TERM_VERY = 4;
+
+    /**
+     * Kind of a FAIRLY term.
+     */
+    protected static final int TERM_FAIRLY = 5;
+
+    /**
+     * The built-in defuzzifiers, indexed by the codes they are stored by.
+     */
+    protected static final Class<?>[] DEFUZZIFIERS = {
+        WeightedAverageDefuzzifier.class, CentroidDefuzzifier.class, BisectorDefuzzifier.class,
+        MeanOfMaximaDefuzzifier.class, SmallestOfMaximaDefuzzifier.class, LargestOfMaximaDefuzzifier.class
+    };
+
+    /**
+     * Encoding of the names.
+     */
+    protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Buffer the snapshot is written into or read from.
+     */
+    protected ByteBuffer buffer;
+
+    /**
+     * Slots of the fuzzy sets of the controller being written.
+     */
+    protected Map<FuzzySet, Integer> slots;
+
+    /**
+     * Method writes a snapshot of the given controller into the given file.
+     * @param controller Controller to write.
+     * @param file File to write the snapshot into.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the controller has a set or a defuzzifier that cannot be
+     *                                  written, or a rule refers to a set that is not a member of
+     *                                  any of its variables.
+     */
+    public static void write(FuzzyController controller, File file) throws IOException {
+        ByteBuffer buffer = toByteBuffer(controller);
+        FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            FileChannel channel = output.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Method writes a snapshot of the given controller into a buffer.
+     * @param controller Controller to write.
+     * @return Buffer holding the snapshot between its position and its limit.
+     * @throws IllegalArgumentException If the controller has a set or a defuzzifier that cannot be
+     *                                  written, or a rule refers to a set that is not a member of
+     *                                  any of its variables.
+     */
+    public static ByteBuffer toByteBuffer(FuzzyController controller) {
+        FuzzySnapshot snapshot = new FuzzySnapshot(ByteBuffer.allocate(1024));
+        snapshot.writeController(controller);
+
+        ByteBuffer buffer = snapshot.buffer;
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method loads the model of the controller written into the given snapshot file.
+     * @param file Snapshot file.
+     * @return Model of the controller.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static FuzzyModel readModel(File file) throws IOException {
+        return readModel(file, false);
+    }
+
+    /**
+     * Method loads the model of the controller written into the given snapshot file, optionally
+     * generating the code of its inferences.
+     * @param file Snapshot file.
+     * @param generated Whether to generate the code of the inferences.
+     * @return Model of the controller.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static FuzzyModel readModel(File file, boolean generated) throws IOException {
+        return readModel(map(file), generated);
+    }
+
+    /**
+     * Method loads the model of the controller written into the given buffer, from its position on.
+     * @param buffer Buffer holding the snapshot.
+     * @param generated Whether to generate the code of the inferences.
+     * @return Model of the controller.
+     * @throws IOException If the buffer does not hold a valid snapshot.
+     */
+    public static FuzzyModel readModel(ByteBuffer buffer, boolean generated) throws IOException {
+        FuzzySnapshot snapshot = new FuzzySnapshot(buffer);
+
+        try {
+            snapshot.readHeader();
+            Map<String, FuzzyVariable> variables = snapshot.readVariables(null);
+            FuzzyProgram program = snapshot.readProgram(members(variables));
+
+            return new FuzzyModel(program, variables, generated);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Truncated fuzzy controller snapshot");
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Invalid fuzzy controller snapshot", e);
+        }
+    }
+
+    /**
+     * Method loads the controller written into the given snapshot file.
+     * @param file Snapshot file.
+     * @return Controller with the variables and rules of the snapshot.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static FuzzyController readController(File file) throws IOException {
+        return readController(map(file));
+    }
+
+    /**
+     * Method loads the controller written into the given buffer, from its position on.
+     * @param buffer Buffer holding the snapshot.
+     * @return Controller with the variables and rules of the snapshot.
+     * @throws IOException If the buffer does not hold a valid snapshot.
+     */
+    public static FuzzyController readController(ByteBuffer buffer) throws IOException {
+        FuzzySnapshot snapshot = new FuzzySnapshot(buffer);
+        FuzzyController controller = new FuzzyController();
+
+        try {
+            snapshot.readHeader();
+            FuzzySet[] sets = members(snapshot.readVariables(controller));
+            snapshot.skipProgram();
+            snapshot.readRules(controller, sets);
+
+            return controller;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Truncated fuzzy controller snapshot");
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Invalid fuzzy controller snapshot", e);
+        }
+    }
+
+    /**
+     * Method maps the given file into memory.
+     * @param file File to map.
+     * @return Read-only buffer of the content of the file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    protected static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        // The mapping stays valid after the file is closed
+        try {
+            FileChannel channel = input.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Method gathers the member sets of the given variables, variable by variable, in the order of
+     * their handles.
+     * @param variables Variables keyed by their names.
+     * @return The member sets, indexed by their slots.
+     */
+    protected static FuzzySet[] members(Map<String, FuzzyVariable> variables) {
+        int count = 0;
+        for (FuzzyVariable variable : variables.values()) {
+            count += variable.getSetCount();
+        }
+
+        FuzzySet[] sets = new FuzzySet[count];
+        int slot = 0;
+        for (FuzzyVariable variable : variables.values()) {
+            for (int i = 0; i < variable.getSetCount(); i++) {
+                sets[slot++] = variable.getSet(i);
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Constructor to initialize the snapshot on the given buffer, setting its byte order.
+     * @param buffer Buffer to write into or read from.
+     */
+    protected FuzzySnapshot(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Method writes the snapshot of the given controller.
+     * @param controller Controller to write.
+     */
+    protected void writeController(FuzzyController controller) {
+        FuzzyProgram program = FuzzyCompiler.compile(controller);
+        Map<String, FuzzyVariable> variables = controller.getVariables();
+        if (program.getSetCount() != members(variables).length) {
+            throw new IllegalArgumentException("A rule refers to a fuzzy set that is not a member of any " +
+                    "variable of the controller");
+        }
+
+        putInt(MAGIC);
+        putInt(VERSION);
+
+        putInt(variables.size());
+        for (Map.Entry<String, FuzzyVariable> entry : variables.entrySet()) {
+            writeVariable(entry.getKey(), entry.getValue());
+        }
+
+        putInts(program.getCode());
+        putDoubles(program.newSlots());
+        int[] consequentSlots = new int[program.getConsequentCount()];
+        for (int i = 0; i < consequentSlots.length; i++) {
+            consequentSlots[i] = program.getConsequentSlot(i);
+        }
+        putInts(consequentSlots);
+        putInts(program.getRuleOffsets());
+        putInts(program.getAlwaysRules());
+        putInts(program.getKeySlots());
+        putInts(program.getKeyOffsets());
+        putInts(program.getKeyedRules());
+
+        slots = new IdentityHashMap<FuzzySet, Integer>();
+        for (int slot = 0; slot < program.getSetCount(); slot++) {
+            slots.put(program.getSet(slot), slot);
+        }
+        List<FuzzyRule> rules = controller.getRules();
+        putInt(rules.size());
+        int start = buffer.position();
+        putInt(0);
+        for (FuzzyRule rule : rules) {
+            writeTerm(rule.getAntecedent());
+            writeTerm(rule.getConsequence());
+        }
+        buffer.putInt(start, (buffer.position() - start - 4) / 4);
+    }
+
+    /**
+     * Method writes a single variable with its member sets.
+     * @param name Name of the variable.
+     * @param variable Variable to write.
+     */
+    protected void writeVariable(String name, FuzzyVariable variable) {
+        Defuzzifier defuzzifier = variable.getDefuzzifier();
+        int code = -1;
+        for (int i = 0; i < DEFUZZIFIERS.length; i++) {
+            if (DEFUZZIFIERS[i] == defuzzifier.getClass()) {
+                code = i;
+            }
+        }
+        if (code < 0) {
+            throw new IllegalArgumentException("Unsupported defuzzifier: " + defuzzifier.getClass().getName());
+        }
+
+        putString(name);
+        putDouble(variable.getMinRange());
+        putDouble(variable.getMaxRange());
+        putInt(code);
+        putInt(defuzzifier instanceof ShapeDefuzzifier ? ((ShapeDefuzzifier) defuzzifier).getSamples() : 0);
+
+        // The handles of the sets are their positions in the map of the members
+        putInt(variable.getSetCount());
+        for (Map.Entry<String, FuzzySet> entry : variable.getMembers().entrySet()) {
+            FuzzySet set = entry.getValue();
+
+            putString(entry.getKey());
+            if (set.getClass() == TriangularFuzzySet.class) {
+                TriangularFuzzySet triangle = (TriangularFuzzySet) set;
+                putSet(eFuzzySet.TRIANGULAR, triangle.getPeak(), triangle.getLeftOffset(), triangle.getRightOffset());
+            }
+            else if (set.getClass() == LeftShoulderFuzzySet.class) {
+                LeftShoulderFuzzySet shoulder = (LeftShoulderFuzzySet) set;
+                putSet(eFuzzySet.LEFT_SHOULDER, shoulder.getPeak(), shoulder.getLeftOffset(), shoulder.getRightOffset());
+            }
+            else if (set.getClass() == RightShoulderFuzzySet.class) {
+                RightShoulderFuzzySet shoulder = (RightShoulderFuzzySet) set;
+                putSet(eFuzzySet.RIGHT_SHOULDER, shoulder.getPeak(), shoulder.getLeftOffset(), shoulder.getRightOffset());
+            }
+            else {
+                throw new IllegalArgumentException("Unsupported fuzzy set: " + set.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Method writes a term in prefix form.
+     * @param term Term to write.
+     */
+    protected void writeTerm(FuzzyTerm term) {
+        if (term instanceof ProxyFuzzySet) {
+            putInt(TERM_SET);
+            putInt(slots.get(((ProxyFuzzySet) term).getSet()));
+        }
+        else if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            boolean and = term instanceof FuzzyAnd;
+            List<FuzzyTerm> terms = and ? ((FuzzyAnd) term).getTerms() : ((FuzzyOr) term).getTerms();
+
+            putInt(and ? TERM_AND : TERM_OR);
+            putInt(terms.size());
+            for (FuzzyTerm child : terms) {
+                writeTerm(child);
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            putInt(TERM_NOT);
+            writeTerm(((FuzzyNot) term).getTerm());
+        }
+        else if (term instanceof FuzzyVery) {
+            putInt(TERM_VERY);
+            writeTerm(((FuzzyVery) term).getTerm());
+        }
+        else if (term instanceof FuzzyFairly) {
+            putInt(TERM_FAIRLY);
+            writeTerm(((FuzzyFairly) term).getTerm());
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported fuzzy term: " + term.getClass().getName());
+        }
+    }
+
+    /**
+     * Method reads and checks the header of the snapshot.
+     * @throws IOException If the buffer does not hold a snapshot of a supported version.
+     */
+    protected void readHeader() throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a fuzzy controller snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported fuzzy controller snapshot version: " + version);
+        }
+    }
+
+    /**
+     * Method reads the variables with their member sets.
+     * @param controller Controller to create the variables in, or {@code null} to create them on their own.
+     * @return Variables keyed by their names, in the order of their handles.
+     * @throws IOException If a set or a defuzzifier is of an unknown type.
+     */
+    protected Map<String, FuzzyVariable> readVariables(FuzzyController controller) throws IOException {
+        int count = buffer.getInt();
+        Map<String, FuzzyVariable> variables = new LinkedHashMap<String, FuzzyVariable>();
+
+        for (int v = 0; v < count; v++) {
+            String name = getString();
+            FuzzyVariable variable = controller == null ? new FuzzyVariable() : controller.createFLV(name);
+            variables.put(name, variable);
+
+            // The range starts at zero, so widening it restores it exactly
+            variable.adjustRangeToFit(buffer.getDouble(), buffer.getDouble());
+            variable.setDefuzzifier(newDefuzzifier(buffer.getInt(), buffer.getInt()));
+
+            int sets = buffer.getInt();
+            for (int i = 0; i < sets; i++) {
+                String setName = getString();
+                int type = buffer.getInt();
+                double peak = buffer.getDouble();
+                double leftOffset = buffer.getDouble();
+                double rightOffset = buffer.getDouble();
+
+                variable.addFuzzySet(setName, newSet(type, peak, leftOffset, rightOffset));
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Method creates a fuzzy set of the given type.
+     * @param type Ordinal of the type in {@code eFuzzySet}.
+     * @param peak Peak of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     * @return New fuzzy set.
+     * @throws IOException If the type is unknown.
+     */
+    protected static FuzzySet newSet(int type, double peak, double leftOffset, double rightOffset)
+            throws IOException {
+        if (type < 0 || type >= eFuzzySet.values().length) {
+            throw new IOException("Unknown fuzzy set type: " + type);
+        }
+        switch (eFuzzySet.values()[type]) {
+            case TRIANGULAR:
+                return new TriangularFuzzySet(peak, leftOffset, rightOffset);
+            case LEFT_SHOULDER:
+                return new LeftShoulderFuzzySet(peak, leftOffset, rightOffset);
+            default:
+                return new RightShoulderFuzzySet(peak, leftOffset, rightOffset);
+        }
+    }
+
+    /**
+     * Method creates a built-in defuzzifier.
+     * @param code Code of the defuzzifier, its index in {@code DEFUZZIFIERS}.
+     * @param samples Number of samples of a shape defuzzifier.
+     * @return New defuzzifier.
+     * @throws IOException If the code is unknown.
+     */
+    protected static Defuzzifier newDefuzzifier(int code, int samples) throws IOException {
+        switch (code) {
+            case 0:
+                return new WeightedAverageDefuzzifier();
+            case 1:
+                return new CentroidDefuzzifier(samples);
+            case 2:
+                return new BisectorDefuzzifier(samples);
+            case 3:
+                return new MeanOfMaximaDefuzzifier(samples);
+            case 4:
+                return new SmallestOfMaximaDefuzzifier(samples);
+            case 5:
+                return new LargestOfMaximaDefuzzifier(samples);
+            default:
+                throw new IOException("Unknown defuzzifier: " + code);
+        }
+    }
+
+    /**
+     * Method reads the compiled rule base and checks that it stays within its slots and code. The code
+     * is split into the segment clearing the consequents and the segments of the rules, and every jump
+     * must lead forward within its own segment, so the program always terminates.
+     * @param sets The member sets of the variables, indexed by their slots.
+     * @return Compiled rule base.
+     * @throws IOException If the program refers to a slot or an offset it does not have, or jumps
+     *                     backwards or out of its segment.
+     */
+    protected FuzzyProgram readProgram(FuzzySet[] sets) throws IOException {
+        int[] code = getInts();
+        double[] initialSlots = getDoubles();
+        int[] consequentSlots = getInts();
+        int[] ruleOffsets = getInts();
+        int[] alwaysRules = getInts();
+        int[] keySlots = getInts();
+        int[] keyOffsets = getInts();
+        int[] keyedRules = getInts();
+
+        if (code == null || initialSlots == null || consequentSlots == null || ruleOffsets == null ||
+            code.length % FuzzyProgram.INSTRUCTION_SIZE != 0 || initialSlots.length < sets.length) {
+            throw new IOException("Invalid compiled rule base");
+        }
+        if (ruleOffsets.length == 0 || ruleOffsets[ruleOffsets.length - 1] != code.length) {
+            throw new IOException("Invalid rule offsets");
+        }
+        for (int i = 0; i < ruleOffsets.length; i++) {
+            if (!isOffset(ruleOffsets[i], code.length) || (i > 0 && ruleOffsets[i] < ruleOffsets[i - 1])) {
+                throw new IOException("Invalid rule offset: " + ruleOffsets[i]);
+            }
+        }
+
+        int segment = 0;
+        for (int pc = 0; pc < code.length; pc += FuzzyProgram.INSTRUCTION_SIZE) {
+            boolean jump = FuzzyProgram.isJump(code[pc]);
+
+            // The end of the segment holding the instruction; empty segments of rules are skipped
+            while (segment < ruleOffsets.length && ruleOffsets[segment] <= pc) {
+                segment++;
+            }
+            int end = ruleOffsets[segment];
+            if (code[pc] < FuzzyProgram.OP_CLEAR || code[pc] > FuzzyProgram.OP_JUMP_IF_AT_LEAST ||
+                (jump && (!isOffset(code[pc + 1], code.length) || code[pc + 1] <= pc || code[pc + 1] > end))) {
+                throw new IOException("Invalid instruction at " + pc);
+            }
+            for (int i = jump ? 2 : 1; i < FuzzyProgram.INSTRUCTION_SIZE; i++) {
+                if (code[pc + i] < 0 || code[pc + i] >= initialSlots.length) {
+                    throw new IOException("Invalid slot at " + (pc + i));
+                }
+            }
+        }
+        checkRange(consequentSlots, sets.length);
+        if (alwaysRules != null) {
+            if (keySlots == null || keyOffsets == null || keyedRules == null ||
+                keyOffsets.length != keySlots.length + 1) {
+                throw new IOException("Invalid rule index");
+            }
+            checkRange(alwaysRules, ruleOffsets.length - 1);
+            checkRange(keySlots, sets.length);
+            checkRange(keyOffsets, keyedRules.length + 1);
+            checkRange(keyedRules, ruleOffsets.length - 1);
+        }
+
+        return new FuzzyProgram(code, initialSlots, sets, consequentSlots,
+                ruleOffsets, alwaysRules, keySlots, keyOffsets, keyedRules);
+    }
+
+    /**
+     * Method skips the compiled rule base.
+     */
+    protected void skipProgram() {
+        for (int i = 0; i < 8; i++) {
+            int length = buffer.getInt();
+            if (length > 0) {
+                buffer.position(buffer.position() + length * (i == 1 ? 8 : 4));
+            }
+        }
+    }
+
+    /**
+     * Method reads the rules and adds them to the given controller. The rules refer to the sets through
+     * a single proxy per set.
+     * @param controller Controller to add the rules to.
+     * @param sets The member sets of the variables, indexed by their slots.
+     * @throws IOException If a term is of an unknown kind or refers to an unknown set.
+     */
+    protected void readRules(FuzzyController controller, FuzzySet[] sets) throws IOException {
+        ProxyFuzzySet[] proxies = new ProxyFuzzySet[sets.length];
+        for (int slot = 0; slot < sets.length; slot++) {
+            proxies[slot] = new ProxyFuzzySet(sets[slot]);
+        }
+
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+        int end = buffer.position() + length * 4;
+        for (int r = 0; r < count; r++) {
+            FuzzyTerm antecedent = readTerm(proxies);
+            controller.addRule(antecedent, readTerm(proxies));
+        }
+        if (buffer.position() != end) {
+            throw new IOException("Invalid rule terms");
+        }
+    }
+
+    /**
+     * Method reads a term in prefix form.
+     * @param proxies Proxies of the sets, indexed by their slots.
+     * @return Term read.
+     * @throws IOException If the term is of an unknown kind or refers to an unknown set.
+     */
+    protected FuzzyTerm readTerm(ProxyFuzzySet[] proxies) throws IOException {
+        int kind = buffer.getInt();
+
+        switch (kind) {
+            case TERM_SET: {
+                int slot = buffer.getInt();
+                if (slot < 0 || slot >= proxies.length) {
+                    throw new IOException("Invalid fuzzy set slot: " + slot);
+                }
+                return proxies[slot];
+            }
+            case TERM_AND: {
+                FuzzyAnd and = new FuzzyAnd();
+                for (int i = buffer.getInt(); i > 0; i--) {
+                    and.addTerm(readTerm(proxies));
+                }
+                return and;
+            }
+            case TERM_OR: {
+                FuzzyOr or = new FuzzyOr();
+                for (int i = buffer.getInt(); i > 0; i--) {
+                    or.addTerm(readTerm(proxies));
+                }
+                return or;
+            }
+            case TERM_NOT:
+                return new FuzzyNot(readTerm(proxies));
+            case TERM_VERY:
+                return new FuzzyVery(readTerm(proxies));
+            case TERM_FAIRLY:
+                return new FuzzyFairly(readTerm(proxies));
+            default:
+                throw new IOException("Unknown fuzzy term kind: " + kind);
+        }
+    }
+
+    /**
+     * Method checks whether the given value is an instruction offset within code of the given length.
+     * @param offset Value to check.
+     * @param length Length of the code.
+     * @return {@code true} if the value is the offset of an instruction or of the end of the code.
+     */
+    protected static boolean isOffset(int offset, int length) {
+        return offset >= 0 && offset <= length && offset % FuzzyProgram.INSTRUCTION_SIZE == 0;
+    }
+
+    /**
+     * Method checks that all the elements of the given array lie between zero and the given bound.
+     * @param array Array to check.
+     * @param bound Bound of the elements, exclusive.
+     * @throws IOException If an element lies outside the bounds.
+     */
+    protected static void checkRange(int[] array, int bound) throws IOException {
+        for (int value : array) {
+            if (value < 0 || value >= bound) {
+                throw new IOException("Invalid index: " + value);
+            }
+        }
+    }
+
+    /**
+     * Method makes room for the given number of bytes, growing the buffer if needed.
+     * @param bytes Number of bytes to make room for.
+     */
+    protected void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.order(ByteOrder.LITTLE_ENDIAN).put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Method writes an integer.
+     * @param value Value to write.
+     */
+    protected void putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Method writes a double.
+     * @param value Value to write.
+     */
+    protected void putDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Method writes a string as the length of its UTF-8 encoding followed by the encoding.
+     * @param value Value to write.
+     */
+    protected void putString(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+
+        putInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Method writes the type and parameters of a fuzzy set.
+     * @param type Type of the set.
+     * @param peak Peak of the set.
+     * @param leftOffset Left offset of the set.
+     * @param rightOffset Right offset of the set.
+     */
+    protected void putSet(eFuzzySet type, double peak, double leftOffset, double rightOffset) {
+        putInt(type.ordinal());
+        putDouble(peak);
+        putDouble(leftOffset);
+        putDouble(rightOffset);
+    }
+
+    /**
+     * Method writes an array of integers as its length followed by its elements.
+     * @param values Array to write, or {@code null}.
+     */
+    protected void putInts(int[] values) {
+        if (values == null) {
+            putInt(-1);
+            return;
+        }
+        putInt(values.length);
+        ensure(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 4);
+    }
+
+    /**
+     * Method writes an array of doubles as its length followed by its elements.
+     * @param values Array to write.
+     */
+    protected void putDoubles(double[] values) {
+        putInt(values.length);
+        ensure(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * 8);
+    }
+
+    /**
+     * Method checks that the buffer holds the given number of elements, before they are allocated.
+     * @param length Number of elements.
+     * @param size Size of an element in bytes.
+     * @return Number of elements.
+     * @throws BufferUnderflowException If the buffer holds fewer elements.
+     */
+    protected int checkLength(int length, int size) {
+        if (length < 0 || length > buffer.remaining() / size) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    /**
+     * Method reads a string written by {@code putString()}.
+     * @return Value read.
+     */
+    protected String getString() {
+        byte[] bytes = new byte[checkLength(buffer.getInt(), 1)];
+
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Method reads an array of integers written by {@code putInts()}, copying it out of the buffer in bulk.
+     * @return Array read, or {@code null}.
+     */
+    protected int[] getInts() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        int[] values = new int[checkLength(length, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * 4);
+        return values;
+    }
+
+    /**
+     * Method reads an array of doubles written by {@code putDoubles()}, copying it out of the buffer in bulk.
+     * @return Array read, or {@code null}.
+     */
+    protected double[] getDoubles() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        double[] values = new double[checkLength(length, 8)];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + length * 8);
+        return values;
+    }
+
+}
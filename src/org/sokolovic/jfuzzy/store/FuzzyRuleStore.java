@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.store;
+
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.defuzzifier.Defuzzifier;
+import org.sokolovic.jfuzzy.defuzzifier.FuzzyAggregate;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+import org.sokolovic.jfuzzy.variable.MembershipTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class holds a rule base outside the Java heap, so the number of rules does not drive the size of
+ * the heap or the cost of collecting it. Each rule is encoded as a record of ints in segments of
+ * direct or memory-mapped buffers:
+ * <pre>
+ * rule       int length, int consequent count, int[] consequent slots, term antecedent
+ * term       TERM_SET, int slot
+ *            | TERM_AND or TERM_OR, int length, term[] operands
+ *            | TERM_NOT, TERM_VERY or TERM_FAIRLY, term operand
+ * </pre>
+ * The length of a rule or a term counts its ints, including its header. The slots are the positions of
+ * the member sets of the variables, variable by variable, in the order of their handles; the consequent
+ * slots of a rule are the sets its consequence is made of. Only the variables and their sets are kept
+ * on the heap. Like a {@code FuzzyModel}, the store reads the variables when it is created; changes
+ * made to them afterwards are not reflected in the store.
+ * <p>
+ * A store is written by a {@code RuleStoreWriter}, either into direct buffers or into a file, which
+ * is mapped into memory once written and can be opened again later with the same variables:
+ * <pre>
+ * header     int magic, int version, int set count, int reserved
+ * rules      the records of the rules, segment after segment
+ * footer     int[] consequent slots, int segment count, then per segment: long offset,
+ *            long length, int rule count; then long offset of the footer
+ * </pre>
+ * All the values are stored in little-endian order, an array as its length followed by its elements.
+ * A store is immutable and can be shared by any number of threads, each running its inferences
+ * through its own {@code RuleStoreContext}. The results are the same as those of the controller the
+ * rules come from, in its tree mode.
+ *
+ * @author sokolovic
+ */
+public class FuzzyRuleStore {
+
+    /**
+     * Leading value of every store file, the characters {@code JFZR} in little-endian order.
+     */
+    public static final int MAGIC = 0x525A464A;
+
+    /**
+     * Version of the format of the store files.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header of a store file in bytes.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Kind of a term referring to a set.
+     */
+    public static final int TERM_SET = 0;
+
+    /**
+     * Kind of a conjunction.
+     */
+    public static final int TERM_AND = 1;
+
+    /**
+     * Kind of a disjunction.
+     */
+    public static final int TERM_OR = 2;
+
+    /**
+     * Kind of a negation.
+     */
+    public static final int TERM_NOT = 3;
+
+    /**
+     * Kind of the {@code very} hedge.
+     */
+    public static final int TERM_VERY = 4;
+
+    /**
+     * Kind of the {@code fairly} hedge.
+     */
+    public static final int TERM_FAIRLY = 5;
+
+    /**
+     * Variables keyed by their names, in the order of their handles.
+     */
+    protected final Map<String, FuzzyVariable> variables;
+
+    /**
+     * Indices of the variables keyed by their names.
+     */
+    protected final Map<String, Integer> variableIndices;
+
+    /**
+     * Membership functions of the members of each variable as parallel arrays.
+     */
+    protected final MembershipTable[] membershipTables;
+
+    /**
+     * Defuzzifiers of the variables.
+     */
+    protected final Defuzzifier[] defuzzifiers;
+
+    /**
+     * Aggregates of the member sets of the variables.
+     */
+    protected final FuzzyAggregate[] aggregates;
+
+    /**
+     * First slot of the members of each variable.
+     */
+    protected final int[] firstSlots;
+
+    /**
+     * Number of the slots, equal to the number of the member sets of all the variables.
+     */
+    protected final int setCount;
+
+    /**
+     * Distinct slots of the sets used as consequents, zeroed before the rules are run.
+     */
+    protected final int[] consequentSlots;
+
+    /**
+     * Segments of the records of the rules. A record never straddles two segments.
+     */
+    protected final IntBuffer[] segments;
+
+    /**
+     * Number of the rules of each segment.
+     */
+    protected final int[] ruleCounts;
+
+    /**
+     * Constructor to initialize the store with the given segments.
+     * @param variables Variables keyed by their names, in the order of their handles.
+     * @param consequentSlots Distinct slots of the sets used as consequents.
+     * @param segments Segments of the records of the rules.
+     * @param ruleCounts Number of the rules of each segment.
+     */
+    protected FuzzyRuleStore(Map<String, FuzzyVariable> variables, int[] consequentSlots, IntBuffer[] segments,
+                             int[] ruleCounts) {
+        this.variables = variables;
+        this.consequentSlots = consequentSlots;
+        this.segments = segments;
+        this.ruleCounts = ruleCounts;
+
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        this.firstSlots = new int[variables.size()];
+        this.membershipTables = new MembershipTable[variables.size()];
+        this.defuzzifiers = new Defuzzifier[variables.size()];
+        this.aggregates = new FuzzyAggregate[variables.size()];
+        int index = 0;
+        int slot = 0;
+        for (Map.Entry<String, FuzzyVariable> entry : variables.entrySet()) {
+            indices.put(entry.getKey(), index);
+            membershipTables[index] = entry.getValue().getMembershipTable();
+            defuzzifiers[index] = entry.getValue().getDefuzzifier();
+            aggregates[index] = entry.getValue().getAggregate();
+            firstSlots[index++] = slot;
+            slot += entry.getValue().getSetCount();
+        }
+        this.variableIndices = Collections.unmodifiableMap(indices);
+        this.setCount = slot;
+    }
+
+    /**
+     * Method writes the rules of the given controller into a store in direct buffers.
+     * @param controller Controller to store the rules of.
+     * @return Store of the rules.
+     * @throws IllegalArgumentException If a rule refers to a set that is not a member of any variable of
+     *                                  the controller, or contains a term of an unknown type.
+     */
+    public static FuzzyRuleStore of(FuzzyController controller) {
+        RuleStoreWriter writer = new RuleStoreWriter(controller.getVariables());
+
+        try {
+            for (FuzzyRule rule : controller.getRules()) {
+                writer.addRule(rule);
+            }
+        }
+        catch (IOException e) {
+            // Only a writer into a file does any I/O
+            throw new IllegalStateException(e);
+        }
+        return writer.finish();
+    }
+
+    /**
+     * Method writes the rules of the given controller into a store file and maps it into memory.
+     * @param controller Controller to store the rules of.
+     * @param file File to write.
+     * @return Store of the rules.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If a rule refers to a set that is not a member of any variable of
+     *                                  the controller, or contains a term of an unknown type.
+     */
+    public static FuzzyRuleStore write(FuzzyController controller, File file) throws IOException {
+        RuleStoreWriter writer = new RuleStoreWriter(controller.getVariables(), file);
+
+        try {
+            for (FuzzyRule rule : controller.getRules()) {
+                writer.addRule(rule);
+            }
+            return writer.finishFile();
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Method opens a store file, mapping its segments into memory.
+     * @param file File to open.
+     * @param variables Variables the rules were written for, keyed by their names, in the order of their
+     *                  handles.
+     * @return Store of the rules.
+     * @throws IOException If the file cannot be read, is not a store file or does not match the variables.
+     */
+    public static FuzzyRuleStore open(File file, Map<String, FuzzyVariable> variables) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE + 8) {
+                throw new IOException(file + " is not a rule store");
+            }
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a rule store of version " + VERSION);
+            }
+            int setCount = header.getInt();
+            int expected = 0;
+            for (FuzzyVariable variable : variables.values()) {
+                expected += variable.getSetCount();
+            }
+            if (setCount != expected) {
+                throw new IOException(file + " holds rules over " + setCount + " sets instead of " + expected);
+            }
+
+            long footerOffset = read(channel, size - 8, 8).getLong();
+            if (footerOffset < HEADER_SIZE || footerOffset > size - 8) {
+                throw new IOException(file + " has a corrupt footer");
+            }
+            ByteBuffer footer = read(channel, footerOffset, (int) (size - 8 - footerOffset));
+            int[] consequentSlots = new int[footer.getInt()];
+            for (int i = 0; i < consequentSlots.length; i++) {
+                consequentSlots[i] = footer.getInt();
+            }
+            IntBuffer[] segments = new IntBuffer[footer.getInt()];
+            int[] ruleCounts = new int[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = footer.getLong();
+                long length = footer.getLong();
+                ruleCounts[i] = footer.getInt();
+                if (offset < HEADER_SIZE || length < 0 || offset + length > footerOffset) {
+                    throw new IOException(file + " has a corrupt footer");
+                }
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return new FuzzyRuleStore(variables, consequentSlots, segments, ruleCounts);
+        }
+        catch (RuntimeException e) {
+            throw new IOException(file + " has a corrupt footer", e);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Method reads a range of a file into a little-endian buffer.
+     * @param channel Channel of the file.
+     * @param offset Offset of the range.
+     * @param length Length of the range.
+     * @return Buffer holding the range.
+     * @throws IOException If the range cannot be read.
+     */
+    protected static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the rule store");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Method creates a new inference context for this store. A context must not be used by more than
+     * one thread at a time.
+     * @return New inference context.
+     */
+    public RuleStoreContext newContext() {
+        return new RuleStoreContext(this);
+    }
+
+    /**
+     * Getter to obtain the variables the rules refer to.
+     * @return Unmodifiable map of the variables keyed by their names, in the order of their handles.
+     */
+    public Map<String, FuzzyVariable> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * Getter to obtain the number of variables.
+     * @return Number of variables.
+     */
+    public int getVariableCount() {
+        return firstSlots.length;
+    }
+
+    /**
+     * Method returns the index of the named variable, equal to its handle in the controller.
+     * @param name Name of the variable.
+     * @return Index of the variable.
+     * @throws IllegalArgumentException If the store has no variable with the given name.
+     */
+    public int getVariableIndex(String name) {
+        Integer index = variableIndices.get(name);
+
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown fuzzy variable: " + name);
+        }
+        return index;
+    }
+
+    /**
+     * Getter to obtain the number of the rules.
+     * @return Number of the rules.
+     */
+    public long getRuleCount() {
+        long count = 0;
+
+        for (int i = 0; i < ruleCounts.length; i++) {
+            count += ruleCounts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Getter to obtain the size of the records of the rules, held outside the heap.
+     * @return Size in bytes.
+     */
+    public long getSize() {
+        long size = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            size += 4L * segments[i].capacity();
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.store;
+
+import org.sokolovic.jfuzzy.defuzzifier.Defuzzifier;
+import org.sokolovic.jfuzzy.defuzzifier.FuzzyAggregate;
+
+import java.nio.IntBuffer;
+
+/**
+ * Class holds the state of the inferences run on a {@code FuzzyRuleStore}: the degrees of membership
+ * of all the sets of the store, kept in a single primitive array. The rules are interpreted straight
+ * from the records in the buffers of the store, in the order they were added, as the controller does
+ * in its tree mode: the consequents are zeroed, then each rule ORs the degree of membership of its
+ * antecedent into the sets of its consequence. The operands of a conjunction that already evaluates to
+ * zero are skipped, as are the consequences of the rules that do not fire.
+ * <p>
+ * A context is cheap to create and is meant to be owned by a single thread; any number of contexts can
+ * run inferences on the same store at the same time.
+ *
+ * @author sokolovic
+ */
+public class RuleStoreContext {
+
+    /**
+     * The store this context runs the inferences on.
+     */
+    protected final FuzzyRuleStore store;
+
+    /**
+     * Degrees of membership of the sets, indexed by slot.
+     */
+    protected final double[] doms;
+
+    /**
+     * Workspaces of the defuzzifiers of the variables, allocated on their first defuzzification.
+     */
+    protected final double[][] workspaces;
+
+    /**
+     * Constructor to initialize the context of the given store.
+     * @param store Store to run the inferences on.
+     */
+    public RuleStoreContext(FuzzyRuleStore store) {
+        this.store = store;
+        this.doms = new double[store.setCount];
+        this.workspaces = new double[store.getVariableCount()][];
+    }
+
+    /**
+     * Getter to obtain the store this context runs the inferences on.
+     * @return The store of the context.
+     */
+    public FuzzyRuleStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Fuzzify a value by calculating its degree of membership in each of the named variable's sets.
+     * @param name Name of the variable.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(String name, double value) {
+        fuzzify(store.getVariableIndex(name), value);
+    }
+
+    /**
+     * Fuzzify a value by calculating its degree of membership in each of the given variable's sets.
+     * @param variable Index of the variable, equal to its handle in the controller.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(int variable, double value) {
+        store.membershipTables[variable].calculate(value, doms, store.firstSlots[variable]);
+    }
+
+    /**
+     * Given a fuzzy variable with the name specified method processes the rules and returns the crisp
+     * value of the variable.
+     * @param name Name of the variable to defuzzify.
+     * @return Crisp value of the variable specified.
+     */
+    public double defuzzify(String name) {
+        return defuzzify(store.getVariableIndex(name));
+    }
+
+    /**
+     * Given a fuzzy variable with the index specified method processes the rules and returns the crisp
+     * value of the variable.
+     * @param variable Index of the variable to defuzzify, equal to its handle in the controller.
+     * @return Crisp value of the variable specified.
+     */
+    public double defuzzify(int variable) {
+        execute();
+
+        return defuzzifyVariable(variable);
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the variables with the given
+     * indices.
+     * @param variables Indices of the variables to defuzzify, equal to their handles in the controller.
+     * @param results Array to store the crisp values into, in the order of the indices.
+     */
+    public void defuzzify(int[] variables, double[] results) {
+        execute();
+
+        for (int i = 0; i < variables.length; i++) {
+            results[i] = defuzzifyVariable(variables[i]);
+        }
+    }
+
+    /**
+     * Method runs the rules of the store over the current degrees of membership.
+     */
+    public void execute() {
+        int[] consequentSlots = store.consequentSlots;
+        for (int i = 0; i < consequentSlots.length; i++) {
+            doms[consequentSlots[i]] = 0.0;
+        }
+
+        for (int s = 0; s < store.segments.length; s++) {
+            IntBuffer segment = store.segments[s];
+            int end = segment.limit();
+
+            for (int position = 0; position < end; position += segment.get(position)) {
+                int consequentCount = segment.get(position + 1);
+                double strength = evaluate(segment, position + 2 + consequentCount);
+
+                // Only a strength above the current degree of membership changes a consequent
+                if (strength > 0.0) {
+                    for (int i = position + 2; i < position + 2 + consequentCount; i++) {
+                        int slot = segment.get(i);
+                        if (strength > doms[slot]) {
+                            doms[slot] = strength;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Method evaluates the degree of membership of an encoded term, the same way the term itself does.
+     * @param segment Segment holding the term.
+     * @param position Position of the term in the segment.
+     * @return Degree of membership of the term.
+     */
+    protected double evaluate(IntBuffer segment, int position) {
+        switch (segment.get(position)) {
+            case FuzzyRuleStore.TERM_SET:
+                return doms[segment.get(position + 1)];
+            case FuzzyRuleStore.TERM_AND: {
+                int end = position + segment.get(position + 1);
+                double min = Double.MAX_VALUE;
+                for (int operand = position + 2; operand < end && min > 0.0; operand = skip(segment, operand)) {
+                    double dom = evaluate(segment, operand);
+                    if (dom < min) {
+                        min = dom;
+                    }
+                }
+                return min;
+            }
+            case FuzzyRuleStore.TERM_OR: {
+                int end = position + segment.get(position + 1);
+                double max = Double.MIN_VALUE;
+                for (int operand = position + 2; operand < end; operand = skip(segment, operand)) {
+                    double dom = evaluate(segment, operand);
+                    if (dom > max) {
+                        max = dom;
+                    }
+                }
+                return max;
+            }
+            case FuzzyRuleStore.TERM_NOT:
+                return 1 - evaluate(segment, position + 1);
+            case FuzzyRuleStore.TERM_VERY: {
+                double dom = evaluate(segment, position + 1);
+                return dom * dom;
+            }
+            default:
+                return Math.sqrt(evaluate(segment, position + 1));
+        }
+    }
+
+    /**
+     * Method returns the position past an encoded term.
+     * @param segment Segment holding the term.
+     * @param position Position of the term in the segment.
+     * @return Position past the term.
+     */
+    protected static int skip(IntBuffer segment, int position) {
+        while (true) {
+            switch (segment.get(position)) {
+                case FuzzyRuleStore.TERM_SET:
+                    return position + 2;
+                case FuzzyRuleStore.TERM_AND:
+                case FuzzyRuleStore.TERM_OR:
+                    return position + segment.get(position + 1);
+                default:
+                    // A hedge or a negation is followed directly by its operand
+                    position++;
+            }
+        }
+    }
+
+    /**
+     * Method defuzzifies a variable from the current degrees of membership.
+     * @param variable Index of the variable.
+     * @return Crisp value of the variable.
+     */
+    protected double defuzzifyVariable(int variable) {
+        Defuzzifier defuzzifier = store.defuzzifiers[variable];
+        FuzzyAggregate aggregate = store.aggregates[variable];
+
+        if (workspaces[variable] == null) {
+            workspaces[variable] = new double[defuzzifier.getWorkspaceSize(aggregate)];
+        }
+        return defuzzifier.defuzzify(aggregate, doms, store.firstSlots[variable], workspaces[variable]);
+    }
+
+}
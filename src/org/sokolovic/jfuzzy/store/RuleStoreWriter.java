@@ -0,0 +1,544 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.store;
+
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class encodes rules one at a time into a {@code FuzzyRuleStore}, so a rule base of any size can be
+ * stored without ever holding all of its rules on the heap: the terms of a rule can be dropped as soon
+ * as the rule is added. The records are written either into direct buffers, which grow as needed, or
+ * through a small staging buffer into a file, which is mapped into memory when the writer finishes.
+ * <p>
+ * The records are grouped into segments of at most {@code segmentSize} bytes, so a store is not bound
+ * by the size of a single buffer. A writer must not be used by more than one thread at a time.
+ *
+ * @author sokolovic
+ */
+public class RuleStoreWriter implements Closeable {
+
+    /**
+     * Default largest size of a segment in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * Initial size of a direct buffer in bytes.
+     */
+    protected static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Size of the staging buffer of a file in bytes.
+     */
+    protected static final int STAGING_SIZE = 1 << 20;
+
+    /**
+     * Variables keyed by their names, in the order of their handles.
+     */
+    protected final Map<String, FuzzyVariable> variables;
+
+    /**
+     * Slots of the member sets of the variables, keyed by the sets.
+     */
+    protected final IdentityHashMap<FuzzySet, Integer> slots;
+
+    /**
+     * Whether each slot is the consequent of a rule.
+     */
+    protected final boolean[] consequents;
+
+    /**
+     * Largest size of a segment in bytes.
+     */
+    protected final int segmentSize;
+
+    /**
+     * Channel of the file written, or {@code null} for direct buffers.
+     */
+    protected final FileChannel channel;
+
+    /**
+     * The file written, or {@code null} for direct buffers.
+     */
+    protected final RandomAccessFile output;
+
+    /**
+     * Direct buffers of the finished segments.
+     */
+    protected final List<ByteBuffer> buffers;
+
+    /**
+     * Offsets of the finished segments into the file.
+     */
+    protected final List<Long> offsets;
+
+    /**
+     * Lengths of the finished segments in bytes.
+     */
+    protected final List<Long> lengths;
+
+    /**
+     * Numbers of the rules of the finished segments.
+     */
+    protected final List<Integer> ruleCounts;
+
+    /**
+     * Direct buffer of the current segment, or the staging buffer of the file.
+     */
+    protected ByteBuffer buffer;
+
+    /**
+     * Offset of the current segment into the file.
+     */
+    protected long segmentOffset;
+
+    /**
+     * Length of the current segment in bytes.
+     */
+    protected long segmentLength;
+
+    /**
+     * Number of the rules of the current segment.
+     */
+    protected int segmentRules;
+
+    /**
+     * Record being encoded.
+     */
+    protected int[] record;
+
+    /**
+     * Length of the record being encoded.
+     */
+    protected int length;
+
+    /**
+     * Whether the writer has finished.
+     */
+    protected boolean finished;
+
+    /**
+     * Constructor to initialize a writer into direct buffers.
+     * @param variables Variables the rules refer to, keyed by their names, in the order of their handles.
+     */
+    public RuleStoreWriter(Map<String, FuzzyVariable> variables) {
+        this(variables, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor to initialize a writer into direct buffers with segments of the given size.
+     * @param variables Variables the rules refer to, keyed by their names, in the order of their handles.
+     * @param segmentSize Largest size of a segment in bytes.
+     */
+    public RuleStoreWriter(Map<String, FuzzyVariable> variables, int segmentSize) {
+        this.variables = new LinkedHashMap<String, FuzzyVariable>(variables);
+        this.slots = new IdentityHashMap<FuzzySet, Integer>();
+        this.segmentSize = segmentSize & ~3;
+        this.channel = null;
+        this.output = null;
+        this.buffers = new ArrayList<ByteBuffer>();
+        this.offsets = new ArrayList<Long>();
+        this.lengths = new ArrayList<Long>();
+        this.ruleCounts = new ArrayList<Integer>();
+        this.record = new int[64];
+        this.buffer = ByteBuffer.allocateDirect(Math.min(INITIAL_BUFFER_SIZE, this.segmentSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        this.consequents = new boolean[assignSlots()];
+    }
+
+    /**
+     * Constructor to initialize a writer into the given file.
+     * @param variables Variables the rules refer to, keyed by their names, in the order of their handles.
+     * @param file File to write, replacing its content.
+     * @throws IOException If the file cannot be created.
+     */
+    public RuleStoreWriter(Map<String, FuzzyVariable> variables, File file) throws IOException {
+        this(variables, file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor to initialize a writer into the given file with segments of the given size.
+     * @param variables Variables the rules refer to, keyed by their names, in the order of their handles.
+     * @param file File to write, replacing its content.
+     * @param segmentSize Largest size of a segment in bytes.
+     * @throws IOException If the file cannot be created.
+     */
+    public RuleStoreWriter(Map<String, FuzzyVariable> variables, File file, int segmentSize) throws IOException {
+        this.variables = new LinkedHashMap<String, FuzzyVariable>(variables);
+        this.slots = new IdentityHashMap<FuzzySet, Integer>();
+        this.segmentSize = segmentSize & ~3;
+        this.output = new RandomAccessFile(file, "rw");
+        this.channel = output.getChannel();
+        this.buffers = new ArrayList<ByteBuffer>();
+        this.offsets = new ArrayList<Long>();
+        this.lengths = new ArrayList<Long>();
+        this.ruleCounts = new ArrayList<Integer>();
+        this.record = new int[64];
+        this.buffer = ByteBuffer.allocate(STAGING_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.consequents = new boolean[assignSlots()];
+        channel.truncate(0);
+        buffer.putInt(FuzzyRuleStore.MAGIC);
+        buffer.putInt(FuzzyRuleStore.VERSION);
+        buffer.putInt(consequents.length);
+        buffer.putInt(0);
+        this.segmentOffset = FuzzyRuleStore.HEADER_SIZE;
+    }
+
+    /**
+     * Method assigns the slots of the member sets of the variables.
+     * @return Number of the slots.
+     */
+    protected int assignSlots() {
+        int slot = 0;
+
+        for (FuzzyVariable variable : variables.values()) {
+            for (int i = 0; i < variable.getSetCount(); i++) {
+                slots.put(variable.getSet(i), slot++);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Method adds a rule to the store.
+     * @param rule Rule to add.
+     * @throws IOException If the rule cannot be written into the file.
+     * @throws IllegalArgumentException If the rule refers to a set that is not a member of any of the
+     *                                  variables, or contains a term of an unknown type.
+     * @throws IllegalStateException If the writer has finished.
+     */
+    public void addRule(FuzzyRule rule) throws IOException {
+        addRule(rule.getAntecedent(), rule.getConsequence());
+    }
+
+    /**
+     * Method adds a rule with the given antecedent and consequence to the store.
+     * @param antecedent Antecedent of the rule.
+     * @param consequence Consequence of the rule.
+     * @throws IOException If the rule cannot be written into the file.
+     * @throws IllegalArgumentException If the rule refers to a set that is not a member of any of the
+     *                                  variables, or contains a term of an unknown type.
+     * @throws IllegalStateException If the writer has finished.
+     */
+    public void addRule(FuzzyTerm antecedent, FuzzyTerm consequence) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The rule store writer has finished");
+        }
+        length = 2;
+        collectConsequents(consequence);
+        record[1] = length - 2;
+        encode(antecedent);
+        record[0] = length;
+
+        int bytes = 4 * length;
+        if (bytes > segmentSize) {
+            throw new IllegalArgumentException("A rule of " + bytes + " bytes does not fit a segment");
+        }
+        if (segmentLength + bytes > segmentSize) {
+            finishSegment();
+        }
+        if (channel == null && buffer.remaining() < bytes) {
+            // Grow the direct buffer of the segment, it never needs to exceed the segment size
+            long capacity = Math.min((long) segmentSize, Math.max(2L * buffer.capacity(), segmentLength + bytes));
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        if (channel != null && buffer.remaining() < bytes) {
+            flush();
+        }
+        if (channel != null && buffer.remaining() < bytes) {
+            ByteBuffer record = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            record.asIntBuffer().put(this.record, 0, length);
+            write(record);
+        }
+        else {
+            buffer.asIntBuffer().put(record, 0, length);
+            buffer.position(buffer.position() + bytes);
+        }
+        segmentLength += bytes;
+        segmentRules++;
+        for (int i = 2; i < 2 + record[1]; i++) {
+            consequents[record[i]] = true;
+        }
+    }
+
+    /**
+     * Method finishes a store in direct buffers.
+     * @return Store of the rules added.
+     * @throws IllegalStateException If the writer writes into a file or has finished.
+     */
+    public FuzzyRuleStore finish() {
+        if (channel != null || finished) {
+            throw new IllegalStateException("The rule store writer does not write into direct buffers or has finished");
+        }
+        finished = true;
+        finishSegment();
+
+        IntBuffer[] segments = new IntBuffer[buffers.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = buffers.get(i).asIntBuffer();
+        }
+        return new FuzzyRuleStore(variables, consequentSlots(), segments, toArray(ruleCounts));
+    }
+
+    /**
+     * Method finishes a store file, writes its footer and maps it into memory.
+     * @return Store of the rules added.
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalStateException If the writer writes into direct buffers or has finished.
+     */
+    public FuzzyRuleStore finishFile() throws IOException {
+        if (channel == null || finished) {
+            throw new IllegalStateException("The rule store writer does not write into a file or has finished");
+        }
+        finished = true;
+        finishSegment();
+
+        int[] consequentSlots = consequentSlots();
+        long footerOffset = segmentOffset;
+        ByteBuffer footer = ByteBuffer.allocate(16 + 4 * consequentSlots.length + 20 * offsets.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        footer.putInt(consequentSlots.length);
+        for (int slot : consequentSlots) {
+            footer.putInt(slot);
+        }
+        footer.putInt(offsets.size());
+        for (int i = 0; i < offsets.size(); i++) {
+            footer.putLong(offsets.get(i));
+            footer.putLong(lengths.get(i));
+            footer.putInt(ruleCounts.get(i));
+        }
+        footer.putLong(footerOffset);
+        footer.flip();
+        flush();
+        write(footer);
+
+        IntBuffer[] segments = new IntBuffer[offsets.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets.get(i), lengths.get(i))
+                    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return new FuzzyRuleStore(variables, consequentSlots, segments, toArray(ruleCounts));
+    }
+
+    /**
+     * Method closes the file written, if any. The mappings of a finished store stay valid.
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        if (output != null) {
+            output.close();
+        }
+    }
+
+    /**
+     * Method finishes the current segment, if it holds any rules, and starts a new one.
+     */
+    protected void finishSegment() {
+        if (segmentRules == 0) {
+            return;
+        }
+        if (channel == null) {
+            buffer.flip();
+            buffers.add(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+            buffer = ByteBuffer.allocateDirect(Math.min(INITIAL_BUFFER_SIZE, segmentSize)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        offsets.add(segmentOffset);
+        lengths.add(segmentLength);
+        ruleCounts.add(segmentRules);
+        segmentOffset += segmentLength;
+        segmentLength = 0;
+        segmentRules = 0;
+    }
+
+    /**
+     * Method writes the content of the staging buffer into the file.
+     * @throws IOException If the file cannot be written.
+     */
+    protected void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Method writes the remaining content of a buffer at the end of the file.
+     * @param content Buffer to write.
+     * @throws IOException If the file cannot be written.
+     */
+    protected void write(ByteBuffer content) throws IOException {
+        while (content.hasRemaining()) {
+            channel.write(content);
+        }
+    }
+
+    /**
+     * Method gathers the slots of the sets a consequence is made of into the record.
+     * @param term Consequence, or a term within it.
+     * @throws IllegalArgumentException If the term refers to a set that is not a member of any of the
+     *                                  variables, or is of an unknown type.
+     */
+    protected void collectConsequents(FuzzyTerm term) {
+        if (term instanceof ProxyFuzzySet) {
+            append(slotOf((ProxyFuzzySet) term));
+            return;
+        }
+        for (FuzzyTerm operand : operands(term)) {
+            collectConsequents(operand);
+        }
+    }
+
+    /**
+     * Method encodes a term into the record.
+     * @param term Term to encode.
+     * @throws IllegalArgumentException If the term refers to a set that is not a member of any of the
+     *                                  variables, or is of an unknown type.
+     */
+    protected void encode(FuzzyTerm term) {
+        if (term instanceof ProxyFuzzySet) {
+            append(FuzzyRuleStore.TERM_SET);
+            append(slotOf((ProxyFuzzySet) term));
+        }
+        else if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            int start = length;
+            append(term instanceof FuzzyAnd ? FuzzyRuleStore.TERM_AND : FuzzyRuleStore.TERM_OR);
+            append(0);
+            for (FuzzyTerm operand : operands(term)) {
+                encode(operand);
+            }
+            record[start + 1] = length - start;
+        }
+        else {
+            append(term instanceof FuzzyNot ? FuzzyRuleStore.TERM_NOT
+                    : term instanceof FuzzyVery ? FuzzyRuleStore.TERM_VERY : FuzzyRuleStore.TERM_FAIRLY);
+            encode(operands(term).get(0));
+        }
+    }
+
+    /**
+     * Method returns the operands of a composite term.
+     * @param term Composite term.
+     * @return Operands of the term.
+     * @throws IllegalArgumentException If the term is of an unknown type.
+     */
+    protected static List<FuzzyTerm> operands(FuzzyTerm term) {
+        if (term instanceof FuzzyAnd) {
+            return ((FuzzyAnd) term).getTerms();
+        }
+        if (term instanceof FuzzyOr) {
+            return ((FuzzyOr) term).getTerms();
+        }
+        if (term instanceof FuzzyNot) {
+            return Arrays.asList(((FuzzyNot) term).getTerm());
+        }
+        if (term instanceof FuzzyVery) {
+            return Arrays.asList(((FuzzyVery) term).getTerm());
+        }
+        if (term instanceof FuzzyFairly) {
+            return Arrays.asList(((FuzzyFairly) term).getTerm());
+        }
+        throw new IllegalArgumentException("Unsupported fuzzy term: " + term.getClass().getName());
+    }
+
+    /**
+     * Method returns the slot of the set of a proxy.
+     * @param proxy Proxy of a set.
+     * @return Slot of the set.
+     * @throws IllegalArgumentException If the set is not a member of any of the variables.
+     */
+    protected int slotOf(ProxyFuzzySet proxy) {
+        Integer slot = slots.get(proxy.getSet());
+
+        if (slot == null) {
+            throw new IllegalArgumentException("A rule refers to a fuzzy set that is not a member of any " +
+                    "variable of the store");
+        }
+        return slot;
+    }
+
+    /**
+     * Method appends an int to the record, growing it as needed.
+     * @param value Value to append.
+     */
+    protected void append(int value) {
+        if (length == record.length) {
+            record = Arrays.copyOf(record, 2 * length);
+        }
+        record[length++] = value;
+    }
+
+    /**
+     * Method returns the distinct slots of the sets used as consequents, in ascending order.
+     * @return Consequent slots.
+     */
+    protected int[] consequentSlots() {
+        int count = 0;
+        for (boolean consequent : consequents) {
+            count += consequent ? 1 : 0;
+        }
+
+        int[] slots = new int[count];
+        count = 0;
+        for (int slot = 0; slot < consequents.length; slot++) {
+            if (consequents[slot]) {
+                slots[count++] = slot;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Method copies a list of integers into an array.
+     * @param list List of integers.
+     * @return Array of the integers.
+     */
+    protected static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.stream;
+
+import org.sokolovic.jfuzzy.FuzzyBatch;
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Class runs the inferences of a stream of records as a stage of a reactive pipeline. Each input
+ * record holds the values of the input variables, in the order of the input names, and yields an
+ * output record holding the crisp values of the output variables, in the order of the output names.
+ * The output records are published in the order of the input records.
+ * <p>
+ * The processor holds at most {@code bufferSize} records at a time: it requests that many records
+ * from upstream and requests more only as the output records are taken downstream, so a slow consumer
+ * holds back the producer instead of records being dropped or buffered without bound. The records are
+ * gathered into micro-batches of up to {@code batchSize} records, run through a {@code FuzzyBatch} by
+ * the workers of the given executor. At most {@code workers} batches run at a time; while they all
+ * run, the arriving records fill the next batch, and as soon as a worker is free the records gathered
+ * so far are dispatched. A lightly loaded stream is thus processed record by record, while bursts are
+ * processed in full batches. The batches may complete out of order, but their records are published
+ * in order. Once all the records of a batch are published, its columns are reused for the records
+ * arriving later.
+ * <p>
+ * A processor serves a single stream: it accepts a single subscription upstream and a single
+ * subscriber downstream. Streams that need no ordering between each other should use processors of
+ * their own, which can share the model and the executor.
+ *
+ * @author sokolovic
+ */
+public class FuzzyProcessor implements Flow.Processor<double[], double[]> {
+
+    /**
+     * Default number of records held by a processor.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    /**
+     * Default number of records of a micro-batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = FuzzyBatch.BLOCK_SIZE;
+
+    /**
+     * The model the inferences are run on.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Indices of the input variables.
+     */
+    protected final int[] inputs;
+
+    /**
+     * Indices of the output variables.
+     */
+    protected final int[] outputs;
+
+    /**
+     * Executor running the batches.
+     */
+    protected final Executor executor;
+
+    /**
+     * The largest number of records held at a time.
+     */
+    protected final int bufferSize;
+
+    /**
+     * The largest number of records of a batch.
+     */
+    protected final int batchSize;
+
+    /**
+     * The largest number of batches running at a time.
+     */
+    protected final int workers;
+
+    /**
+     * Batch runners not in use by a worker.
+     */
+    protected final Queue<FuzzyBatch> runners;
+
+    /**
+     * The dispatched batches whose records have not all been published, in the order of their records.
+     */
+    protected final ArrayDeque<Batch> pending;
+
+    /**
+     * Batches whose records have all been published, kept to gather the arriving records again.
+     */
+    protected final ArrayDeque<Batch> spares;
+
+    /**
+     * The batch gathering the arriving records, or {@code null}.
+     */
+    protected Batch current;
+
+    /**
+     * Number of batches running.
+     */
+    protected int running;
+
+    /**
+     * The subscription to the input records, or {@code null} until subscribed.
+     */
+    protected Flow.Subscription upstream;
+
+    /**
+     * The subscriber to the output records, or {@code null} until subscribed.
+     */
+    protected Flow.Subscriber<? super double[]> downstream;
+
+    /**
+     * Number of output records requested downstream and not yet published.
+     */
+    protected long demand;
+
+    /**
+     * Number of input records to request from upstream.
+     */
+    protected long requests;
+
+    /**
+     * Whether the records have been requested from upstream for the first time.
+     */
+    protected boolean started;
+
+    /**
+     * Whether the subscription to the input records is to be cancelled.
+     */
+    protected boolean cancelling;
+
+    /**
+     * Whether the upstream has completed.
+     */
+    protected boolean completed;
+
+    /**
+     * The error to signal downstream, or {@code null}.
+     */
+    protected Throwable error;
+
+    /**
+     * Whether the stream has ended, by a terminal signal or the cancellation of the subscriber.
+     */
+    protected boolean terminated;
+
+    /**
+     * Whether a thread is publishing records.
+     */
+    protected boolean draining;
+
+    /**
+     * Whether the state changed while a thread was publishing records.
+     */
+    protected boolean missed;
+
+    /**
+     * Constructor to initialize the processor of the given controller with the default buffer and
+     * batch sizes, running the batches in the common pool with as many workers as it has.
+     * @param controller Controller to run the inferences of. Its model is created once, so later
+     *                   changes of the controller do not affect the processor.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     */
+    public FuzzyProcessor(FuzzyController controller, String[] inputNames, String[] outputNames) {
+        this(controller.createModel(), inputNames, outputNames, ForkJoinPool.commonPool(),
+             DEFAULT_BUFFER_SIZE, DEFAULT_BATCH_SIZE, ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Constructor to initialize the processor.
+     * @param model Model to run the inferences on.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @param executor Executor to run the batches in.
+     * @param bufferSize The largest number of records held at a time.
+     * @param batchSize The largest number of records of a batch.
+     * @param workers The largest number of batches running at a time.
+     * @throws IllegalArgumentException If a variable is unknown or a size is not positive.
+     */
+    public FuzzyProcessor(FuzzyModel model, String[] inputNames, String[] outputNames, Executor executor,
+                          int bufferSize, int batchSize, int workers) {
+        if (bufferSize < 1 || batchSize < 1 || workers < 1) {
+            throw new IllegalArgumentException("The buffer size, batch size and number of workers must be positive");
+        }
+
+        this.model = model;
+        this.inputs = new int[inputNames.length];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = model.getVariableIndex(inputNames[i]);
+        }
+        this.outputs = new int[outputNames.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = model.getVariableIndex(outputNames[i]);
+        }
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.runners = new ConcurrentLinkedQueue<FuzzyBatch>();
+        this.pending = new ArrayDeque<Batch>();
+        this.spares = new ArrayDeque<Batch>();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super double[]> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("The subscriber must not be null");
+        }
+
+        boolean accepted;
+        synchronized (this) {
+            accepted = downstream == null;
+            if (accepted) {
+                downstream = subscriber;
+            }
+        }
+        if (!accepted) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The processor already has a subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Output());
+        start();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        boolean accepted;
+        synchronized (this) {
+            accepted = upstream == null && !terminated;
+            if (accepted) {
+                upstream = subscription;
+            }
+        }
+        if (!accepted) {
+            subscription.cancel();
+            return;
+        }
+        start();
+    }
+
+    /**
+     * Method requests the first records from upstream once both the upstream and the downstream
+     * are subscribed.
+     */
+    protected void start() {
+        synchronized (this) {
+            if (started || upstream == null || downstream == null) {
+                return;
+            }
+            started = true;
+            requests += bufferSize;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(double[] record) {
+        Batch dispatched = null;
+
+        synchronized (this) {
+            if (terminated || completed || error != null) {
+                return;
+            }
+            if (record == null || record.length != inputs.length) {
+                error = new IllegalArgumentException("Expected a record of " + inputs.length + " values");
+            }
+            else {
+                if (current == null) {
+                    current = spares.isEmpty() ? new Batch() : spares.removeFirst();
+                }
+                current.add(record);
+                if (current.size == batchSize || running < workers) {
+                    dispatched = dispatch();
+                }
+            }
+        }
+        if (dispatched != null) {
+            run(dispatched);
+        }
+        else {
+            drain();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (this) {
+            if (error == null) {
+                error = throwable;
+            }
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        Batch dispatched = null;
+
+        synchronized (this) {
+            completed = true;
+            if (current != null && running < workers) {
+                dispatched = dispatch();
+            }
+        }
+        if (dispatched != null) {
+            run(dispatched);
+        }
+        else {
+            drain();
+        }
+    }
+
+    /**
+     * Method moves the batch gathering the records to the pending batches. Must be called holding
+     * the lock of the processor.
+     * @return The dispatched batch.
+     */
+    protected Batch dispatch() {
+        Batch batch = current;
+
+        current = null;
+        pending.addLast(batch);
+        running++;
+
+        return batch;
+    }
+
+    /**
+     * Method empties a batch whose records have all been published and keeps it to gather records
+     * again, unless there are spare batches enough for all the workers and the gathering batch. Must be
+     * called holding the lock of the processor.
+     * @param batch Batch to recycle.
+     */
+    protected void recycle(Batch batch) {
+        if (spares.size() <= workers) {
+            batch.size = 0;
+            batch.published = 0;
+            batch.done = false;
+            spares.addLast(batch);
+        }
+    }
+
+    /**
+     * Method runs the given batch in the executor.
+     * @param batch Batch to run.
+     */
+    protected void run(final Batch batch) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(batch);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            synchronized (this) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Method runs the inferences of the given batch, then dispatches the records gathered meanwhile
+     * and publishes the records that are ready.
+     * @param batch Batch to process.
+     */
+    protected void process(Batch batch) {
+        Throwable failure = null;
+
+        try {
+            FuzzyBatch runner = runners.poll();
+            if (runner == null) {
+                runner = new FuzzyBatch(model, inputs, outputs);
+            }
+            runner.run(batch.inputColumns, batch.outputColumns, 0, batch.size);
+            runners.offer(runner);
+        }
+        catch (Throwable t) {
+            failure = t;
+        }
+
+        Batch dispatched = null;
+        synchronized (this) {
+            batch.done = true;
+            running--;
+            if (failure != null && error == null) {
+                error = failure;
+            }
+            if (current != null && error == null && !terminated) {
+                dispatched = dispatch();
+            }
+        }
+        if (dispatched != null) {
+            run(dispatched);
+        }
+        drain();
+    }
+
+    /**
+     * Method publishes the output records that are ready and requested, in order, and signals the end
+     * of the stream once all of them are published. It also requests the records that replace the
+     * published ones from upstream and cancels the upstream, so all the calls to the subscriptions
+     * are made by one thread at a time. Only one thread drains at a time; a call made meanwhile makes
+     * that thread check the state again.
+     */
+    protected void drain() {
+        synchronized (this) {
+            if (draining) {
+                missed = true;
+                return;
+            }
+            draining = true;
+        }
+
+        for (;;) {
+            Flow.Subscriber<? super double[]> subscriber;
+            Flow.Subscription subscription;
+            double[] record = null;
+            Throwable failure = null;
+            boolean complete = false;
+            boolean cancel = false;
+            long request = 0;
+
+            synchronized (this) {
+                subscriber = downstream;
+                subscription = upstream;
+                Batch head = pending.peekFirst();
+
+                if (cancelling && subscription != null) {
+                    cancelling = false;
+                    cancel = true;
+                }
+                else if (terminated || subscriber == null) {
+                    draining = false;
+                    return;
+                }
+                else if (error != null) {
+                    failure = error;
+                    cancel = subscription != null;
+                    terminated = true;
+                    pending.clear();
+                    current = null;
+                }
+                else if (demand > 0 && head != null && head.done) {
+                    record = head.output(head.published++);
+                    if (head.published == head.size) {
+                        pending.removeFirst();
+                        recycle(head);
+                    }
+                    demand--;
+                    if (!completed) {
+                        requests++;
+                    }
+                }
+                else if (completed && head == null && current == null) {
+                    complete = true;
+                    terminated = true;
+                }
+                else if (requests > 0 && subscription != null && !completed) {
+                    request = requests;
+                    requests = 0;
+                }
+                else if (missed) {
+                    missed = false;
+                }
+                else {
+                    draining = false;
+                    return;
+                }
+            }
+
+            if (cancel) {
+                subscription.cancel();
+            }
+            if (failure != null) {
+                subscriber.onError(failure);
+            }
+            if (complete) {
+                subscriber.onComplete();
+            }
+            if (record != null) {
+                subscriber.onNext(record);
+            }
+            if (request > 0) {
+                subscription.request(request);
+            }
+        }
+    }
+
+    /**
+     * Subscription of the downstream subscriber.
+     */
+    protected class Output implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            synchronized (FuzzyProcessor.this) {
+                if (n <= 0) {
+                    if (error == null) {
+                        error = new IllegalArgumentException("The number of requested records must be positive");
+                    }
+                }
+                else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (FuzzyProcessor.this) {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                cancelling = true;
+                pending.clear();
+                current = null;
+            }
+            drain();
+        }
+
+    }
+
+    /**
+     * Micro-batch of records, stored column-wise.
+     */
+    protected class Batch {
+
+        /**
+         * Input columns, one per input variable.
+         */
+        protected final double[][] inputColumns;
+
+        /**
+         * Output columns, one per output variable.
+         */
+        protected final double[][] outputColumns;
+
+        /**
+         * Number of records of the batch.
+         */
+        protected int size;
+
+        /**
+         * Number of output records published.
+         */
+        protected int published;
+
+        /**
+         * Whether the inferences of the batch have run.
+         */
+        protected boolean done;
+
+        /**
+         * Constructor to initialize an empty batch.
+         */
+        protected Batch() {
+            this.inputColumns = new double[inputs.length][batchSize];
+            this.outputColumns = new double[outputs.length][batchSize];
+        }
+
+        /**
+         * Method adds an input record to the batch.
+         * @param record Values of the input variables.
+         */
+        protected void add(double[] record) {
+            for (int v = 0; v < record.length; v++) {
+                inputColumns[v][size] = record[v];
+            }
+            size++;
+        }
+
+        /**
+         * Method creates an output record of the batch.
+         * @param index Index of the record.
+         * @return Crisp values of the output variables.
+         */
+        protected double[] output(int index) {
+            double[] record = new double[outputs.length];
+
+            for (int v = 0; v < record.length; v++) {
+                record[v] = outputColumns[v][index];
+            }
+            return record;
+        }
+
+    }
+
+}
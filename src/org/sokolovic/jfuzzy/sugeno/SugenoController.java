@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.sugeno;
+
+import org.sokolovic.jfuzzy.FuzzyRule;
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.compiler.FuzzyCompiler;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.compiler.RuleListener;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class models a Takagi-Sugeno-Kang controller: fuzzy input variables and rules whose consequents are
+ * constants or linear functions of the crisp input values. The inputs are fuzzified by their variables
+ * and the antecedents are built from their sets and the operators, like the ones of a
+ * {@code FuzzyController}. The outputs have no sets: the crisp value of an output is the average of the
+ * consequents of its rules, weighted by their firing strengths, the degrees of membership of their
+ * antecedents multiplied by the weights of the rules, all calculated in a single pass over the
+ * rules with no defuzzification step.
+ * <p>
+ * The input variables and the outputs have separate handles, both assigned from zero in the order they
+ * are created. The coefficients of the consequents are given in the order of the handles of the inputs.
+ * <p>
+ * In compiled mode the antecedents are lowered into a {@code FuzzyProgram} like the rules of a
+ * {@code FuzzyController} and the program skips the rules that cannot fire. The results are the same in
+ * both modes.
+ *
+ * @author sokolovic
+ */
+public class SugenoController {
+
+    /**
+     * The input variables keyed by their names, in the order of their handles.
+     */
+    protected LinkedHashMap<String, FuzzyVariable> variables;
+
+    /**
+     * Handles of the input variables keyed by their names.
+     */
+    protected HashMap<String, Integer> handles;
+
+    /**
+     * The input variables indexed by their handles.
+     */
+    protected List<FuzzyVariable> variablesByHandle;
+
+    /**
+     * The last crisp value fuzzified by each input variable, indexed by the handles of the variables.
+     */
+    protected double[] inputs;
+
+    /**
+     * Handles of the outputs keyed by their names.
+     */
+    protected HashMap<String, Integer> outputHandles;
+
+    /**
+     * Names of the outputs indexed by their handles.
+     */
+    protected List<String> outputNames;
+
+    /**
+     * The rules of the controller, in the order they were added.
+     */
+    protected List<SugenoRule> rules;
+
+    /**
+     * Sums of the consequents weighted by the firing strengths, indexed by the handles of the outputs.
+     */
+    protected double[] tops;
+
+    /**
+     * Sums of the firing strengths, indexed by the handles of the outputs.
+     */
+    protected double[] bottoms;
+
+    /**
+     * Whether the antecedents are evaluated by the compiled program instead of walking the rule trees.
+     */
+    protected boolean compiled;
+
+    /**
+     * The compiled antecedents. Compiled lazily and discarded whenever the controller changes.
+     */
+    protected FuzzyProgram program;
+
+    /**
+     * The slot array the compiled program operates on.
+     */
+    protected double[] slots;
+
+    /**
+     * Number of the member sets of the input variables, which lead the slot array of the program.
+     */
+    protected int memberCount;
+
+    /**
+     * Degrees of membership of the antecedents reported by the last run of the program, indexed by the
+     * rules. The rules skipped by the program are zero.
+     */
+    protected double[] doms;
+
+    /**
+     * Listener storing the degrees of membership reported by the program.
+     */
+    protected RuleListener listener;
+
+    /**
+     * Handles of the outputs of the rules, indexed by the rules.
+     */
+    protected int[] ruleOutputs;
+
+    /**
+     * Weights of the rules, indexed by the rules.
+     */
+    protected double[] ruleWeights;
+
+    /**
+     * Constant terms of the consequents of the rules, indexed by the rules.
+     */
+    protected double[] ruleConstants;
+
+    /**
+     * Offsets of the coefficients of each rule into {@code ruleCoefficients}, followed by their total
+     * number.
+     */
+    protected int[] coefficientOffsets;
+
+    /**
+     * The coefficients of the consequents of all the rules, rule after rule.
+     */
+    protected double[] ruleCoefficients;
+
+    /**
+     * No-arg constructor. Initializes the new instance of the controller with no variables and rules.
+     */
+    public SugenoController() {
+        variables = new LinkedHashMap<String, FuzzyVariable>();
+        handles = new HashMap<String, Integer>();
+        variablesByHandle = new ArrayList<FuzzyVariable>();
+        inputs = new double[4];
+        outputHandles = new HashMap<String, Integer>();
+        outputNames = new ArrayList<String>();
+        rules = new ArrayList<SugenoRule>();
+        tops = new double[4];
+        bottoms = new double[4];
+        compiled = false;
+    }
+
+    /**
+     * Getter to obtain the input variables of the controller.
+     * @return Unmodifiable map of the variables keyed by their names, in the order of their handles.
+     */
+    public Map<String, FuzzyVariable> getVariables() {
+        return Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * Method returns the handle of the named input variable.
+     * @param name Name of the variable.
+     * @return Handle of the variable.
+     * @throws IllegalArgumentException If the controller has no variable with the given name.
+     */
+    public int getHandle(String name) {
+        Integer handle = handles.get(name);
+
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown fuzzy variable: " + name);
+        }
+        return handle;
+    }
+
+    /**
+     * Getter to obtain the names of the outputs of the controller.
+     * @return Unmodifiable list of the names of the outputs, in the order of their handles.
+     */
+    public List<String> getOutputs() {
+        return Collections.unmodifiableList(outputNames);
+    }
+
+    /**
+     * Method returns the handle of the named output.
+     * @param name Name of the output.
+     * @return Handle of the output.
+     * @throws IllegalArgumentException If the controller has no output with the given name.
+     */
+    public int getOutputHandle(String name) {
+        Integer handle = outputHandles.get(name);
+
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown output: " + name);
+        }
+        return handle;
+    }
+
+    /**
+     * Getter to obtain the rules of the controller.
+     * @return Unmodifiable list of the rules, in the order they were added.
+     */
+    public List<SugenoRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Getter to check whether the controller runs in compiled mode.
+     * @return {@code true} if the antecedents are evaluated by the compiled program.
+     */
+    public boolean isCompiled() {
+        return this.compiled;
+    }
+
+    /**
+     * Setter to switch the compiled mode on or off.
+     * @param compiled {@code true} to evaluate the antecedents by the compiled program.
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+        this.program = null;
+        this.slots = null;
+    }
+
+    /**
+     * Creates a new 'empty' input variable and returns a reference to it. The variable is assigned the
+     * next free handle, unless it replaces a variable with the same name, whose handle it takes over.
+     * @param name Name of the variable to create.
+     * @return Reference to the newly created variable.
+     */
+    public FuzzyVariable createFLV(String name) {
+        FuzzyVariable variable = new FuzzyVariable();
+        Integer handle = handles.get(name);
+
+        if (handle == null) {
+            handles.put(name, variablesByHandle.size());
+            variablesByHandle.add(variable);
+            if (variablesByHandle.size() > inputs.length) {
+                inputs = Arrays.copyOf(inputs, inputs.length * 2);
+            }
+        }
+        else {
+            variablesByHandle.set(handle, variable);
+        }
+        variables.put(name, variable);
+        program = null;
+
+        return variable;
+    }
+
+    /**
+     * Creates a new output, or returns the handle of the output if it already exists.
+     * @param name Name of the output.
+     * @return Handle of the output.
+     */
+    public int createOutput(String name) {
+        Integer handle = outputHandles.get(name);
+
+        if (handle == null) {
+            handle = outputNames.size();
+            outputHandles.put(name, handle);
+            outputNames.add(name);
+            if (outputNames.size() > tops.length) {
+                tops = Arrays.copyOf(tops, tops.length * 2);
+                bottoms = Arrays.copyOf(bottoms, bottoms.length * 2);
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * Adds a rule with a linear consequent to the controller, or a constant one if no coefficients are
+     * given.
+     * @param antecedent Antecedent of the rule to add.
+     * @param output Name of the output of the rule.
+     * @param constant Constant term of the consequent.
+     * @param coefficients Coefficients of the input values, in the order of the handles of the inputs.
+     */
+    public void addRule(FuzzyTerm antecedent, String output, double constant, double... coefficients) {
+        addRule(new SugenoRule(antecedent, getOutputHandle(output), constant, coefficients));
+    }
+
+    /**
+     * Adds a rule to the controller.
+     * @param rule Rule to add.
+     * @throws IllegalArgumentException If the rule refers to an unknown output or has more coefficients
+     *                                  than the controller has inputs.
+     */
+    public void addRule(SugenoRule rule) {
+        checkRule(rule);
+        rules.add(rule);
+        program = null;
+    }
+
+    /**
+     * Setter to replace the rules of the controller, as the {@code FuzzyTrainer} does.
+     * @param rules The new rules, in the order they are evaluated.
+     * @throws IllegalArgumentException If a rule refers to an unknown output or has more coefficients
+     *                                  than the controller has inputs.
+     */
+    public void setRules(List<SugenoRule> rules) {
+        for (SugenoRule rule : rules) {
+            checkRule(rule);
+        }
+        this.rules = new ArrayList<SugenoRule>(rules);
+        program = null;
+    }
+
+    /**
+     * Method checks that a rule can be added to the controller.
+     * @param rule Rule to check.
+     * @throws IllegalArgumentException If the rule refers to an unknown output or has more coefficients
+     *                                  than the controller has inputs.
+     */
+    protected void checkRule(SugenoRule rule) {
+        if (rule.getOutput() < 0 || rule.getOutput() >= outputNames.size()) {
+            throw new IllegalArgumentException("Unknown output: " + rule.getOutput());
+        }
+        if (rule.coefficients.length > variablesByHandle.size()) {
+            throw new IllegalArgumentException("The rule has " + rule.coefficients.length +
+                    " coefficients, but the controller has " + variablesByHandle.size() + " inputs");
+        }
+    }
+
+    /**
+     * Method calls the {@code fuzzify()} method of the named input variable and remembers the value for
+     * the consequents of the rules.
+     * @param name Name of the variable.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(String name, double value) {
+        fuzzify(getHandle(name), value);
+    }
+
+    /**
+     * Method calls the {@code fuzzify()} method of the input variable with the given handle and
+     * remembers the value for the consequents of the rules.
+     * @param handle Handle of the variable.
+     * @param value Value to fuzzify.
+     */
+    public void fuzzify(int handle, double value) {
+        variablesByHandle.get(handle).fuzzify(value);
+        inputs[handle] = value;
+    }
+
+    /**
+     * Method processes the rules and returns the crisp value of the named output.
+     * @param name Name of the output.
+     * @return Average of the consequents of the rules of the output, weighted by their firing strengths,
+     *         or zero if none of them fires.
+     */
+    public double defuzzify(String name) {
+        return defuzzify(getOutputHandle(name));
+    }
+
+    /**
+     * Method processes the rules and returns the crisp value of the output with the given handle.
+     * @param handle Handle of the output.
+     * @return Average of the consequents of the rules of the output, weighted by their firing strengths,
+     *         or zero if none of them fires.
+     */
+    public double defuzzify(int handle) {
+        calculate();
+
+        return average(handle);
+    }
+
+    /**
+     * Method processes the rules once and returns the crisp values of all the outputs with the given
+     * handles.
+     * @param handles Handles of the outputs.
+     * @param results Array to store the crisp values into, in the order of the handles.
+     */
+    public void defuzzify(int[] handles, double[] results) {
+        calculate();
+
+        for (int i = 0; i < handles.length; i++) {
+            results[i] = average(handles[i]);
+        }
+    }
+
+    /**
+     * Method processes the rules in a single pass, summing the firing strengths and the weighted
+     * consequents of each output. Rules that do not fire are skipped without evaluating their
+     * consequents.
+     */
+    protected void calculate() {
+        Arrays.fill(tops, 0.0);
+        Arrays.fill(bottoms, 0.0);
+
+        if (compiled) {
+            calculateCompiled();
+            return;
+        }
+        for (int i = 0; i < rules.size(); i++) {
+            SugenoRule rule = rules.get(i);
+            double strength = rule.getAntecedent().getDom() * rule.weight;
+
+            if (strength > 0.0) {
+                bottoms[rule.output] += strength;
+                tops[rule.output] += strength * rule.evaluate(inputs);
+            }
+        }
+    }
+
+    /**
+     * Method processes the rules by running the compiled program, compiling the antecedents first if
+     * the controller has changed since the last run. The program reports the degrees of membership of
+     * the antecedents of the rules it runs, which are then weighted and summed in the order of the rules,
+     * as in the tree mode.
+     */
+    protected void calculateCompiled() {
+        if (program == null) {
+            compile();
+        }
+
+        for (int i = 0; i < memberCount; i++) {
+            slots[i] = program.getSet(i).getDom();
+        }
+        program.execute(slots, listener);
+        for (int i = 0; i < doms.length; i++) {
+            double dom = doms[i];
+
+            if (dom != 0.0) {
+                double strength = dom * ruleWeights[i];
+                doms[i] = 0.0;
+                if (strength > 0.0) {
+                    double value = ruleConstants[i];
+                    for (int j = coefficientOffsets[i]; j < coefficientOffsets[i + 1]; j++) {
+                        value += ruleCoefficients[j] * inputs[j - coefficientOffsets[i]];
+                    }
+                    bottoms[ruleOutputs[i]] += strength;
+                    tops[ruleOutputs[i]] += strength * value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Method compiles the antecedents of the rules and lays their consequents out in parallel arrays.
+     * All the rules share a consequent set of their own, as only the degrees of membership of their
+     * antecedents are read from the program.
+     */
+    protected void compile() {
+        ProxyFuzzySet consequent = new ProxyFuzzySet(new StrengthSet());
+        List<FuzzyRule> strengthRules = new ArrayList<FuzzyRule>(rules.size());
+        ruleOutputs = new int[rules.size()];
+        ruleWeights = new double[rules.size()];
+        ruleConstants = new double[rules.size()];
+        coefficientOffsets = new int[rules.size() + 1];
+        for (int i = 0; i < rules.size(); i++) {
+            SugenoRule rule = rules.get(i);
+            strengthRules.add(new FuzzyRule(rule.getAntecedent(), consequent));
+            ruleOutputs[i] = rule.output;
+            ruleWeights[i] = rule.weight;
+            ruleConstants[i] = rule.constant;
+            coefficientOffsets[i + 1] = coefficientOffsets[i] + rule.coefficients.length;
+        }
+        ruleCoefficients = new double[coefficientOffsets[rules.size()]];
+        for (int i = 0; i < rules.size(); i++) {
+            double[] coefficients = rules.get(i).coefficients;
+            System.arraycopy(coefficients, 0, ruleCoefficients, coefficientOffsets[i], coefficients.length);
+        }
+
+        memberCount = 0;
+        for (FuzzyVariable variable : variables.values()) {
+            memberCount += variable.getMembers().size();
+        }
+        doms = new double[rules.size()];
+        listener = new RuleListener() {
+            @Override
+            public void ruleFired(int rule, double strength) {
+                doms[rule] = strength;
+            }
+        };
+        program = FuzzyCompiler.compile(variables.values(), strengthRules);
+        slots = program.newSlots();
+    }
+
+    /**
+     * Method returns the weighted average of an output from the sums of the last rule pass.
+     * @param handle Handle of the output.
+     * @return Weighted average of the output, or zero if none of its rules fired.
+     */
+    protected double average(int handle) {
+        // Make sure bottom is not equal to zero
+        if (bottoms[handle] == 0.0) {
+            return 0.0;
+        }
+        return tops[handle] / bottoms[handle];
+    }
+
+    /**
+     * Class models the consequent of the rules in the compiled program. It has no membership function of
+     * its own.
+     */
+    protected static class StrengthSet extends FuzzySet {
+
+        /**
+         * No-arg constructor. Initializes the set with a zero representative value.
+         */
+        public StrengthSet() {
+            super(0.0);
+        }
+
+        @Override
+        public double calculateDom(double value) {
+            return 0.0;
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.sugeno;
+
+import org.sokolovic.jfuzzy.FuzzyTerm;
+
+import java.util.Arrays;
+
+/**
+ * Class models the rule of a Takagi-Sugeno-Kang controller, of the form:
+ *      IF antecedent THEN output = constant + coefficient0 * input0 + coefficient1 * input1 + ...
+ * The antecedent is built from the sets of the input variables and the operators, like the antecedent
+ * of a {@code FuzzyRule}. The consequent is a linear function of the crisp input values, or a constant
+ * if the rule has no coefficients. The firing strength of the rule is the degree of membership of its
+ * antecedent multiplied by the weight of the rule, which is one unless given.
+ *
+ * @author sokolovic
+ */
+public class SugenoRule {
+
+    /**
+     * Antecedent of the rule, whose degree of membership is the firing strength of the rule.
+     */
+    protected FuzzyTerm antecedent;
+
+    /**
+     * Handle of the output the rule contributes to.
+     */
+    protected int output;
+
+    /**
+     * Weight the degree of membership of the antecedent is multiplied by.
+     */
+    protected double weight;
+
+    /**
+     * Constant term of the consequent.
+     */
+    protected double constant;
+
+    /**
+     * Coefficients of the input values, indexed by the handles of the input variables. Missing
+     * coefficients are zero.
+     */
+    protected double[] coefficients;
+
+    /**
+     * Constructor to initialize the rule with the given antecedent and consequent.
+     * @param antecedent Antecedent.
+     * @param output Handle of the output.
+     * @param constant Constant term of the consequent.
+     * @param coefficients Coefficients of the input values, in the order of the handles of the inputs.
+     */
+    public SugenoRule(FuzzyTerm antecedent, int output, double constant, double... coefficients) {
+        this(antecedent, output, 1.0, constant, coefficients);
+    }
+
+    /**
+     * Constructor to initialize the weighted rule with the given antecedent and consequent.
+     * @param antecedent Antecedent.
+     * @param output Handle of the output.
+     * @param weight Weight of the rule.
+     * @param constant Constant term of the consequent.
+     * @param coefficients Coefficients of the input values, in the order of the handles of the inputs.
+     */
+    public SugenoRule(FuzzyTerm antecedent, int output, double weight, double constant, double[] coefficients) {
+        this.antecedent = antecedent;
+        this.output = output;
+        this.weight = weight;
+        this.constant = constant;
+        this.coefficients = Arrays.copyOf(coefficients, coefficients.length);
+    }
+
+    /**
+     * Getter to obtain the antecedent of the rule.
+     * @return Antecedent of the rule.
+     */
+    public FuzzyTerm getAntecedent() {
+        return this.antecedent;
+    }
+
+    /**
+     * Getter to obtain the handle of the output the rule contributes to.
+     * @return Handle of the output.
+     */
+    public int getOutput() {
+        return this.output;
+    }
+
+    /**
+     * Getter to obtain the weight of the rule.
+     * @return Weight of the rule.
+     */
+    public double getWeight() {
+        return this.weight;
+    }
+
+    /**
+     * Getter to obtain the constant term of the consequent.
+     * @return Constant term.
+     */
+    public double getConstant() {
+        return this.constant;
+    }
+
+    /**
+     * Getter to obtain the coefficients of the input values.
+     * @return Copy of the coefficients, in the order of the handles of the inputs.
+     */
+    public double[] getCoefficients() {
+        return Arrays.copyOf(coefficients, coefficients.length);
+    }
+
+    /**
+     * Method calculates the value of the consequent for the given crisp input values.
+     * @param inputs Input values, indexed by the handles of the input variables.
+     * @return Value of the consequent.
+     */
+    public double evaluate(double[] inputs) {
+        double value = constant;
+
+        for (int i = 0; i < coefficients.length; i++) {
+            value += coefficients[i] * inputs[i];
+        }
+        return value;
+    }
+
+}
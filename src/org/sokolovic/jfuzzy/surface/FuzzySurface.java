@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.surface;
+
+/**
+ * Class models the control surface of a fuzzy controller: the crisp values of its output variables
+ * tabulated over a grid of the values of up to {@code MAX_INPUTS} input variables. Values between the
+ * points of the grid are approximated by multilinear interpolation of the surrounding points, so a
+ * query costs a few multiplications and array reads instead of a full inference. Values outside of
+ * the range of the grid are clamped to it.
+ * <p>
+ * The surface is created by a {@code FuzzySurfaceSampler}, which also measures how far the interpolated
+ * values are from the exact ones. It is immutable and can be queried from many threads at once.
+ *
+ * @author sokolovic
+ */
+public class FuzzySurface {
+
+    /**
+     * Maximum number of input variables of a surface.
+     */
+    public static final int MAX_INPUTS = 3;
+
+    /**
+     * Names of the input variables, in the order of the axes of the grid.
+     */
+    protected final String[] inputNames;
+
+    /**
+     * Names of the output variables, in the order of the values of a grid point.
+     */
+    protected final String[] outputNames;
+
+    /**
+     * Sorted coordinates of the grid points along each axis. Axes beyond the number of inputs hold a
+     * single point.
+     */
+    protected final double[][] axes;
+
+    /**
+     * Reciprocals of the lengths of the intervals between the grid points along each axis.
+     */
+    protected final double[][] inverseLengths;
+
+    /**
+     * For each axis, the first grid point of each of the buckets of equal length the range of the axis
+     * is divided into, so a value is located without searching the whole axis.
+     */
+    protected final int[][] buckets;
+
+    /**
+     * Number of buckets per unit of the range of each axis.
+     */
+    protected final double[] bucketScales;
+
+    /**
+     * Distances between the values of neighbouring grid points along each axis, in array elements.
+     */
+    protected final int[] strides;
+
+    /**
+     * Values of the outputs at the grid points: the outputs of a point are stored next to each other,
+     * and the points are ordered by the first axis, then the second one and so on.
+     */
+    protected final double[] values;
+
+    /**
+     * The largest differences between the interpolated and the exact values of each output.
+     */
+    protected final double[] maxErrors;
+
+    /**
+     * Constructor to initialize the surface with the given grid and values.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @param axes Sorted coordinates of the grid points along each input axis.
+     * @param values Values of the outputs at the grid points.
+     * @param maxErrors The largest differences between the interpolated and the exact values of each output,
+     *                  filled in by the sampler before the surface is handed out.
+     */
+    public FuzzySurface(String[] inputNames, String[] outputNames, double[][] axes, double[] values,
+                        double[] maxErrors) {
+        if (inputNames.length < 1 || inputNames.length > MAX_INPUTS || axes.length != inputNames.length) {
+            throw new IllegalArgumentException("A surface has 1 to " + MAX_INPUTS + " inputs");
+        }
+        if (outputNames.length < 1 || maxErrors.length != outputNames.length) {
+            throw new IllegalArgumentException("A surface needs an error for each of at least one output");
+        }
+        this.inputNames = inputNames.clone();
+        this.outputNames = outputNames.clone();
+        this.axes = new double[MAX_INPUTS][];
+        this.inverseLengths = new double[MAX_INPUTS][];
+        this.buckets = new int[MAX_INPUTS][];
+        this.bucketScales = new double[MAX_INPUTS];
+        this.strides = new int[MAX_INPUTS];
+
+        int stride = outputNames.length;
+        for (int d = MAX_INPUTS - 1; d >= 0; d--) {
+            this.axes[d] = d < axes.length ? axes[d].clone() : new double[] { 0.0 };
+            index(d);
+            this.strides[d] = this.axes[d].length > 1 ? stride : 0;
+            stride *= this.axes[d].length;
+        }
+        if (values.length != stride) {
+            throw new IllegalArgumentException("Expected " + stride + " values, got " + values.length);
+        }
+        this.values = values;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Method prepares the lookup of the values along an axis: the reciprocals of the lengths of its
+     * intervals and its buckets, twice as many as the intervals.
+     * @param d Position of the axis.
+     */
+    protected void index(int d) {
+        double[] axis = axes[d];
+        int intervals = axis.length - 1;
+
+        inverseLengths[d] = new double[Math.max(intervals, 0)];
+        buckets[d] = new int[Math.max(2 * intervals, 0)];
+        if (intervals < 1) {
+            return;
+        }
+        for (int i = 0; i < intervals; i++) {
+            if (!(axis[i + 1] > axis[i])) {
+                throw new IllegalArgumentException("Grid points must be increasing along axis " + d);
+            }
+            inverseLengths[d][i] = 1.0 / (axis[i + 1] - axis[i]);
+        }
+        bucketScales[d] = buckets[d].length / (axis[intervals] - axis[0]);
+
+        int point = 0;
+        for (int b = 0; b < buckets[d].length; b++) {
+            double start = axis[0] + b / bucketScales[d];
+
+            while (point < intervals - 1 && axis[point + 1] <= start) {
+                point++;
+            }
+            // Step back a point, in case rounding puts a value of the bucket before its start
+            buckets[d][b] = Math.max(point - 1, 0);
+        }
+    }
+
+    /**
+     * Getter to obtain the number of input variables.
+     * @return Number of inputs.
+     */
+    public int getInputCount() {
+        return inputNames.length;
+    }
+
+    /**
+     * Getter to obtain the name of an input variable.
+     * @param input Position of the input.
+     * @return Name of the input variable.
+     */
+    public String getInputName(int input) {
+        return inputNames[input];
+    }
+
+    /**
+     * Getter to obtain the number of output variables.
+     * @return Number of outputs.
+     */
+    public int getOutputCount() {
+        return outputNames.length;
+    }
+
+    /**
+     * Getter to obtain the name of an output variable.
+     * @param output Position of the output.
+     * @return Name of the output variable.
+     */
+    public String getOutputName(int output) {
+        return outputNames[output];
+    }
+
+    /**
+     * Getter to obtain the number of grid points along the axis of an input.
+     * @param input Position of the input.
+     * @return Number of grid points.
+     */
+    public int getPointCount(int input) {
+        return axes[input].length;
+    }
+
+    /**
+     * Getter to obtain the coordinate of a grid point along the axis of an input.
+     * @param input Position of the input.
+     * @param point Position of the point along the axis.
+     * @return Coordinate of the point.
+     */
+    public double getPoint(int input, int point) {
+        return axes[input][point];
+    }
+
+    /**
+     * Getter to obtain the number of points of the grid.
+     * @return Number of grid points.
+     */
+    public int getSize() {
+        return values.length / outputNames.length;
+    }
+
+    /**
+     * Getter to obtain the largest difference between the interpolated and the exact values of an
+     * output, measured by the sampler halfway between the grid points.
+     * @param output Position of the output.
+     * @return The largest approximation error of the output.
+     */
+    public double getMaxError(int output) {
+        return maxErrors[output];
+    }
+
+    /**
+     * Getter to obtain the largest difference between the interpolated and the exact values of any
+     * output, measured by the sampler halfway between the grid points.
+     * @return The largest approximation error.
+     */
+    public double getMaxError() {
+        double max = 0.0;
+
+        for (int i = 0; i < maxErrors.length; i++) {
+            if (maxErrors[i] > max) {
+                max = maxErrors[i];
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Method approximates the crisp value of an output for the given input values.
+     * @param inputs Values of the inputs, in the order of the axes.
+     * @param output Position of the output.
+     * @return Interpolated value of the output.
+     */
+    public double evaluate(double[] inputs, int output) {
+        double x0 = inputs[0];
+        double x1 = inputs.length > 1 ? inputs[1] : 0.0;
+        double x2 = inputs.length > 2 ? inputs[2] : 0.0;
+        int i0 = lower(0, x0);
+        int i1 = lower(1, x1);
+        int i2 = lower(2, x2);
+        double t0 = fraction(0, i0, x0);
+        double t1 = fraction(1, i1, x1);
+        double t2 = fraction(2, i2, x2);
+        int s0 = strides[0];
+        int s1 = strides[1];
+        int s2 = strides[2];
+        int base = i0 * s0 + i1 * s1 + i2 * s2 + output;
+
+        // Interpolate along the first axis, then the second one and the third one
+        double c00 = lerp(values[base], values[base + s0], t0);
+        double c10 = lerp(values[base + s1], values[base + s1 + s0], t0);
+        double c01 = lerp(values[base + s2], values[base + s2 + s0], t0);
+        double c11 = lerp(values[base + s2 + s1], values[base + s2 + s1 + s0], t0);
+
+        return lerp(lerp(c00, c10, t1), lerp(c01, c11, t1), t2);
+    }
+
+    /**
+     * Method approximates the crisp values of all the outputs for the given input values.
+     * @param inputs Values of the inputs, in the order of the axes.
+     * @param results Array to store the interpolated values into, in the order of the outputs.
+     */
+    public void evaluate(double[] inputs, double[] results) {
+        for (int i = 0; i < outputNames.length; i++) {
+            results[i] = evaluate(inputs, i);
+        }
+    }
+
+    /**
+     * Method finds the grid point of an axis preceding the given value, so that the value lies between
+     * the point and the next one. Values outside of the axis fall into its first or last interval.
+     * @param d Position of the axis.
+     * @param x Value to find.
+     * @return Position of the preceding grid point.
+     */
+    protected int lower(int d, double x) {
+        double[] axis = axes[d];
+        int[] buckets = this.buckets[d];
+        double bucket = (x - axis[0]) * bucketScales[d];
+
+        if (!(bucket > 0.0)) {
+            return 0;
+        }
+        if (bucket >= buckets.length) {
+            return axis.length - 2;
+        }
+        int point = buckets[(int) bucket];
+        while (point < axis.length - 2 && axis[point + 1] <= x) {
+            point++;
+        }
+        return point;
+    }
+
+    /**
+     * Method calculates the relative position of a value between a grid point and the next one,
+     * clamped to the interval between them.
+     * @param d Position of the axis.
+     * @param point Position of the preceding grid point.
+     * @param x Value to locate.
+     * @return Relative position of the value, from 0 to 1.
+     */
+    protected double fraction(int d, int point, double x) {
+        if (axes[d].length < 2) {
+            return 0.0;
+        }
+        double t = (x - axes[d][point]) * inverseLengths[d][point];
+
+        if (t < 0.0) {
+            return 0.0;
+        }
+        if (t > 1.0) {
+            return 1.0;
+        }
+        return t;
+    }
+
+    /**
+     * Method interpolates linearly between two values.
+     * @param a Value at the relative position 0.
+     * @param b Value at the relative position 1.
+     * @param t Relative position.
+     * @return Interpolated value.
+     */
+    protected static double lerp(double a, double b, double t) {
+        return a + t * (b - a);
+    }
+
+}
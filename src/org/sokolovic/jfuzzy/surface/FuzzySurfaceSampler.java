@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.surface;
+
+import org.sokolovic.jfuzzy.FuzzyContext;
+import org.sokolovic.jfuzzy.FuzzyController;
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class samples the control surface of a fuzzy controller. The grid spans the ranges the input
+ * variables have adjusted to fit their sets, and the values at its points are calculated by running
+ * exact inferences on a model of the controller. The variables that are not inputs of the surface are
+ * left unfuzzified.
+ * <p>
+ * Once the values are tabulated, the sampler runs exact inferences halfway between the grid points,
+ * along every axis and every combination of axes, and records the largest difference between the
+ * interpolated and the exact values as the error of the surface. Adaptive sampling splits the intervals
+ * of the axes whose midpoints exceed the given tolerance, the worst ones first, and repeats until the
+ * error is within the tolerance or the grid reaches the given size. The points of a refined grid are
+ * the points of the grid it was refined from and the midpoints the error was measured at, so their
+ * values are taken from the earlier inferences rather than inferred again, and so are the values at
+ * the midpoints of the intervals that were not split. The error is measured, not proven: a feature of
+ * the surface narrower than the intervals between the grid points may go unnoticed.
+ *
+ * @author sokolovic
+ */
+public class FuzzySurfaceSampler {
+
+    /**
+     * Context the exact inferences are run in.
+     */
+    protected FuzzyContext context;
+
+    /**
+     * Names of the input variables.
+     */
+    protected String[] inputNames;
+
+    /**
+     * Names of the output variables.
+     */
+    protected String[] outputNames;
+
+    /**
+     * Indices of the input variables in the model.
+     */
+    protected int[] inputs;
+
+    /**
+     * Indices of the output variables in the model.
+     */
+    protected int[] outputs;
+
+    /**
+     * Crisp values of the outputs of the last exact inference.
+     */
+    protected double[] results;
+
+    /**
+     * Coordinates of the grid points along each axis.
+     */
+    protected double[][] axes;
+
+    /**
+     * Coordinates of the grid points along each axis before the last refinement, or {@code null}.
+     */
+    protected double[][] parentAxes;
+
+    /**
+     * Position of each point and midpoint of each refined axis among the points and midpoints of the
+     * axis before the last refinement, or -1 for the midpoints of the split intervals.
+     */
+    protected int[][] parentPositions;
+
+    /**
+     * Values of the outputs at the midpoints of the grid before the last refinement, as stored by
+     * {@code measure()}.
+     */
+    protected double[] parentMidpoints;
+
+    /**
+     * Method samples the control surface of the given controller on a uniform grid.
+     * @param controller Controller to sample.
+     * @param inputNames Names of the input variables, 1 to {@code FuzzySurface.MAX_INPUTS}.
+     * @param outputNames Names of the output variables.
+     * @param points Number of grid points along each axis, at least 2.
+     * @return Sampled surface.
+     * @throws IllegalArgumentException If a variable is unknown or the number of inputs or points is invalid.
+     */
+    public static FuzzySurface sample(FuzzyController controller, String[] inputNames, String[] outputNames,
+                                      int points) {
+        FuzzySurfaceSampler sampler = new FuzzySurfaceSampler(controller, inputNames, outputNames, points);
+        double[] errors = new double[outputNames.length];
+        FuzzySurface surface = sampler.createSurface(sampler.tabulate(), errors);
+
+        sampler.measure(surface, errors, null, null);
+
+        return surface;
+    }
+
+    /**
+     * Method samples the control surface of the given controller, refining the grid until the error of
+     * the surface is within the given tolerance or the grid cannot grow any more.
+     * @param controller Controller to sample.
+     * @param inputNames Names of the input variables, 1 to {@code FuzzySurface.MAX_INPUTS}.
+     * @param outputNames Names of the output variables.
+     * @param points Number of grid points along each axis to start from, at least 2.
+     * @param tolerance The largest acceptable error of the surface.
+     * @param maxSize The largest number of grid points.
+     * @return Sampled surface.
+     * @throws IllegalArgumentException If a variable is unknown or the number of inputs or points is invalid.
+     */
+    public static FuzzySurface sample(FuzzyController controller, String[] inputNames, String[] outputNames,
+                                      int points, double tolerance, int maxSize) {
+        FuzzySurfaceSampler sampler = new FuzzySurfaceSampler(controller, inputNames, outputNames, points);
+        double[] values = sampler.tabulate();
+
+        while (true) {
+            double[] errors = new double[outputNames.length];
+            double[][] intervalErrors = new double[inputNames.length][];
+            for (int d = 0; d < inputNames.length; d++) {
+                intervalErrors[d] = new double[Math.max(sampler.axes[d].length - 1, 0)];
+            }
+            double[] midpoints = new double[sampler.getMidpointCount() * outputNames.length];
+
+            FuzzySurface surface = sampler.createSurface(values, errors);
+            sampler.measure(surface, errors, intervalErrors, midpoints);
+
+            // Refining replaces the axes, so the grid the values belong to is kept aside
+            double[][] parents = sampler.axes.clone();
+            if (surface.getMaxError() <= tolerance || !sampler.refine(intervalErrors, tolerance, maxSize)) {
+                return surface;
+            }
+            values = sampler.retabulate(parents, values, midpoints);
+        }
+    }
+
+    /**
+     * Constructor to initialize the sampler with a uniform grid over the ranges of the inputs.
+     * @param controller Controller to sample.
+     * @param inputNames Names of the input variables.
+     * @param outputNames Names of the output variables.
+     * @param points Number of grid points along each axis.
+     */
+    protected FuzzySurfaceSampler(FuzzyController controller, String[] inputNames, String[] outputNames,
+                                  int points) {
+        if (inputNames.length < 1 || inputNames.length > FuzzySurface.MAX_INPUTS) {
+            throw new IllegalArgumentException("A surface has 1 to " + FuzzySurface.MAX_INPUTS + " inputs");
+        }
+        if (outputNames.length < 1) {
+            throw new IllegalArgumentException("A surface needs at least one output");
+        }
+        if (points < 2) {
+            throw new IllegalArgumentException("A surface needs at least 2 points per axis, got " + points);
+        }
+        FuzzyModel model = controller.createModel();
+
+        this.context = model.newContext();
+        this.inputNames = inputNames.clone();
+        this.outputNames = outputNames.clone();
+        this.inputs = new int[inputNames.length];
+        this.outputs = new int[outputNames.length];
+        this.results = new double[outputNames.length];
+        this.axes = new double[inputNames.length][];
+
+        for (int i = 0; i < outputNames.length; i++) {
+            outputs[i] = model.getVariableIndex(outputNames[i]);
+        }
+        for (int d = 0; d < inputNames.length; d++) {
+            FuzzyVariable variable = controller.getVariables().get(inputNames[d]);
+
+            inputs[d] = model.getVariableIndex(inputNames[d]);
+            axes[d] = uniform(variable.getMinRange(), variable.getMaxRange(), points);
+        }
+    }
+
+    /**
+     * Method divides a range into intervals of equal length.
+     * @param min The minimum value of the range.
+     * @param max The maximum value of the range.
+     * @param points Number of points.
+     * @return Coordinates of the points, or the single point of an empty range.
+     */
+    protected static double[] uniform(double min, double max, int points) {
+        if (!(max > min)) {
+            return new double[] { min };
+        }
+        double[] axis = new double[points];
+
+        for (int i = 0; i < points; i++) {
+            axis[i] = min + (max - min) * i / (points - 1);
+        }
+        axis[points - 1] = max;
+
+        return axis;
+    }
+
+    /**
+     * Method runs an exact inference for the given input values.
+     * @param coordinates Values of the inputs.
+     */
+    protected void infer(double[] coordinates) {
+        for (int d = 0; d < inputs.length; d++) {
+            context.fuzzify(inputs[d], coordinates[d]);
+        }
+        context.defuzzify(outputs, results);
+    }
+
+    /**
+     * Method calculates the values of the outputs at all the grid points.
+     * @return Values in the layout of {@code FuzzySurface}.
+     */
+    protected double[] tabulate() {
+        int size = 1;
+        for (int d = 0; d < axes.length; d++) {
+            size *= axes[d].length;
+        }
+        double[] values = new double[size * outputs.length];
+        int[] point = new int[axes.length];
+        double[] coordinates = new double[axes.length];
+
+        // Walk the grid in the order of the table, the last axis changing fastest
+        for (int offset = 0; offset < values.length; offset += outputs.length) {
+            for (int d = 0; d < axes.length; d++) {
+                coordinates[d] = axes[d][point[d]];
+            }
+            infer(coordinates);
+            System.arraycopy(results, 0, values, offset, outputs.length);
+
+            for (int d = axes.length - 1; d >= 0 && ++point[d] == axes[d].length; d--) {
+                point[d] = 0;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Method calculates the values of the outputs at all the points of a refined grid without running
+     * any inference. Each point of the refined grid is either a point of the grid it was refined from,
+     * whose value is in the table of that grid, or one of the points {@code measure()} ran the exact
+     * inferences at, with the midpoints of the refined intervals computed the same way. The grid before
+     * the refinement is kept for the next {@code measure()}, which reuses the midpoints it shares.
+     * @param parents Coordinates of the grid points along each axis before the refinement.
+     * @param parentValues Values of the outputs at the points of the grid before the refinement.
+     * @param midpoints Values of the outputs at the midpoints of the grid before the refinement, as
+     *                  stored by {@code measure()}.
+     * @return Values in the layout of {@code FuzzySurface}.
+     */
+    protected double[] retabulate(double[][] parents, double[] parentValues, double[] midpoints) {
+        // Positions of the points and midpoints of each refined axis among those of the parent axis
+        int[][] positions = new int[axes.length][];
+        for (int d = 0; d < axes.length; d++) {
+            positions[d] = new int[2 * axes[d].length - 1];
+            int j = 0;
+
+            for (int i = 0; i < axes[d].length; i++) {
+                // The refined axis holds copies of the parent points, even of an undefined range
+                if (j < parents[d].length && Double.compare(axes[d][i], parents[d][j]) == 0) {
+                    positions[d][2 * i] = 2 * j++;
+                }
+                else {
+                    positions[d][2 * i] = 2 * j - 1;
+                }
+            }
+            // Only the midpoint of an interval that was not split is a midpoint of the parent axis
+            for (int i = 1; i < positions[d].length; i += 2) {
+                int left = positions[d][i - 1];
+
+                positions[d][i] = (left & 1) == 0 && positions[d][i + 1] == left + 2 ? left + 1 : -1;
+            }
+        }
+        parentAxes = parents;
+        parentPositions = positions;
+        parentMidpoints = midpoints;
+
+        int size = 1;
+        for (int d = 0; d < axes.length; d++) {
+            size *= axes[d].length;
+        }
+        double[] values = new double[size * outputs.length];
+        int[] point = new int[axes.length];
+
+        // Walk the refined grid in the order of the table, the last axis changing fastest
+        for (int offset = 0; offset < values.length; offset += outputs.length) {
+            int parent = 0;
+            int midpoint = 0;
+            boolean grid = true;
+            for (int d = 0; d < axes.length; d++) {
+                int position = positions[d][2 * point[d]];
+
+                parent = parent * parents[d].length + (position >> 1);
+                midpoint = midpoint * (2 * parents[d].length - 1) + position;
+                grid &= (position & 1) == 0;
+            }
+            if (grid) {
+                System.arraycopy(parentValues, parent * outputs.length, values, offset, outputs.length);
+            }
+            else {
+                System.arraycopy(midpoints, midpoint * outputs.length, values, offset, outputs.length);
+            }
+
+            for (int d = axes.length - 1; d >= 0 && ++point[d] == axes[d].length; d--) {
+                point[d] = 0;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Method returns the number of the grid points and the points halfway between them, along every
+     * axis and every combination of axes, that {@code measure()} walks.
+     * @return Number of the points.
+     */
+    protected int getMidpointCount() {
+        int count = 1;
+        for (int d = 0; d < axes.length; d++) {
+            count *= 2 * axes[d].length - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Method compares the surface with exact inferences at the points halfway between the grid points:
+     * the midpoints of the intervals of each axis combined with the grid points and the midpoints of
+     * the other axes. The values at the midpoints the grid before the last refinement shares are taken
+     * from its inferences.
+     * @param surface Surface to measure.
+     * @param errors Array to store the largest error of each output into.
+     * @param intervalErrors Arrays to store the largest error at the midpoint of each interval of each
+     *                       axis into, or {@code null}.
+     * @param midpoints Array to store the exact values of the outputs at the midpoints into, in the
+     *                  order of the walk, or {@code null}. The grid points are walked too but not stored.
+     */
+    protected void measure(FuzzySurface surface, double[] errors, double[][] intervalErrors,
+                           double[] midpoints) {
+        int[] point = new int[axes.length];
+        int[] counts = new int[axes.length];
+        double[] coordinates = new double[axes.length];
+
+        // Along each axis, even positions are the grid points and odd ones the midpoints between them
+        for (int d = 0; d < axes.length; d++) {
+            counts[d] = 2 * axes[d].length - 1;
+        }
+        for (int offset = 0; ; offset += outputs.length) {
+            boolean midpoint = false;
+            for (int d = 0; d < axes.length; d++) {
+                int i = point[d] >> 1;
+
+                if ((point[d] & 1) == 0) {
+                    coordinates[d] = axes[d][i];
+                }
+                else {
+                    coordinates[d] = axes[d][i] + (axes[d][i + 1] - axes[d][i]) / 2;
+                    midpoint = true;
+                }
+            }
+            if (midpoint) {
+                int parent = parentPositions != null ? 0 : -1;
+                for (int d = 0; parent >= 0 && d < axes.length; d++) {
+                    int position = parentPositions[d][point[d]];
+
+                    parent = position < 0 ? -1 : parent * (2 * parentAxes[d].length - 1) + position;
+                }
+                if (parent >= 0) {
+                    System.arraycopy(parentMidpoints, parent * outputs.length, results, 0, outputs.length);
+                }
+                else {
+                    infer(coordinates);
+                }
+                if (midpoints != null) {
+                    System.arraycopy(results, 0, midpoints, offset, outputs.length);
+                }
+
+                double error = 0.0;
+                for (int i = 0; i < outputs.length; i++) {
+                    double difference = Math.abs(surface.evaluate(coordinates, i) - results[i]);
+
+                    // An undefined difference counts as an infinite error
+                    if (Double.isNaN(difference)) {
+                        difference = Double.POSITIVE_INFINITY;
+                    }
+                    if (difference > errors[i]) {
+                        errors[i] = difference;
+                    }
+                    if (difference > error) {
+                        error = difference;
+                    }
+                }
+                for (int d = 0; intervalErrors != null && d < axes.length; d++) {
+                    if ((point[d] & 1) == 1 && error > intervalErrors[d][point[d] >> 1]) {
+                        intervalErrors[d][point[d] >> 1] = error;
+                    }
+                }
+            }
+
+            int d = axes.length - 1;
+            for (; d >= 0 && ++point[d] == counts[d]; d--) {
+                point[d] = 0;
+            }
+            if (d < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method splits the intervals whose midpoints exceed the tolerance, the worst ones first, as long as
+     * the grid stays within the given size.
+     * @param intervalErrors The largest error at the midpoint of each interval of each axis.
+     * @param tolerance The largest acceptable error.
+     * @param maxSize The largest number of grid points.
+     * @return {@code true} if any interval was split.
+     */
+    protected boolean refine(final double[][] intervalErrors, double tolerance, int maxSize) {
+        List<int[]> candidates = new ArrayList<int[]>();
+        for (int d = 0; d < axes.length; d++) {
+            for (int i = 0; i < intervalErrors[d].length; i++) {
+                double middle = axes[d][i] + (axes[d][i + 1] - axes[d][i]) / 2;
+
+                // Intervals too narrow to hold a distinct midpoint cannot be split
+                if (intervalErrors[d][i] > tolerance && middle > axes[d][i] && middle < axes[d][i + 1]) {
+                    candidates.add(new int[] { d, i });
+                }
+            }
+        }
+        Collections.sort(candidates, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Double.compare(intervalErrors[b[0]][b[1]], intervalErrors[a[0]][a[1]]);
+            }
+        });
+
+        long[] counts = new long[axes.length];
+        for (int d = 0; d < axes.length; d++) {
+            counts[d] = axes[d].length;
+        }
+        boolean[][] split = new boolean[axes.length][];
+        for (int d = 0; d < axes.length; d++) {
+            split[d] = new boolean[intervalErrors[d].length];
+        }
+        boolean refined = false;
+        for (int[] candidate : candidates) {
+            counts[candidate[0]]++;
+
+            long size = 1;
+            for (int d = 0; d < axes.length; d++) {
+                size *= counts[d];
+            }
+            if (size > maxSize) {
+                counts[candidate[0]]--;
+            }
+            else {
+                split[candidate[0]][candidate[1]] = true;
+                refined = true;
+            }
+        }
+
+        for (int d = 0; d < axes.length; d++) {
+            double[] axis = new double[(int) counts[d]];
+            int n = 0;
+
+            for (int i = 0; i < axes[d].length; i++) {
+                axis[n++] = axes[d][i];
+                if (i < split[d].length && split[d][i]) {
+                    axis[n++] = axes[d][i] + (axes[d][i + 1] - axes[d][i]) / 2;
+                }
+            }
+            axes[d] = axis;
+        }
+        return refined;
+    }
+
+    /**
+     * Method creates a surface of the current grid.
+     * @param values Values of the outputs at the grid points.
+     * @param errors The largest errors of the outputs.
+     * @return New surface.
+     */
+    protected FuzzySurface createSurface(double[] values, double[] errors) {
+        return new FuzzySurface(inputNames, outputNames, axes, values, errors);
+    }
+
+}
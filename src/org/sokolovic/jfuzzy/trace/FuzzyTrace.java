@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+
+package org.sokolovic.jfuzzy.trace;
+
+import org.sokolovic.jfuzzy.FuzzyModel;
+import org.sokolovic.jfuzzy.compiler.FuzzyProgram;
+import org.sokolovic.jfuzzy.compiler.RuleListener;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Class records how a {@code FuzzyContext} arrived at its outputs: the value and the degrees of
+ * membership of each fuzzified input, the activation strength of each rule and the consequent sets it
+ * raised, the confidence of each set with the rule that raised it to that value, and the crisp value of
+ * each defuzzified output. The confidences are the degrees of membership the defuzzifiers read, so
+ * together with the representative values of the sets they make up the terms of the defuzzification.
+ * <p>
+ * All the buffers are allocated when the trace is created and are overwritten by each traced inference,
+ * so the trace holds the last one. A trace is attached to a single context at a time with
+ * {@code FuzzyContext.setTrace()}, which may trace every inference or only one in a given number of
+ * them. The rules skipped by the index of the rule base, whose key set has a zero degree of membership,
+ * are not evaluated and have a zero strength.
+ *
+ * @author sokolovic
+ * @see org.sokolovic.jfuzzy.FuzzyContext#setTrace(FuzzyTrace, int)
+ */
+public class FuzzyTrace implements RuleListener {
+
+    /**
+     * The model of the traced inferences.
+     */
+    protected final FuzzyModel model;
+
+    /**
+     * Offsets of the consequent slots of each rule into {@code consequentSlots}, followed by their
+     * total number.
+     */
+    protected final int[] consequentOffsets;
+
+    /**
+     * Slots of the consequent sets of the rules, grouped by rule.
+     */
+    protected final int[] consequentSlots;
+
+    /**
+     * Whether each variable was fuzzified by the traced inference.
+     */
+    protected final boolean[] inputs;
+
+    /**
+     * Fuzzified value of each variable.
+     */
+    protected final double[] inputValues;
+
+    /**
+     * Degrees of membership of the fuzzified values in the sets, indexed by slot.
+     */
+    protected final double[] inputDoms;
+
+    /**
+     * Whether each rule was evaluated.
+     */
+    protected final boolean[] evaluated;
+
+    /**
+     * Activation strength of each rule.
+     */
+    protected final double[] strengths;
+
+    /**
+     * Degrees of membership of the sets once the rules have run, indexed by slot.
+     */
+    protected final double[] confidences;
+
+    /**
+     * Rule that raised the confidence of each consequent set to its value, or -1, indexed by slot.
+     */
+    protected final int[] winners;
+
+    /**
+     * Whether each variable was defuzzified by the traced inference.
+     */
+    protected final boolean[] outputs;
+
+    /**
+     * Crisp value of each defuzzified variable.
+     */
+    protected final double[] outputValues;
+
+    /**
+     * Number of inferences traced so far.
+     */
+    protected long inferenceCount;
+
+    /**
+     * Listener the rule firings are passed on to, or {@code null}.
+     */
+    protected RuleListener listener;
+
+    /**
+     * Constructor to initialize the trace of the inferences of the given model.
+     * @param model Model of the inferences.
+     */
+    public FuzzyTrace(FuzzyModel model) {
+        FuzzyProgram program = model.getProgram();
+        int[] code = program.getCode();
+        int[] ruleOffsets = program.getRuleOffsets();
+        int rules = program.getRuleCount();
+
+        // The compiler ends the code of each rule with one accumulation per consequent set
+        int count = 0;
+        for (int i = ruleOffsets[0]; i < code.length; i += FuzzyProgram.INSTRUCTION_SIZE) {
+            if (code[i] == FuzzyProgram.OP_ACCUMULATE) {
+                count++;
+            }
+        }
+        this.consequentOffsets = new int[rules + 1];
+        this.consequentSlots = new int[count];
+        count = 0;
+        for (int rule = 0; rule < rules; rule++) {
+            consequentOffsets[rule] = count;
+            for (int i = ruleOffsets[rule]; i < ruleOffsets[rule + 1]; i += FuzzyProgram.INSTRUCTION_SIZE) {
+                if (code[i] == FuzzyProgram.OP_ACCUMULATE) {
+                    consequentSlots[count++] = code[i + 1];
+                }
+            }
+        }
+        consequentOffsets[rules] = count;
+
+        this.model = model;
+        this.inputs = new boolean[model.getVariableCount()];
+        this.inputValues = new double[model.getVariableCount()];
+        this.inputDoms = new double[program.getSetCount()];
+        this.evaluated = new boolean[rules];
+        this.strengths = new double[rules];
+        this.confidences = new double[program.getSetCount()];
+        this.winners = new int[program.getSetCount()];
+        this.outputs = new boolean[model.getVariableCount()];
+        this.outputValues = new double[model.getVariableCount()];
+    }
+
+    /**
+     * Getter to obtain the model of the traced inferences.
+     * @return The model.
+     */
+    public FuzzyModel getModel() {
+        return model;
+    }
+
+    /**
+     * Getter to obtain the number of inferences traced so far; the trace holds the last one.
+     * @return Number of traced inferences.
+     */
+    public long getInferenceCount() {
+        return inferenceCount;
+    }
+
+    /**
+     * Getter to check whether a variable was fuzzified by the traced inference.
+     * @param variable Index of the variable.
+     * @return Whether the variable was fuzzified.
+     */
+    public boolean isInput(int variable) {
+        return inputs[variable];
+    }
+
+    /**
+     * Getter to obtain the fuzzified value of a variable.
+     * @param variable Index of the variable.
+     * @return Value of the variable, if it was fuzzified.
+     */
+    public double getInputValue(int variable) {
+        return inputValues[variable];
+    }
+
+    /**
+     * Getter to obtain the degree of membership of the fuzzified value of its variable in a set.
+     * @param slot Slot of the set.
+     * @return Degree of membership, if the variable was fuzzified.
+     */
+    public double getInputDom(int slot) {
+        return inputDoms[slot];
+    }
+
+    /**
+     * Getter to check whether a rule was evaluated.
+     * @param rule Index of the rule.
+     * @return Whether the rule was evaluated.
+     */
+    public boolean isEvaluated(int rule) {
+        return evaluated[rule];
+    }
+
+    /**
+     * Getter to obtain the activation strength of a rule.
+     * @param rule Index of the rule.
+     * @return Value of the antecedent of the rule, or zero if the rule was not evaluated.
+     */
+    public double getStrength(int rule) {
+        return strengths[rule];
+    }
+
+    /**
+     * Getter to obtain the number of consequent sets of a rule. A rule contributes its strength to the
+     * confidence of each of them.
+     * @param rule Index of the rule.
+     * @return Number of consequent sets.
+     */
+    public int getConsequentCount(int rule) {
+        return consequentOffsets[rule + 1] - consequentOffsets[rule];
+    }
+
+    /**
+     * Getter to obtain the slot of a consequent set of a rule.
+     * @param rule Index of the rule.
+     * @param index Index of the consequent set, below {@code getConsequentCount(rule)}.
+     * @return Slot of the set.
+     */
+    public int getConsequentSlot(int rule, int index) {
+        return consequentSlots[consequentOffsets[rule] + index];
+    }
+
+    /**
+     * Getter to obtain the degree of membership of a set once the rules have run: the confidence of a
+     * consequent set, or the degree of membership of the fuzzified value in an input set. These are
+     * the degrees of membership the defuzzifiers read.
+     * @param slot Slot of the set.
+     * @return Degree of membership.
+     */
+    public double getConfidence(int slot) {
+        return confidences[slot];
+    }
+
+    /**
+     * Getter to obtain the rule that raised the confidence of a consequent set to its value: the first
+     * rule to reach that strength.
+     * @param slot Slot of the set.
+     * @return Index of the rule, or -1 if no rule raised the confidence above zero.
+     */
+    public int getWinningRule(int slot) {
+        return winners[slot];
+    }
+
+    /**
+     * Getter to check whether a variable was defuzzified by the traced inference.
+     * @param variable Index of the variable.
+     * @return Whether the variable was defuzzified.
+     */
+    public boolean isOutput(int variable) {
+        return outputs[variable];
+    }
+
+    /**
+     * Getter to obtain the crisp value of a defuzzified variable.
+     * @param variable Index of the variable.
+     * @return Crisp value, if the variable was defuzzified.
+     */
+    public double getOutputValue(int variable) {
+        return outputValues[variable];
+    }
+
+    /**
+     * Method starts tracing an inference, discarding the previous one.
+     * @param listener Listener to pass the rule firings on to, or {@code null}.
+     */
+    public void begin(RuleListener listener) {
+        this.listener = listener;
+        inferenceCount++;
+        Arrays.fill(inputs, false);
+        Arrays.fill(evaluated, false);
+        Arrays.fill(strengths, 0.0);
+        Arrays.fill(confidences, 0.0);
+        Arrays.fill(winners, -1);
+        Arrays.fill(outputs, false);
+    }
+
+    /**
+     * Method records a fuzzified input.
+     * @param variable Index of the variable.
+     * @param value Fuzzified value.
+     * @param slots Slot array holding the degrees of membership of the value.
+     */
+    public void recordInput(int variable, double value, double[] slots) {
+        int first = model.getFirstSlot(variable);
+
+        inputs[variable] = true;
+        inputValues[variable] = value;
+        System.arraycopy(slots, first, inputDoms, first, model.getEndSlot(variable) - first);
+    }
+
+    @Override
+    public void ruleFired(int rule, double strength) {
+        evaluated[rule] = true;
+        strengths[rule] = strength;
+
+        // Follow the accumulation of the confidences, which the rules only ever raise
+        for (int i = consequentOffsets[rule]; i < consequentOffsets[rule + 1]; i++) {
+            int slot = consequentSlots[i];
+            if (strength > confidences[slot]) {
+                confidences[slot] = strength;
+                winners[slot] = rule;
+            }
+        }
+        if (listener != null) {
+            listener.ruleFired(rule, strength);
+        }
+    }
+
+    /**
+     * Method records the degrees of membership of the sets once the rules have run.
+     * @param slots Slot array of the inference.
+     */
+    public void recordRules(double[] slots) {
+        System.arraycopy(slots, 0, confidences, 0, confidences.length);
+    }
+
+    /**
+     * Method records the crisp value of a defuzzified variable.
+     * @param variable Index of the variable.
+     * @param value Crisp value.
+     */
+    public void recordOutput(int variable, double value) {
+        outputs[variable] = true;
+        outputValues[variable] = value;
+    }
+
+    /**
+     * Method describes the traced inference: the fuzzified inputs with their degrees of membership,
+     * the rules that fired with their strengths and consequent sets, and the defuzzified outputs with
+     * the confidences of their sets and the rules that set them.
+     * @return Description of the inference.
+     */
+    public String explain() {
+        StringBuilder text = new StringBuilder();
+        int evaluatedRules = 0;
+        int firedRules = 0;
+        for (int rule = 0; rule < strengths.length; rule++) {
+            evaluatedRules += evaluated[rule] ? 1 : 0;
+            firedRules += strengths[rule] > 0.0 ? 1 : 0;
+        }
+
+        text.append("Inference ").append(inferenceCount).append('\n');
+        text.append("Inputs:\n");
+        for (int variable = 0; variable < inputs.length; variable++) {
+            if (inputs[variable]) {
+                text.append("  ").append(model.getVariableName(variable)).append(" = ")
+                    .append(format(inputValues[variable])).append(':');
+                for (int slot = model.getFirstSlot(variable); slot < model.getEndSlot(variable); slot++) {
+                    text.append(' ').append(model.getSetName(slot)).append(' ').append(format(inputDoms[slot]));
+                }
+                text.append('\n');
+            }
+        }
+
+        text.append("Rules (").append(evaluatedRules).append(" of ").append(strengths.length)
+            .append(" evaluated, ").append(firedRules).append(" fired):\n");
+        for (int rule = 0; rule < strengths.length; rule++) {
+            if (strengths[rule] > 0.0) {
+                text.append("  rule ").append(rule).append(": ").append(format(strengths[rule])).append(" ->");
+                for (int i = consequentOffsets[rule]; i < consequentOffsets[rule + 1]; i++) {
+                    text.append(' ').append(setLabel(consequentSlots[i]));
+                    if (winners[consequentSlots[i]] == rule) {
+                        text.append('*');
+                    }
+                }
+                text.append('\n');
+            }
+        }
+
+        text.append("Outputs:\n");
+        for (int variable = 0; variable < outputs.length; variable++) {
+            if (outputs[variable]) {
+                text.append("  ").append(model.getVariableName(variable)).append(" = ")
+                    .append(format(outputValues[variable])).append(':');
+                for (int slot = model.getFirstSlot(variable); slot < model.getEndSlot(variable); slot++) {
+                    text.append(' ').append(model.getSetName(slot)).append(' ').append(format(confidences[slot]));
+                    if (winners[slot] >= 0) {
+                        text.append(" (rule ").append(winners[slot]).append(')');
+                    }
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Method returns the label of a set: the name of its variable and its own name.
+     * @param slot Slot of the set.
+     * @return Label of the set.
+     */
+    protected String setLabel(int slot) {
+        for (int variable = 0; variable < model.getVariableCount(); variable++) {
+            if (slot < model.getEndSlot(variable)) {
+                return model.getVariableName(variable) + "." + model.getSetName(slot);
+            }
+        }
+        return "#" + slot;
+    }
+
+    /**
+     * Method formats a number of the description.
+     * @param value Number to format.
+     * @return Formatted number.
+     */
+    protected static String format(double value) {
+        return String.format(Locale.ROOT, "%.4g", value);
+    }
+
+}
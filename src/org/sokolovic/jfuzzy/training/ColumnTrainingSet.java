@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.training;
+
+/**
+ * Class provides a data set held in memory, as one array of values per input and per target.
+ *
+ * @author sokolovic
+ */
+public class ColumnTrainingSet implements TrainingSet {
+
+    /**
+     * Input columns.
+     */
+    protected final double[][] inputColumns;
+
+    /**
+     * Target columns.
+     */
+    protected final double[][] targetColumns;
+
+    /**
+     * Number of records.
+     */
+    protected final int size;
+
+    /**
+     * Index of the next record to read.
+     */
+    protected int position;
+
+    /**
+     * Constructor to initialize the data set with the given columns. The columns are not copied.
+     * @param inputColumns Input columns, in the order of the handles of the input variables.
+     * @param targetColumns Target columns, in the order of the handles of the outputs.
+     * @throws IllegalArgumentException If the columns differ in length.
+     */
+    public ColumnTrainingSet(double[][] inputColumns, double[][] targetColumns) {
+        this.inputColumns = inputColumns;
+        this.targetColumns = targetColumns;
+        this.size = targetColumns.length > 0 ? targetColumns[0].length :
+                    inputColumns.length > 0 ? inputColumns[0].length : 0;
+
+        for (double[] column : inputColumns) {
+            if (column.length != size) {
+                throw new IllegalArgumentException("The columns of the data set differ in length");
+            }
+        }
+        for (double[] column : targetColumns) {
+            if (column.length != size) {
+                throw new IllegalArgumentException("The columns of the data set differ in length");
+            }
+        }
+    }
+
+    /**
+     * Getter to obtain the number of records.
+     * @return Number of records.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputColumns.length;
+    }
+
+    @Override
+    public int getTargetCount() {
+        return targetColumns.length;
+    }
+
+    @Override
+    public void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public int read(double[][] inputColumns, double[][] targetColumns, int length) {
+        int count = Math.min(length, size - position);
+
+        for (int i = 0; i < this.inputColumns.length; i++) {
+            System.arraycopy(this.inputColumns[i], position, inputColumns[i], 0, count);
+        }
+        for (int i = 0; i < this.targetColumns.length; i++) {
+            System.arraycopy(this.targetColumns[i], position, targetColumns[i], 0, count);
+        }
+        position += count;
+
+        return count;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.training;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Class streams a data set from a text file of comma separated values, one record per line: the input
+ * values followed by the target values. Empty lines and lines starting with {@code #} are skipped. Only
+ * the block of records being read is held in memory, so the file can be larger than the heap.
+ *
+ * @author sokolovic
+ */
+public class CsvTrainingSet implements TrainingSet, Closeable {
+
+    /**
+     * The file of the data set.
+     */
+    protected final File file;
+
+    /**
+     * Number of input values of each record.
+     */
+    protected final int inputCount;
+
+    /**
+     * Number of target values of each record.
+     */
+    protected final int targetCount;
+
+    /**
+     * Reader of the file, or {@code null} if the file is not open.
+     */
+    protected BufferedReader reader;
+
+    /**
+     * Number of the last line read.
+     */
+    protected int line;
+
+    /**
+     * Constructor to initialize the data set read from the given file.
+     * @param file File of the data set.
+     * @param inputCount Number of input values of each record.
+     * @param targetCount Number of target values of each record.
+     */
+    public CsvTrainingSet(File file, int inputCount, int targetCount) {
+        this.file = file;
+        this.inputCount = inputCount;
+        this.targetCount = targetCount;
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        close();
+    }
+
+    @Override
+    public int read(double[][] inputColumns, double[][] targetColumns, int length) throws IOException {
+        if (reader == null) {
+            reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+            line = 0;
+        }
+
+        int count = 0;
+        String text;
+        while (count < length && (text = reader.readLine()) != null) {
+            line++;
+            text = text.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = text.split(",");
+            if (fields.length != inputCount + targetCount) {
+                throw new IOException(file + ":" + line + ": expected " + (inputCount + targetCount) +
+                        " values, found " + fields.length);
+            }
+            try {
+                for (int i = 0; i < inputCount; i++) {
+                    inputColumns[i][count] = Double.parseDouble(fields[i]);
+                }
+                for (int i = 0; i < targetCount; i++) {
+                    targetColumns[i][count] = Double.parseDouble(fields[inputCount + i]);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw new IOException(file + ":" + line + ": invalid value", e);
+            }
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+}
@@ -0,0 +1,1513 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.training;
+
+import org.sokolovic.jfuzzy.FuzzyTerm;
+import org.sokolovic.jfuzzy.operator.*;
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.LeftShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
+import org.sokolovic.jfuzzy.set.RightShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.TriangularFuzzySet;
+import org.sokolovic.jfuzzy.sugeno.SugenoController;
+import org.sokolovic.jfuzzy.sugeno.SugenoRule;
+import org.sokolovic.jfuzzy.variable.FuzzyVariable;
+import org.sokolovic.jfuzzy.variable.MembershipTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class fits the parameters of a {@code SugenoController} to a data set, in the manner of an adaptive
+ * neuro-fuzzy inference system: the peaks and offsets of the triangular and shoulder sets of the input
+ * variables, optionally the weights of the rules, and the consequents of the rules. The parameters are
+ * fitted by gradient descent over mini-batches, minimizing the squared error of the outputs, with the
+ * step of each parameter adapted to its gradients (Adam). In hybrid mode the consequents are instead
+ * solved for by least squares at the start of every epoch, given the sets, and only the sets and the
+ * weights are fitted by gradient descent.
+ * <p>
+ * The data set is streamed one mini-batch at a time. Each mini-batch is split into chunks of
+ * {@code CHUNK_SIZE} records whose gradients are accumulated separately, in parallel if a pool is set,
+ * and then summed in the order of the chunks, so the results do not depend on the pool. The trainer
+ * works on its own copy of the parameters: the antecedents are lowered into a flat sequence of nodes
+ * that is evaluated and differentiated without touching the sets, and the controller is only changed
+ * by {@code apply()}.
+ * <p>
+ * The sets whose offsets are not positive and the sets of other types are kept as they are. The
+ * gradients of the minimum and maximum operators flow to the term that gives the minimum or maximum.
+ *
+ * @author sokolovic
+ */
+public class FuzzyTrainer {
+
+    /**
+     * Number of records of a chunk, the unit of work of the parallel accumulation.
+     */
+    public static final int CHUNK_SIZE = 64;
+
+    /**
+     * Default number of records of a mini-batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Default learning rate.
+     */
+    public static final double DEFAULT_LEARNING_RATE = 0.01;
+
+    /**
+     * Maximum number of consequent parameters of an output solved for by least squares, as each chunk
+     * accumulates a square matrix of that size.
+     */
+    public static final int MAX_LEAST_SQUARES_PARAMETERS = 2048;
+
+    /**
+     * Regularization of the least squares problem, pulling the consequents of the rules that rarely fire
+     * towards their current values.
+     */
+    protected static final double RIDGE = 1e-6;
+
+    /**
+     * Smallest fraction of its initial value an offset is kept at.
+     */
+    protected static final double MIN_OFFSET_RATIO = 0.01;
+
+    /**
+     * Decay rate of the mean of the gradients.
+     */
+    protected static final double BETA1 = 0.9;
+
+    /**
+     * Decay rate of the mean of the squared gradients.
+     */
+    protected static final double BETA2 = 0.999;
+
+    /**
+     * Term keeping the adapted step finite.
+     */
+    protected static final double EPSILON = 1e-8;
+
+    /**
+     * Node reading the degree of membership of a set.
+     */
+    protected static final int LEAF = 0;
+
+    /**
+     * Node of the AND operator.
+     */
+    protected static final int AND = 1;
+
+    /**
+     * Node of the OR operator.
+     */
+    protected static final int OR = 2;
+
+    /**
+     * Node of the NOT operator.
+     */
+    protected static final int NOT = 3;
+
+    /**
+     * Node of the VERY operator.
+     */
+    protected static final int VERY = 4;
+
+    /**
+     * Node of the FAIRLY operator.
+     */
+    protected static final int FAIRLY = 5;
+
+    /**
+     * Pass accumulating the gradients.
+     */
+    protected static final int GRADIENT = 0;
+
+    /**
+     * Pass accumulating the least squares problem of the consequents.
+     */
+    protected static final int LEAST_SQUARES = 1;
+
+    /**
+     * Pass accumulating the error only.
+     */
+    protected static final int ERROR = 2;
+
+    /**
+     * The controller being trained.
+     */
+    protected final SugenoController controller;
+
+    /**
+     * Number of inputs of the controller.
+     */
+    protected final int inputCount;
+
+    /**
+     * Number of outputs of the controller.
+     */
+    protected final int outputCount;
+
+    /**
+     * The member sets of the input variables, variable by variable.
+     */
+    protected FuzzySet[] sets;
+
+    /**
+     * Indices of the sets.
+     */
+    protected Map<FuzzySet, Integer> setIndices;
+
+    /**
+     * Names of the sets within their variables.
+     */
+    protected String[] setNames;
+
+    /**
+     * Handles of the input variables of the sets.
+     */
+    protected int[] setInputs;
+
+    /**
+     * Types of the sets, as in the {@code MembershipTable}.
+     */
+    protected int[] setTypes;
+
+    /**
+     * Whether the parameters of each set can be fitted.
+     */
+    protected boolean[] fittedSets;
+
+    /**
+     * Smallest values of the offsets of the sets, two per set.
+     */
+    protected double[] minOffsets;
+
+    /**
+     * Types of the nodes, children first.
+     */
+    protected int[] nodeTypes;
+
+    /**
+     * Set of each leaf, child of each unary node or offset of the children of each composite node.
+     */
+    protected int[] nodeArgs;
+
+    /**
+     * End of the children of each composite node.
+     */
+    protected int[] nodeEnds;
+
+    /**
+     * Children of the composite nodes.
+     */
+    protected int[] children;
+
+    /**
+     * Node of the antecedent of each rule.
+     */
+    protected int[] ruleNodes;
+
+    /**
+     * Handle of the output of each rule.
+     */
+    protected int[] ruleOutputs;
+
+    /**
+     * Offset of the consequent of each rule into the parameters, followed by the number of parameters:
+     * the constant followed by the coefficients.
+     */
+    protected int[] consequentOffsets;
+
+    /**
+     * The parameters: the peak, left and right offset of each set, the weight of each rule and the
+     * consequent of each rule.
+     */
+    protected double[] parameters;
+
+    /**
+     * Offset of the weights of the rules into the parameters.
+     */
+    protected int weightOffset;
+
+    /**
+     * Consequent parameters of each output, in the order of the rules.
+     */
+    protected int[][] outputParameters;
+
+    /**
+     * Index of each consequent parameter within the parameters of its output, -1 for other parameters.
+     */
+    protected int[] localIndices;
+
+    /**
+     * Mean of the gradients of each parameter.
+     */
+    protected double[] moments;
+
+    /**
+     * Mean of the squared gradients of each parameter.
+     */
+    protected double[] squaredMoments;
+
+    /**
+     * Number of steps taken.
+     */
+    protected long steps;
+
+    /**
+     * Whether the consequents are solved for by least squares.
+     */
+    protected boolean hybrid;
+
+    /**
+     * Whether the parameters of the sets are fitted.
+     */
+    protected boolean fittingSets;
+
+    /**
+     * Whether the weights of the rules are fitted.
+     */
+    protected boolean fittingWeights;
+
+    /**
+     * Learning rate of the gradient descent.
+     */
+    protected double learningRate;
+
+    /**
+     * Number of records of a mini-batch.
+     */
+    protected int batchSize;
+
+    /**
+     * Pool the chunks are accumulated in, or {@code null} to accumulate them on the calling thread.
+     */
+    protected ForkJoinPool pool;
+
+    /**
+     * Workspaces of the chunks of a mini-batch.
+     */
+    protected List<Workspace> workspaces;
+
+    /**
+     * Constructor to initialize the trainer of the given controller. The trainer takes a copy of the
+     * parameters of the controller; the controller must not change until they are applied back.
+     * @param controller Controller to train.
+     * @throws IllegalArgumentException If an antecedent refers to a set that is not a member of an input
+     *                                  variable, or contains a term of an unknown type.
+     */
+    public FuzzyTrainer(SugenoController controller) {
+        this.controller = controller;
+        this.inputCount = controller.getVariables().size();
+        this.outputCount = controller.getOutputs().size();
+        this.fittingSets = true;
+        this.fittingWeights = false;
+        this.hybrid = false;
+        this.learningRate = DEFAULT_LEARNING_RATE;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.workspaces = new ArrayList<Workspace>();
+
+        List<FuzzySet> sets = new ArrayList<FuzzySet>();
+        List<String> names = new ArrayList<String>();
+        List<Integer> inputs = new ArrayList<Integer>();
+        int input = 0;
+        for (FuzzyVariable variable : controller.getVariables().values()) {
+            for (Map.Entry<String, FuzzySet> member : variable.getMembers().entrySet()) {
+                sets.add(member.getValue());
+                names.add(member.getKey());
+                inputs.add(input);
+            }
+            input++;
+        }
+
+        int setCount = sets.size();
+        this.sets = sets.toArray(new FuzzySet[setCount]);
+        this.setNames = names.toArray(new String[setCount]);
+        this.setIndices = new IdentityHashMap<FuzzySet, Integer>();
+        this.setInputs = new int[setCount];
+        this.setTypes = new int[setCount];
+        this.fittedSets = new boolean[setCount];
+        this.minOffsets = new double[2 * setCount];
+
+        List<SugenoRule> rules = controller.getRules();
+        int consequentCount = 0;
+        for (SugenoRule rule : rules) {
+            consequentCount += 1 + rule.getCoefficients().length;
+        }
+        this.weightOffset = 3 * setCount;
+        this.parameters = new double[weightOffset + rules.size() + consequentCount];
+        this.moments = new double[parameters.length];
+        this.squaredMoments = new double[parameters.length];
+
+        MembershipTable table = new MembershipTable(this.sets, setCount);
+        for (int s = 0; s < setCount; s++) {
+            setIndices.put(this.sets[s], s);
+            setInputs[s] = inputs.get(s);
+            setTypes[s] = table.getType(s);
+
+            double[] shape = shapeOf(this.sets[s]);
+            if (shape != null) {
+                System.arraycopy(shape, 0, parameters, 3 * s, 3);
+                fittedSets[s] = shape[1] > 0.0 && shape[2] > 0.0;
+                minOffsets[2 * s] = shape[1] * MIN_OFFSET_RATIO;
+                minOffsets[2 * s + 1] = shape[2] * MIN_OFFSET_RATIO;
+            }
+        }
+
+        // Lower the antecedents into nodes, children first, sharing the nodes of shared terms
+        this.ruleNodes = new int[rules.size()];
+        this.ruleOutputs = new int[rules.size()];
+        this.consequentOffsets = new int[rules.size() + 1];
+        Map<FuzzyTerm, Integer> nodes = new IdentityHashMap<FuzzyTerm, Integer>();
+        List<int[]> tape = new ArrayList<int[]>();
+        List<Integer> childList = new ArrayList<Integer>();
+        consequentOffsets[0] = weightOffset + rules.size();
+        for (int r = 0; r < rules.size(); r++) {
+            SugenoRule rule = rules.get(r);
+            double[] coefficients = rule.getCoefficients();
+
+            ruleNodes[r] = lower(rule.getAntecedent(), nodes, tape, childList);
+            ruleOutputs[r] = rule.getOutput();
+            parameters[weightOffset + r] = rule.getWeight();
+            parameters[consequentOffsets[r]] = rule.getConstant();
+            System.arraycopy(coefficients, 0, parameters, consequentOffsets[r] + 1, coefficients.length);
+            consequentOffsets[r + 1] = consequentOffsets[r] + 1 + coefficients.length;
+        }
+        this.nodeTypes = new int[tape.size()];
+        this.nodeArgs = new int[tape.size()];
+        this.nodeEnds = new int[tape.size()];
+        for (int n = 0; n < tape.size(); n++) {
+            nodeTypes[n] = tape.get(n)[0];
+            nodeArgs[n] = tape.get(n)[1];
+            nodeEnds[n] = tape.get(n)[2];
+        }
+        this.children = new int[childList.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = childList.get(i);
+        }
+
+        // Number the consequent parameters of each output
+        this.localIndices = new int[parameters.length];
+        Arrays.fill(localIndices, -1);
+        int[] counts = new int[outputCount];
+        for (int r = 0; r < rules.size(); r++) {
+            for (int p = consequentOffsets[r]; p < consequentOffsets[r + 1]; p++) {
+                localIndices[p] = counts[ruleOutputs[r]]++;
+            }
+        }
+        this.outputParameters = new int[outputCount][];
+        for (int o = 0; o < outputCount; o++) {
+            outputParameters[o] = new int[counts[o]];
+        }
+        for (int p = 0; p < parameters.length; p++) {
+            if (localIndices[p] >= 0) {
+                outputParameters[ruleOutputs[ruleOf(p)]][localIndices[p]] = p;
+            }
+        }
+    }
+
+    /**
+     * Method returns the peak and the offsets of a set.
+     * @param set The set.
+     * @return The peak, left and right offset of the set, or {@code null} if the set is of another type.
+     */
+    protected static double[] shapeOf(FuzzySet set) {
+        if (set.getClass() == TriangularFuzzySet.class) {
+            TriangularFuzzySet triangle = (TriangularFuzzySet) set;
+            return new double[] { triangle.getPeak(), triangle.getLeftOffset(), triangle.getRightOffset() };
+        }
+        if (set.getClass() == LeftShoulderFuzzySet.class) {
+            LeftShoulderFuzzySet shoulder = (LeftShoulderFuzzySet) set;
+            return new double[] { shoulder.getPeak(), shoulder.getLeftOffset(), shoulder.getRightOffset() };
+        }
+        if (set.getClass() == RightShoulderFuzzySet.class) {
+            RightShoulderFuzzySet shoulder = (RightShoulderFuzzySet) set;
+            return new double[] { shoulder.getPeak(), shoulder.getLeftOffset(), shoulder.getRightOffset() };
+        }
+        return null;
+    }
+
+    /**
+     * Method lowers a term into nodes, its children first.
+     * @param term Term to lower.
+     * @param nodes Nodes of the terms lowered so far.
+     * @param tape The nodes, as their type, argument and end.
+     * @param childList The children of the composite nodes.
+     * @return Node of the term.
+     * @throws IllegalArgumentException If the term cannot be lowered.
+     */
+    protected int lower(FuzzyTerm term, Map<FuzzyTerm, Integer> nodes, List<int[]> tape, List<Integer> childList) {
+        Integer node = nodes.get(term);
+        if (node != null) {
+            return node;
+        }
+
+        int[] entry;
+        if (term instanceof ProxyFuzzySet) {
+            Integer set = setIndices.get(((ProxyFuzzySet) term).getSet());
+            if (set == null) {
+                throw new IllegalArgumentException("A rule refers to a fuzzy set that is not a member of any " +
+                        "input variable of the controller");
+            }
+            entry = new int[] { LEAF, set, 0 };
+        }
+        else if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            List<FuzzyTerm> terms = term instanceof FuzzyAnd ? ((FuzzyAnd) term).getTerms() :
+                                                             ((FuzzyOr) term).getTerms();
+            int[] lowered = new int[terms.size()];
+            for (int i = 0; i < lowered.length; i++) {
+                lowered[i] = lower(terms.get(i), nodes, tape, childList);
+            }
+            entry = new int[] { term instanceof FuzzyAnd ? AND : OR, childList.size(),
+                                childList.size() + lowered.length };
+            for (int child : lowered) {
+                childList.add(child);
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            entry = new int[] { NOT, lower(((FuzzyNot) term).getTerm(), nodes, tape, childList), 0 };
+        }
+        else if (term instanceof FuzzyVery) {
+            entry = new int[] { VERY, lower(((FuzzyVery) term).getTerm(), nodes, tape, childList), 0 };
+        }
+        else if (term instanceof FuzzyFairly) {
+            entry = new int[] { FAIRLY, lower(((FuzzyFairly) term).getTerm(), nodes, tape, childList), 0 };
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported fuzzy term: " + term.getClass().getName());
+        }
+
+        tape.add(entry);
+        nodes.put(term, tape.size() - 1);
+        return tape.size() - 1;
+    }
+
+    /**
+     * Method finds the rule a consequent parameter belongs to.
+     * @param parameter Index of the parameter.
+     * @return Index of the rule.
+     */
+    protected int ruleOf(int parameter) {
+        int rule = Arrays.binarySearch(consequentOffsets, parameter);
+
+        return rule >= 0 ? rule : -rule - 2;
+    }
+
+    /**
+     * Getter for the controller being trained.
+     * @return Controller.
+     */
+    public SugenoController getController() {
+        return this.controller;
+    }
+
+    /**
+     * Getter to check whether the consequents are solved for by least squares.
+     * @return {@code true} in hybrid mode.
+     */
+    public boolean isHybrid() {
+        return this.hybrid;
+    }
+
+    /**
+     * Setter to switch the hybrid mode on or off. In hybrid mode the consequents are solved for by least
+     * squares at the start of every epoch, otherwise they are fitted by gradient descent along with the
+     * other parameters.
+     * @param hybrid {@code true} to solve for the consequents by least squares.
+     * @throws IllegalArgumentException If an output has more than {@code MAX_LEAST_SQUARES_PARAMETERS}
+     *                                  consequent parameters.
+     */
+    public void setHybrid(boolean hybrid) {
+        for (int o = 0; hybrid && o < outputCount; o++) {
+            if (outputParameters[o].length > MAX_LEAST_SQUARES_PARAMETERS) {
+                throw new IllegalArgumentException("Output " + controller.getOutputs().get(o) + " has " +
+                        outputParameters[o].length + " consequent parameters, more than can be solved for");
+            }
+        }
+        this.hybrid = hybrid;
+    }
+
+    /**
+     * Getter to check whether the parameters of the sets are fitted.
+     * @return {@code true} if the peaks and offsets of the sets are fitted.
+     */
+    public boolean isFittingSets() {
+        return this.fittingSets;
+    }
+
+    /**
+     * Setter to fit the peaks and offsets of the sets or keep them as they are.
+     * @param fittingSets {@code true} to fit the sets.
+     */
+    public void setFittingSets(boolean fittingSets) {
+        this.fittingSets = fittingSets;
+    }
+
+    /**
+     * Getter to check whether the weights of the rules are fitted.
+     * @return {@code true} if the weights are fitted.
+     */
+    public boolean isFittingWeights() {
+        return this.fittingWeights;
+    }
+
+    /**
+     * Setter to fit the weights of the rules or keep them as they are, which is the default.
+     * @param fittingWeights {@code true} to fit the weights.
+     */
+    public void setFittingWeights(boolean fittingWeights) {
+        this.fittingWeights = fittingWeights;
+    }
+
+    /**
+     * Getter to obtain the learning rate.
+     * @return Learning rate.
+     */
+    public double getLearningRate() {
+        return this.learningRate;
+    }
+
+    /**
+     * Setter to set the learning rate, the largest step a parameter is moved by in a single step.
+     * @param learningRate Learning rate.
+     */
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    /**
+     * Getter to obtain the size of the mini-batches.
+     * @return Number of records of a mini-batch.
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Setter to set the size of the mini-batches.
+     * @param batchSize Number of records of a mini-batch.
+     * @throws IllegalArgumentException If the size is not positive.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Getter to obtain the pool the chunks are accumulated in.
+     * @return Pool of the trainer, or {@code null} if the chunks are accumulated on the calling thread.
+     */
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Setter to accumulate the chunks of each mini-batch across the workers of the given pool. The
+     * results are the same either way.
+     * @param pool Pool to accumulate the chunks in, or {@code null} to accumulate them on the calling
+     *             thread.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Method runs the given number of epochs of training.
+     * @param data Data set to train on.
+     * @param epochs Number of epochs.
+     * @return Mean squared error of the last epoch.
+     * @throws IOException If the data set cannot be read.
+     * @see #train(TrainingSet)
+     */
+    public double train(TrainingSet data, int epochs) throws IOException {
+        double error = Double.NaN;
+
+        for (int i = 0; i < epochs; i++) {
+            error = train(data);
+        }
+        return error;
+    }
+
+    /**
+     * Method runs an epoch of training: in hybrid mode a pass over the data set solving for the
+     * consequents, followed by a pass taking a step of gradient descent after each mini-batch.
+     * @param data Data set to train on.
+     * @return Mean squared error of the outputs over the epoch, each record measured before the step of
+     *         its mini-batch.
+     * @throws IOException If the data set cannot be read.
+     * @throws IllegalArgumentException If the data set does not match the controller.
+     */
+    public double train(TrainingSet data) throws IOException {
+        checkData(data);
+        if (hybrid) {
+            solveConsequents(data);
+        }
+
+        boolean[] fitted = new boolean[parameters.length];
+        for (int s = 0; s < sets.length; s++) {
+            fitted[3 * s] = fitted[3 * s + 1] = fitted[3 * s + 2] = fittingSets && fittedSets[s];
+        }
+        for (int r = 0; r < ruleNodes.length; r++) {
+            fitted[weightOffset + r] = fittingWeights;
+        }
+        for (int p = consequentOffsets[0]; p < parameters.length; p++) {
+            fitted[p] = !hybrid;
+        }
+
+        double[][] inputColumns = new double[inputCount][batchSize];
+        double[][] targetColumns = new double[outputCount][batchSize];
+        double[] gradient = new double[parameters.length];
+        double error = 0.0;
+        long records = 0;
+
+        data.rewind();
+        int count;
+        while ((count = data.read(inputColumns, targetColumns, batchSize)) > 0) {
+            int chunks = accumulate(GRADIENT, inputColumns, targetColumns, count);
+
+            Arrays.fill(gradient, 0.0);
+            for (int c = 0; c < chunks; c++) {
+                Workspace workspace = workspaces.get(c);
+                for (int p = 0; p < gradient.length; p++) {
+                    gradient[p] += workspace.gradient[p];
+                }
+                error += workspace.error;
+            }
+            step(gradient, fitted, count);
+            records += count;
+        }
+        return records == 0 ? 0.0 : error / (records * (double) outputCount);
+    }
+
+    /**
+     * Method calculates the mean squared error of the outputs over a data set, with the current
+     * parameters.
+     * @param data Data set to evaluate.
+     * @return Mean squared error of the outputs.
+     * @throws IOException If the data set cannot be read.
+     * @throws IllegalArgumentException If the data set does not match the controller.
+     */
+    public double evaluate(TrainingSet data) throws IOException {
+        checkData(data);
+
+        double[][] inputColumns = new double[inputCount][batchSize];
+        double[][] targetColumns = new double[outputCount][batchSize];
+        double error = 0.0;
+        long records = 0;
+
+        data.rewind();
+        int count;
+        while ((count = data.read(inputColumns, targetColumns, batchSize)) > 0) {
+            int chunks = accumulate(ERROR, inputColumns, targetColumns, count);
+            for (int c = 0; c < chunks; c++) {
+                error += workspaces.get(c).error;
+            }
+            records += count;
+        }
+        return records == 0 ? 0.0 : error / (records * (double) outputCount);
+    }
+
+    /**
+     * Method calculates the outputs of the controller for the given inputs with the current parameters.
+     * @param inputs Input values, in the order of the handles of the input variables.
+     * @param outputs Array to store the output values into, in the order of the handles of the outputs.
+     */
+    public void predict(double[] inputs, double[] outputs) {
+        Workspace workspace = new Workspace();
+
+        workspace.forward(inputs);
+        System.arraycopy(workspace.outputs, 0, outputs, 0, outputCount);
+    }
+
+    /**
+     * Method writes the fitted parameters back to the controller. The fitted sets replace the sets of
+     * the same names in the input variables and the rules are rebuilt with the new sets, weights and
+     * consequents, so the controller gives the outputs {@code predict()} does. Models created from the
+     * controller before are not changed.
+     */
+    public void apply() {
+        List<FuzzyVariable> variables = new ArrayList<FuzzyVariable>(controller.getVariables().values());
+        Map<FuzzySet, ProxyFuzzySet> replaced = new IdentityHashMap<FuzzySet, ProxyFuzzySet>();
+
+        for (int s = 0; s < sets.length; s++) {
+            if (!fittedSets[s]) {
+                continue;
+            }
+
+            double peak = parameters[3 * s];
+            double leftOffset = parameters[3 * s + 1];
+            double rightOffset = parameters[3 * s + 2];
+            FuzzySet set;
+            switch (setTypes[s]) {
+                case MembershipTable.TRIANGULAR:
+                    set = new TriangularFuzzySet(peak, leftOffset, rightOffset);
+                    break;
+                case MembershipTable.LEFT_SHOULDER:
+                    set = new LeftShoulderFuzzySet(peak, leftOffset, rightOffset);
+                    break;
+                default:
+                    set = new RightShoulderFuzzySet(peak, leftOffset, rightOffset);
+            }
+
+            FuzzyVariable variable = variables.get(setInputs[s]);
+            replaced.put(sets[s], variable.addFuzzySet(setNames[s], set));
+            variable.adjustRangeToFit(set.getSupportMin(), set.getSupportMax());
+            setIndices.remove(sets[s]);
+            setIndices.put(set, s);
+            sets[s] = set;
+        }
+
+        List<SugenoRule> rules = new ArrayList<SugenoRule>();
+        Map<FuzzyTerm, FuzzyTerm> rebuilt = new IdentityHashMap<FuzzyTerm, FuzzyTerm>();
+        for (int r = 0; r < ruleNodes.length; r++) {
+            SugenoRule rule = controller.getRules().get(r);
+            int offset = consequentOffsets[r];
+
+            rules.add(new SugenoRule(rebuild(rule.getAntecedent(), replaced, rebuilt), ruleOutputs[r],
+                    parameters[weightOffset + r], parameters[offset],
+                    Arrays.copyOfRange(parameters, offset + 1, consequentOffsets[r + 1])));
+        }
+        controller.setRules(rules);
+    }
+
+    /**
+     * Method rebuilds a term with the proxies of the replaced sets. The terms that refer to none of the
+     * replaced sets are kept, and a term shared by several rules is rebuilt once.
+     * @param term Term to rebuild.
+     * @param replaced Proxies of the new sets, keyed by the replaced sets.
+     * @param rebuilt Terms rebuilt so far.
+     * @return Rebuilt term.
+     */
+    protected FuzzyTerm rebuild(FuzzyTerm term, Map<FuzzySet, ProxyFuzzySet> replaced,
+                                Map<FuzzyTerm, FuzzyTerm> rebuilt) {
+        FuzzyTerm result = rebuilt.get(term);
+        if (result != null) {
+            return result;
+        }
+
+        if (term instanceof ProxyFuzzySet) {
+            ProxyFuzzySet proxy = replaced.get(((ProxyFuzzySet) term).getSet());
+            result = proxy == null ? term : proxy;
+        }
+        else if (term instanceof FuzzyAnd || term instanceof FuzzyOr) {
+            List<FuzzyTerm> terms = term instanceof FuzzyAnd ? ((FuzzyAnd) term).getTerms() :
+                                                             ((FuzzyOr) term).getTerms();
+            List<FuzzyTerm> rebuiltTerms = new ArrayList<FuzzyTerm>();
+            boolean changed = false;
+            for (FuzzyTerm child : terms) {
+                rebuiltTerms.add(rebuild(child, replaced, rebuilt));
+                changed |= rebuiltTerms.get(rebuiltTerms.size() - 1) != child;
+            }
+            if (!changed) {
+                result = term;
+            }
+            else if (term instanceof FuzzyAnd) {
+                FuzzyAnd and = new FuzzyAnd();
+                for (FuzzyTerm child : rebuiltTerms) {
+                    and.addTerm(child);
+                }
+                result = and;
+            }
+            else {
+                FuzzyOr or = new FuzzyOr();
+                for (FuzzyTerm child : rebuiltTerms) {
+                    or.addTerm(child);
+                }
+                result = or;
+            }
+        }
+        else if (term instanceof FuzzyNot) {
+            FuzzyTerm child = rebuild(((FuzzyNot) term).getTerm(), replaced, rebuilt);
+            result = child == ((FuzzyNot) term).getTerm() ? term : new FuzzyNot(child);
+        }
+        else if (term instanceof FuzzyVery) {
+            FuzzyTerm child = rebuild(((FuzzyVery) term).getTerm(), replaced, rebuilt);
+            result = child == ((FuzzyVery) term).getTerm() ? term : new FuzzyVery(child);
+        }
+        else {
+            FuzzyTerm child = rebuild(((FuzzyFairly) term).getTerm(), replaced, rebuilt);
+            result = child == ((FuzzyFairly) term).getTerm() ? term : new FuzzyFairly(child);
+        }
+
+        rebuilt.put(term, result);
+        return result;
+    }
+
+    /**
+     * Method checks that a data set matches the inputs and outputs of the controller.
+     * @param data Data set to check.
+     * @throws IllegalArgumentException If the data set does not match.
+     */
+    protected void checkData(TrainingSet data) {
+        if (data.getInputCount() != inputCount || data.getTargetCount() != outputCount) {
+            throw new IllegalArgumentException("The data set has " + data.getInputCount() + " inputs and " +
+                    data.getTargetCount() + " targets, but the controller has " + inputCount + " inputs and " +
+                    outputCount + " outputs");
+        }
+    }
+
+    /**
+     * Method solves for the consequents of the rules by least squares, given the current sets and
+     * weights. The problem of each output is accumulated over the whole data set and regularized towards
+     * the current consequents.
+     * @param data Data set to train on.
+     * @throws IOException If the data set cannot be read.
+     */
+    protected void solveConsequents(TrainingSet data) throws IOException {
+        double[][] inputColumns = new double[inputCount][batchSize];
+        double[][] targetColumns = new double[outputCount][batchSize];
+        for (Workspace workspace : workspaces) {
+            workspace.clearLeastSquares();
+        }
+
+        int chunks = 0;
+        data.rewind();
+        int count;
+        while ((count = data.read(inputColumns, targetColumns, batchSize)) > 0) {
+            chunks = Math.max(chunks, accumulate(LEAST_SQUARES, inputColumns, targetColumns, count));
+        }
+
+        for (int o = 0; o < outputCount; o++) {
+            int size = outputParameters[o].length;
+            double[] matrix = new double[size * size];
+            double[] vector = new double[size];
+            for (int c = 0; c < chunks; c++) {
+                Workspace workspace = workspaces.get(c);
+                for (int i = 0; i < matrix.length; i++) {
+                    matrix[i] += workspace.matrices[o][i];
+                }
+                for (int i = 0; i < size; i++) {
+                    vector[i] += workspace.vectors[o][i];
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                matrix[i * size + i] += RIDGE;
+                vector[i] += RIDGE * parameters[outputParameters[o][i]];
+                for (int j = 0; j < i; j++) {
+                    matrix[i * size + j] = matrix[j * size + i];
+                }
+            }
+
+            double[] solution = solve(matrix, vector, size);
+            for (int i = 0; i < size; i++) {
+                parameters[outputParameters[o][i]] = solution[i];
+            }
+        }
+    }
+
+    /**
+     * Method solves a symmetric positive definite system of linear equations by the Cholesky
+     * decomposition.
+     * @param matrix The matrix of the system, row by row, overwritten by its decomposition.
+     * @param vector The right hand side of the system.
+     * @param size Number of the equations.
+     * @return The solution.
+     * @throws IllegalStateException If the matrix is not positive definite.
+     */
+    protected static double[] solve(double[] matrix, double[] vector, int size) {
+        for (int j = 0; j < size; j++) {
+            double diagonal = matrix[j * size + j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= matrix[j * size + k] * matrix[j * size + k];
+            }
+            if (!(diagonal > 0.0)) {
+                throw new IllegalStateException("The least squares problem of the consequents is singular");
+            }
+            diagonal = Math.sqrt(diagonal);
+            matrix[j * size + j] = diagonal;
+
+            for (int i = j + 1; i < size; i++) {
+                double value = matrix[i * size + j];
+                for (int k = 0; k < j; k++) {
+                    value -= matrix[i * size + k] * matrix[j * size + k];
+                }
+                matrix[i * size + j] = value / diagonal;
+            }
+        }
+
+        double[] solution = Arrays.copyOf(vector, size);
+        for (int i = 0; i < size; i++) {
+            double value = solution[i];
+            for (int k = 0; k < i; k++) {
+                value -= matrix[i * size + k] * solution[k];
+            }
+            solution[i] = value / matrix[i * size + i];
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            double value = solution[i];
+            for (int k = i + 1; k < size; k++) {
+                value -= matrix[k * size + i] * solution[k];
+            }
+            solution[i] = value / matrix[i * size + i];
+        }
+        return solution;
+    }
+
+    /**
+     * Method runs a pass over a mini-batch, chunk by chunk, in the pool if one is set.
+     * @param pass Kind of the pass.
+     * @param inputColumns Input columns of the mini-batch.
+     * @param targetColumns Target columns of the mini-batch.
+     * @param count Number of records of the mini-batch.
+     * @return Number of chunks of the mini-batch.
+     */
+    protected int accumulate(int pass, double[][] inputColumns, double[][] targetColumns, int count) {
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        while (workspaces.size() < chunks) {
+            workspaces.add(new Workspace());
+        }
+        if (pool == null || chunks == 1) {
+            for (int c = 0; c < chunks; c++) {
+                workspaces.get(c).run(pass, inputColumns, targetColumns, c * CHUNK_SIZE,
+                        Math.min(count, (c + 1) * CHUNK_SIZE));
+            }
+        }
+        else {
+            pool.invoke(new ChunkTask(pass, inputColumns, targetColumns, count, 0, chunks));
+        }
+        return chunks;
+    }
+
+    /**
+     * Method takes a step of gradient descent, adapting the step of each parameter to the means of its
+     * gradients, and keeps the offsets and the weights within their bounds.
+     * @param gradient Sum of the gradients of the mini-batch.
+     * @param fitted Flags of the parameters to fit.
+     * @param count Number of records of the mini-batch.
+     */
+    protected void step(double[] gradient, boolean[] fitted, int count) {
+        steps++;
+        double correction1 = 1.0 - Math.pow(BETA1, steps);
+        double correction2 = 1.0 - Math.pow(BETA2, steps);
+
+        for (int p = 0; p < parameters.length; p++) {
+            if (!fitted[p]) {
+                continue;
+            }
+            double g = gradient[p] / count;
+            moments[p] = BETA1 * moments[p] + (1.0 - BETA1) * g;
+            squaredMoments[p] = BETA2 * squaredMoments[p] + (1.0 - BETA2) * g * g;
+            parameters[p] -= learningRate * (moments[p] / correction1) /
+                             (Math.sqrt(squaredMoments[p] / correction2) + EPSILON);
+        }
+
+        for (int s = 0; s < sets.length; s++) {
+            parameters[3 * s + 1] = Math.max(parameters[3 * s + 1], minOffsets[2 * s]);
+            parameters[3 * s + 2] = Math.max(parameters[3 * s + 2], minOffsets[2 * s + 1]);
+        }
+        for (int r = 0; r < ruleNodes.length; r++) {
+            parameters[weightOffset + r] = Math.max(parameters[weightOffset + r], 0.0);
+        }
+    }
+
+    /**
+     * Class holds the state of the pass over a chunk of records: the values and the gradients of the
+     * nodes of a record and the sums over the records of the chunk.
+     */
+    protected class Workspace {
+
+        /**
+         * Input values of the current record.
+         */
+        protected final double[] inputs;
+
+        /**
+         * Degrees of membership of the sets.
+         */
+        protected final double[] doms;
+
+        /**
+         * Gradients of the error with respect to the degrees of membership of the sets.
+         */
+        protected final double[] domGradients;
+
+        /**
+         * Values of the nodes.
+         */
+        protected final double[] values;
+
+        /**
+         * Gradients of the error with respect to the values of the nodes.
+         */
+        protected final double[] nodeGradients;
+
+        /**
+         * Firing strengths of the rules.
+         */
+        protected final double[] strengths;
+
+        /**
+         * Values of the consequents of the rules that fire.
+         */
+        protected final double[] consequents;
+
+        /**
+         * Sums of the consequents weighted by the firing strengths, per output.
+         */
+        protected final double[] tops;
+
+        /**
+         * Sums of the firing strengths, per output.
+         */
+        protected final double[] bottoms;
+
+        /**
+         * Values of the outputs.
+         */
+        protected final double[] outputs;
+
+        /**
+         * Sum of the gradients of the records of the chunk.
+         */
+        protected final double[] gradient;
+
+        /**
+         * Sum of the squared errors of the records of the chunk.
+         */
+        protected double error;
+
+        /**
+         * Upper triangles of the matrices of the least squares problems, per output.
+         */
+        protected double[][] matrices;
+
+        /**
+         * Right hand sides of the least squares problems, per output.
+         */
+        protected double[][] vectors;
+
+        /**
+         * Indices of the non-zero features of a record.
+         */
+        protected int[] featureIndices;
+
+        /**
+         * Values of the non-zero features of a record.
+         */
+        protected double[] featureValues;
+
+        /**
+         * Constructor to allocate the workspace.
+         */
+        protected Workspace() {
+            this.inputs = new double[inputCount];
+            this.doms = new double[sets.length];
+            this.domGradients = new double[sets.length];
+            this.values = new double[nodeTypes.length];
+            this.nodeGradients = new double[nodeTypes.length];
+            this.strengths = new double[ruleNodes.length];
+            this.consequents = new double[ruleNodes.length];
+            this.tops = new double[outputCount];
+            this.bottoms = new double[outputCount];
+            this.outputs = new double[outputCount];
+            this.gradient = new double[parameters.length];
+        }
+
+        /**
+         * Method clears the least squares problems, allocating them on first use.
+         */
+        protected void clearLeastSquares() {
+            if (matrices == null) {
+                matrices = new double[outputCount][];
+                vectors = new double[outputCount][];
+                int features = 0;
+                for (int o = 0; o < outputCount; o++) {
+                    matrices[o] = new double[outputParameters[o].length * outputParameters[o].length];
+                    vectors[o] = new double[outputParameters[o].length];
+                    features = Math.max(features, outputParameters[o].length);
+                }
+                featureIndices = new int[features];
+                featureValues = new double[features];
+                return;
+            }
+            for (int o = 0; o < outputCount; o++) {
+                Arrays.fill(matrices[o], 0.0);
+                Arrays.fill(vectors[o], 0.0);
+            }
+        }
+
+        /**
+         * Method runs a pass over the records of a chunk.
+         * @param pass Kind of the pass.
+         * @param inputColumns Input columns of the mini-batch.
+         * @param targetColumns Target columns of the mini-batch.
+         * @param from Index of the first record of the chunk.
+         * @param to Index past the last record of the chunk.
+         */
+        protected void run(int pass, double[][] inputColumns, double[][] targetColumns, int from, int to) {
+            if (pass == LEAST_SQUARES && matrices == null) {
+                clearLeastSquares();
+            }
+            if (pass == GRADIENT) {
+                Arrays.fill(gradient, 0.0);
+            }
+            error = 0.0;
+
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < inputCount; j++) {
+                    inputs[j] = inputColumns[j][i];
+                }
+                forward(inputs);
+
+                for (int o = 0; o < outputCount; o++) {
+                    double difference = outputs[o] - targetColumns[o][i];
+                    error += difference * difference;
+                }
+                if (pass == GRADIENT) {
+                    backward(targetColumns, i);
+                }
+                else if (pass == LEAST_SQUARES) {
+                    accumulateLeastSquares(targetColumns, i);
+                }
+            }
+        }
+
+        /**
+         * Method calculates the degrees of membership, the values of the nodes, the firing strengths and
+         * the outputs for a record.
+         * @param inputs Input values of the record.
+         */
+        protected void forward(double[] inputs) {
+            for (int s = 0; s < sets.length; s++) {
+                doms[s] = dom(s, inputs[setInputs[s]]);
+            }
+
+            for (int n = 0; n < nodeTypes.length; n++) {
+                double value;
+                switch (nodeTypes[n]) {
+                    case LEAF:
+                        value = doms[nodeArgs[n]];
+                        break;
+                    case AND:
+                        value = Double.MAX_VALUE;
+                        for (int i = nodeArgs[n]; i < nodeEnds[n]; i++) {
+                            if (values[children[i]] < value) {
+                                value = values[children[i]];
+                            }
+                        }
+                        break;
+                    case OR:
+                        value = Double.MIN_VALUE;
+                        for (int i = nodeArgs[n]; i < nodeEnds[n]; i++) {
+                            if (values[children[i]] > value) {
+                                value = values[children[i]];
+                            }
+                        }
+                        break;
+                    case NOT:
+                        value = 1 - values[nodeArgs[n]];
+                        break;
+                    case VERY:
+                        value = values[nodeArgs[n]] * values[nodeArgs[n]];
+                        break;
+                    default:
+                        value = Math.sqrt(values[nodeArgs[n]]);
+                }
+                values[n] = value;
+            }
+
+            Arrays.fill(tops, 0.0);
+            Arrays.fill(bottoms, 0.0);
+            for (int r = 0; r < ruleNodes.length; r++) {
+                double strength = values[ruleNodes[r]] * parameters[weightOffset + r];
+
+                strengths[r] = strength;
+                if (strength > 0.0) {
+                    double value = parameters[consequentOffsets[r]];
+                    for (int p = consequentOffsets[r] + 1; p < consequentOffsets[r + 1]; p++) {
+                        value += parameters[p] * inputs[p - consequentOffsets[r] - 1];
+                    }
+                    consequents[r] = value;
+                    bottoms[ruleOutputs[r]] += strength;
+                    tops[ruleOutputs[r]] += strength * value;
+                }
+            }
+            for (int o = 0; o < outputCount; o++) {
+                outputs[o] = bottoms[o] == 0.0 ? 0.0 : tops[o] / bottoms[o];
+            }
+        }
+
+        /**
+         * Method calculates the degree of membership of a value in a set, with the current parameters of
+         * the set.
+         * @param s Index of the set.
+         * @param value Value.
+         * @return Degree of membership.
+         */
+        protected double dom(int s, double value) {
+            if (!fittedSets[s]) {
+                return sets[s].calculateDom(value);
+            }
+
+            double peak = parameters[3 * s];
+            double leftOffset = parameters[3 * s + 1];
+            double rightOffset = parameters[3 * s + 2];
+            switch (setTypes[s]) {
+                case MembershipTable.TRIANGULAR:
+                    if (value <= peak && value >= peak - leftOffset) {
+                        return (1.0 / leftOffset) * (value - (peak - leftOffset));
+                    }
+                    if (value > peak && value < peak + rightOffset) {
+                        return (1.0 / -rightOffset) * (value - peak) + 1.0;
+                    }
+                    return 0.0;
+                case MembershipTable.LEFT_SHOULDER:
+                    if (value >= peak && value < peak + rightOffset) {
+                        return (1.0 / -rightOffset) * (value - peak) + 1.0;
+                    }
+                    return value < peak && value >= peak - leftOffset ? 1.0 : 0.0;
+                default:
+                    if (value <= peak && value > peak - leftOffset) {
+                        return (1.0 / leftOffset) * (value - (peak - leftOffset));
+                    }
+                    return value > peak && value <= peak + rightOffset ? 1.0 : 0.0;
+            }
+        }
+
+        /**
+         * Method propagates the error of a record back to the parameters and adds their gradients to the
+         * sum of the chunk.
+         * @param targetColumns Target columns of the mini-batch.
+         * @param record Index of the record.
+         */
+        protected void backward(double[][] targetColumns, int record) {
+            for (int r = 0; r < ruleNodes.length; r++) {
+                double strength = strengths[r];
+                int o = ruleOutputs[r];
+                if (!(strength > 0.0)) {
+                    continue;
+                }
+
+                double difference = outputs[o] - targetColumns[o][record];
+                double strengthGradient = difference * (consequents[r] - outputs[o]) / bottoms[o];
+                gradient[weightOffset + r] += strengthGradient * values[ruleNodes[r]];
+                nodeGradients[ruleNodes[r]] += strengthGradient * parameters[weightOffset + r];
+
+                double consequentGradient = difference * strength / bottoms[o];
+                gradient[consequentOffsets[r]] += consequentGradient;
+                for (int p = consequentOffsets[r] + 1; p < consequentOffsets[r + 1]; p++) {
+                    gradient[p] += consequentGradient * inputs[p - consequentOffsets[r] - 1];
+                }
+            }
+
+            // The nodes are numbered children first, so their gradients are complete in reverse order
+            for (int n = nodeTypes.length - 1; n >= 0; n--) {
+                double g = nodeGradients[n];
+                if (g == 0.0) {
+                    continue;
+                }
+                nodeGradients[n] = 0.0;
+
+                switch (nodeTypes[n]) {
+                    case LEAF:
+                        domGradients[nodeArgs[n]] += g;
+                        break;
+                    case AND:
+                    case OR:
+                        int selected = -1;
+                        double value = nodeTypes[n] == AND ? Double.MAX_VALUE : Double.MIN_VALUE;
+                        for (int i = nodeArgs[n]; i < nodeEnds[n]; i++) {
+                            double child = values[children[i]];
+                            if (nodeTypes[n] == AND ? child < value : child > value) {
+                                value = child;
+                                selected = children[i];
+                            }
+                        }
+                        if (selected >= 0) {
+                            nodeGradients[selected] += g;
+                        }
+                        break;
+                    case NOT:
+                        nodeGradients[nodeArgs[n]] -= g;
+                        break;
+                    case VERY:
+                        nodeGradients[nodeArgs[n]] += 2.0 * values[nodeArgs[n]] * g;
+                        break;
+                    default:
+                        if (values[n] > 0.0) {
+                            nodeGradients[nodeArgs[n]] += g / (2.0 * values[n]);
+                        }
+                }
+            }
+
+            for (int s = 0; s < sets.length; s++) {
+                double g = domGradients[s];
+                if (g == 0.0) {
+                    continue;
+                }
+                domGradients[s] = 0.0;
+                if (fittedSets[s]) {
+                    addSetGradient(s, inputs[setInputs[s]], g);
+                }
+            }
+        }
+
+        /**
+         * Method adds the gradients of the parameters of a set to the sum of the chunk. The degree of
+         * membership only depends on the peak and the offset of the edge the value falls on.
+         * @param s Index of the set.
+         * @param value Value the degree of membership was calculated for.
+         * @param g Gradient of the error with respect to the degree of membership.
+         */
+        protected void addSetGradient(int s, double value, double g) {
+            double peak = parameters[3 * s];
+            double leftOffset = parameters[3 * s + 1];
+            double rightOffset = parameters[3 * s + 2];
+            int type = setTypes[s];
+
+            boolean rising = type == MembershipTable.TRIANGULAR ? value <= peak && value >= peak - leftOffset :
+                             type == MembershipTable.RIGHT_SHOULDER && value <= peak && value > peak - leftOffset;
+            boolean falling = type == MembershipTable.TRIANGULAR ? value > peak && value < peak + rightOffset :
+                              type == MembershipTable.LEFT_SHOULDER && value >= peak && value < peak + rightOffset;
+            if (rising) {
+                gradient[3 * s] -= g / leftOffset;
+                gradient[3 * s + 1] += g * (peak - value) / (leftOffset * leftOffset);
+            }
+            else if (falling) {
+                gradient[3 * s] += g / rightOffset;
+                gradient[3 * s + 2] += g * (value - peak) / (rightOffset * rightOffset);
+            }
+        }
+
+        /**
+         * Method adds a record to the least squares problems of the outputs. The features of a record are
+         * the normalized firing strengths of the rules of an output, each followed by its products with
+         * the input values, so the output is their product with the consequent parameters.
+         * @param targetColumns Target columns of the mini-batch.
+         * @param record Index of the record.
+         */
+        protected void accumulateLeastSquares(double[][] targetColumns, int record) {
+            for (int o = 0; o < outputCount; o++) {
+                if (bottoms[o] == 0.0) {
+                    continue;
+                }
+
+                int features = 0;
+                for (int r = 0; r < ruleNodes.length; r++) {
+                    if (ruleOutputs[r] != o || !(strengths[r] > 0.0)) {
+                        continue;
+                    }
+                    double normalized = strengths[r] / bottoms[o];
+                    featureIndices[features] = localIndices[consequentOffsets[r]];
+                    featureValues[features++] = normalized;
+                    for (int p = consequentOffsets[r] + 1; p < consequentOffsets[r + 1]; p++) {
+                        featureIndices[features] = localIndices[p];
+                        featureValues[features++] = normalized * inputs[p - consequentOffsets[r] - 1];
+                    }
+                }
+
+                int size = outputParameters[o].length;
+                double[] matrix = matrices[o];
+                double[] vector = vectors[o];
+                double target = targetColumns[o][record];
+                for (int a = 0; a < features; a++) {
+                    int row = featureIndices[a] * size;
+                    double value = featureValues[a];
+                    for (int b = a; b < features; b++) {
+                        matrix[row + featureIndices[b]] += value * featureValues[b];
+                    }
+                    vector[featureIndices[a]] += value * target;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Class runs a pass over a range of the chunks of a mini-batch, splitting it in halves down to
+     * single chunks.
+     */
+    protected class ChunkTask extends RecursiveAction {
+
+        /**
+         * Version of the serialized form of the task.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Kind of the pass.
+         */
+        protected final int pass;
+
+        /**
+         * Input columns of the mini-batch.
+         */
+        protected final double[][] inputColumns;
+
+        /**
+         * Target columns of the mini-batch.
+         */
+        protected final double[][] targetColumns;
+
+        /**
+         * Number of records of the mini-batch.
+         */
+        protected final int count;
+
+        /**
+         * Index of the first chunk.
+         */
+        protected final int from;
+
+        /**
+         * Index past the last chunk.
+         */
+        protected final int to;
+
+        /**
+         * Constructor to initialize the task over the given chunks.
+         * @param pass Kind of the pass.
+         * @param inputColumns Input columns of the mini-batch.
+         * @param targetColumns Target columns of the mini-batch.
+         * @param count Number of records of the mini-batch.
+         * @param from Index of the first chunk.
+         * @param to Index past the last chunk.
+         */
+        protected ChunkTask(int pass, double[][] inputColumns, double[][] targetColumns, int count,
+                            int from, int to) {
+            this.pass = pass;
+            this.inputColumns = inputColumns;
+            this.targetColumns = targetColumns;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                workspaces.get(from).run(pass, inputColumns, targetColumns, from * CHUNK_SIZE,
+                        Math.min(count, (from + 1) * CHUNK_SIZE));
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new ChunkTask(pass, inputColumns, targetColumns, count, from, middle),
+                      new ChunkTask(pass, inputColumns, targetColumns, count, middle, to));
+        }
+    }
+
+}
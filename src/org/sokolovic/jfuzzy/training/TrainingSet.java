@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.training;
+
+import java.io.IOException;
+
+/**
+ * Interface of the data sets a {@code FuzzyTrainer} fits a controller to. The records are read in
+ * blocks, column-wise, so a data set can be streamed from a file instead of being held in memory, and
+ * are read again from the start on every pass over the data.
+ *
+ * @author sokolovic
+ */
+public interface TrainingSet {
+
+    /**
+     * Getter to obtain the number of input values of each record.
+     * @return Number of inputs, in the order of the handles of the input variables.
+     */
+    int getInputCount();
+
+    /**
+     * Getter to obtain the number of target values of each record.
+     * @return Number of targets, in the order of the handles of the outputs.
+     */
+    int getTargetCount();
+
+    /**
+     * Method moves back to the first record of the data set.
+     * @throws IOException If the data set cannot be read again.
+     */
+    void rewind() throws IOException;
+
+    /**
+     * Method reads the next block of records.
+     * @param inputColumns Arrays to store the input values into, one per input.
+     * @param targetColumns Arrays to store the target values into, one per target.
+     * @param length Maximum number of records to read.
+     * @return Number of records read, zero at the end of the data set.
+     * @throws IOException If the records cannot be read.
+     */
+    int read(double[][] inputColumns, double[][] targetColumns, int length) throws IOException;
+
+}
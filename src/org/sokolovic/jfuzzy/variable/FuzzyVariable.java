@@ -15,11 +15,19 @@
 
 package org.sokolovic.jfuzzy.variable;
 
+import org.sokolovic.jfuzzy.defuzzifier.Defuzzifier;
+import org.sokolovic.jfuzzy.defuzzifier.FuzzyAggregate;
+import org.sokolovic.jfuzzy.defuzzifier.WeightedAverageDefuzzifier;
+import org.sokolovic.jfuzzy.set.DirtySets;
 import org.sokolovic.jfuzzy.set.FuzzySet;
 import org.sokolovic.jfuzzy.set.ProxyFuzzySet;
 import org.sokolovic.jfuzzy.set.eFuzzySet;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Class models a fuzzy linguistic variable. A fuzzy linguistic variable is comprised of a
@@ -34,6 +42,57 @@ public class FuzzyVariable {
      */
     protected HashMap<String, FuzzySet> members;
 
+    /**
+     * Handles of the member sets keyed by their names.
+     */
+    protected HashMap<String, Integer> handles;
+
+    /**
+     * The member sets indexed by their handles.
+     */
+    protected FuzzySet[] sets;
+
+    /**
+     * Number of the member sets.
+     */
+    protected int size;
+
+    /**
+     * Index of the member sets by their supports. Built on the first fuzzification after a set is added.
+     */
+    protected SupportIndex index;
+
+    /**
+     * Membership functions of the member sets as parallel arrays. Built with the index.
+     */
+    protected MembershipTable table;
+
+    /**
+     * Record of the member sets given a non-zero degree of membership since the last fuzzification.
+     */
+    protected DirtySets dirtySets;
+
+    /**
+     * Strategy turning the degrees of membership of the member sets into a crisp value.
+     */
+    protected Defuzzifier defuzzifier;
+
+    /**
+     * Aggregate of the member sets. Built on the first defuzzification after a set is added or the
+     * range changes.
+     */
+    protected FuzzyAggregate aggregate;
+
+    /**
+     * Degrees of membership of the member sets, gathered for the defuzzifier.
+     */
+    protected double[] doms;
+
+    /**
+     * Workspace of the defuzzifier, allocated along with the aggregate.
+     */
+    protected double[] workspace;
+
     /**
      * The minimum value of the range of this variable.
      */
@@ -49,11 +108,80 @@ public class FuzzyVariable {
      * min and max range to zero value.
      */
     public FuzzyVariable() {
-        this.members = new HashMap<String, FuzzySet>();
+        this.members = new LinkedHashMap<String, FuzzySet>();
+        this.handles = new HashMap<String, Integer>();
+        this.sets = new FuzzySet[4];
+        this.size = 0;
+        this.index = null;
+        this.table = null;
+        this.dirtySets = new DirtySets();
+        this.defuzzifier = new WeightedAverageDefuzzifier();
+        this.aggregate = null;
         this.minRange = 0.0;
         this.maxRange = 0.0;
     }
 
+    /**
+     * Getter to obtain the fuzzy sets that comprise this variable.
+     * @return Unmodifiable map of the member sets keyed by their names, in the order of their handles.
+     */
+    public Map<String, FuzzySet> getMembers() {
+        return Collections.unmodifiableMap(members);
+    }
+
+    /**
+     * Method returns the handle of the named member set. Handles are assigned by {@code addFuzzySet()}
+     * in the order the sets are added, starting from zero, and stay the same for the lifetime of the
+     * variable.
+     * @param name Name of the member set.
+     * @return Handle of the set.
+     * @throws IllegalArgumentException If the variable has no member set with the given name.
+     */
+    public int getHandle(String name) {
+        Integer handle = handles.get(name);
+
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown fuzzy set: " + name);
+        }
+        return handle;
+    }
+
+    /**
+     * Getter to obtain the number of the member sets.
+     * @return Number of the member sets.
+     */
+    public int getSetCount() {
+        return this.size;
+    }
+
+    /**
+     * Getter to obtain the member set with the given handle.
+     * @param handle Handle of the set.
+     * @return Member set with the given handle.
+     */
+    public FuzzySet getSet(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IndexOutOfBoundsException("Invalid fuzzy set handle: " + handle);
+        }
+        return sets[handle];
+    }
+
+    /**
+     * Getter to obtain the minimum value of the range of this variable.
+     * @return The minimum value of the range.
+     */
+    public double getMinRange() {
+        return this.minRange;
+    }
+
+    /**
+     * Getter to obtain the maximum value of the range of this variable.
+     * @return The maximum value of the range.
+     */
+    public double getMaxRange() {
+        return this.maxRange;
+    }
+
     /**
      * Method is invoked with the upper and lower bound of a set each time a new set
      * is added to the variable in order to adjust the upper and lower range values
@@ -62,14 +190,15 @@ public class FuzzyVariable {
      * @param max Lower bound.
      */
     public void adjustRangeToFit(double min, double max) {
-        if (min < minRange) { minRange = min; }
-        if (max > maxRange) { maxRange = max; }
+        if (min < minRange) { minRange = min; aggregate = null; }
+        if (max > maxRange) { maxRange = max; aggregate = null; }
     }
 
     /**
      * This method adds an instance of the {@code FuzzySet} to the set map. Each time a new set is added
      * the {@code minRange} and {@code maxRange} are adjusted accordingly. Method performs by invoking the
-     * factory method for set instantiation on the more generic parameters.
+     * factory method for set instantiation on the more generic parameters. The set is assigned the next
+     * free handle, unless it replaces a set with the same name, whose handle it takes over.
      * @param name The name of the variable member.
      * @param type The type of the set that represents it.
      * @param minBound Minimum bound of the set to create.
@@ -78,42 +207,146 @@ public class FuzzyVariable {
      * @return An instance of the proxy set of the set added.
      */
     public ProxyFuzzySet addFuzzySet(String name, eFuzzySet type, double minBound, double peak, double maxBound) {
-        FuzzySet set = FuzzyVariableFactory.getFuzzyVariable(type, minBound, peak, maxBound);
-        members.put(name, set);
+        ProxyFuzzySet proxy = addFuzzySet(name, FuzzyVariableFactory.getFuzzyVariable(type, minBound, peak, maxBound));
         adjustRangeToFit(minBound, maxBound);
 
-        return new ProxyFuzzySet(members.get(name));
+        return proxy;
+    }
+
+    /**
+     * This method adds the given set to the set map. Unlike adding a set by its bounds, the range of the
+     * variable is left as it is; it can be widened with {@code adjustRangeToFit()}. The set is assigned
+     * the next free handle, unless it replaces a set with the same name, whose handle it takes over.
+     * @param name The name of the variable member.
+     * @param set The set that represents it.
+     * @return An instance of the proxy set of the set added.
+     */
+    public ProxyFuzzySet addFuzzySet(String name, FuzzySet set) {
+        Integer handle = handles.get(name);
+
+        if (handle == null) {
+            if (size == sets.length) {
+                sets = Arrays.copyOf(sets, size * 2);
+            }
+            handle = size++;
+            handles.put(name, handle);
+        }
+        else {
+            dirtySets.detach(sets[handle]);
+        }
+        sets[handle] = set;
+        dirtySets.attach(set);
+        members.put(name, set);
+        index = null;
+        table = null;
+        aggregate = null;
+
+        return new ProxyFuzzySet(set);
+    }
+
+    /**
+     * Getter to obtain the index of the member sets by their supports.
+     * @return Index of the member sets.
+     */
+    public SupportIndex getIndex() {
+        if (index == null) {
+            index = new SupportIndex(sets, size);
+        }
+        return index;
+    }
+
+    /**
+     * Getter to obtain the membership functions of the member sets as parallel arrays.
+     * @return Membership table of the member sets.
+     */
+    public MembershipTable getMembershipTable() {
+        if (table == null) {
+            table = new MembershipTable(sets, size);
+        }
+        return table;
+    }
+
+    /**
+     * Getter to obtain the defuzzifier of the variable.
+     * @return Defuzzifier of the variable.
+     */
+    public Defuzzifier getDefuzzifier() {
+        return this.defuzzifier;
+    }
+
+    /**
+     * Setter to set the strategy turning the degrees of membership of the member sets into a crisp
+     * value. The default one averages the representative values of the sets, weighted by their degrees
+     * of membership.
+     * @param defuzzifier Defuzzifier of the variable.
+     */
+    public void setDefuzzifier(Defuzzifier defuzzifier) {
+        if (defuzzifier == null) {
+            throw new IllegalArgumentException("The defuzzifier must not be null");
+        }
+        this.defuzzifier = defuzzifier;
+        this.workspace = null;
+    }
+
+    /**
+     * Getter to obtain the aggregate of the member sets.
+     * @return Aggregate of the member sets.
+     */
+    public FuzzyAggregate getAggregate() {
+        if (aggregate == null) {
+            aggregate = new FuzzyAggregate(sets, size, minRange, maxRange);
+            workspace = null;
+        }
+        return aggregate;
     }
 
     /**
-     * Fuzzify a value by calculating its degree of membership in each of this variable subsets.
+     * Fuzzify a value by calculating its degree of membership in each of this variable subsets. Only the
+     * sets whose support contains the value are calculated. The sets given a non-zero degree of
+     * membership since the last fuzzification, by it or by the rules, are recorded and zeroed first;
+     * all the others are already zero.
      * @param value
      */
     public void fuzzify(double value) {
-        // For each set calculate the degree of membership for the given value
-        for (FuzzySet current : members.values()) {
-            current.setDom(current.calculateDom(value));
+        SupportIndex index = getIndex();
+        MembershipTable table = getMembershipTable();
+        int region = index.regionOf(value);
+
+        if (region < 0 || !dirtySets.isComplete()) {
+            dirtySets.clear();
+            // For each set calculate the degree of membership for the given value
+            for (int i = 0; i < size; i++) {
+                sets[i].setDom(table.calculate(i, value));
+            }
+        }
+        else {
+            for (int i = 0; i < dirtySets.getCount(); i++) {
+                dirtySets.get(i).setDom(0.0);
+            }
+            dirtySets.clear();
+            for (int i = index.getStart(region); i < index.getEnd(region); i++) {
+                int candidate = index.getCandidate(i);
+                sets[candidate].setDom(table.calculate(candidate, value));
+            }
         }
     }
 
     /**
-     * Defuzzify the variable by averaging the maxima of the sets that have fired.
+     * Defuzzify the variable with its defuzzifier. The workspace of the defuzzifier is allocated on the
+     * first call after a change of the sets or the defuzzifier and reused afterwards.
      * @return Defuzzified value.
      */
     public double defuzzify() {
-        double bottom = 0.0;
-        double top = 0.0;
+        FuzzyAggregate aggregate = getAggregate();
 
-        for (FuzzySet current : members.values()) {
-            bottom += current.getDom();
-            top += current.getRepresentativeValue() * current.getDom();
+        if (workspace == null) {
+            workspace = new double[defuzzifier.getWorkspaceSize(aggregate)];
+            doms = new double[size];
         }
-        // Make sure bottom is not equal to zero
-        if (bottom == 0.0) {
-            return 0.0;
+        for (int i = 0; i < size; i++) {
+            doms[i] = sets[i].getDom();
         }
-
-        return top / bottom;
+        return defuzzifier.defuzzify(aggregate, doms, 0, workspace);
     }
 
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.variable;
+
+import org.sokolovic.jfuzzy.set.FuzzySet;
+import org.sokolovic.jfuzzy.set.LeftShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.RightShoulderFuzzySet;
+import org.sokolovic.jfuzzy.set.TriangularFuzzySet;
+
+/**
+ * Class holds the membership functions of the member sets of a variable as parallel primitive arrays:
+ * the type of each set, its peak, the bounds of its support and the slopes of its edges, with the
+ * reciprocals of the offsets worked out once rather than on every call. The degree of membership is
+ * then calculated without a virtual call or a division, and each type of set by a single expression
+ * whose conditions select between the values of the edges instead of branching to them.
+ * <p>
+ * The expressions perform the same floating point operations as {@code calculateDom()} of the sets,
+ * so the degrees of membership are identical to the last bit. Sets of other types, including the
+ * subclasses of the triangular and shoulder sets, are calculated by their own {@code calculateDom()}.
+ * The table is immutable and can be shared between threads.
+ *
+ * @author sokolovic
+ */
+public class MembershipTable {
+
+    /**
+     * Type of a {@code TriangularFuzzySet}.
+     */
+    public static final int TRIANGULAR = 0;
+
+    /**
+     * Type of a {@code LeftShoulderFuzzySet}.
+     */
+    public static final int LEFT_SHOULDER = 1;
+
+    /**
+     * Type of a {@code RightShoulderFuzzySet}.
+     */
+    public static final int RIGHT_SHOULDER = 2;
+
+    /**
+     * Type of the sets calculated by their own {@code calculateDom()}.
+     */
+    public static final int OTHER = 3;
+
+    /**
+     * The sets of the table, calculated directly if their type is {@code OTHER}.
+     */
+    protected final FuzzySet[] sets;
+
+    /**
+     * Types of the sets.
+     */
+    protected final int[] types;
+
+    /**
+     * Peaks of the sets.
+     */
+    protected final double[] peaks;
+
+    /**
+     * Starts of the rising edges, the peak less the left offset. The degree of membership of a value
+     * before the start or after the end of a set is zero.
+     */
+    protected final double[] starts;
+
+    /**
+     * Ends of the falling edges, the peak plus the right offset.
+     */
+    protected final double[] ends;
+
+    /**
+     * Slopes of the rising edges, the reciprocal of the left offset.
+     */
+    protected final double[] rises;
+
+    /**
+     * Slopes of the falling edges, the reciprocal of the negated right offset.
+     */
+    protected final double[] falls;
+
+    /**
+     * Whether a set with a zero offset is one at its peak.
+     */
+    protected final boolean[] pinned;
+
+    /**
+     * Constructor to build the table of the given sets.
+     * @param sets The sets.
+     * @param size Number of the sets, from the start of the array.
+     */
+    public MembershipTable(FuzzySet[] sets, int size) {
+        this.sets = new FuzzySet[size];
+        this.types = new int[size];
+        this.peaks = new double[size];
+        this.starts = new double[size];
+        this.ends = new double[size];
+        this.rises = new double[size];
+        this.falls = new double[size];
+        this.pinned = new boolean[size];
+
+        for (int i = 0; i < size; i++) {
+            double peak;
+            double leftOffset;
+            double rightOffset;
+            this.sets[i] = sets[i];
+
+            if (sets[i].getClass() == TriangularFuzzySet.class) {
+                TriangularFuzzySet set = (TriangularFuzzySet) sets[i];
+                types[i] = TRIANGULAR;
+                peak = set.getPeak();
+                leftOffset = set.getLeftOffset();
+                rightOffset = set.getRightOffset();
+            }
+            else if (sets[i].getClass() == LeftShoulderFuzzySet.class) {
+                LeftShoulderFuzzySet set = (LeftShoulderFuzzySet) sets[i];
+                types[i] = LEFT_SHOULDER;
+                peak = set.getPeak();
+                leftOffset = set.getLeftOffset();
+                rightOffset = set.getRightOffset();
+            }
+            else if (sets[i].getClass() == RightShoulderFuzzySet.class) {
+                RightShoulderFuzzySet set = (RightShoulderFuzzySet) sets[i];
+                types[i] = RIGHT_SHOULDER;
+                peak = set.getPeak();
+                leftOffset = set.getLeftOffset();
+                rightOffset = set.getRightOffset();
+            }
+            else {
+                // The support of other sets is unknown, so they are always calculated
+                types[i] = OTHER;
+                starts[i] = Double.NEGATIVE_INFINITY;
+                ends[i] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+
+            peaks[i] = peak;
+            starts[i] = peak - leftOffset;
+            ends[i] = peak + rightOffset;
+            rises[i] = 1.0 / leftOffset;
+            falls[i] = 1.0 / -rightOffset;
+            pinned[i] = rightOffset == 0.0 || leftOffset == 0.0;
+        }
+    }
+
+    /**
+     * Getter to obtain the number of sets of the table.
+     * @return Number of sets.
+     */
+    public int size() {
+        return sets.length;
+    }
+
+    /**
+     * Getter to obtain the type of a set.
+     * @param set Index of the set.
+     * @return Type of the set.
+     */
+    public int getType(int set) {
+        return types[set];
+    }
+
+    /**
+     * Method calculates the degree of membership of a value in a set.
+     * @param set Index of the set.
+     * @param value Value to calculate the degree of membership of.
+     * @return Degree of membership, the same as {@code calculateDom()} of the set returns.
+     */
+    public double calculate(int set, double value) {
+        double peak = peaks[set];
+        double dom;
+
+        if (value < starts[set] | value > ends[set]) {
+            return 0.0;
+        }
+        switch (types[set]) {
+            case TRIANGULAR:
+                dom = value <= peak & value >= starts[set] ? rises[set] * (value - starts[set]) :
+                      value > peak & value < ends[set] ? falls[set] * (value - peak) + 1.0 : 0.0;
+                break;
+            case LEFT_SHOULDER:
+                dom = value >= peak & value < ends[set] ? falls[set] * (value - peak) + 1.0 :
+                      value < peak & value >= starts[set] ? 1.0 : 0.0;
+                break;
+            case RIGHT_SHOULDER:
+                dom = value <= peak & value > starts[set] ? rises[set] * (value - starts[set]) :
+                      value > peak & value <= ends[set] ? 1.0 : 0.0;
+                break;
+            default:
+                return sets[set].calculateDom(value);
+        }
+        return pinned[set] & value == peak ? 1.0 : dom;
+    }
+
+    /**
+     * Method calculates the degrees of membership of a value in all the sets.
+     * @param value Value to calculate the degrees of membership of.
+     * @param doms Array to store the degrees of membership into, in the order of the sets.
+     * @param offset Position of the degree of membership of the first set in the array.
+     */
+    public void calculate(double value, double[] doms, int offset) {
+        for (int i = 0; i < sets.length; i++) {
+            doms[offset + i] = calculate(i, value);
+        }
+    }
+
+    /**
+     * Method calculates the degrees of membership of many values in a set. The parameters of the set
+     * are read once, so the loop over the values is kept tight.
+     * @param set Index of the set.
+     * @param values Values to calculate the degrees of membership of.
+     * @param from Index of the first value.
+     * @param length Number of values.
+     * @param doms Array to store the degrees of membership into, from its start.
+     */
+    public void calculate(int set, double[] values, int from, int length, double[] doms) {
+        double peak = peaks[set];
+        double start = starts[set];
+        double end = ends[set];
+        double rise = rises[set];
+        double fall = falls[set];
+        boolean pinned = this.pinned[set];
+
+        switch (types[set]) {
+            case TRIANGULAR:
+                for (int i = 0; i < length; i++) {
+                    double value = values[from + i];
+                    double dom = value <= peak & value >= start ? rise * (value - start) :
+                                 value > peak & value < end ? fall * (value - peak) + 1.0 : 0.0;
+                    doms[i] = pinned & value == peak ? 1.0 : dom;
+                }
+                break;
+            case LEFT_SHOULDER:
+                for (int i = 0; i < length; i++) {
+                    double value = values[from + i];
+                    double dom = value >= peak & value < end ? fall * (value - peak) + 1.0 :
+                                 value < peak & value >= start ? 1.0 : 0.0;
+                    doms[i] = pinned & value == peak ? 1.0 : dom;
+                }
+                break;
+            case RIGHT_SHOULDER:
+                for (int i = 0; i < length; i++) {
+                    double value = values[from + i];
+                    double dom = value <= peak & value > start ? rise * (value - start) :
+                                 value > peak & value <= end ? 1.0 : 0.0;
+                    doms[i] = pinned & value == peak ? 1.0 : dom;
+                }
+                break;
+            default:
+                for (int i = 0; i < length; i++) {
+                    doms[i] = sets[set].calculateDom(values[from + i]);
+                }
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Kemal Sokolović <kemal DOT sokolovic AT gmail DOT com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated
+ * documentation files (the "Software"), to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and
+ * to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of
+ * the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO
+ * THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.sokolovic.jfuzzy.variable;
+
+import org.sokolovic.jfuzzy.set.FuzzySet;
+
+import java.util.Arrays;
+
+/**
+ * Class indexes the member sets of a variable by their supports, so a value can be fuzzified by only
+ * calculating its degree of membership in the sets whose support contains it. The bounds of the supports
+ * split the axis into regions: the bounds themselves and the open intervals between them. For each region
+ * the index keeps the sets whose support intersects it; the degree of membership in any other set is zero
+ * for every value of the region. Finding the region of a value is a binary search over the sorted bounds.
+ * <p>
+ * The index is immutable and can be shared between threads.
+ *
+ * @author sokolovic
+ */
+public class SupportIndex {
+
+    /**
+     * The distinct finite bounds of the supports, sorted in ascending order.
+     */
+    protected final double[] bounds;
+
+    /**
+     * Offsets of the candidates of each region into the candidate array, with a final end offset.
+     */
+    protected final int[] offsets;
+
+    /**
+     * Indices of the candidate sets of all the regions, region by region, in ascending order.
+     */
+    protected final int[] candidates;
+
+    /**
+     * Constructor to build the index of the given sets.
+     * @param sets The sets to index.
+     * @param size Number of the sets to index, from the start of the array.
+     */
+    public SupportIndex(FuzzySet[] sets, int size) {
+        double[] mins = new double[size];
+        double[] maxs = new double[size];
+        double[] all = new double[2 * size];
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            // Adding zero turns a negative zero into a positive one, which the binary search tells apart
+            mins[i] = sets[i].getSupportMin() + 0.0;
+            maxs[i] = sets[i].getSupportMax() + 0.0;
+            // A support that cannot be told covers the whole axis
+            if (Double.isNaN(mins[i]) || Double.isNaN(maxs[i])) {
+                mins[i] = Double.NEGATIVE_INFINITY;
+                maxs[i] = Double.POSITIVE_INFINITY;
+            }
+            if (!Double.isInfinite(mins[i])) { all[count++] = mins[i]; }
+            if (!Double.isInfinite(maxs[i])) { all[count++] = maxs[i]; }
+        }
+
+        // Sort the bounds and remove the duplicates
+        Arrays.sort(all, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || all[i] != all[distinct - 1]) {
+                all[distinct++] = all[i];
+            }
+        }
+        this.bounds = Arrays.copyOf(all, distinct);
+
+        // Count the candidates of each region and turn the counts into offsets
+        int regions = 2 * distinct + 1;
+        this.offsets = new int[regions + 1];
+        for (int i = 0; i < size; i++) {
+            for (int r = regionOf(mins[i]); r <= regionOf(maxs[i]); r++) {
+                offsets[r + 1]++;
+            }
+        }
+        for (int r = 0; r < regions; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+
+        this.candidates = new int[offsets[regions]];
+        int[] next = Arrays.copyOf(offsets, regions);
+        for (int i = 0; i < size; i++) {
+            for (int r = regionOf(mins[i]); r <= regionOf(maxs[i]); r++) {
+                candidates[next[r]++] = i;
+            }
+        }
+    }
+
+    /**
+     * Method returns the region the given value falls into. Region {@code 2 * i + 1} is the i-th bound
+     * itself, region {@code 2 * i} is the open interval below it.
+     * @param value Value to find the region of.
+     * @return Region of the value, or -1 if the value is not a number.
+     */
+    public int regionOf(double value) {
+        if (value == Double.NEGATIVE_INFINITY) {
+            return 0;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            return 2 * bounds.length;
+        }
+        if (Double.isNaN(value)) {
+            return -1;
+        }
+
+        int index = Arrays.binarySearch(bounds, value + 0.0);
+
+        return index >= 0 ? 2 * index + 1 : 2 * (-index - 1);
+    }
+
+    /**
+     * Getter to obtain the offset of the first candidate of the given region.
+     * @param region Region of a value.
+     * @return Offset of the first candidate.
+     */
+    public int getStart(int region) {
+        return offsets[region];
+    }
+
+    /**
+     * Getter to obtain the offset past the last candidate of the given region.
+     * @param region Region of a value.
+     * @return Offset past the last candidate.
+     */
+    public int getEnd(int region) {
+        return offsets[region + 1];
+    }
+
+    /**
+     * Getter to obtain the index of the candidate set at the given offset.
+     * @param offset Offset of the candidate.
+     * @return Index of the candidate set.
+     */
+    public int getCandidate(int offset) {
+        return candidates[offset];
+    }
+
+}